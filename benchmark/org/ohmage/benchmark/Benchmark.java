@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.benchmark;
+
+/**
+ * <p>
+ * One operation whose speed is measured by the {@link BenchmarkRunner}. The
+ * operation is run many times in a row after {@link #setUp()} and must not
+ * change what the next run does.
+ * </p>
+ *
+ * <p>
+ * The operation returns what it computed so that the runner can consume it;
+ * otherwise, the JIT may remove the work entirely.
+ * </p>
+ */
+public abstract class Benchmark {
+	private final String name;
+
+	/**
+	 * Creates a benchmark.
+	 *
+	 * @param name The benchmark's name, which is its key in the baseline.
+	 */
+	protected Benchmark(final String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Returns the benchmark's name.
+	 *
+	 * @return The benchmark's name.
+	 */
+	public final String getName() {
+		return name;
+	}
+
+	/**
+	 * Builds the benchmark's fixtures. This is not measured.
+	 *
+	 * @throws Exception The fixtures could not be built.
+	 */
+	public void setUp() throws Exception {
+		// Most benchmarks build their fixtures when they are created.
+	}
+
+	/**
+	 * Runs the operation once.
+	 *
+	 * @return The operation's result.
+	 *
+	 * @throws Exception The operation failed, which fails the run.
+	 */
+	public abstract Object run() throws Exception;
+}
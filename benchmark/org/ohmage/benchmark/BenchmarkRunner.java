@@ -0,0 +1,275 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * <p>
+ * Runs the {@link HotPathBenchmarks} and compares them against a stored
+ * baseline. Each benchmark is warmed up and then timed over several rounds,
+ * and its median time per operation is used, as it is less disturbed by
+ * garbage collection and other processes than the mean.
+ * </p>
+ *
+ * <p>
+ * The run fails if any benchmark is slower than its baseline by more than
+ * the tolerance. Baselines only mean something on the machine that recorded
+ * them, so a missing baseline file is recorded rather than failing, and
+ * setting {@value #PROPERTY_RECORD} records a new one.
+ * </p>
+ *
+ * <p>
+ * Usage: {@code BenchmarkRunner <baseline file>}. The system properties
+ * below tune the run.
+ * </p>
+ */
+public final class BenchmarkRunner {
+	/**
+	 * Whether to record the results as the new baseline instead of
+	 * comparing them.
+	 */
+	public static final String PROPERTY_RECORD = "benchmark.record";
+
+	/**
+	 * How much slower than its baseline a benchmark may be, as a fraction.
+	 */
+	public static final String PROPERTY_TOLERANCE = "benchmark.tolerance";
+
+	/**
+	 * Only runs the benchmarks whose names start with this.
+	 */
+	public static final String PROPERTY_FILTER = "benchmark.filter";
+
+	private static final double DEFAULT_TOLERANCE = 0.25;
+
+	/**
+	 * The number of milliseconds for which each benchmark is run before it is
+	 * timed, so that it has been compiled.
+	 */
+	private static final long WARM_UP_MILLIS = 2000;
+
+	/**
+	 * The number of timed rounds.
+	 */
+	private static final int ROUNDS = 5;
+
+	/**
+	 * The number of milliseconds for which each round runs.
+	 */
+	private static final long ROUND_MILLIS = 1000;
+
+	private static final long NANOS_PER_MILLI = 1000 * 1000;
+
+	/**
+	 * Consumes the benchmarks' results so that they are not optimized away.
+	 */
+	private static volatile int sink;
+
+	/**
+	 * Default constructor. Made private so that it cannot be instantiated.
+	 */
+	private BenchmarkRunner() {}
+
+	/**
+	 * Runs the benchmarks.
+	 *
+	 * @param args The path to the baseline file.
+	 *
+	 * @throws Exception A benchmark could not be run.
+	 */
+	public static void main(final String[] args) throws Exception {
+		if(args.length != 1) {
+			System.err.println("Usage: BenchmarkRunner <baseline file>");
+			System.exit(2);
+		}
+
+		File baselineFile = new File(args[0]);
+		boolean record =
+			Boolean.getBoolean(PROPERTY_RECORD) || (! baselineFile.exists());
+		double tolerance = DEFAULT_TOLERANCE;
+		String toleranceString = System.getProperty(PROPERTY_TOLERANCE);
+		if((toleranceString != null) && (toleranceString.length() > 0)) {
+			tolerance = Double.parseDouble(toleranceString);
+		}
+		String filter = System.getProperty(PROPERTY_FILTER, "");
+
+		Properties baseline = new Properties();
+		if(baselineFile.exists()) {
+			InputStream input = new FileInputStream(baselineFile);
+			try {
+				baseline.load(input);
+			}
+			finally {
+				input.close();
+			}
+		}
+
+		Properties results = new Properties();
+		List<String> regressions = new LinkedList<String>();
+
+		System.out.println(
+			String.format(
+				"%-45s %14s %14s %9s",
+				"Benchmark",
+				"ns/op",
+				"Baseline",
+				"Change"));
+		for(Benchmark benchmark : HotPathBenchmarks.getBenchmarks()) {
+			if(! benchmark.getName().startsWith(filter)) {
+				continue;
+			}
+
+			benchmark.setUp();
+			double result = measure(benchmark);
+			results.setProperty(benchmark.getName(), Double.toString(result));
+
+			String baselineString = baseline.getProperty(benchmark.getName());
+			if(baselineString == null) {
+				System.out.println(
+					String.format(
+						"%-45s %14.1f %14s %9s",
+						benchmark.getName(),
+						result,
+						"-",
+						"-"));
+				continue;
+			}
+
+			double baselineResult = Double.parseDouble(baselineString);
+			double change = (result - baselineResult) / baselineResult;
+			System.out.println(
+				String.format(
+					"%-45s %14.1f %14.1f %+8.1f%%",
+					benchmark.getName(),
+					result,
+					baselineResult,
+					change * 100));
+
+			if(change > tolerance) {
+				regressions.add(benchmark.getName());
+			}
+		}
+
+		if(record) {
+			// Keep the baselines of the benchmarks that were filtered out.
+			for(String name : baseline.stringPropertyNames()) {
+				if(! results.containsKey(name)) {
+					results.setProperty(name, baseline.getProperty(name));
+				}
+			}
+
+			File parent = baselineFile.getAbsoluteFile().getParentFile();
+			if((parent != null) && (! parent.exists()) && (! parent.mkdirs())) {
+				throw new IOException(
+					"The baseline's directory could not be created: " + parent);
+			}
+			OutputStream output = new FileOutputStream(baselineFile);
+			try {
+				results.store(
+					output,
+					"Benchmark baseline in nanoseconds per operation.");
+			}
+			finally {
+				output.close();
+			}
+			System.out.println("Recorded the baseline: " + baselineFile);
+		}
+		else if(! regressions.isEmpty()) {
+			System.err.println(
+				"These benchmarks are more than " +
+					Math.round(tolerance * 100) +
+					"% slower than their baseline: " +
+					regressions);
+			System.exit(1);
+		}
+
+		System.exit(0);
+	}
+
+	/**
+	 * Warms up a benchmark and then times it.
+	 *
+	 * @param benchmark The benchmark.
+	 *
+	 * @return The median number of nanoseconds per operation over the
+	 * 		   rounds.
+	 *
+	 * @throws Exception The benchmark failed.
+	 */
+	private static double measure(final Benchmark benchmark) throws Exception {
+		runFor(benchmark, WARM_UP_MILLIS);
+
+		double[] rounds = new double[ROUNDS];
+		for(int i = 0; i < ROUNDS; i++) {
+			rounds[i] = runFor(benchmark, ROUND_MILLIS);
+		}
+		Arrays.sort(rounds);
+
+		return rounds[ROUNDS / 2];
+	}
+
+	/**
+	 * Runs a benchmark repeatedly for about some length of time. The clock
+	 * is only read between batches, whose size doubles until a batch takes
+	 * long enough for reading it not to matter.
+	 *
+	 * @param benchmark The benchmark.
+	 *
+	 * @param millis The number of milliseconds to run it for.
+	 *
+	 * @return The number of nanoseconds per operation.
+	 *
+	 * @throws Exception The benchmark failed.
+	 */
+	private static double runFor(
+			final Benchmark benchmark,
+			final long millis)
+			throws Exception {
+
+		long operations = 0;
+		long batch = 1;
+		long start = System.nanoTime();
+		long end = start + millis * NANOS_PER_MILLI;
+		long now;
+		do {
+			int hash = 0;
+			for(long i = 0; i < batch; i++) {
+				Object result = benchmark.run();
+				hash += (result == null) ? 0 : System.identityHashCode(result);
+			}
+			sink += hash;
+			operations += batch;
+
+			now = System.nanoTime();
+			if(now - start < NANOS_PER_MILLI) {
+				batch *= 2;
+			}
+		}
+		while(now < end);
+
+		return (double) (now - start) / operations;
+	}
+}
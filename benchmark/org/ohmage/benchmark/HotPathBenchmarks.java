@@ -0,0 +1,356 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.json.JSONObject;
+import org.ohmage.cache.UserBin;
+import org.ohmage.domain.Observer;
+import org.ohmage.domain.User;
+import org.ohmage.domain.campaign.Campaign;
+import org.ohmage.domain.campaign.SurveyResponse;
+import org.ohmage.request.RequestBuilder;
+import org.ohmage.util.StringUtils;
+
+import edu.ucla.cens.mobilityclassifier.AccessPoint;
+import edu.ucla.cens.mobilityclassifier.MobilityClassifier;
+import edu.ucla.cens.mobilityclassifier.Sample;
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * The server's hot paths, each with in-memory fixtures so that they can be
+ * run without a database or servlet container.
+ */
+public final class HotPathBenchmarks {
+	private static final String CAMPAIGN_ID = "urn:campaign:ohmage:benchmark";
+	private static final String USERNAME = "benchmark.user";
+	private static final String CLIENT = "benchmark";
+
+	/**
+	 * The context path of the fake servlet context.
+	 */
+	private static final String CONTEXT_PATH = "/app";
+
+	/**
+	 * The number of users in the user bin while it is looked up.
+	 */
+	private static final int NUMBER_OF_USERS = 1000;
+
+	/**
+	 * The number of accelerometer samples in a mobility point, which is a
+	 * few seconds of data from a phone.
+	 */
+	private static final int NUMBER_OF_SAMPLES = 128;
+
+	/**
+	 * The number of access points in a WiFi scan.
+	 */
+	private static final int NUMBER_OF_ACCESS_POINTS = 12;
+
+	/**
+	 * Default constructor. Made private so that it cannot be instantiated.
+	 */
+	private HotPathBenchmarks() {}
+
+	/**
+	 * Returns every benchmark.
+	 *
+	 * @return Every benchmark.
+	 */
+	public static List<Benchmark> getBenchmarks() {
+		List<Benchmark> result = new LinkedList<Benchmark>();
+
+		result.add(new Benchmark("observer.stream.validateData") {
+			private Observer.Stream stream;
+			private JsonNode data;
+
+			@Override
+			public void setUp() throws Exception {
+				stream =
+					new Observer.Stream(
+						"mobility",
+						1,
+						"Mobility",
+						"The mode of transportation.",
+						true,
+						true,
+						true,
+						"{\"type\":\"object\",\"fields\":[" +
+							"{\"name\":\"mode\",\"type\":\"string\"}," +
+							"{\"name\":\"speed\",\"type\":\"number\"}," +
+							"{\"name\":\"accuracy\",\"type\":\"number\"," +
+								"\"optional\":true}]}");
+				data =
+					new ObjectMapper().readTree(
+						"{\"mode\":\"walk\",\"speed\":1.4,\"accuracy\":10}");
+			}
+
+			@Override
+			public Object run() throws Exception {
+				return stream.validateData(data);
+			}
+		});
+
+		result.add(new Benchmark("campaign.fromXml") {
+			private String xml;
+
+			@Override
+			public void setUp() throws Exception {
+				xml = readResource("campaign.xml");
+			}
+
+			@Override
+			public Object run() throws Exception {
+				return createCampaign(xml);
+			}
+		});
+
+		result.add(new Benchmark("surveyResponse.toJson") {
+			private SurveyResponse surveyResponse;
+
+			@Override
+			public void setUp() throws Exception {
+				surveyResponse =
+					new SurveyResponse(
+						USERNAME,
+						CAMPAIGN_ID,
+						CLIENT,
+						createCampaign(readResource("campaign.xml")),
+						new JSONObject(readResource("survey_response.json")),
+						false);
+			}
+
+			@Override
+			public Object run() throws Exception {
+				return
+					surveyResponse.toJson(
+						true, true, true, true, true, true, true, true, true,
+						true, true, true, true, true, false, true, false);
+			}
+		});
+
+		result.add(new Benchmark("stringUtils.decodeDate.iso8601") {
+			@Override
+			public Object run() {
+				return StringUtils.decodeDate("2012-10-12");
+			}
+		});
+
+		result.add(new Benchmark("stringUtils.decodeDateTime.iso8601") {
+			@Override
+			public Object run() {
+				return StringUtils.decodeDateTime("2012-10-12 14:35:02");
+			}
+		});
+
+		result.add(new Benchmark("requestBuilder.buildRequest.unknownUri") {
+			private RequestBuilder requestBuilder;
+			private HttpServletRequest httpRequest;
+
+			@Override
+			public void setUp() {
+				requestBuilder = new RequestBuilder();
+				requestBuilder.setServletContext(
+					fake(
+						ServletContext.class,
+						"getContextPath",
+						CONTEXT_PATH));
+
+				// An unknown URI is compared against every known one.
+				httpRequest =
+					fake(
+						HttpServletRequest.class,
+						"getRequestURI",
+						CONTEXT_PATH + "/unknown");
+			}
+
+			@Override
+			public Object run() throws Exception {
+				return requestBuilder.buildRequest(httpRequest);
+			}
+		});
+
+		result.add(new Benchmark("userBin.getUser") {
+			private final List<String> tokens = new ArrayList<String>();
+			private int next = 0;
+
+			@Override
+			public void setUp() throws Exception {
+				for(int i = 0; i < NUMBER_OF_USERS; i++) {
+					tokens.add(
+						UserBin.addUser(
+							new User(USERNAME + i, "password", false)));
+				}
+				Collections.shuffle(tokens);
+			}
+
+			@Override
+			public Object run() {
+				next = (next + 1) % tokens.size();
+				return UserBin.getUser(tokens.get(next));
+			}
+		});
+
+		result.add(new Benchmark("mobility.classify") {
+			private final MobilityClassifier classifier =
+				new MobilityClassifier();
+			private final List<Sample> samples = new ArrayList<Sample>();
+			private WifiScan wifiScan;
+			private final List<WifiScan> previousWifiScans =
+				new ArrayList<WifiScan>();
+
+			@Override
+			public void setUp() {
+				// A walking-like swing on each axis.
+				for(int i = 0; i < NUMBER_OF_SAMPLES; i++) {
+					double phase = i * Math.PI / 16;
+					samples.add(
+						new Sample(
+							Math.sin(phase) * 2,
+							9.8 + Math.cos(phase) * 3,
+							Math.sin(phase / 2)));
+				}
+
+				long time = 1350000000000L;
+				for(int scan = 0; scan < 3; scan++) {
+					List<AccessPoint> accessPoints =
+						new ArrayList<AccessPoint>();
+					for(int i = 0; i < NUMBER_OF_ACCESS_POINTS; i++) {
+						accessPoints.add(
+							new AccessPoint(
+								String.format("00:11:22:33:44:%02x", i + scan),
+								-40 - i * 5));
+					}
+					WifiScan current =
+						new WifiScan(time + scan * 60 * 1000, accessPoints);
+					if(scan < 2) {
+						previousWifiScans.add(current);
+					}
+					else {
+						wifiScan = current;
+					}
+				}
+			}
+
+			@Override
+			public Object run() {
+				return
+					classifier.classify(
+						samples,
+						1.4,
+						wifiScan,
+						previousWifiScans,
+						null);
+			}
+		});
+
+		return result;
+	}
+
+	/**
+	 * Creates a campaign from its XML as the campaign queries do.
+	 */
+	private static Campaign createCampaign(final String xml) throws Exception {
+		return
+			new Campaign(
+				CAMPAIGN_ID,
+				"Benchmark",
+				null,
+				Campaign.RunningState.RUNNING,
+				Campaign.PrivacyState.SHARED,
+				new Date(1350000000000L),
+				xml,
+				false);
+	}
+
+	/**
+	 * Reads a fixture next to this class.
+	 */
+	private static String readResource(final String name) throws IOException {
+		InputStream input = HotPathBenchmarks.class.getResourceAsStream(name);
+		if(input == null) {
+			throw new IOException("The fixture is missing: " + name);
+		}
+
+		try {
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+			byte[] chunk = new byte[4096];
+			int amountRead;
+			while((amountRead = input.read(chunk)) != -1) {
+				result.write(chunk, 0, amountRead);
+			}
+			return result.toString("UTF-8");
+		}
+		finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Creates an implementation of a servlet interface that answers one
+	 * method and returns null, false, or 0 from all of the others.
+	 */
+	private static <T> T fake(
+			final Class<T> type,
+			final String methodName,
+			final Object value) {
+
+		return type.cast(
+			Proxy.newProxyInstance(
+				HotPathBenchmarks.class.getClassLoader(),
+				new Class<?>[] { type },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(
+							final Object proxy,
+							final Method method,
+							final Object[] args) {
+
+						if(method.getName().equals(methodName)) {
+							return value;
+						}
+
+						Class<?> returnType = method.getReturnType();
+						if(returnType.equals(boolean.class)) {
+							return false;
+						}
+						else if(returnType.equals(int.class)) {
+							return 0;
+						}
+						else if(returnType.equals(long.class)) {
+							return 0L;
+						}
+						return null;
+					}
+				}));
+	}
+}
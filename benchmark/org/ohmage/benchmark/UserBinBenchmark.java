@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ohmage.cache.UserBin;
+import org.ohmage.domain.User;
+import org.ohmage.exception.DomainException;
+
+/**
+ * <p>
+ * Measures the throughput of the {@link UserBin} when it is hammered by many
+ * threads at once, the way it is by Tomcat's request threads. Each thread
+ * mostly looks up tokens, as every authenticated request does, and
+ * occasionally logs in, logs out, or has all of a user's tokens revoked.
+ * </p>
+ *
+ * <p>
+ * By default, it runs 200 threads, which is Tomcat's default maximum number
+ * of request threads. It is run by "ant benchmark-userbin" or from the
+ * command line:
+ * </p>
+ *
+ * <pre>
+ * java org.ohmage.benchmark.UserBinBenchmark [threads] [seconds] [users]
+ * </pre>
+ */
+public final class UserBinBenchmark {
+	private static final int DEFAULT_THREADS = 200;
+	private static final int DEFAULT_SECONDS = 10;
+	private static final int DEFAULT_USERS = 10000;
+
+	// Out of every 1000 operations, how many are of each kind. The rest are
+	// lookups.
+	private static final int PER_MILLE_LOGIN = 20;
+	private static final int PER_MILLE_LOGOUT = 10;
+	private static final int PER_MILLE_REVOKE = 1;
+
+	/**
+	 * Default constructor made private to prevent instantiation.
+	 */
+	private UserBinBenchmark() {}
+
+	/**
+	 * Runs the benchmark and prints the results.
+	 *
+	 * @param args The optional number of threads, number of seconds, and
+	 * 			   number of distinct users.
+	 *
+	 * @throws DomainException The users could not be created.
+	 *
+	 * @throws InterruptedException The run was interrupted.
+	 */
+	public static void main(final String[] args)
+			throws DomainException, InterruptedException {
+
+		final int threads =
+			(args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_THREADS;
+		final int seconds =
+			(args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_SECONDS;
+		final int users =
+			(args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_USERS;
+
+		// Log everyone in once so that the lookups have something to find.
+		final String[] tokens = new String[users];
+		for(int i = 0; i < users; i++) {
+			tokens[i] = UserBin.addUser(newUser(i));
+		}
+
+		final AtomicLong lookups = new AtomicLong(0);
+		final AtomicLong writes = new AtomicLong(0);
+		final AtomicLong maxLookupNanos = new AtomicLong(0);
+		final CountDownLatch start = new CountDownLatch(1);
+		final long end =
+			System.currentTimeMillis() + (seconds * 1000L);
+
+		List<Thread> workers = new ArrayList<Thread>(threads);
+		for(int t = 0; t < threads; t++) {
+			final long seed = t;
+			Thread worker = new Thread() {
+				@Override
+				public void run() {
+					Random random = new Random(seed);
+					try {
+						start.await();
+
+						long localLookups = 0;
+						long localWrites = 0;
+						long localMax = 0;
+						while(System.currentTimeMillis() < end) {
+							int user = random.nextInt(users);
+							int operation = random.nextInt(1000);
+
+							if(operation < PER_MILLE_LOGIN) {
+								tokens[user] =
+									UserBin.addUser(newUser(user));
+								localWrites++;
+							}
+							else if(operation <
+									PER_MILLE_LOGIN + PER_MILLE_LOGOUT) {
+
+								String token = tokens[user];
+								if(token != null) {
+									UserBin.expireUser(token);
+								}
+								localWrites++;
+							}
+							else if(operation <
+									PER_MILLE_LOGIN +
+									PER_MILLE_LOGOUT +
+									PER_MILLE_REVOKE) {
+
+								UserBin.removeUser(getUsername(user));
+								localWrites++;
+							}
+							else {
+								long before = System.nanoTime();
+								UserBin.getUser(tokens[user]);
+								long elapsed = System.nanoTime() - before;
+								if(elapsed > localMax) {
+									localMax = elapsed;
+								}
+								localLookups++;
+							}
+						}
+
+						lookups.addAndGet(localLookups);
+						writes.addAndGet(localWrites);
+
+						long currMax;
+						do {
+							currMax = maxLookupNanos.get();
+						} while(
+							(localMax > currMax) &&
+							(! maxLookupNanos.compareAndSet(
+								currMax,
+								localMax)));
+					}
+					catch(InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					catch(DomainException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			};
+			workers.add(worker);
+			worker.start();
+		}
+
+		start.countDown();
+		for(Thread worker : workers) {
+			worker.join();
+		}
+
+		long total = lookups.get() + writes.get();
+		System.out.println("Threads:            " + threads);
+		System.out.println("Seconds:            " + seconds);
+		System.out.println("Users:              " + users);
+		System.out.println("Lookups:            " + lookups.get());
+		System.out.println("Writes:             " + writes.get());
+		System.out.println("Operations/second:  " + (total / seconds));
+		System.out.println(
+			"Max lookup (us):    " + (maxLookupNanos.get() / 1000));
+
+		System.exit(0);
+	}
+
+	/**
+	 * Returns the username for the i'th user.
+	 *
+	 * @param i The user's index.
+	 *
+	 * @return The user's username.
+	 */
+	private static String getUsername(final int i) {
+		return "benchmark.user." + i;
+	}
+
+	/**
+	 * Creates the i'th user.
+	 *
+	 * @param i The user's index.
+	 *
+	 * @return The user.
+	 *
+	 * @throws DomainException The user could not be created.
+	 */
+	private static User newUser(final int i) throws DomainException {
+		return new User(getUsername(i), "password", false);
+	}
+}
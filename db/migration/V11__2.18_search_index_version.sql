@@ -0,0 +1,14 @@
+-- ----------------------------------------------------------------------
+-- A version stamp for the values in the search indices. Every server
+-- keeps trigram indices over the users, classes, and campaigns in memory
+-- and compares this stamp to the one it indexed to know when another
+-- server has created, updated, or deleted one of them. It is incremented
+-- in the same transactions that make those changes.
+-- ----------------------------------------------------------------------
+CREATE TABLE IF NOT EXISTS search_index_version (
+  id tinyint unsigned NOT NULL,
+  version bigint unsigned NOT NULL DEFAULT 0,
+  PRIMARY KEY (id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+INSERT IGNORE INTO search_index_version (id, version) VALUES (1, 0);
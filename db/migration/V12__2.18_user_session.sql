@@ -0,0 +1,15 @@
+-- ----------------------------------------------------------------------
+-- The table to store authentication tokens when the JdbcSessionStore is
+-- used, so that they survive restarts and are shared between instances.
+-- ----------------------------------------------------------------------
+CREATE TABLE IF NOT EXISTS user_session (
+  token CHAR(36) NOT NULL,
+  user_id int unsigned NOT NULL,
+  password varchar(60) NOT NULL,
+  hash_password bit NOT NULL,
+  last_access_timestamp bigint NOT NULL,
+  PRIMARY KEY (token),
+  INDEX (user_id),
+  INDEX (last_access_timestamp),
+  CONSTRAINT FOREIGN KEY (user_id) REFERENCES user (id) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
@@ -0,0 +1,34 @@
+-- ----------------------------------------------------------------------
+-- The content-addressed store for document and media contents. Each file
+-- is stored once, keyed by the SHA-256 hash of its contents, and counts
+-- the document and url_based_resource rows that point to it.
+-- ----------------------------------------------------------------------
+CREATE TABLE IF NOT EXISTS content_blob (
+  id int unsigned NOT NULL auto_increment,
+  hash CHAR(64) NOT NULL,
+  url text NOT NULL,
+  size bigint unsigned NOT NULL,
+  reference_count int unsigned NOT NULL,
+  creation_timestamp timestamp DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (id),
+  UNIQUE (hash)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- The hash of the stored contents or NULL if the row has its own file.
+ALTER TABLE document
+    ADD COLUMN `content_hash` CHAR(64) DEFAULT NULL,
+    ADD INDEX (`content_hash`);
+
+ALTER TABLE url_based_resource
+    ADD COLUMN `content_hash` CHAR(64) DEFAULT NULL,
+    ADD INDEX (`content_hash`);
+
+-- The store is off by default. When it is turned on, only new uploads are
+-- stored by their hash.
+INSERT INTO preference (p_key, p_value) VALUES 
+  ('content_addressed_storage_enabled', 'false')
+    ON DUPLICATE KEY UPDATE p_value=p_value;
+
+INSERT INTO preference (p_key, p_value) VALUES 
+  ('content_directory', '${base_dir}/content')
+    ON DUPLICATE KEY UPDATE p_value=p_value;
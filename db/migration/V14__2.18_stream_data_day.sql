@@ -0,0 +1,35 @@
+-- ----------------------------------------------------------------------
+-- The days on which each user has data in each stream. A day is the 
+-- adjusted time, i.e. the time in the point's own time zone, divided by 
+-- the number of milliseconds in a day. The time and time zone of the first
+-- point seen for the day are kept so that the day can be reported in the
+-- user's time zone. This is maintained as data is uploaded, so calendar 
+-- views don't need to scan the data itself.
+-- ----------------------------------------------------------------------
+CREATE TABLE IF NOT EXISTS observer_stream_data_day (
+  user_id int unsigned NOT NULL,
+  observer_stream_link_id int unsigned NOT NULL,
+  day int NOT NULL,
+  time bigint(20) NOT NULL,
+  time_zone varchar(32) NOT NULL,
+  PRIMARY KEY (user_id, observer_stream_link_id, day),
+  KEY observer_stream_data_day_key_observer_stream_link_id (observer_stream_link_id),
+  CONSTRAINT observer_stream_data_day_foreign_key_user_id 
+    FOREIGN KEY (user_id) 
+    REFERENCES user (id) 
+    ON DELETE CASCADE ON UPDATE CASCADE,
+  CONSTRAINT observer_stream_data_day_foreign_key_observer_stream_link_id 
+    FOREIGN KEY (observer_stream_link_id) 
+    REFERENCES observer_stream_link (id) 
+    ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- Index the data that has already been uploaded.
+INSERT IGNORE INTO observer_stream_data_day 
+    (user_id, observer_stream_link_id, day, time, time_zone)
+  SELECT user_id, observer_stream_link_id, 
+      time_adjusted DIV 86400000, time, time_zone
+    FROM observer_stream_data
+    WHERE time_adjusted IS NOT NULL
+    AND time IS NOT NULL
+    AND time_zone IS NOT NULL;
@@ -0,0 +1,20 @@
+-- ----------------------------------------------------------------------
+-- The outgoing mail that has not yet been sent. Requests only add the
+-- complete message here and a background dispatcher sends it, so a slow
+-- or unreachable mail server never holds up a request. Messages are
+-- deleted once they have been sent. Messages that keep failing are
+-- retried with an increasing delay and, after too many attempts, are
+-- marked as failed and kept for an administrator to inspect.
+-- ----------------------------------------------------------------------
+CREATE TABLE IF NOT EXISTS mail_outbox (
+  id int unsigned NOT NULL auto_increment,
+  recipient text NOT NULL,
+  message mediumblob NOT NULL,
+  attempts int unsigned NOT NULL DEFAULT 0,
+  next_attempt_timestamp datetime NOT NULL,
+  last_error text DEFAULT NULL,
+  failed boolean NOT NULL DEFAULT false,
+  creation_timestamp timestamp DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (id),
+  KEY mail_outbox_key_next_attempt (failed, next_attempt_timestamp)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
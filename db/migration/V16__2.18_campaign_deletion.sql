@@ -0,0 +1,76 @@
+-- ----------------------------------------------------------------------
+-- Campaigns are deleted in the background. Deleting the campaign's row
+-- makes it disappear immediately, but its survey responses are removed
+-- afterwards in small batches, so that a large campaign doesn't lock the
+-- tables for minutes in one enormous cascade. To allow this, survey 
+-- responses no longer cascade from their campaign; every read of survey
+-- responses joins with the campaign table, so the responses of a deleted
+-- campaign are never seen, and uploading one of them again removes it.
+-- ----------------------------------------------------------------------
+SET @survey_response_campaign_fk = (
+  SELECT constraint_name
+    FROM information_schema.key_column_usage
+    WHERE table_schema = DATABASE()
+    AND table_name = 'survey_response'
+    AND column_name = 'campaign_id'
+    AND referenced_table_name = 'campaign'
+    LIMIT 1);
+SET @drop_survey_response_campaign_fk = IF(
+  @survey_response_campaign_fk IS NULL,
+  'SELECT 1',
+  CONCAT(
+    'ALTER TABLE survey_response DROP FOREIGN KEY ', 
+    @survey_response_campaign_fk));
+PREPARE drop_survey_response_campaign_fk 
+  FROM @drop_survey_response_campaign_fk;
+EXECUTE drop_survey_response_campaign_fk;
+DEALLOCATE PREPARE drop_survey_response_campaign_fk;
+
+-- The campaign deletions. The campaign_id is the deleted campaign's old
+-- ID, which the survey responses still reference until they are removed.
+CREATE TABLE IF NOT EXISTS campaign_deletion (
+  id int unsigned NOT NULL auto_increment,
+  uuid CHAR(36) NOT NULL,
+  campaign_id int unsigned NOT NULL,
+  campaign_urn varchar(255) NOT NULL,
+  requester varchar(25) NOT NULL,
+  state varchar(16) NOT NULL,
+  total_survey_responses int unsigned NOT NULL,
+  deleted_survey_responses int unsigned NOT NULL DEFAULT 0,
+  creation_timestamp datetime NOT NULL,
+  completion_timestamp datetime DEFAULT NULL,
+  PRIMARY KEY (id),
+  UNIQUE (uuid),
+  KEY campaign_deletion_key_campaign_urn (campaign_urn),
+  KEY campaign_deletion_key_state (state)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- The media files whose rows have been removed but which have not yet been
+-- deleted from the disk or released from the content-addressed store.
+CREATE TABLE IF NOT EXISTS media_garbage (
+  id int unsigned NOT NULL auto_increment,
+  campaign_deletion_id int unsigned DEFAULT NULL,
+  url text NOT NULL,
+  content_hash CHAR(64) DEFAULT NULL,
+  photo boolean NOT NULL,
+  PRIMARY KEY (id),
+  KEY media_garbage_key_campaign_deletion_id (campaign_deletion_id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- The sequence from which new campaigns take their IDs. A deleted
+-- campaign's survey responses keep its ID until they are removed in the
+-- background, but before MySQL 8.0 InnoDB recomputes a table's
+-- AUTO_INCREMENT counter from its largest remaining ID on every restart,
+-- so a new campaign could be given that ID, inherit those responses, and
+-- then have them and its own deleted along with them. The sequence only
+-- ever advances, so no ID is used twice.
+CREATE TABLE IF NOT EXISTS campaign_id_sequence (
+  id int unsigned NOT NULL
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+INSERT INTO campaign_id_sequence (id)
+  SELECT GREATEST(
+    COALESCE((SELECT MAX(id) FROM campaign), 0),
+    COALESCE((SELECT MAX(campaign_id) FROM campaign_deletion), 0))
+  FROM DUAL
+  WHERE NOT EXISTS (SELECT 1 FROM campaign_id_sequence);
@@ -0,0 +1,36 @@
+-- ----------------------------------------------------------------------
+-- The number of survey responses in each campaign, by user, survey, and
+-- privacy state, along with when the most recent one was uploaded. It is
+-- kept up-to-date in the same transactions that upload, update, and
+-- delete survey responses, so campaign listings can count a campaign's
+-- responses without scanning the survey_response table. The user is kept
+-- so that the counts can still be limited to the responses the requester
+-- may see.
+-- ----------------------------------------------------------------------
+CREATE TABLE IF NOT EXISTS campaign_response_stats (
+  campaign_id int unsigned NOT NULL,
+  user_id int unsigned NOT NULL,
+  survey_id varchar(250) NOT NULL,
+  privacy_state_id int unsigned NOT NULL,
+  response_count int NOT NULL DEFAULT 0,
+  last_upload_timestamp datetime NOT NULL,
+  PRIMARY KEY (campaign_id, user_id, survey_id, privacy_state_id),
+  KEY campaign_response_stats_key_user_id (user_id),
+  CONSTRAINT FOREIGN KEY (campaign_id) REFERENCES campaign (id) ON DELETE CASCADE ON UPDATE CASCADE,
+  CONSTRAINT FOREIGN KEY (user_id) REFERENCES user (id) ON DELETE CASCADE ON UPDATE CASCADE,
+  CONSTRAINT FOREIGN KEY (privacy_state_id) REFERENCES survey_response_privacy_state (id) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- Count the existing survey responses, ignoring those of campaigns that
+-- are being deleted.
+INSERT INTO campaign_response_stats (
+    campaign_id, user_id, survey_id, privacy_state_id,
+    response_count, last_upload_timestamp)
+  SELECT sr.campaign_id, sr.user_id, sr.survey_id, sr.privacy_state_id,
+      COUNT(*), MAX(sr.upload_timestamp)
+    FROM survey_response sr
+      JOIN campaign c ON c.id = sr.campaign_id
+    GROUP BY sr.campaign_id, sr.user_id, sr.survey_id, sr.privacy_state_id
+  ON DUPLICATE KEY UPDATE
+    response_count = VALUES(response_count),
+    last_upload_timestamp = VALUES(last_upload_timestamp);
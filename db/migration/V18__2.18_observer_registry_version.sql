@@ -0,0 +1,14 @@
+-- ----------------------------------------------------------------------
+-- A version stamp for the observer definitions. Every server keeps the
+-- observers and their streams in memory and compares this stamp to the
+-- one it loaded to know when another server has created or updated an
+-- observer. It is incremented in the same transactions that create and
+-- update observers.
+-- ----------------------------------------------------------------------
+CREATE TABLE IF NOT EXISTS observer_registry_version (
+  id tinyint unsigned NOT NULL,
+  version bigint unsigned NOT NULL DEFAULT 0,
+  PRIMARY KEY (id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+INSERT IGNORE INTO observer_registry_version (id, version) VALUES (1, 0);
@@ -0,0 +1,13 @@
+-- ----------------------------------------------------------------------
+-- A version number for each campaign's survey responses. It is advanced
+-- in the same transactions that keep campaign_response_stats current,
+-- i.e. whenever a response is uploaded, updated, has its privacy state
+-- changed, or is deleted, so anything derived from a campaign's responses
+-- can be cached under it.
+-- ----------------------------------------------------------------------
+CREATE TABLE IF NOT EXISTS campaign_response_version (
+  campaign_id int unsigned NOT NULL,
+  version bigint unsigned NOT NULL DEFAULT 0,
+  PRIMARY KEY (campaign_id),
+  CONSTRAINT FOREIGN KEY (campaign_id) REFERENCES campaign (id) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
@@ -114,6 +114,7 @@ public class Annotator {
 		SURVEY_INVALID_SURVEY_PROMPT_MAP ("0630"),
 		SURVEY_DUPLICATE_MEDIA_UUIDS ("0631"), // when media or document uuids are duplicate
 		SURVEY_UPLOAD_INVALID_ARGUMENTS ("0632"),
+		SURVEY_INVALID_INCLUDE_ANNOTATIONS_VALUE ("0633"),
 
 		CAMPAIGN_INVALID_ID ("0700"),
 		CAMPAIGN_INVALID_NAME ("0701"),
@@ -240,7 +241,9 @@ public class Annotator {
 		
 		MEDIA_INVALID_ID ("1900"),
 		MEDIA_NOT_FOUND ("1901"), 
-		MEDIA_INVALID_DATA ("1902");
+		MEDIA_INVALID_DATA ("1902"),
+		
+		METRICS_INVALID_OUTPUT_FORMAT ("2000");
 		
 		private final String value;
 		
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.ohmage.domain.UserPrivileges;
+
+/**
+ * <p>
+ * A request-scoped memo of users' privileges. A single request may check the
+ * same user's admin flag and roles many times across different services, so
+ * the privileges are loaded once, on first use, and reused for the rest of
+ * the request.
+ * </p>
+ *
+ * <p>
+ * A context is bound to the thread that is servicing the request by
+ * {@link #open()} and must be released by {@link #close()}. Threads without a
+ * context, e.g. background tasks, simply get no memoization.
+ * </p>
+ */
+public final class AuthorizationContext {
+	/**
+	 * The context bound to the current thread.
+	 */
+	private static final ThreadLocal<AuthorizationContext> CONTEXT =
+		new ThreadLocal<AuthorizationContext>();
+
+	/**
+	 * The privileges that have been loaded during this request keyed by
+	 * username.
+	 */
+	private final Map<String, UserPrivileges> privileges =
+		new HashMap<String, UserPrivileges>();
+
+	/**
+	 * Contexts may only be created via {@link #open()}.
+	 */
+	private AuthorizationContext() {
+		// Do nothing.
+	}
+
+	/**
+	 * Binds a new, empty context to the current thread, replacing any
+	 * context that was already bound.
+	 */
+	public static void open() {
+		CONTEXT.set(new AuthorizationContext());
+	}
+
+	/**
+	 * Releases the context bound to the current thread, if any.
+	 */
+	public static void close() {
+		CONTEXT.remove();
+	}
+
+	/**
+	 * Returns the context bound to the current thread.
+	 *
+	 * @return The current context or null if no context is bound.
+	 */
+	public static AuthorizationContext current() {
+		return CONTEXT.get();
+	}
+
+	/**
+	 * Forgets every user's privileges in the current thread's context, if
+	 * any. This must be called whenever a user's admin flag or roles may
+	 * have changed.
+	 */
+	public static void invalidate() {
+		AuthorizationContext context = CONTEXT.get();
+		if(context != null) {
+			context.privileges.clear();
+		}
+	}
+
+	/**
+	 * Returns the privileges that were previously stored for a user.
+	 *
+	 * @param username The user's username.
+	 *
+	 * @return The user's privileges or null if they have not been loaded
+	 * 		   during this request.
+	 */
+	public UserPrivileges get(final String username) {
+		return privileges.get(username);
+	}
+
+	/**
+	 * Stores a user's privileges for the rest of the request.
+	 *
+	 * @param userPrivileges The user's privileges.
+	 */
+	public void put(final UserPrivileges userPrivileges) {
+		privileges.put(userPrivileges.getUsername(), userPrivileges);
+	}
+}
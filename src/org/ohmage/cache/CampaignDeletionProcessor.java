@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import org.apache.log4j.Logger;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.service.CampaignDeletionServices;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * <p>
+ * A background process that finishes deleting campaigns by removing their
+ * survey responses and media files. It starts as soon as it is told that a
+ * campaign has been deleted and otherwise checks periodically, so deletions
+ * that were interrupted by a restart are resumed.
+ * </p>
+ */
+public final class CampaignDeletionProcessor implements DisposableBean {
+	/**
+	 * <p>
+	 * The task that does the deleting, which always runs as long as the
+	 * processor is running.
+	 * </p>
+	 */
+	private static final class Deleter
+			extends Thread
+			implements CampaignDeletionServices.Running {
+
+		/**
+		 * Whether or not this process should continue running.
+		 */
+		private volatile boolean running = true;
+
+		/**
+		 * Creates the deleter.
+		 */
+		private Deleter() {
+			super("Campaign Deletion Processor");
+			setDaemon(true);
+		}
+
+		/**
+		 * Shuts the process down. Any deletions that have not finished are
+		 * resumed when the process is next started.
+		 */
+		private void shutdown() {
+			running = false;
+			interrupt();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see org.ohmage.service.CampaignDeletionServices.Running#isRunning()
+		 */
+		@Override
+		public boolean isRunning() {
+			return running;
+		}
+
+		/**
+		 * Processes the deletions, then waits for another campaign to be
+		 * deleted.
+		 */
+		@Override
+		public void run() {
+			try {
+				sleep(MILLISECONDS_BEFORE_FIRST_CHECK);
+			}
+			catch(InterruptedException e) {
+				return;
+			}
+
+			while(running) {
+				CampaignDeletionServices campaignDeletionServices =
+					CampaignDeletionServices.instance();
+
+				try {
+					campaignDeletionServices.processDeletions(this);
+				}
+				catch(ServiceException e) {
+					LOGGER.error("Failed to process the campaign deletions.", e);
+				}
+
+				try {
+					campaignDeletionServices.awaitDeletion(
+						MILLISECONDS_BETWEEN_CHECKS);
+				}
+				catch(InterruptedException e) {
+					// We are being shut down.
+				}
+			}
+		}
+	}
+
+	/**
+	 * The logger.
+	 */
+	private static final Logger LOGGER =
+		Logger.getLogger(CampaignDeletionProcessor.class);
+
+	/**
+	 * The number of milliseconds to wait before the first check, so that the
+	 * services have been created.
+	 */
+	private static final long MILLISECONDS_BEFORE_FIRST_CHECK = 1000 * 10;
+
+	/**
+	 * The longest number of milliseconds between each check for unfinished
+	 * deletions.
+	 */
+	private static final long MILLISECONDS_BETWEEN_CHECKS = 1000 * 60 * 5;
+
+	/**
+	 * The instance of the deleter.
+	 */
+	private final Deleter deleter = new Deleter();
+
+	/**
+	 * Default constructor that will be called by Spring via reflection.
+	 */
+	private CampaignDeletionProcessor() {
+		LOGGER.info("Creating the campaign deletion task.");
+		deleter.start();
+	}
+
+	/**
+	 * Stops the processor.
+	 */
+	@Override
+	public void destroy() throws Exception {
+		deleter.shutdown();
+	}
+}
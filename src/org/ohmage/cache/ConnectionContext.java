@@ -0,0 +1,669 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+import org.ohmage.exception.DataAccessException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.jdbc.datasource.ConnectionHandle;
+import org.springframework.jdbc.datasource.ConnectionHolder;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * <p>
+ * A request-scoped database connection. Without it, every query borrows its
+ * own connection from the pool, and the pool validates each one, so a
+ * request that runs a dozen queries pays for a dozen borrows and
+ * validations.
+ * </p>
+ *
+ * <p>
+ * {@link #open(boolean)} binds a connection holder for the data source to
+ * the current thread through Spring's transaction synchronization, so every
+ * {@link org.springframework.jdbc.core.JdbcTemplate} call and every
+ * transaction the queries begin uses the same connection. The connection is
+ * only borrowed when the first query runs and is returned by
+ * {@link #close()}. Threads without a context, e.g. background tasks, borrow
+ * a connection per query as before.
+ * </p>
+ *
+ * <p>
+ * The request's writes are committed together by {@link #commit()}. A
+ * transaction that a query begins on the request's connection is a
+ * savepoint within the request's work: rolling it back only undoes what it
+ * wrote, and committing it only keeps its writes with the rest of the
+ * request's, which are committed later. Work that must be committed on its
+ * own, e.g. because another thread is about to read it, is done between
+ * {@link #suspend()} and {@link #resume(Object)}.
+ * </p>
+ *
+ * <p>
+ * Because a query's commit no longer makes its writes visible, work that
+ * must only happen once they are, e.g. invalidating a cache or deleting a
+ * file whose row was removed, is registered with
+ * {@link #afterCommit(Runnable)}. It runs once the request's work has been
+ * committed and is dropped if the work is rolled back instead. A request
+ * that fails before its work is committed is rolled back when the context
+ * is closed.
+ * </p>
+ *
+ * <p>
+ * A read-only request may run as one read-only transaction. Authentication
+ * may write, e.g. to create a user on their first login, so the transaction
+ * only begins once {@link #beginReadOnly()} is called after the user has
+ * been authenticated. The transactions the queries begin then join it
+ * rather than committing on their own.
+ * </p>
+ */
+public final class ConnectionContext {
+	private static final Logger LOGGER =
+		Logger.getLogger(ConnectionContext.class);
+
+	/**
+	 * The database activity of a single request.
+	 */
+	public static final class Statistics {
+		private final long statements;
+		private final long connections;
+		private final long connectionWaitNanos;
+
+		/**
+		 * Creates the statistics.
+		 *
+		 * @param statements The number of statements that were executed.
+		 *
+		 * @param connections The number of connections that were borrowed
+		 * 					  from the pool.
+		 *
+		 * @param connectionWaitNanos The time spent waiting for them.
+		 */
+		private Statistics(
+				final long statements,
+				final long connections,
+				final long connectionWaitNanos) {
+
+			this.statements = statements;
+			this.connections = connections;
+			this.connectionWaitNanos = connectionWaitNanos;
+		}
+
+		/**
+		 * Returns the number of statements that were executed, i.e. the
+		 * number of round-trips to the database.
+		 *
+		 * @return The number of statements.
+		 */
+		public long getStatements() {
+			return statements;
+		}
+
+		/**
+		 * Returns the number of connections that were borrowed from the
+		 * pool.
+		 *
+		 * @return The number of connections.
+		 */
+		public long getConnections() {
+			return connections;
+		}
+
+		/**
+		 * Returns the time spent waiting for connections from the pool.
+		 *
+		 * @return The time in nanoseconds.
+		 */
+		public long getConnectionWaitNanos() {
+			return connectionWaitNanos;
+		}
+	}
+
+	/**
+	 * Borrows the connection from the pool the first time it is needed and
+	 * keeps it until the request is done. The queries are given a wrapper
+	 * around it whose commit() and rollback() only release or roll back to
+	 * the savepoint of the query's transaction, if any.
+	 */
+	private static final class LazyConnectionHandle
+			implements ConnectionHandle, InvocationHandler {
+
+		private Connection connection = null;
+		private Connection wrapper = null;
+		private Savepoint savepoint = null;
+		private boolean readOnly = false;
+
+		/**
+		 * Whether a query's transaction has run on the connection since it
+		 * was last committed.
+		 */
+		private boolean uncommittedWrites = false;
+
+		/**
+		 * Borrows the connection if it hasn't been already.
+		 *
+		 * @return The wrapper around the request's connection.
+		 *
+		 * @throws CannotGetJdbcConnectionException The connection could not
+		 * 											be borrowed.
+		 */
+		@Override
+		public Connection getConnection() {
+			if(connection == null) {
+				try {
+					connection = dataSource.getConnection();
+					// The request's work is only committed explicitly.
+					if(connection.getAutoCommit()) {
+						connection.setAutoCommit(false);
+					}
+					if(readOnly) {
+						connection.setReadOnly(true);
+					}
+				}
+				catch(SQLException e) {
+					throw new CannotGetJdbcConnectionException(
+						"Could not get a JDBC connection.",
+						e);
+				}
+
+				wrapper =
+					(Connection) Proxy.newProxyInstance(
+						ConnectionContext.class.getClassLoader(),
+						new Class<?>[] { Connection.class },
+						this);
+			}
+
+			return wrapper;
+		}
+
+		/**
+		 * Sets the savepoint to which a query's transaction rolls back.
+		 *
+		 * @throws CannotCreateTransactionException The savepoint could not
+		 * 											be set.
+		 */
+		private void setSavepoint() {
+			getConnection();
+			try {
+				savepoint = connection.setSavepoint();
+				uncommittedWrites = true;
+			}
+			catch(SQLException e) {
+				throw new CannotCreateTransactionException(
+					"Could not set a savepoint for the transaction.",
+					e);
+			}
+		}
+
+		/**
+		 * Ends a query's transaction on commit() or rollback() and passes
+		 * every other call to the connection.
+		 */
+		@Override
+		public Object invoke(
+				final Object proxy,
+				final Method method,
+				final Object[] args)
+				throws Throwable {
+
+			String name = method.getName();
+			boolean noArgs = (args == null) || (args.length == 0);
+			if("equals".equals(name) && (args != null) && (args.length == 1)) {
+				return proxy == args[0];
+			}
+			else if("hashCode".equals(name) && noArgs) {
+				return System.identityHashCode(proxy);
+			}
+			else if((savepoint != null) && noArgs) {
+				if("commit".equals(name)) {
+					Savepoint released = savepoint;
+					savepoint = null;
+					connection.releaseSavepoint(released);
+					return null;
+				}
+				else if("rollback".equals(name)) {
+					Savepoint released = savepoint;
+					savepoint = null;
+					connection.rollback(released);
+					return null;
+				}
+			}
+
+			try {
+				return method.invoke(connection, args);
+			}
+			catch(InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+
+		/**
+		 * Does nothing. The connection is kept for the rest of the request
+		 * and returned to the pool by {@link ConnectionContext#close()}.
+		 */
+		@Override
+		public void releaseConnection(final Connection con) {
+			// Do nothing.
+		}
+	}
+
+	/**
+	 * The holder that is bound for the data source. It is a subclass so that
+	 * the read-only transaction may be marked as active, which makes the
+	 * queries' transactions join it, and so that a query's transaction
+	 * otherwise begins with a savepoint.
+	 */
+	private static final class RequestConnectionHolder
+			extends ConnectionHolder {
+
+		private final LazyConnectionHandle handle;
+
+		/**
+		 * Creates the holder.
+		 *
+		 * @param handle The request's connection.
+		 */
+		private RequestConnectionHolder(final LazyConnectionHandle handle) {
+			super(handle);
+			this.handle = handle;
+		}
+
+		/**
+		 * Marks the request's read-only transaction as active.
+		 */
+		private void beginTransaction() {
+			setTransactionActive(true);
+		}
+
+		/**
+		 * Sets a savepoint when a query's transaction begins on the
+		 * request's connection, which is when Spring marks the holder as
+		 * active.
+		 */
+		@Override
+		protected void setTransactionActive(final boolean transactionActive) {
+			if(transactionActive &&
+				(! isTransactionActive()) &&
+				(! handle.readOnly)) {
+
+				handle.setSavepoint();
+			}
+
+			super.setTransactionActive(transactionActive);
+		}
+	}
+
+	/**
+	 * The context bound to the current thread.
+	 */
+	private static final ThreadLocal<ConnectionContext> CONTEXT =
+		new ThreadLocal<ConnectionContext>();
+
+	/**
+	 * The data source whose connections are bound. This must be the same
+	 * instance that the queries use.
+	 */
+	private static DataSource dataSource = null;
+
+	private final boolean readOnlyRequest;
+	private final LazyConnectionHandle handle = new LazyConnectionHandle();
+	private final RequestConnectionHolder holder =
+		new RequestConnectionHolder(handle);
+
+	/**
+	 * The work to do once the request's work has been committed.
+	 */
+	private final List<Runnable> afterCommit = new LinkedList<Runnable>();
+
+	/**
+	 * Whether the request's work has been committed.
+	 */
+	private boolean committed = false;
+
+	private long statements = 0;
+	private long connections = 0;
+	private long connectionWaitNanos = 0;
+
+	/**
+	 * Sets the data source whose connections are bound to requests. This is
+	 * called by Spring via reflection.
+	 *
+	 * @param dataSource The data source the queries use.
+	 *
+	 * @throws IllegalStateException The data source has already been set.
+	 *
+	 * @throws IllegalArgumentException The data source is null.
+	 */
+	private ConnectionContext(final DataSource dataSource) {
+		if(ConnectionContext.dataSource != null) {
+			throw new IllegalStateException(
+				"The data source has already been set.");
+		}
+		else if(dataSource == null) {
+			throw new IllegalArgumentException("The data source is null.");
+		}
+
+		ConnectionContext.dataSource = dataSource;
+		readOnlyRequest = false;
+	}
+
+	/**
+	 * Creates a request's context.
+	 *
+	 * @param readOnlyRequest Whether or not the request only reads.
+	 */
+	private ConnectionContext(final boolean readOnlyRequest) {
+		this.readOnlyRequest = readOnlyRequest;
+	}
+
+	/**
+	 * Binds a new context to the current thread. If there is no data source
+	 * yet, nothing is bound and the queries behave as they would without a
+	 * context.
+	 *
+	 * @param readOnlyRequest Whether or not the request only reads, in which
+	 * 						  case {@link #beginReadOnly()} will begin a
+	 * 						  read-only transaction.
+	 */
+	public static void open(final boolean readOnlyRequest) {
+		if(dataSource == null) {
+			return;
+		}
+
+		// Return any connection a previous request failed to return.
+		close();
+
+		ConnectionContext context = new ConnectionContext(readOnlyRequest);
+		TransactionSynchronizationManager.bindResource(
+			dataSource,
+			context.holder);
+		CONTEXT.set(context);
+	}
+
+	/**
+	 * Begins the read-only transaction if the current thread's request only
+	 * reads. Everything that has been done so far is committed first. This
+	 * should be called once the user has been authenticated.
+	 */
+	public static void beginReadOnly() {
+		ConnectionContext context = CONTEXT.get();
+		if((context == null) ||
+			(! context.readOnlyRequest) ||
+			context.handle.readOnly) {
+
+			return;
+		}
+
+		Connection connection = context.handle.connection;
+		if(connection != null) {
+			try {
+				connection.commit();
+			}
+			catch(SQLException e) {
+				LOGGER.warn(
+					"Could not begin the read-only transaction.",
+					e);
+				return;
+			}
+			context.handle.uncommittedWrites = false;
+			context.runAfterCommit();
+
+			try {
+				connection.setReadOnly(true);
+			}
+			catch(SQLException e) {
+				LOGGER.warn(
+					"Could not begin the read-only transaction.",
+					e);
+				return;
+			}
+		}
+
+		context.handle.readOnly = true;
+		context.holder.beginTransaction();
+	}
+
+	/**
+	 * Commits everything the current thread's request has written so far.
+	 * This must be called before the request responds so that the client
+	 * cannot act on the response before its changes are visible, e.g. use a
+	 * new token before it is stored. Read-only requests have nothing to
+	 * commit. The work registered with {@link #afterCommit(Runnable)} is run
+	 * once the commit succeeds.
+	 *
+	 * @throws DataAccessException The request's work could not be committed
+	 * 							   and will be rolled back.
+	 */
+	public static void commit() throws DataAccessException {
+		ConnectionContext context = CONTEXT.get();
+		if((context == null) || context.handle.readOnly) {
+			return;
+		}
+
+		Connection connection = context.handle.connection;
+		if(connection != null) {
+			context.handle.savepoint = null;
+			try {
+				connection.commit();
+			}
+			catch(SQLException e) {
+				context.afterCommit.clear();
+				throw new DataAccessException(
+					"Could not commit the request's changes.",
+					e);
+			}
+			context.handle.uncommittedWrites = false;
+		}
+
+		context.committed = true;
+		context.runAfterCommit();
+	}
+
+	/**
+	 * Runs some work once the current thread's request has committed what it
+	 * has written so far, e.g. forgetting cached values that the writes
+	 * changed. If the request's work is rolled back instead, the work is
+	 * dropped. If there is no request connection to wait for, e.g. on a
+	 * background thread, while it is suspended, or in a read-only
+	 * transaction, the work is run immediately, as the caller's own
+	 * transaction has been committed.
+	 *
+	 * @param work The work to run. The request's connection is not bound
+	 * 			   while it runs, so its queries commit on their own and
+	 * 			   see the committed writes.
+	 */
+	public static void afterCommit(final Runnable work) {
+		ConnectionContext context = CONTEXT.get();
+		if((context == null) ||
+			context.handle.readOnly ||
+			(context.handle.connection == null) ||
+			(TransactionSynchronizationManager.getResource(dataSource) !=
+				context.holder)) {
+
+			runSafely(work);
+			return;
+		}
+
+		context.afterCommit.add(work);
+	}
+
+	/**
+	 * Returns whether the current thread's request has written anything that
+	 * it has not yet committed. Values read by such a request may not have
+	 * been committed, so they must not be shared with other requests.
+	 *
+	 * @return Whether there are uncommitted writes on the request's
+	 * 		   connection.
+	 */
+	public static boolean hasUncommittedWrites() {
+		ConnectionContext context = CONTEXT.get();
+		return (context != null) && context.handle.uncommittedWrites;
+	}
+
+	/**
+	 * Unbinds the current thread's request connection, if any, so that the
+	 * queries that follow borrow their own connections and their
+	 * transactions commit on their own, as they would without a context.
+	 * The request's own work is neither committed nor visible to them. The
+	 * connection must be bound again with {@link #resume(Object)}.
+	 *
+	 * @return What must be passed to {@link #resume(Object)}.
+	 */
+	public static Object suspend() {
+		if((dataSource == null) || (CONTEXT.get() == null)) {
+			return null;
+		}
+
+		return TransactionSynchronizationManager.unbindResource(dataSource);
+	}
+
+	/**
+	 * Binds the current thread's request connection again after
+	 * {@link #suspend()}.
+	 *
+	 * @param suspended What {@link #suspend()} returned.
+	 */
+	public static void resume(final Object suspended) {
+		if(suspended != null) {
+			TransactionSynchronizationManager.bindResource(
+				dataSource,
+				suspended);
+		}
+	}
+
+	/**
+	 * Unbinds the context from the current thread and returns its connection
+	 * to the pool. A read-only transaction is ended and the connection is
+	 * made writable again. Work that was not committed, e.g. because the
+	 * request failed, is rolled back along with the work that was waiting
+	 * for its commit.
+	 *
+	 * @return The request's database activity or null if no context was
+	 * 		   bound.
+	 */
+	public static Statistics close() {
+		ConnectionContext context = CONTEXT.get();
+		if(context == null) {
+			return null;
+		}
+
+		CONTEXT.remove();
+		TransactionSynchronizationManager.unbindResourceIfPossible(dataSource);
+
+		Connection connection = context.handle.connection;
+		if(connection != null) {
+			try {
+				if(context.handle.readOnly) {
+					connection.rollback();
+					connection.setReadOnly(false);
+				}
+				else if((! context.committed) ||
+					context.handle.uncommittedWrites) {
+
+					connection.rollback();
+				}
+			}
+			catch(SQLException e) {
+				LOGGER.warn("Could not end the request's transaction.", e);
+			}
+			finally {
+				try {
+					connection.close();
+				}
+				catch(SQLException e) {
+					LOGGER.error("Could not return the connection.", e);
+				}
+			}
+		}
+
+		return
+			new Statistics(
+				context.statements,
+				context.connections,
+				context.connectionWaitNanos);
+	}
+
+	/**
+	 * Runs and forgets the work that was waiting for the request's work to be
+	 * committed. The request's connection is unbound meanwhile, so that the
+	 * work's own writes are not left to the request to commit.
+	 */
+	private void runAfterCommit() {
+		if(afterCommit.isEmpty()) {
+			return;
+		}
+
+		Object suspended = suspend();
+		try {
+			while(! afterCommit.isEmpty()) {
+				runSafely(afterCommit.remove(0));
+			}
+		}
+		finally {
+			resume(suspended);
+		}
+	}
+
+	/**
+	 * Runs some work that must not fail the request, as its writes have
+	 * already been committed.
+	 *
+	 * @param work The work to run.
+	 */
+	private static void runSafely(final Runnable work) {
+		try {
+			work.run();
+		}
+		catch(RuntimeException e) {
+			LOGGER.error("Could not run the work after a commit.", e);
+		}
+	}
+
+	/**
+	 * Counts a statement executed by the current thread's request, if any.
+	 */
+	public static void recordStatement() {
+		ConnectionContext context = CONTEXT.get();
+		if(context != null) {
+			context.statements++;
+		}
+	}
+
+	/**
+	 * Counts a connection borrowed by the current thread's request, if any,
+	 * and the time spent waiting for it.
+	 *
+	 * @param nanos The time spent waiting for the connection.
+	 */
+	public static void recordConnectionWait(final long nanos) {
+		ConnectionContext context = CONTEXT.get();
+		if(context != null) {
+			context.connections++;
+			context.connectionWaitNanos += nanos;
+		}
+	}
+}
@@ -0,0 +1,332 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.log4j.Logger;
+import org.ohmage.domain.User;
+
+/**
+ * <p>
+ * The default {@link SessionStore}, which keeps every token in this JVM's
+ * memory. Tokens do not survive a restart and are not shared with other
+ * instances of the server.
+ * </p>
+ *
+ * <p>
+ * None of its operations take a lock. Tokens are kept in a concurrent map,
+ * each token's last access time is a volatile field, and a secondary index
+ * from usernames to their tokens allows a user's tokens to be revoked
+ * without scanning every token.
+ * </p>
+ *
+ * <p>
+ * Expiration uses a hashed timing wheel with one slot per execution period.
+ * Each token is placed in the slot of the period in which it would expire.
+ * Each call to {@link #expire(long)} only inspects the slots whose periods
+ * have passed, removing the tokens that really have expired and moving
+ * those that were used in the meantime to the slot of their new expiration.
+ * </p>
+ */
+public final class InMemorySessionStore implements SessionStore {
+	private static final Logger LOGGER =
+		Logger.getLogger(InMemorySessionStore.class);
+
+	/**
+	 * The number of slots in the timing wheel. A token's expiration is never
+	 * more than a lifetime plus one period away, so this is enough slots to
+	 * guarantee that no two pending periods share a slot.
+	 */
+	private static final int WHEEL_SIZE =
+		(UserBin.LIFETIME / UserBin.EXECUTION_PERIOD) + 2;
+
+	/**
+	 * A class for associating users to the time their token was last used.
+	 */
+	private static final class UserTime {
+		private final User user;
+		private volatile long time;
+
+		/**
+		 * Convenience constructor.
+		 *
+		 * @param user
+		 *        The user that is being stored in the cache.
+		 *
+		 * @param time
+		 *        The last time this user was accessed in the cache.
+		 */
+		private UserTime(User user, long time) {
+			this.user = user;
+			this.time = time;
+		}
+
+		/**
+		 * Returns whether or not this token has expired.
+		 *
+		 * @param currentTime
+		 *        The current time.
+		 *
+		 * @return Whether or not this token has expired.
+		 */
+		private boolean isExpired(final long currentTime) {
+			return currentTime - time > UserBin.LIFETIME;
+		}
+	}
+
+	// A map of tokens to users and the time that their token was last used.
+	private final ConcurrentHashMap<String, UserTime> users =
+		new ConcurrentHashMap<String, UserTime>();
+	// A map of usernames to all of their tokens.
+	private final ConcurrentHashMap<String, Set<String>> tokens =
+		new ConcurrentHashMap<String, Set<String>>();
+	// The timing wheel. Each slot holds the tokens that expire in the periods
+	// that map to it.
+	private final AtomicReferenceArray<Set<String>> wheel =
+		new AtomicReferenceArray<Set<String>>(WHEEL_SIZE);
+
+	// The last period whose slot has been processed. This is only accessed by
+	// expire(), which is only called by the UserBin's executioner.
+	private long lastExpiredPeriod;
+
+	/**
+	 * Creates an empty store.
+	 */
+	public InMemorySessionStore() {
+		for(int i = 0; i < WHEEL_SIZE; i++) {
+			wheel.set(i, newConcurrentSet());
+		}
+
+		lastExpiredPeriod = getPeriod(System.currentTimeMillis()) - 1;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.cache.SessionStore#add(java.lang.String, org.ohmage.domain.User, long)
+	 */
+	@Override
+	public boolean add(final String token, final User user, final long time) {
+		// A colliding token must not replace the other user's session.
+		if(users.putIfAbsent(token, new UserTime(user, time)) != null) {
+			return false;
+		}
+
+		index(user.getUsername(), token);
+		schedule(token, time);
+
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.cache.SessionStore#get(java.lang.String, long)
+	 */
+	@Override
+	public User get(final String token, final long currentTime) {
+		UserTime ut = users.get(token);
+		if((ut == null) || ut.isExpired(currentTime)) {
+			return null;
+		}
+
+		ut.time = currentTime; // refresh the time
+		return ut.user;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.cache.SessionStore#getLastAccessTime(java.lang.String)
+	 */
+	@Override
+	public long getLastAccessTime(final String token) {
+		UserTime ut = users.get(token);
+		if(ut == null) {
+			return -1;
+		}
+		return ut.time;
+	}
+
+	/**
+	 * Removes a token from the store and from its user's set of tokens. It is
+	 * left in the timing wheel, which will discard it when its slot is next
+	 * processed.
+	 *
+	 * @param token
+	 *        The token.
+	 */
+	@Override
+	public void remove(final String token) {
+		UserTime ut = users.remove(token);
+		if(ut == null) {
+			return;
+		}
+
+		String username = ut.user.getUsername();
+		Set<String> userTokens = tokens.get(username);
+		if(userTokens != null) {
+			userTokens.remove(token);
+			if(userTokens.isEmpty()) {
+				tokens.remove(username, userTokens);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.cache.SessionStore#removeUser(java.lang.String)
+	 */
+	@Override
+	public void removeUser(final String username) {
+		Set<String> userTokens = tokens.remove(username);
+		if(userTokens != null) {
+			for(String token : userTokens) {
+				users.remove(token);
+			}
+		}
+	}
+
+	/**
+	 * Processes each timing wheel slot whose period has passed since the last
+	 * call and removes the tokens that have expired.
+	 *
+	 * @param currentTime
+	 *        The current time in milliseconds since epoch.
+	 */
+	@Override
+	public void expire(final long currentTime) {
+		if(LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Number of users before expiration: " + users.size());
+		}
+
+		long currentPeriod = getPeriod(currentTime);
+
+		// Never process more than one full turn of the wheel, e.g. after the
+		// server has been suspended.
+		long period =
+			Math.max(lastExpiredPeriod + 1, currentPeriod - WHEEL_SIZE + 1);
+		for(; period < currentPeriod; period++) {
+			Set<String> slot =
+				wheel.getAndSet(getSlot(period), newConcurrentSet());
+
+			for(String token : slot) {
+				UserTime ut = users.get(token);
+				if(ut == null) {
+					continue;
+				}
+
+				if(ut.isExpired(currentTime)) {
+					if(LOGGER.isDebugEnabled()) {
+						LOGGER.debug("Removing user with Id " + token);
+					}
+
+					remove(token);
+				}
+				else {
+					schedule(token, ut.time);
+				}
+			}
+		}
+		lastExpiredPeriod = currentPeriod - 1;
+
+		if(LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Number of users after expiration: " + users.size());
+		}
+	}
+
+	/**
+	 * Creates a new, empty set that is safe for concurrent use.
+	 *
+	 * @return The new set.
+	 */
+	private static Set<String> newConcurrentSet() {
+		return Collections.newSetFromMap(
+			new ConcurrentHashMap<String, Boolean>());
+	}
+
+	/**
+	 * Returns the execution period in which some time falls.
+	 *
+	 * @param time
+	 *        The time in milliseconds since epoch.
+	 *
+	 * @return The execution period.
+	 */
+	private static long getPeriod(final long time) {
+		return time / UserBin.EXECUTION_PERIOD;
+	}
+
+	/**
+	 * Returns the timing wheel's slot for an execution period.
+	 *
+	 * @param period
+	 *        The execution period.
+	 *
+	 * @return The index of the slot.
+	 */
+	private static int getSlot(final long period) {
+		return (int) (period % WHEEL_SIZE);
+	}
+
+	/**
+	 * Adds a token to the user's set of tokens.
+	 *
+	 * @param username
+	 *        The user's username.
+	 *
+	 * @param token
+	 *        The token.
+	 */
+	private void index(final String username, final String token) {
+		while(true) {
+			Set<String> userTokens = tokens.get(username);
+			if(userTokens == null) {
+				Set<String> newTokens = newConcurrentSet();
+				userTokens = tokens.putIfAbsent(username, newTokens);
+				if(userTokens == null) {
+					userTokens = newTokens;
+				}
+			}
+			userTokens.add(token);
+
+			// If the set was removed concurrently, e.g. by removeUser() or
+			// because it became empty, then the token must be added again.
+			if(tokens.get(username) == userTokens) {
+				return;
+			}
+
+			// However, if the token itself was revoked, then it is done.
+			if(! users.containsKey(token)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Places a token in the timing wheel's slot for when it will expire.
+	 *
+	 * @param token
+	 *        The token.
+	 *
+	 * @param time
+	 *        The last time the token was accessed.
+	 */
+	private void schedule(final String token, final long time) {
+		wheel.get(getSlot(getPeriod(time + UserBin.LIFETIME))).add(token);
+	}
+}
@@ -0,0 +1,425 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+import org.ohmage.domain.User;
+import org.ohmage.exception.DomainException;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+/**
+ * <p>
+ * A {@link SessionStore} backed by the database's user_session table, so
+ * tokens survive restarts and are shared by every instance of the server
+ * that uses the same database.
+ * </p>
+ *
+ * <p>
+ * Tokens are kept in a near-cache in this JVM's memory, so most requests
+ * never touch the database:
+ * </p>
+ * <ul>
+ *   <li>New tokens and revocations are written through immediately, so
+ *   other instances see them.</li>
+ *   <li>Refreshes of a token's last access time are only recorded in memory
+ *   and written to the database in a single batch by each call to
+ *   {@link #expire(long)}.</li>
+ *   <li>A token found in the near-cache is re-read from the database once
+ *   it has gone unchecked for the validation period. This bounds how long a
+ *   token revoked by another instance remains usable here.</li>
+ * </ul>
+ */
+public final class JdbcSessionStore implements SessionStore {
+	private static final Logger LOGGER =
+		Logger.getLogger(JdbcSessionStore.class);
+
+	private static final String SQL_INSERT =
+		"INSERT INTO user_session(" +
+			"token, user_id, password, hash_password, last_access_timestamp) " +
+		"SELECT ?, id, ?, ?, ? " +
+		"FROM user " +
+		"WHERE username = ?";
+
+	private static final String SQL_GET =
+		"SELECT u.username, us.password, us.hash_password, " +
+			"us.last_access_timestamp " +
+		"FROM user u, user_session us " +
+		"WHERE us.token = ? " +
+		"AND u.id = us.user_id";
+
+	// MySQL reports the rows that were matched, not changed, so a count of
+	// zero means that the token no longer exists.
+	private static final String SQL_UPDATE_LAST_ACCESS =
+		"UPDATE user_session " +
+		"SET last_access_timestamp = GREATEST(last_access_timestamp, ?) " +
+		"WHERE token = ?";
+
+	private static final String SQL_DELETE =
+		"DELETE FROM user_session " +
+		"WHERE token = ?";
+
+	private static final String SQL_DELETE_USER =
+		"DELETE us " +
+		"FROM user u, user_session us " +
+		"WHERE u.username = ? " +
+		"AND u.id = us.user_id";
+
+	private static final String SQL_DELETE_EXPIRED =
+		"DELETE FROM user_session " +
+		"WHERE last_access_timestamp < ?";
+
+	/**
+	 * A token in the near-cache.
+	 */
+	private static final class Session {
+		private final User user;
+		private volatile long lastAccess;
+		private volatile long validated;
+
+		/**
+		 * Creates a new near-cache entry.
+		 *
+		 * @param user
+		 *        The user that owns the token.
+		 *
+		 * @param lastAccess
+		 *        The last time the token was used.
+		 *
+		 * @param validated
+		 *        The last time the token was confirmed to be in the database.
+		 */
+		private Session(
+			final User user,
+			final long lastAccess,
+			final long validated) {
+
+			this.user = user;
+			this.lastAccess = lastAccess;
+			this.validated = validated;
+		}
+	}
+
+	private final JdbcTemplate jdbcTemplate;
+
+	/**
+	 * The number of milliseconds a near-cache entry may be used before it
+	 * must be re-read from the database.
+	 */
+	private final long validationPeriod;
+
+	/**
+	 * The near-cache of tokens.
+	 */
+	private final Map<String, Session> sessions =
+		new ConcurrentHashMap<String, Session>();
+
+	/**
+	 * The tokens whose last access time has changed since it was last
+	 * written to the database.
+	 */
+	private final Set<String> dirty =
+		Collections.newSetFromMap(
+			new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * Default constructor called by Spring via reflection.
+	 *
+	 * @param dataSource
+	 *        The DataSource for the database that stores the tokens.
+	 *
+	 * @param validationPeriod
+	 *        The number of milliseconds a token may be used from the
+	 *        near-cache before it must be re-read from the database.
+	 */
+	public JdbcSessionStore(
+		final DataSource dataSource,
+		final long validationPeriod) {
+
+		if(dataSource == null) {
+			throw new IllegalArgumentException("The data source is null.");
+		}
+		if(validationPeriod < 0) {
+			throw new IllegalArgumentException(
+				"The validation period is negative.");
+		}
+
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		this.validationPeriod = validationPeriod;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.cache.SessionStore#add(java.lang.String, org.ohmage.domain.User, long)
+	 */
+	@Override
+	public boolean add(final String token, final User user, final long time) {
+		try {
+			jdbcTemplate.update(
+				SQL_INSERT,
+				token,
+				user.getPassword(),
+				user.hashPassword(),
+				time,
+				user.getUsername());
+		}
+		catch(DuplicateKeyException e) {
+			return false;
+		}
+
+		sessions.put(token, new Session(user, time, time));
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.cache.SessionStore#get(java.lang.String, long)
+	 */
+	@Override
+	public User get(final String token, final long currentTime) {
+		Session session = sessions.get(token);
+
+		// If the token isn't cached, has gone unchecked for too long, or
+		// appears to have expired, e.g. because it has only been used by
+		// other instances, then consult the database.
+		if(
+			(session == null) ||
+			(currentTime - session.validated > validationPeriod) ||
+			(currentTime - session.lastAccess > UserBin.LIFETIME)) {
+
+			session = load(token, session, currentTime);
+			if(session == null) {
+				return null;
+			}
+		}
+
+		if(currentTime - session.lastAccess > UserBin.LIFETIME) {
+			return null;
+		}
+
+		session.lastAccess = currentTime;
+		dirty.add(token);
+		return session.user;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.cache.SessionStore#getLastAccessTime(java.lang.String)
+	 */
+	@Override
+	public long getLastAccessTime(final String token) {
+		Session session = sessions.get(token);
+		if(session == null) {
+			session = load(token, null, System.currentTimeMillis());
+			if(session == null) {
+				return -1;
+			}
+		}
+		return session.lastAccess;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.cache.SessionStore#remove(java.lang.String)
+	 */
+	@Override
+	public void remove(final String token) {
+		sessions.remove(token);
+		dirty.remove(token);
+		jdbcTemplate.update(SQL_DELETE, token);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.cache.SessionStore#removeUser(java.lang.String)
+	 */
+	@Override
+	public void removeUser(final String username) {
+		jdbcTemplate.update(SQL_DELETE_USER, username);
+
+		Iterator<Map.Entry<String, Session>> iter =
+			sessions.entrySet().iterator();
+		while(iter.hasNext()) {
+			Map.Entry<String, Session> entry = iter.next();
+			if(username.equals(entry.getValue().user.getUsername())) {
+				iter.remove();
+				dirty.remove(entry.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Writes the refreshed last access times to the database, removes the
+	 * expired tokens from the near-cache and the database, and drops any
+	 * token from the near-cache that no longer exists in the database.
+	 *
+	 * @param currentTime
+	 *        The current time in milliseconds since epoch.
+	 */
+	@Override
+	public void expire(final long currentTime) {
+		flush();
+
+		Iterator<Map.Entry<String, Session>> iter =
+			sessions.entrySet().iterator();
+		while(iter.hasNext()) {
+			if(currentTime - iter.next().getValue().lastAccess >
+				UserBin.LIFETIME) {
+
+				iter.remove();
+			}
+		}
+
+		// Other instances may not have flushed their most recent refreshes,
+		// so allow an extra period before a token is deleted.
+		int deleted =
+			jdbcTemplate.update(
+				SQL_DELETE_EXPIRED,
+				currentTime - UserBin.LIFETIME - UserBin.EXECUTION_PERIOD);
+
+		if(LOGGER.isDebugEnabled()) {
+			LOGGER.debug(
+				"Deleted " +
+					deleted +
+					" expired sessions. Near-cache size: " +
+					sessions.size());
+		}
+	}
+
+	/**
+	 * Writes the refreshed last access times to the database in a single
+	 * batch.
+	 */
+	private void flush() {
+		List<String> tokens = new ArrayList<String>(dirty.size());
+		List<Object[]> parameters = new ArrayList<Object[]>(dirty.size());
+		for(String token : dirty) {
+			dirty.remove(token);
+
+			Session session = sessions.get(token);
+			if(session != null) {
+				tokens.add(token);
+				parameters.add(new Object[] { session.lastAccess, token });
+			}
+		}
+		if(tokens.isEmpty()) {
+			return;
+		}
+
+		int[] counts =
+			jdbcTemplate.batchUpdate(SQL_UPDATE_LAST_ACCESS, parameters);
+		for(int i = 0; i < counts.length; i++) {
+			// The token was revoked by another instance.
+			if(counts[i] == 0) {
+				sessions.remove(tokens.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Reads a token from the database and places it in the near-cache.
+	 *
+	 * @param token
+	 *        The token.
+	 *
+	 * @param cached
+	 *        The token's current near-cache entry, if any, whose last access
+	 *        time is kept if it is more recent than the database's.
+	 *
+	 * @param currentTime
+	 *        The current time in milliseconds since epoch.
+	 *
+	 * @return The new near-cache entry or null if the token does not exist.
+	 */
+	private Session load(
+		final String token,
+		final Session cached,
+		final long currentTime) {
+
+		List<Session> result;
+		try {
+			result =
+				jdbcTemplate.query(
+					SQL_GET,
+					new Object[] { token },
+					new RowMapper<Session>() {
+						@Override
+						public Session mapRow(
+							final ResultSet rs,
+							final int rowNum)
+							throws SQLException {
+
+							User user;
+							try {
+								user =
+									new User(
+										rs.getString("username"),
+										rs.getString("password"),
+										rs.getBoolean("hash_password"));
+							}
+							catch(DomainException e) {
+								throw new SQLException(
+									"The session's user is invalid.",
+									e);
+							}
+							user.setToken(token);
+							user.isLoggedIn(true);
+
+							long lastAccess =
+								rs.getLong("last_access_timestamp");
+							if(
+								(cached != null) &&
+								(cached.lastAccess > lastAccess)) {
+
+								lastAccess = cached.lastAccess;
+							}
+
+							return new Session(user, lastAccess, currentTime);
+						}
+					});
+		}
+		catch(DataAccessException e) {
+			// If the database is unavailable, keep using the near-cache
+			// rather than logging everyone out.
+			LOGGER.error("Error reading the session from the database.", e);
+			return cached;
+		}
+
+		if(result.isEmpty()) {
+			sessions.remove(token);
+			dirty.remove(token);
+			return null;
+		}
+
+		Session session = result.get(0);
+		sessions.put(token, session);
+		return session;
+	}
+}
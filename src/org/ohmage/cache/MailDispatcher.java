@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import org.apache.log4j.Logger;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.service.MailServices;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * <p>
+ * A background process that sends the mail that requests have queued. It
+ * sends as soon as it is told that a message has been queued and otherwise
+ * checks periodically for messages that are due to be retried.
+ * </p>
+ */
+public final class MailDispatcher implements DisposableBean {
+	/**
+	 * <p>
+	 * The task that sends the messages, which always runs as long as the
+	 * dispatcher is running.
+	 * </p>
+	 */
+	private static final class Sender extends Thread {
+		/**
+		 * Whether or not this process should continue running.
+		 */
+		private volatile boolean running = true;
+
+		/**
+		 * Creates the sender.
+		 */
+		private Sender() {
+			super("Mail Dispatcher");
+			setDaemon(true);
+		}
+
+		/**
+		 * Shuts the process down. Any messages that have not been sent
+		 * remain queued.
+		 */
+		private void shutdown() {
+			running = false;
+			interrupt();
+		}
+
+		/**
+		 * Sends the queued messages until there are none left, then waits
+		 * for more to be queued.
+		 */
+		@Override
+		public void run() {
+			try {
+				sleep(MILLISECONDS_BEFORE_FIRST_CHECK);
+			}
+			catch(InterruptedException e) {
+				return;
+			}
+
+			while(running) {
+				MailServices mailServices = MailServices.instance();
+
+				int sent = 0;
+				try {
+					sent = mailServices.sendQueuedMessages();
+				}
+				catch(ServiceException e) {
+					LOGGER.error("Failed to send the queued mail.", e);
+				}
+
+				// If the batch was full, there may be more that are due.
+				if(sent >= MailServices.BATCH_SIZE) {
+					continue;
+				}
+
+				try {
+					mailServices.awaitQueuedMessages(
+						MILLISECONDS_BETWEEN_CHECKS);
+				}
+				catch(InterruptedException e) {
+					// We are being shut down.
+				}
+			}
+		}
+	}
+
+	/**
+	 * The logger.
+	 */
+	private static final Logger LOGGER =
+		Logger.getLogger(MailDispatcher.class);
+
+	/**
+	 * The number of milliseconds to wait before the first check, so that the
+	 * services have been created.
+	 */
+	private static final long MILLISECONDS_BEFORE_FIRST_CHECK = 1000 * 10;
+
+	/**
+	 * The longest number of milliseconds between each check for messages
+	 * that are due to be retried.
+	 */
+	private static final long MILLISECONDS_BETWEEN_CHECKS = 1000 * 30;
+
+	/**
+	 * The instance of the sender.
+	 */
+	private final Sender sender = new Sender();
+
+	/**
+	 * Default constructor that will be called by Spring via reflection.
+	 */
+	private MailDispatcher() {
+		LOGGER.info("Creating the mail dispatching task.");
+		sender.start();
+	}
+
+	/**
+	 * Stops the dispatcher.
+	 */
+	@Override
+	public void destroy() throws Exception {
+		sender.shutdown();
+	}
+}
@@ -3,10 +3,12 @@ package org.ohmage.cache;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
-import org.ohmage.domain.Media;
+import org.ohmage.domain.IMedia;
 import org.ohmage.domain.Image;
 import org.ohmage.domain.Audio;
 import org.ohmage.domain.Video;
@@ -29,6 +31,8 @@ public class MediaDirectoryCache {
 	private static final String KEY_VIDEO_DIRECTORY = PreferenceCache.KEY_VIDEO_DIRECTORY;
 	private static final String KEY_FILE_DIRECTORY = PreferenceCache.KEY_FILE_DIRECTORY;
 	
+	private static final String STAGING_DIRECTORY_NAME = "staging";
+	
 	private static final Logger LOGGER = 
 			Logger.getLogger(MediaDirectoryCache.class);
 	/**
@@ -59,7 +63,7 @@ public class MediaDirectoryCache {
 		throw new AssertionError();
 	};
 	
-	public static File getMediaDirectory(Class<? extends Media> mediaType) throws DomainException{
+	public static File getMediaDirectory(Class<? extends IMedia> mediaType) throws DomainException{
 		if (mediaType.equals(Image.class))
 			return getImageDirectory();
 		else if (mediaType.equals(Audio.class)) 
@@ -91,7 +95,81 @@ public class MediaDirectoryCache {
 		currFileDirectory = getDirectory(currFileDirectory, KEY_FILE_DIRECTORY); 
 		return currFileDirectory;
 	}
-	
+
+	/**
+	 * Returns the directory in which media of a given type are written
+	 * before the survey responses that reference them are committed. It is
+	 * directly under the type's root directory, so its files can be moved
+	 * atomically into any of the type's directories. Its name is not a
+	 * number, so it is never chosen as a leaf directory.
+	 *
+	 * @param mediaType The type of media.
+	 *
+	 * @return The staging directory, which is created if necessary.
+	 *
+	 * @throws DomainException The type is unknown or the directory could
+	 * 						   not be created.
+	 */
+	public static File getStagingDirectory(Class<? extends IMedia> mediaType) throws DomainException {
+		if (mediaType.equals(Image.class))
+			return getStagingDirectory(KEY_IMAGE_DIRECTORY);
+		else if (mediaType.equals(Audio.class))
+			return getStagingDirectory(KEY_AUDIO_DIRECTORY);
+		else if (mediaType.equals(Video.class))
+			return getStagingDirectory(KEY_VIDEO_DIRECTORY);
+		else if (mediaType.equals(OFile.class))
+			return getStagingDirectory(KEY_FILE_DIRECTORY);
+		else throw new DomainException("Unknown media type: " + mediaType);
+	}
+
+	/**
+	 * Returns the staging directory of every type of media.
+	 *
+	 * @return The staging directories.
+	 *
+	 * @throws DomainException A directory could not be created.
+	 *
+	 * @see #getStagingDirectory(Class)
+	 */
+	public static Collection<File> getStagingDirectories() throws DomainException {
+		Collection<File> result = new LinkedHashSet<File>();
+		result.add(getStagingDirectory(KEY_IMAGE_DIRECTORY));
+		result.add(getStagingDirectory(KEY_AUDIO_DIRECTORY));
+		result.add(getStagingDirectory(KEY_VIDEO_DIRECTORY));
+		result.add(getStagingDirectory(KEY_FILE_DIRECTORY));
+		return result;
+	}
+
+	/**
+	 * Returns the staging directory under a root directory.
+	 *
+	 * @param keyRootDirectory The preference key of the root directory.
+	 *
+	 * @return The staging directory, which is created if necessary.
+	 *
+	 * @throws DomainException The root directory is unknown or the staging
+	 * 						   directory could not be created.
+	 */
+	private static File getStagingDirectory(String keyRootDirectory) throws DomainException {
+		String rootFile;
+		try {
+			rootFile = PreferenceCache.instance().lookup(keyRootDirectory);
+		}
+		catch(CacheMissException e) {
+			throw new DomainException(
+				"Preference cache doesn't know about 'known' key: " +
+				keyRootDirectory,
+				e);
+		}
+
+		File stagingDirectory = new File(rootFile, STAGING_DIRECTORY_NAME);
+		if((! stagingDirectory.isDirectory()) && (! stagingDirectory.mkdirs()) && (! stagingDirectory.isDirectory())) {
+			throw new DomainException(
+				"The staging directory could not be created: " + stagingDirectory);
+		}
+		return stagingDirectory;
+	}
+
 	
 	/**
 	 * Retrieves the file to use to store a media. Each call to this function
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.apache.log4j.Logger;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.service.SurveyResponseServices;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * <p>
+ * Sweeps the media staging directories once the server has started. Survey
+ * uploads write their media there before their transaction begins and move
+ * them out once it has committed. An upload that was interrupted by the
+ * server stopping leaves its files behind; the ones whose survey responses
+ * were committed are moved into place and the rest are deleted.
+ * </p>
+ */
+public final class MediaStagingCleanup extends TimerTask implements DisposableBean {
+	/**
+	 * The logger.
+	 */
+	private static final Logger LOGGER =
+		Logger.getLogger(MediaStagingCleanup.class);
+
+	/**
+	 * The timer on which the sweep is run.
+	 */
+	private static final Timer CLEANUP =
+		new Timer(
+			"MediaStagingCleanup - Recovering interrupted survey uploads.",
+			true);
+
+	/**
+	 * The number of milliseconds to wait before sweeping, so that the
+	 * services have been created.
+	 */
+	private static final long MILLISECONDS_BEFORE_CLEANUP = 1000 * 10;
+
+	/**
+	 * The number of milliseconds since an upload last staged a file before
+	 * it is considered interrupted. Another server that shares the media
+	 * directories may still be running younger uploads.
+	 */
+	private static final long MILLISECONDS_BEFORE_INTERRUPTED = 1000 * 60 * 60;
+
+	/**
+	 * Default constructor that will be called by Spring via reflection.
+	 */
+	private MediaStagingCleanup() {
+		LOGGER.info("Creating the media staging cleanup task.");
+
+		CLEANUP.schedule(this, MILLISECONDS_BEFORE_CLEANUP);
+	}
+
+	/**
+	 * Recovers the interrupted uploads' staged media.
+	 */
+	@Override
+	public void run() {
+		try {
+			LOGGER.info("Recovering the staged media of interrupted uploads.");
+			SurveyResponseServices
+				.instance()
+				.recoverStagedMedia(MILLISECONDS_BEFORE_INTERRUPTED);
+		}
+		catch(ServiceException e) {
+			LOGGER.error("Failed to recover the staged media.", e);
+		}
+	}
+
+	/**
+	 * Stops the cleanup task.
+	 */
+	@Override
+	public void destroy() throws Exception {
+		CLEANUP.cancel();
+	}
+}
@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.ohmage.request.ResponseSnapshot;
+
+/**
+ * <p>
+ * Singleton cache of rendered OMH registry responses. The registry lists
+ * every observer stream and every campaign survey and prompt, which requires
+ * reading and parsing all of them, yet it only changes when an observer or
+ * campaign does. Third-party consumers poll it often, so each distinct
+ * request is rendered once and the snapshot is reused until it is
+ * invalidated.
+ * </p>
+ *
+ * <p>
+ * Within this server, the query layer invalidates the cache as soon as the
+ * request that creates, updates, or deletes an observer or campaign has
+ * committed. Snapshots also expire after a fixed time-to-live, which bounds
+ * how stale they can be if another server made the change. The cache holds
+ * at most a fixed number of snapshots, evicting the least recently used.
+ * </p>
+ */
+public final class OmhRegistryCache extends Cache {
+	/**
+	 * The name of this cache.
+	 */
+	public static final String CACHE_KEY = "omhRegistryCache";
+
+	/**
+	 * A cached snapshot and when it was rendered.
+	 */
+	private static final class Entry {
+		private final ResponseSnapshot snapshot;
+		private final long renderedTimestamp;
+
+		/**
+		 * Creates a new entry that was rendered now.
+		 *
+		 * @param snapshot
+		 *        The snapshot.
+		 */
+		private Entry(final ResponseSnapshot snapshot) {
+			this.snapshot = snapshot;
+			renderedTimestamp = System.currentTimeMillis();
+		}
+	}
+
+	private static OmhRegistryCache instance;
+
+	/**
+	 * The maximum number of snapshots that will be cached.
+	 */
+	private final int maxSize;
+
+	/**
+	 * The cached snapshots keyed by the request's parameters, in least- to
+	 * most-recently used order. All access must be synchronized on the map.
+	 */
+	private final LinkedHashMap<String, Entry> entries;
+
+	/**
+	 * Incremented by every invalidation. A snapshot whose rendering began
+	 * before an invalidation may contain the old values, so it is discarded
+	 * if this has changed in the meantime.
+	 */
+	private final AtomicLong generation = new AtomicLong(0);
+
+	/**
+	 * Default constructor called by Spring via reflection.
+	 *
+	 * @param dataSource
+	 *        The DataSource, which is unused as the requests render the
+	 *        snapshots.
+	 *
+	 * @param timeToLive
+	 *        The number of milliseconds for which a snapshot may be reused
+	 *        before it must be rendered again.
+	 *
+	 * @param maxSize
+	 *        The maximum number of snapshots that will be cached.
+	 */
+	private OmhRegistryCache(
+		final DataSource dataSource,
+		final long timeToLive,
+		final int maxSize) {
+
+		super(dataSource, timeToLive);
+
+		if(timeToLive < MIN_CACHE_REFRESH_MILLIS) {
+			throw new IllegalArgumentException(
+				"The time-to-live must be at least " +
+					MIN_CACHE_REFRESH_MILLIS +
+					" milliseconds.");
+		}
+		if(maxSize <= 0) {
+			throw new IllegalArgumentException(
+				"The maximum size must be positive.");
+		}
+
+		this.maxSize = maxSize;
+		entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+				final Map.Entry<String, Entry> eldest) {
+
+				return size() > OmhRegistryCache.this.maxSize;
+			}
+		};
+
+		instance = this;
+	}
+
+	/**
+	 * Returns the one instance of this class.
+	 *
+	 * @return The one instance of this class or null if it has not been
+	 *         built.
+	 */
+	public static OmhRegistryCache instance() {
+		return instance;
+	}
+
+	/**
+	 * Returns a cached snapshot.
+	 *
+	 * @param key
+	 *        The request's parameters.
+	 *
+	 * @return The snapshot or null if it is not cached or has expired.
+	 */
+	public ResponseSnapshot lookup(final String key) {
+		synchronized(entries) {
+			Entry entry = entries.get(key);
+			if(entry == null) {
+				return null;
+			}
+			if(
+				System.currentTimeMillis() - entry.renderedTimestamp >
+					getUpdateFrequency()) {
+
+				entries.remove(key);
+				return null;
+			}
+			return entry.snapshot;
+		}
+	}
+
+	/**
+	 * Returns the current generation. This must be read before the registry
+	 * is read and passed to {@link #put(String, ResponseSnapshot, long)}.
+	 *
+	 * @return The current generation.
+	 */
+	public long getGeneration() {
+		return generation.get();
+	}
+
+	/**
+	 * Caches a snapshot unless the registry may have changed while it was
+	 * being rendered.
+	 *
+	 * @param key
+	 *        The request's parameters.
+	 *
+	 * @param snapshot
+	 *        The snapshot.
+	 *
+	 * @param renderGeneration
+	 *        The value of {@link #getGeneration()} from before the registry
+	 *        was read.
+	 */
+	public void put(
+		final String key,
+		final ResponseSnapshot snapshot,
+		final long renderGeneration) {
+
+		synchronized(entries) {
+			if(generation.get() == renderGeneration) {
+				entries.put(key, new Entry(snapshot));
+			}
+		}
+	}
+
+	/**
+	 * Removes every snapshot from the cache. This is used whenever an
+	 * observer or campaign is created, updated, or deleted.
+	 */
+	public void invalidateAll() {
+		synchronized(entries) {
+			generation.incrementAndGet();
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Returns the keys of the snapshots that are currently cached.
+	 *
+	 * @return The keys of the snapshots that are currently cached.
+	 */
+	@Override
+	public Set<String> getKeys() {
+		synchronized(entries) {
+			return new HashSet<String>(entries.keySet());
+		}
+	}
+
+	/**
+	 * Returns the name of this cache.
+	 *
+	 * @return The name of this cache.
+	 */
+	@Override
+	public String getName() {
+		return CACHE_KEY;
+	}
+}
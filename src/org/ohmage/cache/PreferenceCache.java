@@ -64,7 +64,12 @@ public final class PreferenceCache extends KeyValueCache {
 	
 	// Audio-specific information.
 	public static final String KEY_AUDIO_DIRECTORY = "audio_directory";
-	
+
+	// Content-addressed storage of documents and media.
+	public static final String KEY_CONTENT_ADDRESSED_STORAGE_ENABLED =
+		"content_addressed_storage_enabled";
+	public static final String KEY_CONTENT_DIRECTORY = "content_directory";
+
 	// Allows privileged users in a class to view the Mobility information 
 	// about everyone else in the class.
 	public static final String 
@@ -0,0 +1,631 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+/**
+ * <p>
+ * Singleton cache of {@link TrigramIndex}es over the free-text fields that
+ * the user, class, and campaign search APIs search with LIKE '%token%'
+ * clauses. Those clauses cannot use a B-tree index, so the query layer asks
+ * this cache for the keys that may match and restricts its query to them,
+ * leaving the LIKE clauses in place to verify the candidates.
+ * </p>
+ *
+ * <p>
+ * The indices are rebuilt from the database periodically in the background
+ * and are kept current in between by the create, update, and delete paths in
+ * the query layer calling the appropriate <code>refresh</code> method once
+ * their transaction has been committed.
+ * </p>
+ *
+ * <p>
+ * Those paths also advance a version stamp in the database, so a server can
+ * tell when another server has changed the indexed values. The stamp is
+ * checked at most once every {@value #MILLIS_BETWEEN_STAMP_CHECKS}
+ * milliseconds, and while it is ahead of the indices, they are not used,
+ * i.e. searches fall back to their LIKE clauses alone, and they are rebuilt
+ * right away. Otherwise, a search could silently miss the users, classes,
+ * and campaigns that were created or renamed elsewhere.
+ * </p>
+ */
+public final class SearchIndexCache extends Cache implements DisposableBean {
+	private static final Logger LOGGER =
+		Logger.getLogger(SearchIndexCache.class);
+
+	/**
+	 * The name of this cache.
+	 */
+	public static final String CACHE_KEY = "searchIndexCache";
+
+	/**
+	 * The largest candidate set that will be used to restrict a query. Past
+	 * this the index is no longer selective enough to be worth the long IN
+	 * list.
+	 */
+	public static final int MAX_CANDIDATES = 1000;
+
+	/**
+	 * The least number of milliseconds between checks of the database's
+	 * version stamp for values that were changed by another server.
+	 */
+	private static final long MILLIS_BETWEEN_STAMP_CHECKS = 1000;
+
+	/**
+	 * The entities whose fields are indexed.
+	 */
+	private static enum Entity { USER, CLASS, CAMPAIGN };
+
+	/**
+	 * The indexed fields and the entity to which they belong. The keys in
+	 * each field's index are the usernames, class IDs, and campaign IDs,
+	 * respectively.
+	 */
+	public static enum Field {
+		USER_USERNAME (Entity.USER),
+		USER_EMAIL_ADDRESS (Entity.USER),
+		USER_FIRST_NAME (Entity.USER),
+		USER_LAST_NAME (Entity.USER),
+		USER_ORGANIZATION (Entity.USER),
+		CLASS_ID (Entity.CLASS),
+		CLASS_NAME (Entity.CLASS),
+		CLASS_DESCRIPTION (Entity.CLASS),
+		CAMPAIGN_ID (Entity.CAMPAIGN),
+		CAMPAIGN_NAME (Entity.CAMPAIGN),
+		CAMPAIGN_DESCRIPTION (Entity.CAMPAIGN);
+
+		private final Entity entity;
+
+		private Field(final Entity entity) {
+			this.entity = entity;
+		}
+	}
+
+	private static final String SQL_GET_USERS =
+		"SELECT u.username, u.email_address, " +
+			"up.first_name, up.last_name, up.organization " +
+		"FROM user u LEFT JOIN user_personal up ON u.id = up.user_id";
+
+	private static final String SQL_GET_USER =
+		SQL_GET_USERS + " WHERE u.username = ?";
+
+	private static final String SQL_GET_CLASSES =
+		"SELECT urn, name, description " +
+		"FROM class";
+
+	private static final String SQL_GET_CLASS =
+		SQL_GET_CLASSES + " WHERE urn = ?";
+
+	private static final String SQL_GET_CAMPAIGNS =
+		"SELECT urn, name, description " +
+		"FROM campaign";
+
+	private static final String SQL_GET_CAMPAIGN =
+		SQL_GET_CAMPAIGNS + " WHERE urn = ?";
+
+	private static final String SQL_GET_STAMP =
+		"SELECT version FROM search_index_version WHERE id = 1";
+
+	/**
+	 * The thread that periodically rebuilds the indices.
+	 */
+	private static final Timer REBUILDER =
+		new Timer("SearchIndexCache - Rebuilding the search indices.", true);
+
+	private static SearchIndexCache instance;
+
+	private final JdbcTemplate jdbcTemplate;
+
+	/**
+	 * The current indices. This is null until the first build completes, and
+	 * it is replaced wholesale by each rebuild.
+	 */
+	private volatile Map<Field, TrigramIndex> indices = null;
+
+	/**
+	 * The keys of each entity that were refreshed while a rebuild was in
+	 * progress. The rebuild's snapshot of the database may predate those
+	 * changes, so they are refreshed again once it completes. This is null
+	 * when no rebuild is in progress.
+	 */
+	private Map<Entity, Set<String>> refreshedDuringRebuild = null;
+
+	/**
+	 * The database's version stamp that the indices reflect. All access must
+	 * be synchronized on this object.
+	 */
+	private long stamp = -1;
+
+	/**
+	 * Whether the database's version stamp was ahead of the indices when it
+	 * was last checked.
+	 */
+	private volatile boolean stale = false;
+
+	/**
+	 * When the database's version stamp was last checked.
+	 */
+	private volatile long lastStampCheck = 0;
+
+	/**
+	 * Whether a rebuild has been scheduled because the indices are stale.
+	 * All access must be synchronized on this object.
+	 */
+	private boolean rebuildScheduled = false;
+
+	/**
+	 * Default constructor called by Spring via reflection.
+	 *
+	 * @param dataSource
+	 *        The DataSource to use to read the indexed values.
+	 *
+	 * @param updateFrequency
+	 *        The number of milliseconds between full rebuilds of the indices.
+	 */
+	private SearchIndexCache(
+		final DataSource dataSource,
+		final long updateFrequency) {
+
+		super(dataSource, updateFrequency);
+
+		if(updateFrequency < MIN_CACHE_REFRESH_MILLIS) {
+			throw new IllegalArgumentException(
+				"The update frequency must be at least " +
+					MIN_CACHE_REFRESH_MILLIS +
+					" milliseconds.");
+		}
+
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		instance = this;
+
+		// The first build is done in the background, so the server may start
+		// without waiting on it. Until it completes, searches are unassisted.
+		REBUILDER.schedule(
+			new TimerTask() {
+				@Override
+				public void run() {
+					rebuild();
+				}
+			},
+			0,
+			updateFrequency);
+	}
+
+	/**
+	 * Returns the one instance of this class.
+	 *
+	 * @return The one instance of this class.
+	 */
+	public static SearchIndexCache instance() {
+		return instance;
+	}
+
+	/**
+	 * <p>
+	 * Narrows a set of candidate keys to those that might match any one of a
+	 * set of LIKE patterns on some field. This is meant to be chained across
+	 * each of the fields in a search, i.e. the result is the intersection of
+	 * the given candidates and the matches for this field.
+	 * </p>
+	 *
+	 * <p>
+	 * Only patterns of the form '%token%', 'token%', '%token', or 'token'
+	 * can be answered. If any pattern contains another wildcard or has a
+	 * token shorter than a trigram, the index cannot help and the given
+	 * candidates are returned unchanged. The same is true while another
+	 * server's changes have not yet been indexed.
+	 * </p>
+	 *
+	 * @param candidates
+	 *        The current candidates or null if no field has narrowed the
+	 *        search yet.
+	 *
+	 * @param field
+	 *        The field being searched.
+	 *
+	 * @param likePatterns
+	 *        The LIKE patterns which are OR'd together for this field. If
+	 *        this is null or empty, the candidates are returned unchanged.
+	 *
+	 * @return The narrowed candidates or null if no field has narrowed the
+	 *         search.
+	 */
+	public Set<String> narrow(
+		final Set<String> candidates,
+		final Field field,
+		final Collection<String> likePatterns) {
+
+		Map<Field, TrigramIndex> currIndices = indices;
+		if((currIndices == null) ||
+			(likePatterns == null) ||
+			likePatterns.isEmpty() ||
+			isStale()) {
+
+			return candidates;
+		}
+
+		TrigramIndex index = currIndices.get(field);
+		Set<String> matches = new HashSet<String>();
+		for(String likePattern : likePatterns) {
+			String token = getToken(likePattern);
+			if(token == null) {
+				return candidates;
+			}
+
+			Set<String> tokenMatches = index.lookup(token);
+			if(tokenMatches == null) {
+				return candidates;
+			}
+			matches.addAll(tokenMatches);
+		}
+
+		if(candidates != null) {
+			matches.retainAll(candidates);
+		}
+		return matches;
+	}
+
+	/**
+	 * Re-reads a user's indexed values from the database. If the user no
+	 * longer exists, they are removed from the indices.
+	 *
+	 * @param username
+	 *        The user's username.
+	 *
+	 * @param newStamp
+	 *        The database's version stamp after the change.
+	 */
+	public void refreshUser(final String username, final long newStamp) {
+		refresh(Entity.USER, SQL_GET_USER, username);
+		advanceStamp(newStamp);
+	}
+
+	/**
+	 * Re-reads a class' indexed values from the database. If the class no
+	 * longer exists, it is removed from the indices.
+	 *
+	 * @param classId
+	 *        The class' unique identifier.
+	 *
+	 * @param newStamp
+	 *        The database's version stamp after the change.
+	 */
+	public void refreshClass(final String classId, final long newStamp) {
+		refresh(Entity.CLASS, SQL_GET_CLASS, classId);
+		advanceStamp(newStamp);
+	}
+
+	/**
+	 * Re-reads a campaign's indexed values from the database. If the
+	 * campaign no longer exists, it is removed from the indices.
+	 *
+	 * @param campaignId
+	 *        The campaign's unique identifier.
+	 *
+	 * @param newStamp
+	 *        The database's version stamp after the change.
+	 */
+	public void refreshCampaign(
+		final String campaignId,
+		final long newStamp) {
+
+		refresh(Entity.CAMPAIGN, SQL_GET_CAMPAIGN, campaignId);
+		advanceStamp(newStamp);
+	}
+
+	/**
+	 * Returns the names of the indexed fields.
+	 */
+	@Override
+	public Set<String> getKeys() {
+		Set<String> result = new HashSet<String>();
+		for(Field field : Field.values()) {
+			result.add(field.name());
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a human-readable name for this cache.
+	 */
+	@Override
+	public String getName() {
+		return CACHE_KEY;
+	}
+
+	/**
+	 * Stops the rebuilding task.
+	 */
+	@Override
+	public void destroy() {
+		REBUILDER.cancel();
+	}
+
+	/**
+	 * Rebuilds all of the indices from the database and swaps them in. If
+	 * the database cannot be read, the current indices are kept.
+	 */
+	private void rebuild() {
+		long start = System.currentTimeMillis();
+
+		synchronized(this) {
+			rebuildScheduled = false;
+			refreshedDuringRebuild = new EnumMap<Entity, Set<String>>(Entity.class);
+			for(Entity entity : Entity.values()) {
+				refreshedDuringRebuild.put(entity, new HashSet<String>());
+			}
+		}
+
+		Map<Field, TrigramIndex> newIndices =
+			new EnumMap<Field, TrigramIndex>(Field.class);
+		for(Field field : Field.values()) {
+			newIndices.put(field, new TrigramIndex());
+		}
+
+		// The stamp is read first, so any change that the snapshot misses
+		// leaves it behind the database.
+		long newStamp;
+		try {
+			newStamp = jdbcTemplate.queryForLong(SQL_GET_STAMP);
+			jdbcTemplate.query(
+				SQL_GET_USERS,
+				new EntityRowHandler(Entity.USER, newIndices));
+			jdbcTemplate.query(
+				SQL_GET_CLASSES,
+				new EntityRowHandler(Entity.CLASS, newIndices));
+			jdbcTemplate.query(
+				SQL_GET_CAMPAIGNS,
+				new EntityRowHandler(Entity.CAMPAIGN, newIndices));
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			LOGGER.error("Error rebuilding the search indices.", e);
+			synchronized(this) {
+				refreshedDuringRebuild = null;
+			}
+			return;
+		}
+
+		Map<Entity, Set<String>> toRefresh;
+		synchronized(this) {
+			indices = newIndices;
+			// A change made here while the snapshot was being read may
+			// already have advanced the stamp, and it is refreshed below.
+			stamp = Math.max(stamp, newStamp);
+			toRefresh = refreshedDuringRebuild;
+			refreshedDuringRebuild = null;
+		}
+		lastStampCheck = 0;
+
+		// Anything that changed while the snapshot was being read is read
+		// again now that the new indices are visible.
+		for(String username : toRefresh.get(Entity.USER)) {
+			refresh(Entity.USER, SQL_GET_USER, username);
+		}
+		for(String classId : toRefresh.get(Entity.CLASS)) {
+			refresh(Entity.CLASS, SQL_GET_CLASS, classId);
+		}
+		for(String campaignId : toRefresh.get(Entity.CAMPAIGN)) {
+			refresh(Entity.CAMPAIGN, SQL_GET_CAMPAIGN, campaignId);
+		}
+
+		if(LOGGER.isDebugEnabled()) {
+			LOGGER.debug(
+				"Rebuilt the search indices in " +
+					(System.currentTimeMillis() - start) +
+					" milliseconds: " +
+					newIndices.get(Field.USER_USERNAME).size() + " users, " +
+					newIndices.get(Field.CLASS_ID).size() + " classes, " +
+					newIndices.get(Field.CAMPAIGN_ID).size() + " campaigns.");
+		}
+		setLastUpdateTimestamp(System.currentTimeMillis());
+	}
+
+	/**
+	 * Returns whether the indices may be missing changes made by another
+	 * server, in which case a rebuild is scheduled. The database's version
+	 * stamp is only read if it has not been checked recently.
+	 *
+	 * @return Whether the indices should not be used.
+	 */
+	private boolean isStale() {
+		long now = System.currentTimeMillis();
+		if((now - lastStampCheck) < MILLIS_BETWEEN_STAMP_CHECKS) {
+			return stale;
+		}
+
+		long dbStamp;
+		try {
+			dbStamp = jdbcTemplate.queryForLong(SQL_GET_STAMP);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			LOGGER.error("Error executing SQL '" + SQL_GET_STAMP + "'.", e);
+			stale = true;
+			lastStampCheck = now;
+			return true;
+		}
+
+		boolean scheduleRebuild = false;
+		synchronized(this) {
+			stale = (stamp < dbStamp);
+			if(stale && (! rebuildScheduled)) {
+				rebuildScheduled = true;
+				scheduleRebuild = true;
+			}
+		}
+		lastStampCheck = now;
+
+		if(scheduleRebuild) {
+			REBUILDER.schedule(
+				new TimerTask() {
+					@Override
+					public void run() {
+						rebuild();
+					}
+				},
+				0);
+		}
+		return stale;
+	}
+
+	/**
+	 * Records that the indices reflect a change made by this server. If
+	 * another server made a change in the meantime, the stamp is left behind
+	 * the database's, so the indices are not used until they are rebuilt.
+	 *
+	 * @param newStamp
+	 *        The database's version stamp after the change.
+	 */
+	private synchronized void advanceStamp(final long newStamp) {
+		if(stamp == (newStamp - 1)) {
+			stamp = newStamp;
+		}
+	}
+
+	/**
+	 * Re-reads a single entity's values and updates the current indices.
+	 *
+	 * @param entity
+	 *        The type of entity.
+	 *
+	 * @param sql
+	 *        The SQL that selects the entity's key and values.
+	 *
+	 * @param key
+	 *        The entity's key.
+	 */
+	private void refresh(
+		final Entity entity,
+		final String sql,
+		final String key) {
+
+		if(key == null) {
+			return;
+		}
+
+		synchronized(this) {
+			if(refreshedDuringRebuild != null) {
+				refreshedDuringRebuild.get(entity).add(key);
+			}
+		}
+
+		Map<Field, TrigramIndex> currIndices = indices;
+		if(currIndices == null) {
+			return;
+		}
+
+		EntityRowHandler handler = new EntityRowHandler(entity, currIndices);
+		try {
+			jdbcTemplate.query(sql, new Object[] { key }, handler);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			// The stale values only cost extra candidates or a missed match
+			// until the next rebuild, so the caller is not failed.
+			LOGGER.error(
+				"Error executing SQL '" + sql + "' with parameter: " + key,
+				e);
+			return;
+		}
+
+		if(! handler.found) {
+			for(Field field : Field.values()) {
+				if(field.entity.equals(entity)) {
+					currIndices.get(field).remove(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Indexes each row of an entity. The first column must be the entity's
+	 * key, and the remaining columns must be that entity's fields in the
+	 * order they are declared in {@link Field}.
+	 */
+	private static final class EntityRowHandler implements RowCallbackHandler {
+		private final Entity entity;
+		private final Map<Field, TrigramIndex> indices;
+		private boolean found = false;
+
+		private EntityRowHandler(
+			final Entity entity,
+			final Map<Field, TrigramIndex> indices) {
+
+			this.entity = entity;
+			this.indices = indices;
+		}
+
+		@Override
+		public void processRow(final ResultSet rs) throws SQLException {
+			found = true;
+
+			String key = rs.getString(1);
+			int column = 1;
+			for(Field field : Field.values()) {
+				if(field.entity.equals(entity)) {
+					indices.get(field).put(key, rs.getString(column++));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Extracts the search token from a LIKE pattern.
+	 *
+	 * @param likePattern
+	 *        The LIKE pattern.
+	 *
+	 * @return The token or null if the pattern contains wildcards other than
+	 *         a leading and trailing '%'.
+	 */
+	private static String getToken(final String likePattern) {
+		if(likePattern == null) {
+			return null;
+		}
+
+		int start = 0;
+		int end = likePattern.length();
+		if((end > start) && (likePattern.charAt(start) == '%')) {
+			start++;
+		}
+		if((end > start) && (likePattern.charAt(end - 1) == '%')) {
+			end--;
+		}
+
+		String token = likePattern.substring(start, end);
+		if((token.indexOf('%') != -1) ||
+			(token.indexOf('_') != -1) ||
+			(token.indexOf('\\') != -1)) {
+
+			return null;
+		}
+		return token;
+	}
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import org.ohmage.domain.User;
+
+/**
+ * <p>
+ * The storage behind the {@link UserBin}, mapping authentication tokens to
+ * the users that own them and the last time each token was used.
+ * </p>
+ *
+ * <p>
+ * A token expires once it has gone unused for {@link UserBin#LIFETIME}
+ * milliseconds. Implementations must be safe for concurrent use, as every
+ * authenticated request reads from the store.
+ * </p>
+ */
+public interface SessionStore {
+	/**
+	 * Adds a new token.
+	 *
+	 * @param token
+	 *        The token.
+	 *
+	 * @param user
+	 *        The user that owns the token. The store may keep this object,
+	 *        so the caller must not modify it afterwards.
+	 *
+	 * @param time
+	 *        The time the token was created in milliseconds since epoch.
+	 *
+	 * @return True if the token was added or false if the token already
+	 *         exists.
+	 */
+	boolean add(String token, User user, long time);
+
+	/**
+	 * Returns the user that owns a token and refreshes the token's last
+	 * access time.
+	 *
+	 * @param token
+	 *        The token.
+	 *
+	 * @param currentTime
+	 *        The current time in milliseconds since epoch.
+	 *
+	 * @return The user, which the caller must not modify, or null if the
+	 *         token is unknown or has expired.
+	 */
+	User get(String token, long currentTime);
+
+	/**
+	 * Returns the last time a token was used.
+	 *
+	 * @param token
+	 *        The token.
+	 *
+	 * @return The last time the token was used in milliseconds since epoch
+	 *         or -1 if the token is unknown.
+	 */
+	long getLastAccessTime(String token);
+
+	/**
+	 * Removes a token. If the token is unknown, this is a no-op.
+	 *
+	 * @param token
+	 *        The token.
+	 */
+	void remove(String token);
+
+	/**
+	 * Removes all of a user's tokens.
+	 *
+	 * @param username
+	 *        The user's username.
+	 */
+	void removeUser(String username);
+
+	/**
+	 * Removes the tokens that have expired and performs any other periodic
+	 * maintenance. This is called by the {@link UserBin} once per execution
+	 * period.
+	 *
+	 * @param currentTime
+	 *        The current time in milliseconds since epoch.
+	 */
+	void expire(long currentTime);
+}
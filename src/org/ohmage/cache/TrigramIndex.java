@@ -0,0 +1,271 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import java.text.Normalizer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * An inverted index from every three-character substring of a value to the
+ * keys whose value contains it. A substring search for some token can then
+ * be answered by intersecting the keys for each of the token's trigrams.
+ * </p>
+ *
+ * <p>
+ * The result of a lookup is a superset of the keys whose value contains the
+ * token, so callers must still verify each candidate, e.g. with the original
+ * SQL LIKE clause.
+ * </p>
+ *
+ * <p>
+ * Values are lower-cased and stripped of their diacritics before they are
+ * indexed to approximate the case- and accent-insensitive collation of the
+ * database.
+ * </p>
+ */
+public final class TrigramIndex {
+	/**
+	 * The length of each gram.
+	 */
+	public static final int GRAM_LENGTH = 3;
+
+	/**
+	 * The combining marks that are removed from values after they have been
+	 * decomposed.
+	 */
+	private static final Pattern PATTERN_COMBINING_MARKS =
+		Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+
+	/**
+	 * A map of each trigram to the keys whose value contains that trigram.
+	 */
+	private final Map<String, Set<String>> postings =
+		new HashMap<String, Set<String>>();
+
+	/**
+	 * A map of each key to its normalized value. This is required to remove
+	 * the key from the postings when it is updated or removed.
+	 */
+	private final Map<String, String> values = new HashMap<String, String>();
+
+	/**
+	 * Guards the two maps above. Lookups are far more common than updates.
+	 */
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * Creates an empty index.
+	 */
+	public TrigramIndex() {
+		// Do nothing.
+	}
+
+	/**
+	 * Indexes a key's value, replacing any value that was previously indexed
+	 * for the key.
+	 *
+	 * @param key
+	 *        The key, e.g. a username or a class' ID.
+	 *
+	 * @param value
+	 *        The value to index. If this is null, the key is removed.
+	 */
+	public void put(final String key, final String value) {
+		if(key == null) {
+			throw new IllegalArgumentException("The key is null.");
+		}
+		if(value == null) {
+			remove(key);
+			return;
+		}
+
+		String normalized = normalize(value);
+
+		lock.writeLock().lock();
+		try {
+			String previous = values.put(key, normalized);
+			if(previous != null) {
+				if(previous.equals(normalized)) {
+					return;
+				}
+				removePostings(key, previous);
+			}
+
+			for(String gram : getGrams(normalized)) {
+				Set<String> keys = postings.get(gram);
+				if(keys == null) {
+					keys = new HashSet<String>();
+					postings.put(gram, keys);
+				}
+				keys.add(key);
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes a key from the index. If the key is unknown, this is a no-op.
+	 *
+	 * @param key
+	 *        The key to remove.
+	 */
+	public void remove(final String key) {
+		lock.writeLock().lock();
+		try {
+			String previous = values.remove(key);
+			if(previous != null) {
+				removePostings(key, previous);
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the keys whose value may contain the token.
+	 *
+	 * @param token
+	 *        The token to search for.
+	 *
+	 * @return The, possibly empty, set of candidate keys or null if the token
+	 *         is shorter than a trigram, in which case the index cannot
+	 *         narrow the search.
+	 */
+	public Set<String> lookup(final String token) {
+		if(token == null) {
+			return null;
+		}
+
+		Set<String> grams = getGrams(normalize(token));
+		if(grams.isEmpty()) {
+			return null;
+		}
+
+		lock.readLock().lock();
+		try {
+			// Start with the smallest posting list to keep the intersection
+			// as cheap as possible.
+			Set<String> smallest = null;
+			for(String gram : grams) {
+				Set<String> keys = postings.get(gram);
+				if(keys == null) {
+					return Collections.emptySet();
+				}
+				if((smallest == null) || (keys.size() < smallest.size())) {
+					smallest = keys;
+				}
+			}
+
+			Set<String> result = new HashSet<String>(smallest);
+			for(String gram : grams) {
+				Set<String> keys = postings.get(gram);
+				if(keys != smallest) {
+					result.retainAll(keys);
+					if(result.isEmpty()) {
+						break;
+					}
+				}
+			}
+			return result;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of keys in this index.
+	 *
+	 * @return The number of keys in this index.
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return values.size();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Lower-cases a value and strips its diacritics.
+	 *
+	 * @param value
+	 *        The value to normalize.
+	 *
+	 * @return The normalized value.
+	 */
+	public static String normalize(final String value) {
+		String decomposed = Normalizer.normalize(value, Normalizer.Form.NFD);
+		return
+			PATTERN_COMBINING_MARKS
+				.matcher(decomposed)
+				.replaceAll("")
+				.toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * Returns every distinct trigram in an already normalized value.
+	 *
+	 * @param normalized
+	 *        The normalized value.
+	 *
+	 * @return The set of trigrams, which will be empty if the value is
+	 *         shorter than a trigram.
+	 */
+	private static Set<String> getGrams(final String normalized) {
+		Set<String> result = new HashSet<String>();
+		for(int i = 0; i + GRAM_LENGTH <= normalized.length(); i++) {
+			result.add(normalized.substring(i, i + GRAM_LENGTH));
+		}
+		return result;
+	}
+
+	/**
+	 * Removes a key from the postings of each of the trigrams of its value.
+	 * The write lock must be held.
+	 *
+	 * @param key
+	 *        The key to remove.
+	 *
+	 * @param normalized
+	 *        The key's normalized value.
+	 */
+	private void removePostings(final String key, final String normalized) {
+		for(String gram : getGrams(normalized)) {
+			Set<String> keys = postings.get(gram);
+			if(keys != null) {
+				keys.remove(key);
+				if(keys.isEmpty()) {
+					postings.remove(gram);
+				}
+			}
+		}
+	}
+}
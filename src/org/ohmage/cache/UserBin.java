@@ -15,13 +15,10 @@
  ******************************************************************************/
 package org.ohmage.cache;
 
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.log4j.Logger;
 import org.ohmage.domain.User;
@@ -29,9 +26,18 @@ import org.ohmage.exception.DomainException;
 import org.springframework.beans.factory.DisposableBean;
 
 /**
+ * <p>
  * User storage. User objects are mapped to unique ids. Avoids dependencies on
  * JEE session management. The lifetime param set on construction controls how
  * long User objects stay active.
+ * </p>
+ * 
+ * <p>
+ * The tokens themselves are kept in a {@link SessionStore}. By default, this
+ * is an {@link InMemorySessionStore}, but Spring may supply another, e.g. a
+ * {@link JdbcSessionStore} so that tokens survive restarts and are shared by
+ * every instance of the server.
+ * </p>
  * 
  * @author Joshua Selsky
  */
@@ -42,35 +48,13 @@ public final class UserBin extends TimerTask implements DisposableBean {
 	 * This is the length of an authentication token.
 	 */
 	public static final int LIFETIME = 1000 * 60 * 15;
-	private static final int EXECUTION_PERIOD = 60000;
-
 	/**
-	 * A class for associating users to the time their token expires.
-	 * 
-	 * @author John Jenkins
+	 * The number of milliseconds between each expiration of old tokens.
 	 */
-	private static final class UserTime {
-		private final User user;
-		private long time;
-
-		/**
-		 * Convenience constructor.
-		 * 
-		 * @param user
-		 *        The user that is being stored in the cache.
-		 * 
-		 * @param time
-		 *        The last time this user was accessed in the cache.
-		 */
-		private UserTime(User user, long time) {
-			this.user = user;
-			this.time = time;
-		}
-	}
+	static final int EXECUTION_PERIOD = 60000;
 
-	// A map of tokens to USERS and the time that their token expires.
-	private static final Map<String, UserTime> USERS =
-		new ConcurrentHashMap<String, UserTime>();
+	// The store for the tokens.
+	private static volatile SessionStore store = new InMemorySessionStore();
 	// An EXECUTIONER thread to purge those whose tokens have expired.
 	private static final Timer EXECUTIONER = new Timer(
 		"UserBin - User expiration process.",
@@ -78,28 +62,40 @@ public final class UserBin extends TimerTask implements DisposableBean {
 
 	// Whether or not the constructor has run which will bootstrap this
 	// Singleton class.
-	private static boolean initialized = false;
+	private static final AtomicBoolean INITIALIZED = new AtomicBoolean(false);
 
 	/**
-	 * @param lifetime
-	 *        controls the number of milliseconds a User object will be
-	 *        permitted to be resident in the bin
-	 * @param executionPeriod
-	 *        controls how often the bin is checked for expired USERS
-	 * 
-	 *        TODO Enforce a max lifetime? TODO Enforce period relative to
-	 *        lifetime?
+	 * Creates the bin with the default, in-memory store.
 	 */
 	private UserBin() {
+		this(null);
+	}
+	
+	/**
+	 * Creates the bin with the given store.
+	 * 
+	 * @param sessionStore
+	 *        The store for the tokens or null to use the default, in-memory
+	 *        store.
+	 */
+	private UserBin(final SessionStore sessionStore) {
+		if(! INITIALIZED.compareAndSet(false, true)) {
+			return;
+		}
+		
+		if(sessionStore != null) {
+			store = sessionStore;
+		}
+		
 		LOGGER.info("Users will live for " +
 			LIFETIME +
-			" milliseconds and the executioner will run every " +
+			" milliseconds in a " +
+			store.getClass().getSimpleName() +
+			" and the executioner will run every " +
 			EXECUTION_PERIOD +
 			" milliseconds");
 
-		EXECUTIONER.schedule(this, EXECUTION_PERIOD * 2, EXECUTION_PERIOD);
-
-		initialized = true;
+		EXECUTIONER.schedule(this, EXECUTION_PERIOD, EXECUTION_PERIOD);
 	}
 
 	@Override
@@ -112,21 +108,18 @@ public final class UserBin extends TimerTask implements DisposableBean {
 	 * If the user is already resident in the bin, their old token is removed
 	 * and a new one is generated and returned.
 	 */
-	public static synchronized String addUser(User user)
+	public static String addUser(User user)
 		throws DomainException {
 
-		if(!initialized) {
-			new UserBin();
-		}
+		initialize();
 
 		if(LOGGER.isDebugEnabled()) {
 			LOGGER.debug("adding user to bin");
 		}
 
 		String uuid = UUID.randomUUID().toString();
-		UserTime ut = new UserTime(user, System.currentTimeMillis());
 		user.setToken(uuid);
-		if(USERS.put(uuid, ut) != null) {
+		if(! store.add(uuid, new User(user), System.currentTimeMillis())) {
 			throw new DomainException("UUID collision: " + uuid);
 		}
 
@@ -139,10 +132,8 @@ public final class UserBin extends TimerTask implements DisposableBean {
 	 * @param authToken
 	 *        The authentication token to remove from the user bin.
 	 */
-	public static synchronized void expireUser(String authToken) {
-		if(!initialized) {
-			new UserBin();
-		}
+	public static void expireUser(String authToken) {
+		initialize();
 
 		if(authToken == null) {
 			throw new IllegalArgumentException("The token cannot be null.");
@@ -152,7 +143,7 @@ public final class UserBin extends TimerTask implements DisposableBean {
 			LOGGER.debug("Removing user from bin.");
 		}
 
-		USERS.remove(authToken);
+		store.remove(authToken);
 	}
 
 	/**
@@ -161,10 +152,8 @@ public final class UserBin extends TimerTask implements DisposableBean {
 	 * @param username
 	 *        The user's username.
 	 */
-	public static synchronized void removeUser(String username) {
-		if(!initialized) {
-			new UserBin();
-		}
+	public static void removeUser(String username) {
+		initialize();
 
 		if(username == null) {
 			throw new IllegalArgumentException("The username cannot be null.");
@@ -174,36 +163,26 @@ public final class UserBin extends TimerTask implements DisposableBean {
 			LOGGER.debug("Removing the user from the bin.");
 		}
 
-		Set<String> userTokens = new HashSet<String>();
-		for(String token : USERS.keySet()) {
-			UserTime userTime = USERS.get(token);
-			if(userTime.user.getUsername().equals(username)) {
-				userTokens.add(token);
-			}
-		}
-
-		for(String token : userTokens) {
-			USERS.remove(token);
-		}
+		store.removeUser(username);
 	}
 
 	/**
 	 * Returns the User bound to the provided Id or null if Id does not exist
 	 * in the bin.
 	 */
-	public static synchronized User getUser(String id) {
-		UserTime ut = USERS.get(id);
-		if(null != ut) {
-			User u = ut.user;
-			if(null != u) {
-				ut.time = System.currentTimeMillis(); // refresh the time
-				try {
-					return new User(u);
-				}
-				catch(DomainException e) {
-					LOGGER.error("Error duplicating the user.", e);
-					return null;
-				}
+	public static User getUser(String id) {
+		if(id == null) {
+			return null;
+		}
+		
+		User u = store.get(id, System.currentTimeMillis());
+		if(null != u) {
+			try {
+				return new User(u);
+			}
+			catch(DomainException e) {
+				LOGGER.error("Error duplicating the user.", e);
+				return null;
 			}
 		}
 		return null;
@@ -217,14 +196,14 @@ public final class UserBin extends TimerTask implements DisposableBean {
 	 * 
 	 * @return The number of milliseconds until 'Id' expires.
 	 */
-	public static synchronized long getTokenRemainingLifetimeInMillis(String id) {
-		UserTime ut = USERS.get(id);
-		if(ut == null) {
+	public static long getTokenRemainingLifetimeInMillis(String id) {
+		long time = store.getLastAccessTime(id);
+		if(time < 0) {
 			return 0;
 		}
 		else {
 			return Math.max(
-				(System.currentTimeMillis() + LIFETIME - ut.time),
+				(time + LIFETIME - System.currentTimeMillis()),
 				0);
 		}
 	}
@@ -234,40 +213,25 @@ public final class UserBin extends TimerTask implements DisposableBean {
 	 */
 	@Override
 	public void run() {
-		expire();
-	}
-
-	/**
-	 * Checks every bin location and removes Users whose tokens have expired.
-	 */
-	private static synchronized void expire() {
 		if(LOGGER.isDebugEnabled()) {
 			LOGGER.debug("Beginning user expiration process");
 		}
-
-		Set<String> keySet = USERS.keySet();
-
-		if(LOGGER.isDebugEnabled()) {
-			LOGGER
-				.debug("Number of users before expiration: " + keySet.size());
+		
+		try {
+			store.expire(System.currentTimeMillis());
 		}
-
-		long currentTime = System.currentTimeMillis();
-
-		for(String key : keySet) {
-			UserTime ut = USERS.get(key);
-			if(currentTime - ut.time > LIFETIME) {
-
-				if(LOGGER.isDebugEnabled()) {
-					LOGGER.debug("Removing user with Id " + key);
-				}
-
-				USERS.remove(key);
-			}
+		// Don't let a failure, e.g. a database outage, kill the timer.
+		catch(RuntimeException e) {
+			LOGGER.error("Error while expiring users.", e);
 		}
-
-		if(LOGGER.isDebugEnabled()) {
-			LOGGER.debug("Number of users after expiration: " + USERS.size());
+	}
+	
+	/**
+	 * Creates the Singleton if Spring has not already done so.
+	 */
+	private static void initialize() {
+		if(! INITIALIZED.get()) {
+			new UserBin();
 		}
 	}
 }
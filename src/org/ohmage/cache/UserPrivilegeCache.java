@@ -0,0 +1,298 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.ohmage.domain.UserPrivileges;
+
+/**
+ * <p>
+ * Singleton cache of users' {@link UserPrivileges} shared across requests.
+ * A participant's admin flag and roles rarely change, but they are checked
+ * on every upload and read, so keeping them in memory turns most permission
+ * checks into a map lookup.
+ * </p>
+ *
+ * <p>
+ * Within this server, the query layer invalidates entries as soon as a
+ * write that may change them has been committed. Invalidations are not sent
+ * to other servers, so entries also expire after a fixed time-to-live, which
+ * is how long a change made through another server or directly in the
+ * database may go unnoticed here, e.g. a disabled account may still be
+ * used. It is kept short; a lookup that misses costs a single query. The
+ * cache holds at most a fixed number of users, evicting the least recently
+ * used.
+ * </p>
+ *
+ * <p>
+ * The privileges themselves are loaded by the query layer, which is the only
+ * user of this cache.
+ * </p>
+ */
+public final class UserPrivilegeCache extends Cache {
+	/**
+	 * The name of this cache.
+	 */
+	public static final String CACHE_KEY = "userPrivilegeCache";
+
+	/**
+	 * A cached set of privileges and when they were loaded.
+	 */
+	private static final class Entry {
+		private final UserPrivileges privileges;
+		private final long loadedTimestamp;
+
+		/**
+		 * Creates a new entry that was loaded now.
+		 *
+		 * @param privileges
+		 *        The privileges.
+		 */
+		private Entry(final UserPrivileges privileges) {
+			this.privileges = privileges;
+			loadedTimestamp = System.currentTimeMillis();
+		}
+	}
+
+	private static UserPrivilegeCache instance;
+
+	/**
+	 * The maximum number of users whose privileges will be cached.
+	 */
+	private final int maxSize;
+
+	/**
+	 * The cached privileges keyed by username, in least- to most-recently
+	 * used order. All access must be synchronized on the map.
+	 */
+	private final LinkedHashMap<String, Entry> entries;
+
+	/**
+	 * Incremented by every invalidation. A load that began before an
+	 * invalidation may have read the old values, so its result is discarded
+	 * if this has changed in the meantime.
+	 */
+	private final AtomicLong generation = new AtomicLong(0);
+
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong misses = new AtomicLong(0);
+
+	/**
+	 * Default constructor called by Spring via reflection.
+	 *
+	 * @param dataSource
+	 *        The DataSource, which is unused as the query layer loads the
+	 *        privileges.
+	 *
+	 * @param timeToLive
+	 *        The number of milliseconds for which a user's privileges may be
+	 *        reused before they must be reloaded.
+	 *
+	 * @param maxSize
+	 *        The maximum number of users whose privileges will be cached.
+	 */
+	private UserPrivilegeCache(
+		final DataSource dataSource,
+		final long timeToLive,
+		final int maxSize) {
+
+		super(dataSource, timeToLive);
+
+		if(timeToLive < MIN_CACHE_REFRESH_MILLIS) {
+			throw new IllegalArgumentException(
+				"The time-to-live must be at least " +
+					MIN_CACHE_REFRESH_MILLIS +
+					" milliseconds.");
+		}
+		if(maxSize <= 0) {
+			throw new IllegalArgumentException(
+				"The maximum size must be positive.");
+		}
+
+		this.maxSize = maxSize;
+		entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+				final Map.Entry<String, Entry> eldest) {
+
+				return size() > UserPrivilegeCache.this.maxSize;
+			}
+		};
+
+		instance = this;
+	}
+
+	/**
+	 * Returns the one instance of this class.
+	 *
+	 * @return The one instance of this class or null if it has not been
+	 *         built.
+	 */
+	public static UserPrivilegeCache instance() {
+		return instance;
+	}
+
+	/**
+	 * Returns a user's cached privileges.
+	 *
+	 * @param username
+	 *        The user's username.
+	 *
+	 * @return The user's privileges or null if they are not cached or have
+	 *         expired.
+	 */
+	public UserPrivileges lookup(final String username) {
+		Entry entry;
+		synchronized(entries) {
+			entry = entries.get(username);
+			if(
+				(entry != null) &&
+				(System.currentTimeMillis() - entry.loadedTimestamp >
+					getUpdateFrequency())) {
+
+				entries.remove(username);
+				entry = null;
+			}
+		}
+
+		if(entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return entry.privileges;
+	}
+
+	/**
+	 * Returns the current generation. This must be read before the
+	 * privileges are loaded and passed to {@link #put(UserPrivileges, long)}.
+	 *
+	 * @return The current generation.
+	 */
+	public long getGeneration() {
+		return generation.get();
+	}
+
+	/**
+	 * Caches a user's privileges unless they may have been invalidated while
+	 * they were being loaded.
+	 *
+	 * @param privileges
+	 *        The privileges.
+	 *
+	 * @param loadGeneration
+	 *        The value of {@link #getGeneration()} from before the privileges
+	 *        were loaded.
+	 */
+	public void put(
+		final UserPrivileges privileges,
+		final long loadGeneration) {
+
+		synchronized(entries) {
+			if(generation.get() == loadGeneration) {
+				entries.put(privileges.getUsername(), new Entry(privileges));
+			}
+		}
+	}
+
+	/**
+	 * Removes a user's privileges from the cache.
+	 *
+	 * @param username
+	 *        The user's username.
+	 */
+	public void invalidate(final String username) {
+		synchronized(entries) {
+			generation.incrementAndGet();
+			entries.remove(username);
+		}
+	}
+
+	/**
+	 * Removes every user's privileges from the cache. This is used when a
+	 * change, e.g. to a class' roster, may affect many users at once.
+	 */
+	public void invalidateAll() {
+		synchronized(entries) {
+			generation.incrementAndGet();
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Returns the number of lookups that were answered from the cache.
+	 *
+	 * @return The number of hits.
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of lookups that were not answered from the cache.
+	 *
+	 * @return The number of misses.
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the ratio of lookups that were answered from the cache.
+	 *
+	 * @return The hit ratio between 0 and 1 or 0 if there have been no
+	 *         lookups.
+	 */
+	public double getHitRatio() {
+		long currHits = hits.get();
+		long total = currHits + misses.get();
+		if(total == 0) {
+			return 0;
+		}
+		return ((double) currHits) / total;
+	}
+
+	/**
+	 * Returns the usernames whose privileges are currently cached.
+	 *
+	 * @return The usernames whose privileges are currently cached.
+	 */
+	@Override
+	public Set<String> getKeys() {
+		synchronized(entries) {
+			return new HashSet<String>(entries.keySet());
+		}
+	}
+
+	/**
+	 * Returns the name of this cache.
+	 *
+	 * @return The name of this cache.
+	 */
+	@Override
+	public String getName() {
+		return CACHE_KEY;
+	}
+}
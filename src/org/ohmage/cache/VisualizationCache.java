@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+/**
+ * <p>
+ * Singleton cache of rendered visualization images. Drawing a chart requires
+ * reading every survey response it covers, yet dashboards ask for the same
+ * charts over and over while the data rarely change.
+ * </p>
+ *
+ * <p>
+ * The keys include the version of the campaign's survey responses, which
+ * advances whenever any of them is uploaded, changed, or deleted, so an
+ * image is never served once its data have changed and nothing needs to be
+ * invalidated. They also include the requesting user, as what a user may see
+ * depends on their roles. Images expire after a fixed time-to-live, which
+ * bounds how long a change to those roles takes to show, and the cache holds
+ * at most a fixed number of images, evicting the least recently used.
+ * </p>
+ */
+public final class VisualizationCache extends Cache {
+	/**
+	 * The name of this cache.
+	 */
+	public static final String CACHE_KEY = "visualizationCache";
+
+	/**
+	 * A cached image and when it was rendered.
+	 */
+	private static final class Entry {
+		private final byte[] image;
+		private final long renderedTimestamp;
+
+		/**
+		 * Creates a new entry that was rendered now.
+		 *
+		 * @param image
+		 *        The image.
+		 */
+		private Entry(final byte[] image) {
+			this.image = image;
+			renderedTimestamp = System.currentTimeMillis();
+		}
+	}
+
+	private static VisualizationCache instance;
+
+	/**
+	 * The maximum number of images that will be cached.
+	 */
+	private final int maxSize;
+
+	/**
+	 * The cached images keyed by the request's parameters, in least- to
+	 * most-recently used order. All access must be synchronized on the map.
+	 */
+	private final LinkedHashMap<String, Entry> entries;
+
+	/**
+	 * Default constructor called by Spring via reflection.
+	 *
+	 * @param dataSource
+	 *        The DataSource, which is unused as the services render the
+	 *        images.
+	 *
+	 * @param timeToLive
+	 *        The number of milliseconds for which an image may be reused
+	 *        before it must be rendered again.
+	 *
+	 * @param maxSize
+	 *        The maximum number of images that will be cached.
+	 */
+	private VisualizationCache(
+		final DataSource dataSource,
+		final long timeToLive,
+		final int maxSize) {
+
+		super(dataSource, timeToLive);
+
+		if(timeToLive < MIN_CACHE_REFRESH_MILLIS) {
+			throw new IllegalArgumentException(
+				"The time-to-live must be at least " +
+					MIN_CACHE_REFRESH_MILLIS +
+					" milliseconds.");
+		}
+		if(maxSize <= 0) {
+			throw new IllegalArgumentException(
+				"The maximum size must be positive.");
+		}
+
+		this.maxSize = maxSize;
+		entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+				final Map.Entry<String, Entry> eldest) {
+
+				return size() > VisualizationCache.this.maxSize;
+			}
+		};
+
+		instance = this;
+	}
+
+	/**
+	 * Returns the one instance of this class.
+	 *
+	 * @return The one instance of this class or null if it has not been
+	 *         built.
+	 */
+	public static VisualizationCache instance() {
+		return instance;
+	}
+
+	/**
+	 * Returns a cached image.
+	 *
+	 * @param key
+	 *        The request's parameters.
+	 *
+	 * @return The image or null if it is not cached or has expired.
+	 */
+	public byte[] lookup(final String key) {
+		synchronized(entries) {
+			Entry entry = entries.get(key);
+			if(entry == null) {
+				return null;
+			}
+			if(
+				System.currentTimeMillis() - entry.renderedTimestamp >
+					getUpdateFrequency()) {
+
+				entries.remove(key);
+				return null;
+			}
+			return entry.image;
+		}
+	}
+
+	/**
+	 * Caches an image.
+	 *
+	 * @param key
+	 *        The request's parameters.
+	 *
+	 * @param image
+	 *        The image.
+	 */
+	public void put(final String key, final byte[] image) {
+		synchronized(entries) {
+			entries.put(key, new Entry(image));
+		}
+	}
+
+	/**
+	 * Returns the keys of the images that are currently cached.
+	 *
+	 * @return The keys of the images that are currently cached.
+	 */
+	@Override
+	public Set<String> getKeys() {
+		synchronized(entries) {
+			return new HashSet<String>(entries.keySet());
+		}
+	}
+
+	/**
+	 * Returns the name of this cache.
+	 *
+	 * @return The name of this cache.
+	 */
+	@Override
+	public String getName() {
+		return CACHE_KEY;
+	}
+}
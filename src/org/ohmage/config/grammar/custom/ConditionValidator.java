@@ -17,9 +17,12 @@ package org.ohmage.config.grammar.custom;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.ohmage.config.grammar.parser.ConditionParser;
 import org.ohmage.config.grammar.parser.ParseException;
@@ -27,12 +30,32 @@ import org.ohmage.config.grammar.syntaxtree.Start;
 
 /**
  * A validator for conditions that relies on classes generated from JavaCC and JTB to parse and retrieve data from Condition
- * sentences.  
+ * sentences.
+ * 
+ * The parser is generated with STATIC set to false, so each thread keeps its own parser and re-initializes it for every
+ * Condition, and no lock is needed. The result of parsing a Condition is remembered by its text, so a Condition that is shared
+ * by many prompts or campaigns is only parsed once.
  * 
  * @author selsky
  */
 public final class ConditionValidator {
-	private static boolean first = true;
+	/**
+	 * The maximum number of Conditions whose results are remembered. If this is reached, the results are discarded and the
+	 * remembering starts again.
+	 */
+	private static final int MAX_CACHED_CONDITIONS = 10000;
+	
+	/**
+	 * Each thread's parser. It is created for the first Condition that the thread validates and re-initialized for each one
+	 * after that.
+	 */
+	private static final ThreadLocal<ConditionParser> PARSER = new ThreadLocal<ConditionParser>();
+	
+	/**
+	 * The results of the Conditions that have been successfully parsed, keyed by the Condition Sentence.
+	 */
+	private static final Map<String, Map<String, List<ConditionValuePair>>> CACHE =
+		new ConcurrentHashMap<String, Map<String, List<ConditionValuePair>>>();
 	
 	/**
 	 * Prevent instantiation.
@@ -54,34 +77,55 @@ public final class ConditionValidator {
 	 * Validates the provided Condition Sentence.
 	 * 
 	 * @param conditionSentence
-	 * @return Map of Id-Value list pairs for each Id-operation-Value in the provided Sentence
+	 * @return Map of Id-Value list pairs for each Id-operation-Value in the provided Sentence. The result may be shared with
+	 *         other callers, so neither the map, its lists, nor its pairs may be modified.
 	 * @throws ConditionParseException if the Sentence does not conform to our grammar (see spec/Condition-grammar.jj) 
 	 */
-	@SuppressWarnings("static-access")
 	public static Map<String, List<ConditionValuePair>> validate(String conditionSentence) {
+		Map<String, List<ConditionValuePair>> result = CACHE.get(conditionSentence);
+		if(result != null) {
+			return result;
+		}
+		
+		result = parse(conditionSentence);
+		if(CACHE.size() >= MAX_CACHED_CONDITIONS) {
+			CACHE.clear();
+		}
+		CACHE.put(conditionSentence, result);
+		return result;
+	}
+	
+	/**
+	 * Parses the provided Condition Sentence with this thread's parser.
+	 * 
+	 * @param conditionSentence
+	 * @return An unmodifiable map of Id-Value list pairs for each Id-operation-Value in the provided Sentence
+	 * @throws ConditionParseException if the Sentence does not conform to our grammar (see spec/Condition-grammar.jj) 
+	 */
+	private static Map<String, List<ConditionValuePair>> parse(String conditionSentence) {
 		Start s = null;
 		
 		try {
-			
-			// TODO - fix the ConditionParser instantiation logic by rebuilding the parser and setting the JavaCC parameter STATIC
-			// to false. Without the false setting, the weird ReInit logic below must occur.
-			
-			if(first) {
-				
-				first = false;
-				s = new ConditionParser(new StringReader(conditionSentence)).start();
-				
-			} else {
-				ConditionParser.ReInit(new StringReader(conditionSentence)); // ReInit must be called for a multiple parse scenario
-				                                                             // i.e., when this method is called from a loop
-				s = ConditionParser.start();
+			ConditionParser parser = PARSER.get();
+			if(parser == null) {
+				parser = new ConditionParser(new StringReader(conditionSentence));
+				PARSER.set(parser);
 			}
+			else {
+				parser.ReInit(new StringReader(conditionSentence));
+			}
+			s = parser.start();
 			
 			ConditionDepthFirst<Map<String, List<ConditionValuePair>>> visitor 
 				= new ConditionDepthFirst<Map<String, List<ConditionValuePair>>>();
 			Map<String, List<ConditionValuePair>>map = new HashMap<String, List<ConditionValuePair>>(); 
 			visitor.visit(s, map);
-			return map;
+			
+			for(Map.Entry<String, List<ConditionValuePair>> entry : map.entrySet()) {
+				entry.setValue(
+					Collections.unmodifiableList(new ArrayList<ConditionValuePair>(entry.getValue())));
+			}
+			return Collections.unmodifiableMap(map);
 			
 		} catch (ParseException pe) {
 			
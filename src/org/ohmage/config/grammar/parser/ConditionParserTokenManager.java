@@ -6,10 +6,10 @@ public class ConditionParserTokenManager implements ConditionParserConstants
 {
 
 	/** Debug output. */
-	public static  java.io.PrintStream debugStream = System.out;
+	public java.io.PrintStream debugStream = System.out;
 	/** Set debug output. */
-	public static  void setDebugStream(java.io.PrintStream ds) { debugStream = ds; }
-	private static final int jjStopStringLiteralDfa_0(int pos, long active0)
+	public void setDebugStream(java.io.PrintStream ds) { debugStream = ds; }
+	private final int jjStopStringLiteralDfa_0(int pos, long active0)
 	{
 		switch (pos)
 		{
@@ -34,17 +34,17 @@ public class ConditionParserTokenManager implements ConditionParserConstants
 			return -1;
 		}
 	}
-	private static final int jjStartNfa_0(int pos, long active0)
+	private final int jjStartNfa_0(int pos, long active0)
 	{
 		return jjMoveNfa_0(jjStopStringLiteralDfa_0(pos, active0), pos + 1);
 	}
-	static private int jjStopAtPos(int pos, int kind)
+	private int jjStopAtPos(int pos, int kind)
 	{
 		jjmatchedKind = kind;
 		jjmatchedPos = pos;
 		return pos + 1;
 	}
-	static private int jjMoveStringLiteralDfa0_0()
+	private int jjMoveStringLiteralDfa0_0()
 	{
 		switch(curChar)
 		{
@@ -70,9 +70,9 @@ public class ConditionParserTokenManager implements ConditionParserConstants
 			return jjMoveNfa_0(0, 0);
 		}
 	}
-	static private int jjMoveStringLiteralDfa1_0(long active0)
+	private int jjMoveStringLiteralDfa1_0(long active0)
 	{
-		try { curChar = SimpleCharStream.readChar(); }
+		try { curChar = input_stream.readChar(); }
 		catch(java.io.IOException e) {
 			jjStopStringLiteralDfa_0(0, active0);
 			return 1;
@@ -100,11 +100,11 @@ public class ConditionParserTokenManager implements ConditionParserConstants
 		}
 		return jjStartNfa_0(0, active0);
 	}
-	static private int jjMoveStringLiteralDfa2_0(long old0, long active0)
+	private int jjMoveStringLiteralDfa2_0(long old0, long active0)
 	{
 		if (((active0 &= old0)) == 0L)
 			return jjStartNfa_0(0, old0);
-		try { curChar = SimpleCharStream.readChar(); }
+		try { curChar = input_stream.readChar(); }
 		catch(java.io.IOException e) {
 			jjStopStringLiteralDfa_0(1, active0);
 			return 2;
@@ -120,15 +120,15 @@ public class ConditionParserTokenManager implements ConditionParserConstants
 		}
 		return jjStartNfa_0(1, active0);
 	}
-	static private int jjStartNfaWithStates_0(int pos, int kind, int state)
+	private int jjStartNfaWithStates_0(int pos, int kind, int state)
 	{
 		jjmatchedKind = kind;
 		jjmatchedPos = pos;
-		try { curChar = SimpleCharStream.readChar(); }
+		try { curChar = input_stream.readChar(); }
 		catch(java.io.IOException e) { return pos + 1; }
 		return jjMoveNfa_0(state, pos + 1);
 	}
-	static private int jjMoveNfa_0(int startState, int curPos)
+	private int jjMoveNfa_0(int startState, int curPos)
 	{
 		int startsAt = 0;
 		jjnewStateCnt = 1;
@@ -192,7 +192,7 @@ public class ConditionParserTokenManager implements ConditionParserConstants
 			++curPos;
 			if ((i = jjnewStateCnt) == (startsAt = 1 - (jjnewStateCnt = startsAt)))
 				return curPos;
-			try { curChar = SimpleCharStream.readChar(); }
+			try { curChar = input_stream.readChar(); }
 			catch(java.io.IOException e) { return curPos; }
 		}
 	}
@@ -214,14 +214,12 @@ public class ConditionParserTokenManager implements ConditionParserConstants
 	static final long[] jjtoSkip = {
 		0x7800L, 
 	};
-	static protected SimpleCharStream input_stream;
-	static private final int[] jjrounds = new int[1];
-	static private final int[] jjstateSet = new int[2];
-	static protected char curChar;
+	protected SimpleCharStream input_stream;
+	private final int[] jjrounds = new int[1];
+	private final int[] jjstateSet = new int[2];
+	protected char curChar;
 	/** Constructor. */
 	public ConditionParserTokenManager(SimpleCharStream stream){
-		if (input_stream != null)
-			throw new TokenMgrError("ERROR: Second call to constructor of static lexer. You must use ReInit() to initialize the static variables.", TokenMgrError.STATIC_LEXER_ERROR);
 		input_stream = stream;
 	}
 
@@ -232,14 +230,14 @@ public class ConditionParserTokenManager implements ConditionParserConstants
 	}
 
 	/** Reinitialise parser. */
-	static public void ReInit(SimpleCharStream stream)
+	public void ReInit(SimpleCharStream stream)
 	{
 		jjmatchedPos = jjnewStateCnt = 0;
 		curLexState = defaultLexState;
 		input_stream = stream;
 		ReInitRounds();
 	}
-	static private void ReInitRounds()
+	private void ReInitRounds()
 	{
 		int i;
 		jjround = 0x80000001;
@@ -248,14 +246,14 @@ public class ConditionParserTokenManager implements ConditionParserConstants
 	}
 
 	/** Reinitialise parser. */
-	static public void ReInit(SimpleCharStream stream, int lexState)
+	public void ReInit(SimpleCharStream stream, int lexState)
 	{
 		ReInit(stream);
 		SwitchTo(lexState);
 	}
 
 	/** Switch to specified lex state. */
-	static public void SwitchTo(int lexState)
+	public void SwitchTo(int lexState)
 	{
 		if (lexState >= 1 || lexState < 0)
 			throw new TokenMgrError("Error: Ignoring invalid lexical state : " + lexState + ". State unchanged.", TokenMgrError.INVALID_LEXICAL_STATE);
@@ -263,7 +261,7 @@ public class ConditionParserTokenManager implements ConditionParserConstants
 			curLexState = lexState;
 	}
 
-	static protected Token jjFillToken()
+	protected Token jjFillToken()
 	{
 		final Token t;
 		final String curTokenImage;
@@ -272,11 +270,11 @@ public class ConditionParserTokenManager implements ConditionParserConstants
 		final int beginColumn;
 		final int endColumn;
 		String im = jjstrLiteralImages[jjmatchedKind];
-		curTokenImage = (im == null) ? SimpleCharStream.GetImage() : im;
-		beginLine = SimpleCharStream.getBeginLine();
-		beginColumn = SimpleCharStream.getBeginColumn();
-		endLine = SimpleCharStream.getEndLine();
-		endColumn = SimpleCharStream.getEndColumn();
+		curTokenImage = (im == null) ? input_stream.GetImage() : im;
+		beginLine = input_stream.getBeginLine();
+		beginColumn = input_stream.getBeginColumn();
+		endLine = input_stream.getEndLine();
+		endColumn = input_stream.getEndColumn();
 		t = Token.newToken(jjmatchedKind, curTokenImage);
 
 		t.beginLine = beginLine;
@@ -287,15 +285,15 @@ public class ConditionParserTokenManager implements ConditionParserConstants
 		return t;
 	}
 
-	static int curLexState = 0;
-	static int defaultLexState = 0;
-	static int jjnewStateCnt;
-	static int jjround;
-	static int jjmatchedPos;
-	static int jjmatchedKind;
+	int curLexState = 0;
+	int defaultLexState = 0;
+	int jjnewStateCnt;
+	int jjround;
+	int jjmatchedPos;
+	int jjmatchedKind;
 
 	/** Get the next Token. */
-	public static Token getNextToken() 
+	public Token getNextToken() 
 	{
 		Token matchedToken;
 		int curPos = 0;
@@ -305,7 +303,7 @@ public class ConditionParserTokenManager implements ConditionParserConstants
 			{
 				try
 				{
-					curChar = SimpleCharStream.BeginToken();
+					curChar = input_stream.BeginToken();
 				}
 				catch(java.io.IOException e)
 				{
@@ -314,9 +312,9 @@ public class ConditionParserTokenManager implements ConditionParserConstants
 					return matchedToken;
 				}
 
-				try { SimpleCharStream.backup(0);
+				try { input_stream.backup(0);
 				while (curChar <= 32 && (0x100002600L & (1L << curChar)) != 0L)
-					curChar = SimpleCharStream.BeginToken();
+					curChar = input_stream.BeginToken();
 				}
 				catch (java.io.IOException e1) { continue EOFLoop; }
 				jjmatchedKind = 0x7fffffff;
@@ -325,7 +323,7 @@ public class ConditionParserTokenManager implements ConditionParserConstants
 				if (jjmatchedKind != 0x7fffffff)
 				{
 					if (jjmatchedPos + 1 < curPos)
-						SimpleCharStream.backup(curPos - jjmatchedPos - 1);
+						input_stream.backup(curPos - jjmatchedPos - 1);
 					if ((jjtoToken[jjmatchedKind >> 6] & (1L << (jjmatchedKind & 077))) != 0L)
 					{
 						matchedToken = jjFillToken();
@@ -336,14 +334,14 @@ public class ConditionParserTokenManager implements ConditionParserConstants
 						continue EOFLoop;
 					}
 				}
-				int error_line = SimpleCharStream.getEndLine();
-				int error_column = SimpleCharStream.getEndColumn();
+				int error_line = input_stream.getEndLine();
+				int error_column = input_stream.getEndColumn();
 				String error_after = null;
 				boolean EOFSeen = false;
-				try { SimpleCharStream.readChar(); SimpleCharStream.backup(1); }
+				try { input_stream.readChar(); input_stream.backup(1); }
 				catch (java.io.IOException e1) {
 					EOFSeen = true;
-					error_after = curPos <= 1 ? "" : SimpleCharStream.GetImage();
+					error_after = curPos <= 1 ? "" : input_stream.GetImage();
 					if (curChar == '\n' || curChar == '\r') {
 						error_line++;
 						error_column = 0;
@@ -352,8 +350,8 @@ public class ConditionParserTokenManager implements ConditionParserConstants
 						error_column++;
 				}
 				if (!EOFSeen) {
-					SimpleCharStream.backup(1);
-					error_after = curPos <= 1 ? "" : SimpleCharStream.GetImage();
+					input_stream.backup(1);
+					error_after = curPos <= 1 ? "" : input_stream.GetImage();
 				}
 				throw new TokenMgrError(EOFSeen, curLexState, error_line, error_column, error_after, curChar, TokenMgrError.LEXICAL_ERROR);
 			}
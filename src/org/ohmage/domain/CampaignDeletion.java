@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.domain;
+
+import java.util.Date;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.ohmage.util.DateTimeUtils;
+
+/**
+ * The progress of a campaign's deletion. The campaign itself is gone as soon
+ * as it is deleted, but its survey responses are removed in the background
+ * and then their media files are collected.
+ */
+public class CampaignDeletion {
+	private static final String JSON_KEY_ID = "id";
+	private static final String JSON_KEY_CAMPAIGN_URN = "campaign_urn";
+	private static final String JSON_KEY_REQUESTER = "requester";
+	private static final String JSON_KEY_STATE = "state";
+	private static final String JSON_KEY_TOTAL_SURVEY_RESPONSES =
+		"total_survey_responses";
+	private static final String JSON_KEY_DELETED_SURVEY_RESPONSES =
+		"deleted_survey_responses";
+	private static final String JSON_KEY_PENDING_MEDIA = "pending_media";
+	private static final String JSON_KEY_CREATION_TIMESTAMP =
+		"creation_timestamp";
+	private static final String JSON_KEY_COMPLETION_TIMESTAMP =
+		"completion_timestamp";
+
+	/**
+	 * The stages of a deletion.
+	 */
+	public static enum State {
+		/**
+		 * The survey responses are being removed.
+		 */
+		DELETING,
+		/**
+		 * The survey responses are gone and their media files are being
+		 * deleted.
+		 */
+		COLLECTING_MEDIA,
+		/**
+		 * Everything has been deleted.
+		 */
+		COMPLETE;
+
+		/**
+		 * Returns an all-lower-case version of the state.
+		 *
+		 * @return An all-lower-case version of the state.
+		 */
+		@Override
+		public String toString() {
+			return name().toLowerCase();
+		}
+
+		/**
+		 * Returns the state from its string value.
+		 *
+		 * @param value The state as a string.
+		 *
+		 * @return The state.
+		 *
+		 * @throws IllegalArgumentException The value is not a known state.
+		 */
+		public static State getValue(final String value) {
+			return valueOf(value.toUpperCase());
+		}
+	}
+
+	private final UUID id;
+	private final String campaignUrn;
+	private final String requester;
+	private final State state;
+	private final long totalSurveyResponses;
+	private final long deletedSurveyResponses;
+	private final long pendingMedia;
+	private final Date creationTimestamp;
+	private final Date completionTimestamp;
+
+	/**
+	 * Creates a deletion's progress.
+	 *
+	 * @param id The deletion's unique identifier.
+	 *
+	 * @param campaignUrn The deleted campaign's unique identifier.
+	 *
+	 * @param requester The username of the user who deleted the campaign.
+	 *
+	 * @param state The deletion's current stage.
+	 *
+	 * @param totalSurveyResponses The number of survey responses the campaign
+	 * 							   had.
+	 *
+	 * @param deletedSurveyResponses The number of them that have been
+	 * 								 removed.
+	 *
+	 * @param pendingMedia The number of media files that have not yet been
+	 * 					   deleted.
+	 *
+	 * @param creationTimestamp When the campaign was deleted.
+	 *
+	 * @param completionTimestamp When the deletion completed or null if it
+	 * 							  hasn't.
+	 *
+	 * @throws IllegalArgumentException A required parameter is null.
+	 */
+	public CampaignDeletion(
+			final UUID id,
+			final String campaignUrn,
+			final String requester,
+			final State state,
+			final long totalSurveyResponses,
+			final long deletedSurveyResponses,
+			final long pendingMedia,
+			final Date creationTimestamp,
+			final Date completionTimestamp) {
+
+		if(id == null) {
+			throw new IllegalArgumentException("The ID is null.");
+		}
+		else if(campaignUrn == null) {
+			throw new IllegalArgumentException("The campaign URN is null.");
+		}
+		else if(state == null) {
+			throw new IllegalArgumentException("The state is null.");
+		}
+		else if(creationTimestamp == null) {
+			throw new IllegalArgumentException(
+				"The creation timestamp is null.");
+		}
+
+		this.id = id;
+		this.campaignUrn = campaignUrn;
+		this.requester = requester;
+		this.state = state;
+		this.totalSurveyResponses = totalSurveyResponses;
+		this.deletedSurveyResponses = deletedSurveyResponses;
+		this.pendingMedia = pendingMedia;
+		this.creationTimestamp = creationTimestamp;
+		this.completionTimestamp = completionTimestamp;
+	}
+
+	/**
+	 * Returns the deletion's unique identifier.
+	 *
+	 * @return The deletion's unique identifier.
+	 */
+	public UUID getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the username of the user who deleted the campaign.
+	 *
+	 * @return The requester's username.
+	 */
+	public String getRequester() {
+		return requester;
+	}
+
+	/**
+	 * Returns the deletion's current stage.
+	 *
+	 * @return The deletion's state.
+	 */
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * Returns this deletion's progress as a JSONObject.
+	 *
+	 * @return This deletion's progress as a JSONObject.
+	 *
+	 * @throws JSONException There was an error building the object.
+	 */
+	public JSONObject toJsonObject() throws JSONException {
+		JSONObject result = new JSONObject();
+
+		result.put(JSON_KEY_ID, id.toString());
+		result.put(JSON_KEY_CAMPAIGN_URN, campaignUrn);
+		result.put(JSON_KEY_REQUESTER, requester);
+		result.put(JSON_KEY_STATE, state.toString());
+		result.put(JSON_KEY_TOTAL_SURVEY_RESPONSES, totalSurveyResponses);
+		result.put(JSON_KEY_DELETED_SURVEY_RESPONSES, deletedSurveyResponses);
+		result.put(JSON_KEY_PENDING_MEDIA, pendingMedia);
+		result.put(
+			JSON_KEY_CREATION_TIMESTAMP,
+			DateTimeUtils.getIso8601DateString(
+				new DateTime(creationTimestamp),
+				true));
+		if(completionTimestamp != null) {
+			result.put(
+				JSON_KEY_COMPLETION_TIMESTAMP,
+				DateTimeUtils.getIso8601DateString(
+					new DateTime(completionTimestamp),
+					true));
+		}
+
+		return result;
+	}
+}
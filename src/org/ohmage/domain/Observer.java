@@ -166,7 +166,9 @@ public class Observer {
 
 		@XmlElement(name=KEY_JSON_SCHEMA)
 		private final String schemaString;
-		private final JsonParser schema;
+		// The parsed schema. It is only ever read, so streams may be shared
+		// between threads.
+		private final JsonNode schema;
 		
 		/**
 		 * Private, default constructor. This should never be used and would
@@ -245,7 +247,7 @@ public class Observer {
 			this.withTimestamp = withTimestamp;
 			this.withLocation = withLocation;
 
-			this.schema = validateSchema(schema);
+			this.schema = parseSchema(schema);
 			this.schemaString = schema;
 		}
 		
@@ -407,7 +409,7 @@ public class Observer {
 			
 			schemaString = 
 				getXmlValue(stream, "schema", "stream, " + id + ", schema");
-			schema = validateSchema(schemaString);
+			schema = parseSchema(schemaString);
 			
 		}
 
@@ -475,12 +477,19 @@ public class Observer {
 		}
 
 		/**
-		 * Returns schema.
+		 * Returns a new parser over the schema. Each call returns its own
+		 * parser, so the schema may be read any number of times.
 		 * 
 		 * @return The schema.
 		 */
 		public JsonParser getSchema() {
-			return schema;
+			if(schema == null) {
+				return null;
+			}
+			
+			JsonParser result = schema.traverse();
+			result.setCodec(JSON_FACTORY.getCodec());
+			return result;
 		}
 		
 		/**
@@ -537,7 +546,7 @@ public class Observer {
 				// Add the schema.
 				generator.writeObjectField(
 					KEY_JSON_SCHEMA, 
-					schema.readValueAsTree());
+					schema);
 			}
 			finally {
 				// Close this observer's object.
@@ -635,6 +644,34 @@ public class Observer {
 			return trimmedId;
 		}
 		
+		/**
+		 * Validates a stream's schema and parses it.
+		 * 
+		 * @param schema The stream's schema.
+		 * 
+		 * @return The parsed schema.
+		 * 
+		 * @throws DomainException The schema was not valid.
+		 */
+		private static JsonNode parseSchema(
+				final String schema)
+				throws DomainException {
+			
+			try {
+				return validateSchema(schema).readValueAsTree();
+			}
+			catch(JsonProcessingException e) {
+				throw new DomainException(
+					"Validation succeeded, but the schema could not be parsed as JSON.",
+					e);
+			}
+			catch(IOException e) {
+				throw new DomainException(
+					"Could not read the string value.",
+					e);
+			}
+		}
+		
 		/**
 		 * Validates that a schema used to defined a stream is valid.
 		 * 
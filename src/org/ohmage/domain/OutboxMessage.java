@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.domain;
+
+/**
+ * A mail message that has been queued to be sent. The message is kept in its
+ * complete, RFC 822 form, so it is sent exactly as it was built.
+ */
+public class OutboxMessage {
+	private final long id;
+	private final String recipient;
+	private final byte[] message;
+	private final int attempts;
+
+	/**
+	 * Creates a queued message.
+	 *
+	 * @param id The message's unique identifier in the outbox.
+	 *
+	 * @param recipient The message's recipients.
+	 *
+	 * @param message The complete message.
+	 *
+	 * @param attempts The number of times sending the message has already
+	 * 				   failed.
+	 *
+	 * @throws IllegalArgumentException The message is null.
+	 */
+	public OutboxMessage(
+			final long id,
+			final String recipient,
+			final byte[] message,
+			final int attempts) {
+
+		if(message == null) {
+			throw new IllegalArgumentException("The message is null.");
+		}
+
+		this.id = id;
+		this.recipient = recipient;
+		this.message = message;
+		this.attempts = attempts;
+	}
+
+	/**
+	 * Returns the message's unique identifier in the outbox.
+	 *
+	 * @return The message's unique identifier.
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the message's recipients.
+	 *
+	 * @return The message's recipients.
+	 */
+	public String getRecipient() {
+		return recipient;
+	}
+
+	/**
+	 * Returns the complete message.
+	 *
+	 * @return The complete message.
+	 */
+	public byte[] getMessage() {
+		return message;
+	}
+
+	/**
+	 * Returns the number of times sending the message has already failed.
+	 *
+	 * @return The number of failed attempts.
+	 */
+	public int getAttempts() {
+		return attempts;
+	}
+}
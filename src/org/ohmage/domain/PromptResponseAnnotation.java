@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.domain;
+
+import org.apache.log4j.Logger;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.ohmage.exception.DomainException;
+
+/**
+ * An annotation on a prompt response along with the prompt response it is
+ * attached to, so that annotations read for many survey responses at once can
+ * be placed beside the correct prompt.
+ */
+public class PromptResponseAnnotation extends Annotation {
+	private static final Logger LOGGER =
+		Logger.getLogger(PromptResponseAnnotation.class);
+
+	private static final String JSON_KEY_PROMPT_ID = "prompt_id";
+	private static final String JSON_KEY_REPEATABLE_SET_ID =
+		"repeatable_set_id";
+	private static final String JSON_KEY_REPEATABLE_SET_ITERATION =
+		"repeatable_set_iteration";
+
+	private final String promptId;
+	private final String repeatableSetId;
+	private final Integer repeatableSetIteration;
+
+	/**
+	 * Creates a prompt response annotation using the provided values.
+	 *
+	 * @param id a UUID
+	 * @param text the annotation text
+	 * @param epochMillis the UNIX epoch millis
+	 * @param timezone the timezone on the annotation
+	 * @param author the username of the annotation's author
+	 * @param promptId the prompt's ID
+	 * @param repeatableSetId the repeatable set's ID or null if the prompt is
+	 * not in a repeatable set
+	 * @param repeatableSetIteration the repeatable set's iteration or null if
+	 * the prompt is not in a repeatable set
+	 * @throws DomainException if any of the input is missing or malformed
+	 */
+	public PromptResponseAnnotation(
+			final String id,
+			final String text,
+			final Long epochMillis,
+			final String timezone,
+			final String author,
+			final String promptId,
+			final String repeatableSetId,
+			final Integer repeatableSetIteration)
+			throws DomainException {
+
+		super(id, text, epochMillis, timezone, author);
+
+		if(promptId == null) {
+			throw new DomainException("A prompt ID is required.");
+		}
+
+		this.promptId = promptId;
+		this.repeatableSetId = repeatableSetId;
+		this.repeatableSetIteration = repeatableSetIteration;
+	}
+
+	public String getPromptId() {
+		return promptId;
+	}
+
+	public String getRepeatableSetId() {
+		return repeatableSetId;
+	}
+
+	public Integer getRepeatableSetIteration() {
+		return repeatableSetIteration;
+	}
+
+	/**
+	 * A JSONObject representing the annotation and the prompt response it is
+	 * attached to. The repeatable set is only included if the prompt is in
+	 * one.
+	 *
+	 * @return A JSONObject representing this object. If there is an error
+	 * 		   building this object, null is returned.
+	 */
+	@Override
+	public JSONObject toJson() {
+		JSONObject result = super.toJson();
+		if(result == null) {
+			return null;
+		}
+
+		try {
+			result.put(JSON_KEY_PROMPT_ID, promptId);
+			if(repeatableSetId != null) {
+				result.put(JSON_KEY_REPEATABLE_SET_ID, repeatableSetId);
+				result.put(
+					JSON_KEY_REPEATABLE_SET_ITERATION,
+					repeatableSetIteration);
+			}
+
+			return result;
+		}
+		catch(JSONException e) {
+			LOGGER.error("Error building the JSONObject.", e);
+			return null;
+		}
+	}
+}
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.domain;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ohmage.domain.campaign.Campaign;
+
+/**
+ * A snapshot of everything the ACLs need to know about a user: whether or not
+ * they are an admin, whether their account is enabled or new, their roles in
+ * each of their campaigns, and their role in each of their classes.
+ */
+public class UserPrivileges {
+	private final String username;
+	private final boolean admin;
+	private final boolean enabled;
+	private final boolean newAccount;
+	private final Map<String, List<Campaign.Role>> campaignRoles;
+	private final Map<String, Clazz.Role> classRoles;
+
+	/**
+	 * Creates a new set of privileges.
+	 *
+	 * @param username The user's username.
+	 *
+	 * @param admin Whether or not the user is an admin.
+	 *
+	 * @param enabled Whether or not the user's account is enabled.
+	 *
+	 * @param newAccount Whether or not the user's account is new, i.e. they
+	 * 					 have not yet changed their password.
+	 *
+	 * @param campaignRoles A map of campaign IDs to the user's roles in that
+	 * 						campaign. This may be null if the user belongs to
+	 * 						no campaigns.
+	 *
+	 * @param classRoles A map of class IDs to the user's role in that class.
+	 * 					 This may be null if the user belongs to no classes.
+	 *
+	 * @throws IllegalArgumentException The username is null.
+	 */
+	public UserPrivileges(
+			final String username,
+			final boolean admin,
+			final boolean enabled,
+			final boolean newAccount,
+			final Map<String, ? extends Collection<Campaign.Role>> campaignRoles,
+			final Map<String, Clazz.Role> classRoles) {
+
+		if(username == null) {
+			throw new IllegalArgumentException("The username is null.");
+		}
+
+		this.username = username;
+		this.admin = admin;
+		this.enabled = enabled;
+		this.newAccount = newAccount;
+
+		this.campaignRoles = new HashMap<String, List<Campaign.Role>>();
+		if(campaignRoles != null) {
+			for(String campaignId : campaignRoles.keySet()) {
+				this.campaignRoles.put(
+					campaignId,
+					Collections.unmodifiableList(
+						new ArrayList<Campaign.Role>(
+							campaignRoles.get(campaignId))));
+			}
+		}
+
+		this.classRoles =
+			(classRoles == null) ?
+				new HashMap<String, Clazz.Role>() :
+				new HashMap<String, Clazz.Role>(classRoles);
+	}
+
+	/**
+	 * Returns the user's username.
+	 *
+	 * @return The user's username.
+	 */
+	public String getUsername() {
+		return username;
+	}
+
+	/**
+	 * Returns whether or not the user is an admin.
+	 *
+	 * @return Whether or not the user is an admin.
+	 */
+	public boolean isAdmin() {
+		return admin;
+	}
+
+	/**
+	 * Returns whether or not the user's account is enabled.
+	 *
+	 * @return Whether or not the user's account is enabled.
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Returns whether or not the user's account is new.
+	 *
+	 * @return Whether or not the user's account is new.
+	 */
+	public boolean isNewAccount() {
+		return newAccount;
+	}
+
+	/**
+	 * Returns the user's roles in a campaign.
+	 *
+	 * @param campaignId The campaign's unique identifier.
+	 *
+	 * @return The user's roles in the campaign, which will be empty if they do
+	 * 		   not belong to the campaign.
+	 */
+	public List<Campaign.Role> getCampaignRoles(final String campaignId) {
+		List<Campaign.Role> result = campaignRoles.get(campaignId);
+		if(result == null) {
+			return Collections.emptyList();
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the user's role in a class.
+	 *
+	 * @param classId The class' unique identifier.
+	 *
+	 * @return The user's role in the class or null if they do not belong to
+	 * 		   the class.
+	 */
+	public Clazz.Role getClassRole(final String classId) {
+		return classRoles.get(classId);
+	}
+}
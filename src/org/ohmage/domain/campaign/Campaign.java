@@ -33,8 +33,6 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Pattern;
 
 import nu.xom.Builder;
@@ -3003,11 +3001,6 @@ public class Campaign {
 				promptMap, index);
 	}
 	
-	// FIXME: Hackalicious. This is a hot-fix so that concurrency won't break 
-	// condition parsing. We need to fix the condition parser to not be static
-	// as soon as possible!
-	private static final Lock parserLock = new ReentrantLock();
-	
 	/**
 	 * Creates a Prompt object based on the XML prompt Node.
 	 * 
@@ -3417,16 +3410,12 @@ public class Campaign {
 		
 		Map<String, List<ConditionValuePair>> promptIdAndConditionValues;
 		try {
-			parserLock.lock();
 			promptIdAndConditionValues = 
 					ConditionValidator.validate(condition);
 		}
 		catch(ConditionParseException e) {
 			throw new DomainException(e.getMessage(), e);
 		}
-		finally {
-			parserLock.unlock();
-		}
 		
 		for(String promptId : promptIdAndConditionValues.keySet()) {
 			// Validate that the prompt/message exists and comes before this prompt/message. 
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.domain.campaign;
+
+import org.ohmage.domain.campaign.SurveyResponse.PrivacyState;
+
+/**
+ * The number of survey responses that share some set of attributes, e.g. the
+ * same privacy state and date. These are computed by the database, so no
+ * survey response is ever built to compute them.
+ */
+public class SurveyResponseCount {
+	/**
+	 * The attributes by which survey responses may be grouped before they are
+	 * counted.
+	 */
+	public static enum Grouping {
+		/**
+		 * Group by the user that submitted the survey response.
+		 */
+		USER,
+		/**
+		 * Group by the survey from which the survey response was generated.
+		 */
+		SURVEY,
+		/**
+		 * Group by the survey response's privacy state.
+		 */
+		PRIVACY_STATE,
+		/**
+		 * Group by the date on which the survey response was taken in the
+		 * time zone of the phone that took it.
+		 */
+		DATE;
+	}
+
+	private final String username;
+	private final String surveyId;
+	private final PrivacyState privacyState;
+	private final String date;
+	private final long count;
+
+	/**
+	 * Creates a new count. Each of the grouping attributes is null if the
+	 * survey responses were not grouped by it.
+	 *
+	 * @param username The username of the user that submitted the survey
+	 * 				   responses.
+	 *
+	 * @param surveyId The ID of the survey from which the survey responses
+	 * 				   were generated.
+	 *
+	 * @param privacyState The survey responses' privacy state.
+	 *
+	 * @param date The date on which the survey responses were taken in the
+	 * 			   form "yyyy-M-d".
+	 *
+	 * @param count The number of survey responses.
+	 */
+	public SurveyResponseCount(
+			final String username,
+			final String surveyId,
+			final PrivacyState privacyState,
+			final String date,
+			final long count) {
+
+		this.username = username;
+		this.surveyId = surveyId;
+		this.privacyState = privacyState;
+		this.date = date;
+		this.count = count;
+	}
+
+	/**
+	 * Returns the username of the user that submitted the survey responses.
+	 *
+	 * @return The username or null if the responses were not grouped by user.
+	 */
+	public String getUsername() {
+		return username;
+	}
+
+	/**
+	 * Returns the ID of the survey from which the survey responses were
+	 * generated.
+	 *
+	 * @return The survey's ID or null if the responses were not grouped by
+	 * 		   survey.
+	 */
+	public String getSurveyId() {
+		return surveyId;
+	}
+
+	/**
+	 * Returns the survey responses' privacy state.
+	 *
+	 * @return The privacy state or null if the responses were not grouped by
+	 * 		   privacy state.
+	 */
+	public PrivacyState getPrivacyState() {
+		return privacyState;
+	}
+
+	/**
+	 * Returns the date on which the survey responses were taken.
+	 *
+	 * @return The date in the form "yyyy-M-d" or null if the responses were
+	 * 		   not grouped by date.
+	 */
+	public String getDate() {
+		return date;
+	}
+
+	/**
+	 * Returns the number of survey responses.
+	 *
+	 * @return The number of survey responses.
+	 */
+	public long getCount() {
+		return count;
+	}
+}
@@ -1,11 +1,13 @@
 package org.ohmage.jee.filter;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.zip.GZIPInputStream;
 
@@ -37,6 +39,13 @@ import org.ohmage.util.StringUtils;
  * comprehensive fix.
  * </p>
  *
+ * <p>
+ * Requests whose "Content-Type" is "application/json" are left untouched.
+ * Their body is parsed directly from the, possibly GZIP'd, input stream by
+ * the request that consumes it, and their parameters are taken from the query
+ * string and from any headers prefixed with {@value #HEADER_PARAMETER_PREFIX}.
+ * </p>
+ *
  * @author John Jenkins
  */
 public class GzipFilter implements Filter {
@@ -54,6 +63,23 @@ public class GzipFilter implements Filter {
 	 */
 	private static final String VALUE_GZIP = "gzip";
 	
+	/**
+	 * The name of the content-type header.
+	 */
+	private static final String KEY_CONTENT_TYPE = "Content-Type";
+	/**
+	 * The content type of requests whose body is a JSON document.
+	 */
+	private static final String VALUE_APPLICATION_JSON = "application/json";
+	
+	/**
+	 * The prefix of the headers that are treated as parameters for requests
+	 * whose body is a JSON document. The remainder of the header's name is
+	 * lower-cased and its hyphens are replaced with underscores, e.g.
+	 * "X-Ohmage-Campaign-Urn" becomes "campaign_urn".
+	 */
+	public static final String HEADER_PARAMETER_PREFIX = "X-Ohmage-";
+	
 	/**
 	 * The string used to separate parameters based on the "Content-Type"
 	 * "x-www-form-urlencoded" specification.
@@ -145,23 +171,14 @@ public class GzipFilter implements Filter {
 		// Create a reference to the result.
 		Map<String, String[]> result = null;
 		
-		// Get the "Content-Encoding" headers.
-		Enumeration<String> contentEncodingHeaders = 
-				httpRequest.getHeaders(KEY_CONTENT_ENCODING);
-		
-		// Look for a GZIP content encoding header.
-		boolean containsGzipContentEncoding = false;
-		while(contentEncodingHeaders.hasMoreElements()) {
-			// If one is found, gunzip the request.
-			if(VALUE_GZIP.equals(contentEncodingHeaders.nextElement())) {
-				containsGzipContentEncoding = true;
-				break;
-			}
+		// If the body is a JSON document, leave it to be streamed by the 
+		// request and only decode the query string and headers.
+		if(isJsonBody(httpRequest)) {
+			result = getJsonBodyParameters(httpRequest);
 		}
-		
 		// If the "Content-Encoding" header was given and its value was "gzip",
 		// then we decode the parameters.
-		if(containsGzipContentEncoding) {
+		else if(isGzipEncoded(httpRequest)) {
 			result = gunzipRequest(httpRequest, httpResponse);
 		}
 		// If no "Content-Encoding" header was given, then use the parameters
@@ -207,6 +224,108 @@ public class GzipFilter implements Filter {
 //		return true;
 	}
 	
+	/**
+	 * Returns whether or not a request's body was GZIP'd, i.e. whether or not
+	 * one of its {@value #KEY_CONTENT_ENCODING} headers is 
+	 * {@value #VALUE_GZIP}.
+	 * 
+	 * @param httpRequest The HTTP request.
+	 * 
+	 * @return Whether or not the request's body was GZIP'd.
+	 */
+	public static boolean isGzipEncoded(final HttpServletRequest httpRequest) {
+		// Get the "Content-Encoding" headers.
+		Enumeration<String> contentEncodingHeaders = 
+				httpRequest.getHeaders(KEY_CONTENT_ENCODING);
+		if(contentEncodingHeaders == null) {
+			return false;
+		}
+		
+		// Look for a GZIP content encoding header.
+		while(contentEncodingHeaders.hasMoreElements()) {
+			if(VALUE_GZIP.equals(contentEncodingHeaders.nextElement())) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns whether or not a request's body is a JSON document, i.e. 
+	 * whether or not its {@value #KEY_CONTENT_TYPE} is
+	 * {@value #VALUE_APPLICATION_JSON}, ignoring any parameters such as the
+	 * charset.
+	 * 
+	 * @param httpRequest The HTTP request.
+	 * 
+	 * @return Whether or not the request's body is a JSON document.
+	 */
+	public static boolean isJsonBody(final HttpServletRequest httpRequest) {
+		String contentType = httpRequest.getHeader(KEY_CONTENT_TYPE);
+		if(contentType == null) {
+			return false;
+		}
+		
+		int parametersStart = contentType.indexOf(';');
+		if(parametersStart != -1) {
+			contentType = contentType.substring(0, parametersStart);
+		}
+		
+		return 
+			VALUE_APPLICATION_JSON
+				.equals(contentType.trim().toLowerCase(Locale.ENGLISH));
+	}
+	
+	/**
+	 * Builds the parameter map for a request whose body is a JSON document.
+	 * The parameters are those from the query string, which the servlet
+	 * container decodes without reading the body, and those from the headers
+	 * prefixed with {@value #HEADER_PARAMETER_PREFIX}. If a parameter is 
+	 * given in both, the query string wins.
+	 * 
+	 * @param httpRequest The HTTP request.
+	 * 
+	 * @return The parameter map.
+	 */
+	private Map<String, String[]> getJsonBodyParameters(
+			final HttpServletRequest httpRequest) {
+		
+		Map<String, String[]> result = new HashMap<String, String[]>();
+		
+		Enumeration<String> headerNames = httpRequest.getHeaderNames();
+		while((headerNames != null) && headerNames.hasMoreElements()) {
+			String headerName = headerNames.nextElement();
+			if(! headerName
+					.toLowerCase(Locale.ENGLISH)
+					.startsWith(
+						HEADER_PARAMETER_PREFIX.toLowerCase(Locale.ENGLISH))) {
+				
+				continue;
+			}
+			
+			String key = 
+				headerName
+					.substring(HEADER_PARAMETER_PREFIX.length())
+					.toLowerCase(Locale.ENGLISH)
+					.replace('-', '_');
+			
+			List<String> values = new LinkedList<String>();
+			Enumeration<String> headerValues = 
+				httpRequest.getHeaders(headerName);
+			while(headerValues.hasMoreElements()) {
+				values.add(headerValues.nextElement());
+			}
+			result.put(key, values.toArray(new String[values.size()]));
+		}
+		
+		Map<String, String[]> queryParameters = httpRequest.getParameterMap();
+		if(queryParameters != null) {
+			result.putAll(queryParameters);
+		}
+		
+		return result;
+	}
+	
 	/**
 	 * Unzips the parameters using the GZIP encoding. Breaks up the parameters
 	 * based on the "Content-Type" "application/x-www-form-urlencoded" 
@@ -257,18 +376,19 @@ public class GzipFilter implements Filter {
 		// Retrieve the parameter list as a string.
 		String parameterString;
 		try {
-			// This will build the parameter string.
-			StringBuilder builder = new StringBuilder();
+			// This will collect the inflated bytes, which are decoded as a
+			// whole so that no character is split across two chunks.
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
 			
 			// These will store the information for the current chunk.
 			byte[] chunk = new byte[CHUNK_SIZE];
 			int readLen = 0;
 			
 			while((readLen = gzipInputStream.read(chunk)) != -1) {
-				builder.append(new String(chunk, 0, readLen));
+				buffer.write(chunk, 0, readLen);
 			}
 			
-			parameterString = builder.toString();
+			parameterString = buffer.toString();
 		}
 		catch(IOException e) {
 			LOGGER
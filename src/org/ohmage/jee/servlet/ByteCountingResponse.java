@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.jee.servlet;
+
+import java.io.IOException;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Counts the bytes that are written to a response's output stream. The
+ * requests write their responses through the output stream, possibly
+ * GZIP'd, so this is the number of bytes that were sent for the body.
+ */
+final class ByteCountingResponse extends HttpServletResponseWrapper {
+	/**
+	 * Counts the bytes as they are passed to the real output stream.
+	 */
+	private final class CountingOutputStream extends ServletOutputStream {
+		private final ServletOutputStream outputStream;
+
+		/**
+		 * Creates a stream that counts what is written to another.
+		 *
+		 * @param outputStream The stream to write to.
+		 */
+		private CountingOutputStream(final ServletOutputStream outputStream) {
+			this.outputStream = outputStream;
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			outputStream.write(b);
+			byteCount++;
+		}
+
+		@Override
+		public void write(
+				final byte[] b,
+				final int off,
+				final int len)
+				throws IOException {
+
+			outputStream.write(b, off, len);
+			byteCount += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			outputStream.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			outputStream.close();
+		}
+	}
+
+	private CountingOutputStream countingOutputStream = null;
+	private long byteCount = 0;
+
+	/**
+	 * Wraps a response.
+	 *
+	 * @param httpResponse The response.
+	 */
+	ByteCountingResponse(final HttpServletResponse httpResponse) {
+		super(httpResponse);
+	}
+
+	/**
+	 * Returns the real output stream wrapped so that it is counted.
+	 */
+	@Override
+	public ServletOutputStream getOutputStream() throws IOException {
+		if(countingOutputStream == null) {
+			countingOutputStream =
+				new CountingOutputStream(super.getOutputStream());
+		}
+		return countingOutputStream;
+	}
+
+	/**
+	 * Returns the number of bytes that have been written to the output
+	 * stream.
+	 *
+	 * @return The number of bytes.
+	 */
+	long getByteCount() {
+		return byteCount;
+	}
+}
@@ -34,10 +34,13 @@ import org.apache.log4j.Logger;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.ohmage.cache.AuthorizationContext;
+import org.ohmage.cache.ConnectionContext;
 import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.exception.InvalidRequestException;
 import org.ohmage.exception.ServiceException;
 import org.ohmage.jee.filter.Log4jNdcFilter;
+import org.ohmage.reporting.RequestMetrics;
 import org.ohmage.request.InputKeys;
 import org.ohmage.request.Request;
 import org.ohmage.request.RequestBuilder;
@@ -395,7 +398,8 @@ public class RequestServlet extends HttpServlet {
 				RequestBuilder.getInstance().getApiOmhRead().equals(httpRequest.getRequestURI()) ||
 				RequestBuilder.getInstance().getApiSurveyResponseRead().equals(httpRequest.getRequestURI()) ||
 				RequestBuilder.getInstance().getApiVideoRead().equals(httpRequest.getRequestURI()) ||
-				RequestBuilder.getInstance().getApiMediaRead().equals(httpRequest.getRequestURI())
+				RequestBuilder.getInstance().getApiMediaRead().equals(httpRequest.getRequestURI()) ||
+				RequestBuilder.getInstance().getApiMetricsRead().equals(httpRequest.getRequestURI())
 			) {
 			
 			processRequest(httpRequest, httpResponse);
@@ -447,14 +451,54 @@ public class RequestServlet extends HttpServlet {
 			final HttpServletRequest httpRequest, 
 			final HttpServletResponse httpResponse) {
 		
+		// Memoize the privileges of any user that is checked while this
+		// request is being serviced.
+		AuthorizationContext.open();
+		
+		// Run every query of this request on one connection and, if it only
+		// reads, in one read-only transaction.
+		ConnectionContext.open(
+			RequestBuilder
+				.getInstance()
+				.isReadOnly(httpRequest.getRequestURI()));
+		
+		// Time each phase of the request and count the bytes it writes.
+		ByteCountingResponse countingResponse = 
+			new ByteCountingResponse(httpResponse);
+		long buildStart = System.nanoTime();
+		long serviceStart = 0;
+		long respondStart = 0;
+		ErrorCode errorCode = null;
+		ConnectionContext.Statistics statistics = null;
+		
 		try {
-			Request request = RequestBuilder.getInstance().buildRequest(httpRequest);
-	
-			if(! request.isFailed()) {
-				request.service();
+			Request request;
+			try {
+				request = RequestBuilder.getInstance().buildRequest(httpRequest);
+		
+				if(! request.isFailed()) {
+					serviceStart = System.nanoTime();
+					request.service();
+				}
+				
+				// Make the request's changes visible before the client can
+				// act on the response. If they cannot be committed, they are
+				// rolled back and the request fails rather than responding
+				// as though they were saved.
+				ConnectionContext.commit();
+			}
+			finally {
+				// Return the connection before responding, which takes as 
+				// long as the client takes to read the response.
+				statistics = ConnectionContext.close();
 			}
 			
-			request.respond(httpRequest, httpResponse);
+			respondStart = System.nanoTime();
+			request.respond(httpRequest, countingResponse);
+			
+			if(request.isFailed()) {
+				errorCode = request.getAnnotator().getErrorCode();
+			}
 			
 			httpRequest.setAttribute(KEY_ATTRIBUTE, request);
 		}
@@ -462,19 +506,54 @@ public class RequestServlet extends HttpServlet {
 			LOGGER.info(
 				"There was an issue reading from the input stream or writing to the output stream.", 
 				e);
-			respondFailure(httpResponse, 200, ErrorCode.SYSTEM_GENERAL_ERROR, 
+			errorCode = ErrorCode.SYSTEM_GENERAL_ERROR;
+			respondFailure(countingResponse, 200, ErrorCode.SYSTEM_GENERAL_ERROR, 
 					"There was an issue reading from the input stream or writing to the output stream");
 		}
 		catch(InvalidRequestException e) {
 			LOGGER.info("The request was invalid.", e);
-			respondFailure(httpResponse, e.getHttpErrorCode(), e.getErrorCode(), e.getErrorText());
+			errorCode = e.getErrorCode();
+			respondFailure(countingResponse, e.getHttpErrorCode(), e.getErrorCode(), e.getErrorText());
 		} 
 		catch (Exception e) {
 			LOGGER.info("There was an issue executing the request.", e);
-			respondFailure(httpResponse, 200, ErrorCode.SYSTEM_GENERAL_ERROR, 
+			errorCode = ErrorCode.SYSTEM_GENERAL_ERROR;
+			respondFailure(countingResponse, 200, ErrorCode.SYSTEM_GENERAL_ERROR, 
 					"General server errors occured while executing the request");
 		
 		}
+		finally {
+			if(statistics != null) {
+				LOGGER.info(
+					"Database use by '" + httpRequest.getRequestURI() + "': " +
+						statistics.getStatements() + " statements, " +
+						statistics.getConnections() + " connections, " +
+						(statistics.getConnectionWaitNanos() / 1000000) +
+						" ms waiting for connections");
+				
+				RequestMetrics
+					.instance()
+					.recordDatabase(
+						httpRequest.getRequestURI(),
+						statistics.getStatements(),
+						statistics.getConnections(),
+						statistics.getConnectionWaitNanos());
+			}
+			
+			RequestMetrics
+				.instance()
+				.record(
+					httpRequest.getRequestURI(), 
+					buildStart, 
+					serviceStart, 
+					respondStart, 
+					System.nanoTime(), 
+					httpRequest.getContentLength(), 
+					countingResponse.getByteCount(), 
+					errorCode);
+			
+			AuthorizationContext.close();
+		}
 	}
 
 	/**
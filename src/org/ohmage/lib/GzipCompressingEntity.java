@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.lib;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+
+/**
+ * Wraps a request body and GZIP-compresses it as it is written. The length of
+ * the compressed body isn't known ahead of time, so it is always sent
+ * chunked. The server's GZIP filter decodes such bodies.
+ */
+final class GzipCompressingEntity extends HttpEntityWrapper {
+	private static final String CONTENT_ENCODING_HEADER = "Content-Encoding";
+	private static final String CONTENT_ENCODING_GZIP = "gzip";
+
+	/**
+	 * Creates a new entity that compresses another.
+	 *
+	 * @param entity The entity to compress.
+	 */
+	GzipCompressingEntity(final HttpEntity entity) {
+		super(entity);
+	}
+
+	/**
+	 * Returns the "Content-Encoding" header with a value of "gzip".
+	 */
+	@Override
+	public Header getContentEncoding() {
+		return new BasicHeader(CONTENT_ENCODING_HEADER, CONTENT_ENCODING_GZIP);
+	}
+
+	/**
+	 * Returns -1 as the compressed length is unknown.
+	 */
+	@Override
+	public long getContentLength() {
+		return -1;
+	}
+
+	/**
+	 * Returns true as the compressed length is unknown.
+	 */
+	@Override
+	public boolean isChunked() {
+		return true;
+	}
+
+	/**
+	 * The compressed contents are only available by writing them out.
+	 *
+	 * @throws UnsupportedOperationException Always thrown.
+	 */
+	@Override
+	public InputStream getContent() {
+		throw new UnsupportedOperationException(
+				"The compressed contents can only be written.");
+	}
+
+	/**
+	 * Writes the wrapped entity to the stream, compressing it along the way.
+	 */
+	@Override
+	public void writeTo(final OutputStream outputStream) throws IOException {
+		GZIPOutputStream gzipOutputStream =
+			new GZIPOutputStream(outputStream);
+		wrappedEntity.writeTo(gzipOutputStream);
+		gzipOutputStream.finish();
+	}
+}
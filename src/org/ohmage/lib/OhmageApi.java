@@ -15,12 +15,13 @@
  ******************************************************************************/
 package org.ohmage.lib;
 
-import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
+import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -30,12 +31,23 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.params.ClientPNames;
+import org.apache.http.client.params.CookiePolicy;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
@@ -43,8 +55,10 @@ import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.entity.mime.MultipartEntity;
 import org.apache.http.entity.mime.content.FileBody;
 import org.apache.http.entity.mime.content.StringBody;
-import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.ContentEncodingHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
 import org.joda.time.DateTime;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -76,21 +90,63 @@ import org.ohmage.util.StringUtils;
 import org.ohmage.util.DateTimeUtils;
 
 /**
- * This is the main interface class for the server. 
+ * This is the main interface class for the server. It holds a pool of
+ * connections to the server, so it must be closed once it is no longer 
+ * needed.
  * 
  * @author John Jenkins
  */
-public class OhmageApi {
+public class OhmageApi implements Closeable {
 	private static final int HTTP_PORT = 80;
 	private static final int HTTPS_PORT = 443;
 	
-	private static final int CHUNK_SIZE = 4096;
-	
 	private static final String CONTENT_TYPE_HEADER = "Content-Type";
 	private static final String CONTENT_TYPE_HTML = "text/html";
+	
+	/**
+	 * The default maximum number of concurrent connections to the server.
+	 */
+	public static final int DEFAULT_MAX_CONNECTIONS = 8;
+	
+	/**
+	 * The number of seconds an idle paging thread is kept before it is 
+	 * stopped.
+	 */
+	private static final long THREAD_KEEP_ALIVE_SECONDS = 60;
 		
 	private final URL url;
 	
+	// The pool of connections and the client that uses it. The client is 
+	// shared by all calls, so connections are kept alive between calls.
+	private final ThreadSafeClientConnManager connectionManager;
+	private final HttpClient httpClient;
+	
+	// The threads that fetch the pages of paged reads in parallel.
+	private final ThreadPoolExecutor pageExecutor;
+	
+	// Whether or not to GZIP the bodies of non-multipart requests.
+	private final boolean compressRequests;
+	
+	/**
+	 * Converts the JSON Mobility points returned by the server.
+	 */
+	private static final ElementConverter<MobilityPoint> MOBILITY_POINT_CONVERTER =
+		new ElementConverter<MobilityPoint>() {
+			@Override
+			public MobilityPoint convert(final JSONObject element)
+					throws ApiException {
+				
+				try {
+					return new MobilityPoint(
+							element, 
+							MobilityPoint.PrivacyState.PRIVATE);
+				}
+				catch(DomainException e) {
+					throw new ApiException("The server returned an malformed MobilityInformation object.", e);
+				}
+			}
+		};
+	
 	/**
 	 * Creates a new OhmageAPI object that points to a single server.
 	 * 
@@ -108,10 +164,53 @@ public class OhmageApi {
 	 * 
 	 * @throws IllegalArgumentException Thrown if the server address is null or
 	 * 									not a valid address.
+	 * 
+	 * @see #close()
 	 */
 	public OhmageApi(final String serverAddress, final Integer port, 
 			final boolean secure) {
 		
+		this(serverAddress, port, secure, DEFAULT_MAX_CONNECTIONS, false);
+	}
+	
+	/**
+	 * Creates a new OhmageAPI object that points to a single server.<br />
+	 * <br />
+	 * All calls share a pool of connections, so connections are kept alive
+	 * between calls and the same object may be used by multiple threads at
+	 * the same time. Responses are always requested GZIP'd. Cookies are
+	 * ignored, as authentication tokens are always sent as parameters and
+	 * the object may be shared by several users. Once the object is no 
+	 * longer needed, {@link #close()} must be called to release the 
+	 * connections.
+	 * 
+	 * @param serverAddress The servers address. This includes only the domain
+	 * 						section of the URL such as "dev.andwellness.org" or
+	 * 						"dev.mobilizingcs.org".
+	 * 
+	 * @param port The port to use instead of the standard HTTP and HTTPS 
+	 * 			   ports. To use the standard ports, make this null.
+	 * 
+	 * @param secure If set, HTTPS will be used; otherwise, HTTP will be used.
+	 * 				 If one is used and the server sends back a HTTP 301 or 302
+	 * 				 status code, the call will be redirected to the 
+	 * 				 appropriate protocol.
+	 * 
+	 * @param maxConnections The maximum number of concurrent connections to
+	 * 						 the server. This also limits how many pages of a
+	 * 						 paged read are fetched at the same time.
+	 * 
+	 * @param compressRequests Whether or not to GZIP the bodies of requests
+	 * 						   that don't upload files.
+	 * 
+	 * @throws IllegalArgumentException Thrown if the server address is null or
+	 * 									not a valid address or if the maximum
+	 * 									number of connections is not positive.
+	 */
+	public OhmageApi(final String serverAddress, final Integer port, 
+			final boolean secure, final int maxConnections,
+			final boolean compressRequests) {
+		
 		if(StringUtils.isEmptyOrWhitespaceOnly(serverAddress)) {
 			throw new IllegalArgumentException("The server's address cannot be null.");
 		}
@@ -141,6 +240,58 @@ public class OhmageApi {
 		catch(MalformedURLException e) {
 			throw new IllegalArgumentException("The server's address is invalid.");
 		}
+		
+		if(maxConnections < 1) {
+			throw new IllegalArgumentException(
+					"The maximum number of connections must be positive.");
+		}
+		
+		connectionManager = new ThreadSafeClientConnManager();
+		connectionManager.setMaxTotal(maxConnections);
+		connectionManager.setDefaultMaxPerRoute(maxConnections);
+		
+		// This client asks for and decodes GZIP'd responses.
+		httpClient = 
+			new ContentEncodingHttpClient(connectionManager, null);
+		// The server sets the authentication token as a cookie, which would
+		// otherwise be sent with every later call by any thread.
+		httpClient.getParams().setParameter(
+			ClientPNames.COOKIE_POLICY, 
+			CookiePolicy.IGNORE_COOKIES);
+		
+		pageExecutor = 
+			new ThreadPoolExecutor(
+				maxConnections, 
+				maxConnections, 
+				THREAD_KEEP_ALIVE_SECONDS, 
+				TimeUnit.SECONDS, 
+				new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+					
+					@Override
+					public Thread newThread(final Runnable runnable) {
+						Thread thread = 
+							new Thread(
+								runnable, 
+								"OhmageApi-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		pageExecutor.allowCoreThreadTimeOut(true);
+		
+		this.compressRequests = compressRequests;
+	}
+	
+	/**
+	 * Closes all of the connections to the server and stops the paging 
+	 * threads. This object cannot be used afterwards.
+	 */
+	@Override
+	public void close() {
+		pageExecutor.shutdownNow();
+		connectionManager.shutdown();
 	}
 	
 	/**************************************************************************
@@ -1415,19 +1566,9 @@ public class OhmageApi {
 			final String username, final String password, final String client,
 			final DateTime date) throws ApiException, RequestErrorException {
 
-		Map<String, Object> parameters = new HashMap<String, Object>();
-		parameters.put(InputKeys.USER, username);
-		parameters.put(InputKeys.PASSWORD, password);
-		parameters.put(InputKeys.AUTH_TOKEN, authenticationToken);
-		parameters.put(InputKeys.CLIENT, client);
-		
-		if(date != null) {
-			parameters.put(InputKeys.DATE, DateTimeUtils.getIso8601DateString(date, false));
-		}
-		
-		parameters.put(
-			InputKeys.COLUMN_LIST, 
-			"mobility:id,mobility:time,mobility:timestamp,mobility:timezone,mobility:location,mobility:subtype,mobility:sensor_data,mobility:mode");
+		Map<String, Object> parameters = 
+			buildMobilityReadParameters(
+				authenticationToken, username, password, client, date);
 		
 		JSONArray response;
 		try {
@@ -1469,17 +1610,138 @@ public class OhmageApi {
 			}
 			*/
 			
-			try {
-				results.add(new MobilityPoint(currResult, MobilityPoint.PrivacyState.PRIVATE));
-			}
-			catch(DomainException e) {
-				throw new ApiException("The server returned an malformed MobilityInformation object.", e);
-			}
+			results.add(MOBILITY_POINT_CONVERTER.convert(currResult));
 		}
 		
 		return results;
 	}
 	
+	/**
+	 * Reads Mobility points just like 
+	 * {@link #readMobilityPoints(String, String, String, String, DateTime)}
+	 * but returns them one at a time as they are read from the server, so 
+	 * the response is never held in memory as a whole.<br />
+	 * <br />
+	 * The iterator holds a connection until it has been exhausted or closed,
+	 * so it must always be closed.
+	 * 
+	 * @return An iterator over the Mobility points.
+	 * 
+	 * @throws ApiException Thrown if there is a library error.
+	 * 
+	 * @throws RequestErrorException Thrown if the server returns an error.
+	 * 
+	 * @see ResponseIterator
+	 */
+	public ResponseIterator<MobilityPoint> readMobilityPointsIterator(
+			final String authenticationToken, final String username, 
+			final String password, final String client, final DateTime date)
+			throws ApiException, RequestErrorException {
+		
+		Map<String, Object> parameters = 
+			buildMobilityReadParameters(
+				authenticationToken, username, password, client, date);
+		
+		return makeStreamingRequest(
+				getMobilityReadUrl(), 
+				parameters, 
+				false, 
+				MobilityReadRequest.JSON_KEY_DATA, 
+				MOBILITY_POINT_CONVERTER);
+	}
+	
+	/**
+	 * Reads the Mobility points for each of the dates. The dates are read in
+	 * parallel, up to the maximum number of connections at a time.
+	 * 
+	 * @param dates The dates for which the Mobility points will be gathered.
+	 * 
+	 * @return A, possibly empty but never null, list of the Mobility points
+	 * 		   for all of the dates in the order of the dates.
+	 * 
+	 * @throws ApiException Thrown if there is a library error.
+	 * 
+	 * @throws RequestErrorException Thrown if the server returns an error.
+	 * 
+	 * @see #readMobilityPoints(String, String, String, String, DateTime)
+	 */
+	public List<MobilityPoint> readMobilityPointsForDates(
+			final String authenticationToken, final String username, 
+			final String password, final String client, 
+			final List<DateTime> dates)
+			throws ApiException, RequestErrorException {
+		
+		List<Callable<List<MobilityPoint>>> days = 
+			new ArrayList<Callable<List<MobilityPoint>>>(dates.size());
+		for(final DateTime date : dates) {
+			days.add(
+				new Callable<List<MobilityPoint>>() {
+					@Override
+					public List<MobilityPoint> call() 
+							throws ApiException, RequestErrorException {
+						
+						return readMobilityPoints(
+								authenticationToken, 
+								username, 
+								password, 
+								client, 
+								date);
+					}
+				});
+		}
+		
+		List<MobilityPoint> results = new ArrayList<MobilityPoint>();
+		for(List<MobilityPoint> day : fetchInParallel(days)) {
+			results.addAll(day);
+		}
+		return results;
+	}
+	
+	/**
+	 * Builds the parameters for a Mobility read.
+	 * 
+	 * @return The parameters.
+	 * 
+	 * @see #readMobilityPoints(String, String, String, String, DateTime)
+	 */
+	private Map<String, Object> buildMobilityReadParameters(
+			final String authenticationToken, final String username, 
+			final String password, final String client, 
+			final DateTime date) {
+		
+		Map<String, Object> parameters = new HashMap<String, Object>();
+		parameters.put(InputKeys.USER, username);
+		parameters.put(InputKeys.PASSWORD, password);
+		parameters.put(InputKeys.AUTH_TOKEN, authenticationToken);
+		parameters.put(InputKeys.CLIENT, client);
+		
+		if(date != null) {
+			parameters.put(InputKeys.DATE, DateTimeUtils.getIso8601DateString(date, false));
+		}
+		
+		parameters.put(
+			InputKeys.COLUMN_LIST, 
+			"mobility:id,mobility:time,mobility:timestamp,mobility:timezone,mobility:location,mobility:subtype,mobility:sensor_data,mobility:mode");
+		
+		return parameters;
+	}
+	
+	/**
+	 * Returns the URL of the Mobility read API.
+	 * 
+	 * @return The URL.
+	 * 
+	 * @throws ApiException Thrown if the URL could not be created.
+	 */
+	private URL getMobilityReadUrl() throws ApiException {
+		try {
+			return new URL(url.toString() + RequestBuilder.getInstance().getApiMobilityRead());
+		}
+		catch(MalformedURLException e) {
+			throw new ApiException("The URL was incorrectly created.", e);
+		}
+	}
+	
 	/**************************************************************************
 	 * Survey Response Requests
 	 *************************************************************************/
@@ -1922,6 +2184,225 @@ public class OhmageApi {
 			final Boolean returnId)
 			throws ApiException, RequestErrorException {
 		
+		Map<String, Object> parameters = 
+			buildSurveyResponseReadParameters(
+				authenticationToken, username, hashedPassword, client, 
+				campaignId, usernames, columnList, surveyIdList, 
+				promptIdList, startDate, endDate, privacyState, collapse, 
+				suppressMetadata, returnId);
+		
+		JSONArray response;
+		try {
+			response = new JSONArray(
+					processJsonResponse(
+							makeRequest(
+									new URL(url.toString() + RequestBuilder.getInstance().getApiSurveyResponseRead()), 
+									parameters, 
+									false
+								),
+							InputKeys.DATA
+						)
+				);
+		}
+		catch(MalformedURLException e) {
+			throw new ApiException("The URL was incorrectly created.", e);
+		}
+		catch(IllegalArgumentException e) {
+			throw new ApiException("The response was not proper JSON.", e);
+		}
+		catch(JSONException e) {
+			throw new ApiException("The response was proper JSON but the data was not.", e);
+		}
+		
+		return response;
+		// TODO: We need to convert this from a JSONArray into some Java 
+		// object.
+	}
+	
+	/**
+	 * Reads survey responses just like 
+	 * {@link #getSurveyResponsesJsonRows(String, String, String, String, String, Collection, Collection, Collection, Collection, DateTime, DateTime, SurveyResponse.PrivacyState, Boolean, Boolean, Boolean)}
+	 * but returns the rows one at a time as they are read from the server,
+	 * so the response is never held in memory as a whole.<br />
+	 * <br />
+	 * The iterator holds a connection until it has been exhausted or closed,
+	 * so it must always be closed.
+	 * 
+	 * @return An iterator over the rows.
+	 * 
+	 * @throws ApiException Thrown if there is a library error.
+	 * 
+	 * @throws RequestErrorException Thrown if the server returns an error.
+	 * 
+	 * @see ResponseIterator
+	 */
+	public ResponseIterator<JSONObject> getSurveyResponsesJsonRowsIterator(
+			final String authenticationToken, final String username, 
+			final String hashedPassword, final String client,
+			final String campaignId, final Collection<String> usernames,
+			final Collection<SurveyResponse.ColumnKey> columnList,
+			final Collection<String> surveyIdList, 
+			final Collection<String> promptIdList,
+			final DateTime startDate, final DateTime endDate, 
+			final SurveyResponse.PrivacyState privacyState,
+			final Boolean collapse, final Boolean suppressMetadata,
+			final Boolean returnId)
+			throws ApiException, RequestErrorException {
+		
+		Map<String, Object> parameters = 
+			buildSurveyResponseReadParameters(
+				authenticationToken, username, hashedPassword, client, 
+				campaignId, usernames, columnList, surveyIdList, 
+				promptIdList, startDate, endDate, privacyState, collapse, 
+				suppressMetadata, returnId);
+		
+		return makeStreamingRequest(
+				getSurveyResponseReadUrl(), 
+				parameters, 
+				false, 
+				InputKeys.DATA, 
+				new ElementConverter<JSONObject>() {
+					@Override
+					public JSONObject convert(final JSONObject element) {
+						return element;
+					}
+				});
+	}
+	
+	/**
+	 * Reads survey responses just like 
+	 * {@link #getSurveyResponsesJsonRows(String, String, String, String, String, Collection, Collection, Collection, Collection, DateTime, DateTime, SurveyResponse.PrivacyState, Boolean, Boolean, Boolean)}
+	 * but reads them a page at a time. The first page is read to learn how
+	 * many survey responses there are, and then the rest of the pages are
+	 * read in parallel, up to the maximum number of connections at a time.
+	 * The metadata is never returned.
+	 * 
+	 * @param pageSize The number of survey responses to read per page.
+	 * 
+	 * @return A JSONArray of all of the rows in order.
+	 * 
+	 * @throws IllegalArgumentException Thrown if the page size is not 
+	 * 									positive.
+	 * 
+	 * @throws ApiException Thrown if there is a library error.
+	 * 
+	 * @throws RequestErrorException Thrown if the server returns an error.
+	 */
+	public JSONArray getSurveyResponsesJsonRows(
+			final String authenticationToken, final String username, 
+			final String hashedPassword, final String client,
+			final String campaignId, final Collection<String> usernames,
+			final Collection<SurveyResponse.ColumnKey> columnList,
+			final Collection<String> surveyIdList, 
+			final Collection<String> promptIdList,
+			final DateTime startDate, final DateTime endDate, 
+			final SurveyResponse.PrivacyState privacyState,
+			final Boolean collapse, final Boolean suppressMetadata,
+			final Boolean returnId,
+			final int pageSize)
+			throws ApiException, RequestErrorException {
+		
+		if(pageSize < 1) {
+			throw new IllegalArgumentException(
+					"The page size must be positive.");
+		}
+		
+		final Map<String, Object> parameters = 
+			buildSurveyResponseReadParameters(
+				authenticationToken, username, hashedPassword, client, 
+				campaignId, usernames, columnList, surveyIdList, 
+				promptIdList, startDate, endDate, privacyState, collapse, 
+				true, returnId);
+		final URL requestUrl = getSurveyResponseReadUrl();
+		
+		// Read the first page along with its metadata, which has the total
+		// number of survey responses.
+		Map<String, Object> firstPageParameters = 
+			new HashMap<String, Object>(parameters);
+		firstPageParameters.put(InputKeys.SUPPRESS_METADATA, false);
+		firstPageParameters.put(InputKeys.NUM_TO_SKIP, 0);
+		firstPageParameters.put(InputKeys.NUM_TO_RETURN, pageSize);
+		
+		JSONArray result;
+		long total;
+		try {
+			byte[] response = makeRequest(requestUrl, firstPageParameters, false);
+			result = new JSONArray(processJsonResponse(response, InputKeys.DATA));
+			total = 
+				new JSONObject(
+					processJsonResponse(response, Request.JSON_KEY_METADATA))
+						.getLong(Request.JSON_KEY_TOTAL_NUM_RESULTS);
+		}
+		catch(IllegalArgumentException e) {
+			throw new ApiException("The response was not proper JSON.", e);
+		}
+		catch(JSONException e) {
+			throw new ApiException("The response was proper JSON but the data was not.", e);
+		}
+		
+		// Read the rest of the pages in parallel.
+		List<Callable<JSONArray>> pages = new ArrayList<Callable<JSONArray>>();
+		for(long numToSkip = pageSize; numToSkip < total; numToSkip += pageSize) {
+			final Map<String, Object> pageParameters = 
+				new HashMap<String, Object>(parameters);
+			pageParameters.put(InputKeys.NUM_TO_SKIP, numToSkip);
+			pageParameters.put(InputKeys.NUM_TO_RETURN, pageSize);
+			
+			pages.add(
+				new Callable<JSONArray>() {
+					@Override
+					public JSONArray call() 
+							throws ApiException, RequestErrorException {
+						
+						try {
+							return new JSONArray(
+									processJsonResponse(
+										makeRequest(
+											requestUrl, 
+											pageParameters, 
+											false),
+										InputKeys.DATA));
+						}
+						catch(IllegalArgumentException e) {
+							throw new ApiException("The response was not proper JSON.", e);
+						}
+						catch(JSONException e) {
+							throw new ApiException("The response was proper JSON but the data was not.", e);
+						}
+					}
+				});
+		}
+		
+		for(JSONArray page : fetchInParallel(pages)) {
+			int pageLength = page.length();
+			for(int i = 0; i < pageLength; i++) {
+				result.put(page.opt(i));
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Builds the parameters for a survey response read whose output is JSON
+	 * rows.
+	 * 
+	 * @return The parameters.
+	 * 
+	 * @see #getSurveyResponsesJsonRows(String, String, String, String, String, Collection, Collection, Collection, Collection, DateTime, DateTime, SurveyResponse.PrivacyState, Boolean, Boolean, Boolean)
+	 */
+	private Map<String, Object> buildSurveyResponseReadParameters(
+			final String authenticationToken, final String username, 
+			final String hashedPassword, final String client,
+			final String campaignId, final Collection<String> usernames,
+			final Collection<SurveyResponse.ColumnKey> columnList,
+			final Collection<String> surveyIdList, 
+			final Collection<String> promptIdList,
+			final DateTime startDate, final DateTime endDate, 
+			final SurveyResponse.PrivacyState privacyState,
+			final Boolean collapse, final Boolean suppressMetadata,
+			final Boolean returnId) {
+		
 		Map<String, Object> parameters = new HashMap<String, Object>();
 		parameters.put(InputKeys.USER, username);
 		parameters.put(InputKeys.PASSWORD, hashedPassword);
@@ -1972,32 +2453,23 @@ public class OhmageApi {
 		parameters.put(InputKeys.SUPPRESS_METADATA, suppressMetadata);
 		parameters.put(InputKeys.RETURN_ID, returnId);
 		
-		JSONArray response;
+		return parameters;
+	}
+	
+	/**
+	 * Returns the URL of the survey response read API.
+	 * 
+	 * @return The URL.
+	 * 
+	 * @throws ApiException Thrown if the URL could not be created.
+	 */
+	private URL getSurveyResponseReadUrl() throws ApiException {
 		try {
-			response = new JSONArray(
-					processJsonResponse(
-							makeRequest(
-									new URL(url.toString() + RequestBuilder.getInstance().getApiSurveyResponseRead()), 
-									parameters, 
-									false
-								),
-							InputKeys.DATA
-						)
-				);
+			return new URL(url.toString() + RequestBuilder.getInstance().getApiSurveyResponseRead());
 		}
 		catch(MalformedURLException e) {
 			throw new ApiException("The URL was incorrectly created.", e);
 		}
-		catch(IllegalArgumentException e) {
-			throw new ApiException("The response was not proper JSON.", e);
-		}
-		catch(JSONException e) {
-			throw new ApiException("The response was proper JSON but the data was not.", e);
-		}
-		
-		return response;
-		// TODO: We need to convert this from a JSONArray into some Java 
-		// object.
 	}
 	
 	/**
@@ -2605,8 +3077,129 @@ public class OhmageApi {
 			final Map<String, Object> postParameters, final boolean isForm) 
 		throws ApiException, RequestErrorException {
 		
-		// Create a default client to use to connect with.
-		HttpClient httpClient = new DefaultHttpClient();
+		// Make the request and get the response.
+		HttpResponse httpResponse = 
+			execute(buildRequest(url, postParameters, isForm));
+		
+		// Read the results as a byte array. This is used instead of a string 
+		// to allow the function to me more open to different types of return 
+		// values such as text, images, etc. Reading it to its end releases
+		// the connection back to the pool.
+		byte[] result;
+		try {
+			result = EntityUtils.toByteArray(httpResponse.getEntity());
+		}
+		catch(IOException e) {
+			throw new ApiException("There was an error reading from the server.", e);
+		}
+		
+		// Finally, check the Content-Type to see if it suggests that this is
+		// an ohmage JSON result. If so, check if it failed and, if so, throw
+		// an exception.
+		Header[] headers = httpResponse.getHeaders(CONTENT_TYPE_HEADER);
+		String contentType = headers[0].getValue();
+		if(CONTENT_TYPE_HTML.equals(contentType)) {
+			checkFailure(result);
+		}
+		
+		// Return the byte array.
+		return result;
+	}
+	
+	/**
+	 * Makes a call to the URL just like 
+	 * {@link #makeRequest(URL, Map, boolean)} but, instead of reading the 
+	 * response, returns an iterator over the elements of the array that is 
+	 * associated with the given key in the JSON response. The elements are
+	 * read from the connection as the iterator is advanced.
+	 * 
+	 * @param url The URL to which the request should be made.
+	 * 
+	 * @param postParameters The parameters for a POST call or null for a GET
+	 * 						 call.
+	 * 
+	 * @param isForm Whether or not a POST should be a "multipart/form-data"
+	 * 				 request.
+	 * 
+	 * @param jsonKey The key in the JSON response whose value is the array.
+	 * 
+	 * @param converter Converts each element of the array.
+	 * 
+	 * @return The iterator, which must be closed.
+	 * 
+	 * @throws ApiException Thrown if there was an error communicating with 
+	 * 						the server or the response isn't valid.
+	 * 
+	 * @throws RequestErrorException Thrown if the server returned an error.
+	 */
+	private <T> ResponseIterator<T> makeStreamingRequest(final URL url, 
+			final Map<String, Object> postParameters, final boolean isForm,
+			final String jsonKey, final ElementConverter<T> converter)
+			throws ApiException, RequestErrorException {
+		
+		HttpRequestBase request = buildRequest(url, postParameters, isForm);
+		HttpResponse httpResponse = execute(request);
+		
+		InputStream content;
+		try {
+			content = httpResponse.getEntity().getContent();
+		}
+		catch(IOException e) {
+			request.abort();
+			throw new ApiException("There was an error connecting to the response from the server.", e);
+		}
+		
+		return new ResponseIterator<T>(request, content, jsonKey) {
+			@Override
+			protected T convert(final JSONObject element) 
+					throws ApiException {
+				
+				return converter.convert(element);
+			}
+		};
+	}
+	
+	/**
+	 * Converts the elements of a streamed response.
+	 *
+	 * @param <T> The type of the converted elements.
+	 */
+	private static interface ElementConverter<T> {
+		/**
+		 * Converts an element.
+		 * 
+		 * @param element The element.
+		 * 
+		 * @return The converted element.
+		 * 
+		 * @throws ApiException The element is not valid.
+		 */
+		T convert(JSONObject element) throws ApiException;
+	}
+	
+	/**
+	 * Builds a request to the URL. The request will be a GET if 
+	 * 'postParameters' is null and a POST if 'postParameters' is non-null, 
+	 * even if it is empty. If it is a POST, 'isForm' will set it to be a 
+	 * "multipart/form-data" request, but if it is set to false it will 
+	 * default to a "application/x-www-form-urlencoded" request, whose body is
+	 * GZIP'd if this object was created to compress requests.
+	 * 
+	 * @param url The URL to which the request should be made.
+	 * 
+	 * @param postParameters The parameters for a POST call or null for a GET
+	 * 						 call.
+	 * 
+	 * @param isForm Whether or not a POST should be a "multipart/form-data"
+	 * 				 request.
+	 * 
+	 * @return The request.
+	 * 
+	 * @throws ApiException Thrown if the request could not be built.
+	 */
+	private HttpRequestBase buildRequest(final URL url, 
+			final Map<String, Object> postParameters, final boolean isForm) 
+			throws ApiException {
 		
 		// Build the request based on the parameters.
 		HttpRequestBase request;
@@ -2671,6 +3264,10 @@ public class OhmageApi {
 					catch(UnsupportedEncodingException e) {
 						throw new ApiException("The parameter list could not be properly encoded.", e);
 					}
+					
+					if(compressRequests) {
+						entity = new GzipCompressingEntity(entity);
+					}
 				}
 				postRequest.setEntity(entity);
 			}
@@ -2679,7 +3276,25 @@ public class OhmageApi {
 			}
 		}
 		
-		// Make the request and get the response.
+		return request;
+	}
+	
+	/**
+	 * Executes a request with the shared client and follows any redirects. 
+	 * Any response other than a successful one is read and released before
+	 * an exception is thrown, so its connection may be reused.
+	 * 
+	 * @param request The request.
+	 * 
+	 * @return The successful response. Its entity must be read to its end or
+	 * 		   closed to release its connection.
+	 * 
+	 * @throws ApiException Thrown if there was an error communicating with the
+	 * 						server or the response was not successful.
+	 */
+	private HttpResponse execute(final HttpRequestBase request) 
+			throws ApiException {
+		
 		HttpResponse httpResponse;
 		try {
 			httpResponse = httpClient.execute(request);
@@ -2696,55 +3311,92 @@ public class OhmageApi {
 		// If it is a redirect, get the new location and remake the request.
 		if((statusCode == 301) || (statusCode == 302)) {
 			String newLocation = httpResponse.getFirstHeader("Location").getValue();
+			release(httpResponse);
 			
 			try {
-				return makeRequest(new URL(newLocation), postParameters, isForm);
+				request.setURI(new URI(newLocation));
 			}
-			catch(MalformedURLException e) {
+			catch(URISyntaxException e) {
 				throw new ApiException("The server returned a bad redirect address: " + newLocation, e);
 			}
+			return execute(request);
 		}
 		// Otherwise, if it is is a non-success code, fail the request.
 		else if(statusCode != 200) {
+			release(httpResponse);
 			throw new ApiException("There was an error connecting to the server: " + statusCode);
 		}
 		
-		// Retrieve the server's response as an InputStream.
-		InputStream content;
+		return httpResponse;
+	}
+	
+	/**
+	 * Runs each of the fetches on the paging threads and returns their 
+	 * results in the same order as the fetches. If any fetch fails, the rest
+	 * are cancelled.
+	 * 
+	 * @param fetches The fetches.
+	 * 
+	 * @return The results of the fetches.
+	 * 
+	 * @throws ApiException Thrown if a fetch failed or if this object has 
+	 * 						been closed.
+	 * 
+	 * @throws RequestErrorException Thrown if the server returned an error
+	 * 								 for a fetch.
+	 */
+	private <T> List<T> fetchInParallel(final List<Callable<T>> fetches)
+			throws ApiException, RequestErrorException {
+		
+		List<Future<T>> futures = new ArrayList<Future<T>>(fetches.size());
 		try {
-			content = httpResponse.getEntity().getContent();
+			for(Callable<T> fetch : fetches) {
+				futures.add(pageExecutor.submit(fetch));
+			}
+			
+			List<T> results = new ArrayList<T>(fetches.size());
+			for(Future<T> future : futures) {
+				try {
+					results.add(future.get());
+				}
+				catch(ExecutionException e) {
+					Throwable cause = e.getCause();
+					if(cause instanceof ApiException) {
+						throw (ApiException) cause;
+					}
+					throw new ApiException("There was an error reading a page.", cause);
+				}
+			}
+			return results;
 		}
-		catch(IOException e) {
-			throw new ApiException("There was an error connecting to the response from the server.", e);
+		catch(RejectedExecutionException e) {
+			throw new ApiException("The connection has been closed.", e);
 		}
-		
-		// Read the results as a byte array. This is used instead of a string 
-		// to allow the function to me more open to different types of return 
-		// values such as text, images, etc.
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		byte[] chunk = new byte[CHUNK_SIZE];
-		int amountRead;
-		try {
-			while((amountRead = content.read(chunk)) != -1) {
-				baos.write(chunk, 0, amountRead);
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ApiException("The thread was interrupted while reading the pages.", e);
+		}
+		finally {
+			// This has no effect on the fetches that have already finished.
+			for(Future<T> future : futures) {
+				future.cancel(true);
 			}
 		}
-		catch(IOException e) {
-			throw new ApiException("There was an error reading from the server.", e);
+	}
+	
+	/**
+	 * Reads and discards the rest of a response so that its connection is 
+	 * returned to the pool.
+	 * 
+	 * @param httpResponse The response.
+	 */
+	private static void release(final HttpResponse httpResponse) {
+		try {
+			EntityUtils.consume(httpResponse.getEntity());
 		}
-		byte[] result = baos.toByteArray();
-		
-		// Finally, check the Content-Type to see if it suggests that this is
-		// an ohmage JSON result. If so, check if it failed and, if so, throw
-		// an exception.
-		Header[] headers = httpResponse.getHeaders(CONTENT_TYPE_HEADER);
-		String contentType = headers[0].getValue();
-		if(CONTENT_TYPE_HTML.equals(contentType)) {
-			checkFailure(result);
+		catch(IOException e) {
+			// The connection is discarded instead of being reused.
 		}
-		
-		// Return the byte array.
-		return result;
 	}
 
 	/**
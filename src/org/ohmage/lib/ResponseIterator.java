@@ -0,0 +1,341 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.lib;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.http.client.methods.HttpRequestBase;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.ohmage.annotator.Annotator;
+import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.lib.exception.ApiException;
+import org.ohmage.lib.exception.RequestErrorException;
+import org.ohmage.request.Request;
+
+/**
+ * <p>
+ * Iterates over the elements of the array in an ohmage JSON response as they
+ * are read from the connection, so the response is never held in memory as a
+ * whole. Each element is expected to be a JSON object and is converted by
+ * {@link #convert(JSONObject)}.
+ * </p>
+ *
+ * <p>
+ * The iterator holds a connection to the server until it has been exhausted
+ * or closed, so it must always be closed. Errors while reading an element
+ * are thrown from {@link #next()} as an {@link IllegalStateException} whose
+ * cause is the {@link ApiException}.
+ * </p>
+ *
+ * @param <T> The type of the elements.
+ */
+public abstract class ResponseIterator<T> implements Iterator<T>, Closeable {
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private final HttpRequestBase request;
+	private final InputStream content;
+	private final JsonParser parser;
+
+	private boolean exhausted;
+	private boolean closed;
+
+	/**
+	 * Reads the response up to the first element of the array.
+	 *
+	 * @param request The request that is being answered. It is aborted if the
+	 * 				  iterator is closed before it is exhausted.
+	 *
+	 * @param content The response's body. It is closed if this fails.
+	 *
+	 * @param jsonKey The key in the response whose value is the array.
+	 *
+	 * @throws ApiException The response isn't a proper ohmage JSON response
+	 * 						or it couldn't be read.
+	 *
+	 * @throws RequestErrorException The server returned an error.
+	 */
+	ResponseIterator(
+			final HttpRequestBase request,
+			final InputStream content,
+			final String jsonKey)
+			throws ApiException, RequestErrorException {
+
+		this.request = request;
+		this.content = content;
+
+		boolean success = false;
+		try {
+			parser = JSON_FACTORY.createJsonParser(content);
+
+			if(parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new ApiException("The response is not a JSON object.");
+			}
+
+			String result = null;
+			JSONArray errors = null;
+			while(parser.nextToken() == JsonToken.FIELD_NAME) {
+				String key = parser.getCurrentName();
+				JsonToken token = parser.nextToken();
+
+				// Stop on the first element, or the end, of the array.
+				if(jsonKey.equals(key) && (token == JsonToken.START_ARRAY)) {
+					exhausted = (parser.nextToken() == JsonToken.END_ARRAY);
+					success = true;
+					return;
+				}
+
+				Object value = readValue(parser);
+				if(Request.JSON_KEY_RESULT.equals(key)) {
+					result = String.valueOf(value);
+				}
+				else if(Request.JSON_KEY_ERRORS.equals(key) &&
+						(value instanceof JSONArray)) {
+
+					errors = (JSONArray) value;
+				}
+			}
+
+			if(Request.RESULT_FAILURE.equals(result) && (errors != null)) {
+				throw createError(errors);
+			}
+			throw new ApiException(
+					"The key '" +
+						jsonKey +
+						"' does not exist in the JSON response.");
+		}
+		catch(JsonParseException e) {
+			throw new ApiException("The response is not valid JSON.", e);
+		}
+		catch(JSONException e) {
+			throw new ApiException("The response is not valid JSON.", e);
+		}
+		catch(IOException e) {
+			throw new ApiException("There was an error reading from the server.", e);
+		}
+		finally {
+			if(! success) {
+				close();
+			}
+		}
+	}
+
+	/**
+	 * Converts an element of the array.
+	 *
+	 * @param element The element.
+	 *
+	 * @return The converted element.
+	 *
+	 * @throws ApiException The element is not valid.
+	 */
+	protected abstract T convert(JSONObject element) throws ApiException;
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.util.Iterator#hasNext()
+	 */
+	@Override
+	public boolean hasNext() {
+		return (! exhausted) && (! closed);
+	}
+
+	/**
+	 * Reads and returns the next element.
+	 *
+	 * @throws NoSuchElementException There are no more elements.
+	 *
+	 * @throws IllegalStateException The element could not be read or
+	 * 								 converted. The cause is the
+	 * 								 {@link ApiException}.
+	 */
+	@Override
+	public T next() {
+		if(! hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		try {
+			Object value = readValue(parser);
+			if(! (value instanceof JSONObject)) {
+				throw new ApiException(
+						"An element of the response is not a JSON object.");
+			}
+
+			if(parser.nextToken() == JsonToken.END_ARRAY) {
+				exhausted = true;
+				close();
+			}
+
+			return convert((JSONObject) value);
+		}
+		catch(ApiException e) {
+			close();
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+		catch(JSONException e) {
+			close();
+			throw new IllegalStateException(
+					"The response is not valid JSON.",
+					new ApiException("The response is not valid JSON.", e));
+		}
+		catch(IOException e) {
+			close();
+			throw new IllegalStateException(
+					"There was an error reading from the server.",
+					new ApiException(
+						"There was an error reading from the server.",
+						e));
+		}
+	}
+
+	/**
+	 * Elements cannot be removed from a response.
+	 *
+	 * @throws UnsupportedOperationException Always thrown.
+	 */
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException(
+				"Elements cannot be removed from a response.");
+	}
+
+	/**
+	 * Releases the connection. If the response has not been read to its end,
+	 * the connection is aborted instead of reading the rest of it.
+	 */
+	@Override
+	public void close() {
+		if(closed) {
+			return;
+		}
+		closed = true;
+
+		if(! exhausted) {
+			request.abort();
+		}
+
+		try {
+			content.close();
+		}
+		catch(IOException e) {
+			// The connection is being discarded either way.
+		}
+	}
+
+	/**
+	 * Reads the value on which the parser is positioned, including all of its
+	 * children, into the org.json type that represents it.
+	 *
+	 * @param parser The parser.
+	 *
+	 * @return A JSONObject, JSONArray, String, Number, Boolean, or
+	 * 		   {@link JSONObject#NULL}.
+	 *
+	 * @throws IOException There was an error reading the value.
+	 *
+	 * @throws JSONException The value could not be represented.
+	 */
+	private static Object readValue(
+			final JsonParser parser)
+			throws IOException, JSONException {
+
+		switch(parser.getCurrentToken()) {
+		case START_OBJECT:
+			JSONObject object = new JSONObject();
+			while(parser.nextToken() == JsonToken.FIELD_NAME) {
+				String key = parser.getCurrentName();
+				parser.nextToken();
+				object.put(key, readValue(parser));
+			}
+			return object;
+
+		case START_ARRAY:
+			JSONArray array = new JSONArray();
+			while(parser.nextToken() != JsonToken.END_ARRAY) {
+				array.put(readValue(parser));
+			}
+			return array;
+
+		case VALUE_STRING:
+			return parser.getText();
+
+		case VALUE_NUMBER_INT:
+		case VALUE_NUMBER_FLOAT:
+			return parser.getNumberValue();
+
+		case VALUE_TRUE:
+			return Boolean.TRUE;
+
+		case VALUE_FALSE:
+			return Boolean.FALSE;
+
+		case VALUE_NULL:
+			return JSONObject.NULL;
+
+		default:
+			throw new JsonParseException(
+					"Unexpected token: " + parser.getCurrentToken(),
+					parser.getCurrentLocation());
+		}
+	}
+
+	/**
+	 * Creates the exception for an ohmage error response.
+	 *
+	 * @param errors The response's errors.
+	 *
+	 * @return The exception for the first error.
+	 *
+	 * @throws ApiException The errors are malformed or the code is unknown.
+	 */
+	private static RequestErrorException createError(
+			final JSONArray errors)
+			throws ApiException {
+
+		try {
+			JSONObject error = errors.getJSONObject(0);
+
+			ErrorCode errorCode;
+			try {
+				errorCode =
+					ErrorCode.getValue(
+						error.getString(Annotator.JSON_KEY_CODE));
+			}
+			catch(IllegalArgumentException e) {
+				throw new ApiException("The error code was unknown.", e);
+			}
+
+			return new RequestErrorException(
+					errorCode,
+					error.getString(Annotator.JSON_KEY_TEXT));
+		}
+		catch(JSONException e) {
+			throw new ApiException(
+					"The failed JSON response doesn't contain a proper error object.",
+					e);
+		}
+	}
+}
@@ -15,11 +15,14 @@
  ******************************************************************************/
 package org.ohmage.query;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import org.joda.time.DateTimeZone;
 import org.ohmage.domain.Annotation;
+import org.ohmage.domain.PromptResponseAnnotation;
 import org.ohmage.exception.DataAccessException;
 
 /**
@@ -96,6 +99,32 @@ public interface IAnnotationQueries {
 		Integer repeatableSetIteration
 	) throws DataAccessException;
 	
+	/**
+	 * Retrieves the annotations for many survey responses in a single query.
+	 * 
+	 * @param surveyResponseIds the survey response ids
+	 * @return a map of survey response ids to the annotations bound to them.
+	 * Survey responses without any annotations are not in the map.
+	 * @throws DataAccessException if an error occurs
+	 */
+	Map<UUID, List<Annotation>> readSurveyResponseAnnotations(
+		Collection<UUID> surveyResponseIds
+	) throws DataAccessException;
+	
+	/**
+	 * Retrieves the annotations for all of the prompt responses of many 
+	 * survey responses in a single query.
+	 * 
+	 * @param surveyResponseIds the survey response ids
+	 * @return a map of survey response ids to the annotations bound to their
+	 * prompt responses. Survey responses without any annotated prompt 
+	 * responses are not in the map.
+	 * @throws DataAccessException if an error occurs
+	 */
+	Map<UUID, List<PromptResponseAnnotation>> readPromptResponseAnnotations(
+		Collection<UUID> surveyResponseIds
+	) throws DataAccessException;
+	
 	/**
 	 * @param username      The user who ostensibly owns the annotation.  
 	 * @param annotationId  The id of the annotation.
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.ohmage.domain.CampaignDeletion;
+import org.ohmage.exception.DataAccessException;
+
+/**
+ * The interface for the background work of deleting campaigns: removing
+ * their survey responses in batches and collecting their media files.
+ */
+public interface ICampaignDeletionQueries {
+	/**
+	 * Returns the deletions of a campaign, the most recent first. A campaign
+	 * may have been deleted more than once if its ID was reused.
+	 *
+	 * @param campaignId The campaign's unique identifier.
+	 *
+	 * @return The deletions, which may be empty.
+	 *
+	 * @throws DataAccessException There was an error.
+	 */
+	List<CampaignDeletion> getDeletions(String campaignId)
+		throws DataAccessException;
+
+	/**
+	 * Returns the deletions that are still removing survey responses, the
+	 * oldest first.
+	 *
+	 * @return The deletions' unique identifiers.
+	 *
+	 * @throws DataAccessException There was an error.
+	 */
+	List<UUID> getDeletionsInProgress() throws DataAccessException;
+
+	/**
+	 * Removes a batch of a deleted campaign's survey responses, along with
+	 * their prompt responses and annotations, in one transaction. Their
+	 * media are queued to be collected. Once there are no more survey
+	 * responses, the deletion moves on to collecting the media.
+	 *
+	 * @param deletionId The deletion's unique identifier.
+	 *
+	 * @param batchSize The maximum number of survey responses to remove.
+	 *
+	 * @return The number of survey responses that were removed.
+	 *
+	 * @throws DataAccessException There was an error.
+	 */
+	int deleteSurveyResponses(UUID deletionId, int batchSize)
+		throws DataAccessException;
+
+	/**
+	 * Deletes a batch of the media files that are no longer referenced,
+	 * either from the disk or by releasing them from the content-addressed
+	 * store.
+	 *
+	 * @param batchSize The maximum number of files to delete.
+	 *
+	 * @return The number of files that were deleted.
+	 *
+	 * @throws DataAccessException There was an error.
+	 */
+	int collectMediaGarbage(int batchSize) throws DataAccessException;
+
+	/**
+	 * Marks the deletions whose media have all been collected as complete.
+	 *
+	 * @throws DataAccessException There was an error.
+	 */
+	void completeDeletions() throws DataAccessException;
+}
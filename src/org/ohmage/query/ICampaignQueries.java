@@ -19,6 +19,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
 import org.joda.time.DateTime;
 import org.ohmage.domain.campaign.Campaign;
@@ -68,6 +69,18 @@ public interface ICampaignQueries {
 	 */
 	String getName(String campaignId) throws DataAccessException;
 
+	/**
+	 * Retrieves the version of a campaign's survey responses, which advances
+	 * whenever any of them is uploaded, changed, or deleted.
+	 * 
+	 * @param campaignId
+	 *            The unique identifier for the campaign.
+	 * 
+	 * @return The campaign's response version, which is 0 if it has never
+	 *         had a response.
+	 */
+	long getResponseVersion(String campaignId) throws DataAccessException;
+
 	/**
 	 * Finds the configuration for the provided campaign id.
 	 * 
@@ -535,11 +548,18 @@ public interface ICampaignQueries {
 			throws DataAccessException;
 
 	/**
-	 * Deletes a campaign.
+	 * Deletes a campaign. The campaign disappears immediately, but its survey
+	 * responses and their media are removed in the background.
 	 * 
 	 * @param campaignId
 	 *            The unique identifier of the campaign to be deleted.
+	 * 
+	 * @param requester
+	 *            The username of the user who is deleting the campaign.
+	 * 
+	 * @return The unique identifier of the deletion, whose progress may be
+	 *         followed.
 	 */
-	void deleteCampaign(String campaignId) throws DataAccessException;
+	UUID deleteCampaign(String campaignId, String requester) throws DataAccessException;
 
 }
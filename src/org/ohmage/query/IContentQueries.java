@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query;
+
+import java.io.InputStream;
+
+import org.ohmage.exception.DataAccessException;
+
+/**
+ * The interface for the content-addressed store. Contents are stored once
+ * per distinct SHA-256 hash and count the rows that reference them, so
+ * identical documents and media share a single file.
+ */
+public interface IContentQueries {
+	/**
+	 * Returns whether or not new contents should be saved in the
+	 * content-addressed store.
+	 *
+	 * @return Whether or not the content-addressed store is enabled.
+	 */
+	boolean isEnabled();
+
+	/**
+	 * Adds a reference to some contents, writing them to the store only if
+	 * no identical contents are already stored.
+	 *
+	 * @param contents The contents.
+	 *
+	 * @return The hash that identifies the contents.
+	 *
+	 * @throws DataAccessException There was an error.
+	 */
+	String store(byte[] contents) throws DataAccessException;
+
+	/**
+	 * Adds a reference to some contents, writing them to the store only if
+	 * no identical contents are already stored. The stream is read to its end
+	 * but not closed.
+	 *
+	 * @param contents The contents.
+	 *
+	 * @return The hash that identifies the contents.
+	 *
+	 * @throws DataAccessException There was an error.
+	 */
+	String store(InputStream contents) throws DataAccessException;
+
+	/**
+	 * Returns the URL of some stored contents.
+	 *
+	 * @param hash The hash that identifies the contents.
+	 *
+	 * @return The URL of the contents or null if no such contents are stored.
+	 *
+	 * @throws DataAccessException There was an error.
+	 */
+	String getUrl(String hash) throws DataAccessException;
+
+	/**
+	 * Removes a reference to some contents. Once the last reference has been
+	 * removed, the contents are deleted.
+	 *
+	 * @param hash The hash that identifies the contents.
+	 *
+	 * @throws DataAccessException There was an error.
+	 */
+	void release(String hash) throws DataAccessException;
+}
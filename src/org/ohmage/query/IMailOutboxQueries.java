@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query;
+
+import java.util.List;
+
+import org.ohmage.domain.OutboxMessage;
+import org.ohmage.exception.DataAccessException;
+
+/**
+ * The interface for the outgoing mail that has not yet been sent.
+ */
+public interface IMailOutboxQueries {
+	/**
+	 * Queues a message to be sent as soon as possible.
+	 *
+	 * @param recipient The message's recipients.
+	 *
+	 * @param message The complete message.
+	 *
+	 * @throws DataAccessException There was an error.
+	 */
+	void queueMessage(String recipient, byte[] message)
+		throws DataAccessException;
+
+	/**
+	 * Claims the messages that are due to be sent. The claimed messages are
+	 * not returned again until the lease has expired, so they are only sent
+	 * once even if there are multiple dispatchers.
+	 *
+	 * @param limit The maximum number of messages to claim.
+	 *
+	 * @param leaseSeconds The number of seconds for which the messages are
+	 * 					   claimed.
+	 *
+	 * @return The claimed messages, the longest due first.
+	 *
+	 * @throws DataAccessException There was an error.
+	 */
+	List<OutboxMessage> claimDueMessages(int limit, int leaseSeconds)
+		throws DataAccessException;
+
+	/**
+	 * Removes a message that has been sent.
+	 *
+	 * @param id The message's unique identifier.
+	 *
+	 * @throws DataAccessException There was an error.
+	 */
+	void deleteMessage(long id) throws DataAccessException;
+
+	/**
+	 * Records that sending a message failed.
+	 *
+	 * @param id The message's unique identifier.
+	 *
+	 * @param error A description of the failure.
+	 *
+	 * @param retrySeconds The number of seconds after which the message
+	 * 					   should be tried again. This is ignored if the
+	 * 					   message has failed permanently.
+	 *
+	 * @param failed Whether the message has failed permanently and should no
+	 * 				 longer be tried.
+	 *
+	 * @throws DataAccessException There was an error.
+	 */
+	void recordFailure(long id, String error, int retrySeconds, boolean failed)
+		throws DataAccessException;
+}
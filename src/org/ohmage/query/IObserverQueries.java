@@ -242,6 +242,39 @@ public interface IObserverQueries {
 		final long numToReturn) 
 		throws DataAccessException;
 
+	/**
+	 * Retrieves the days on which a user has data for a stream. This is read
+	 * from an index of the days that is kept as data is uploaded, so it does
+	 * not read the data itself.
+	 * 
+	 * @param stream The Stream object for the stream whose data is in 
+	 * 				 question. Required.
+	 * 
+	 * @param username The username of the user to which the data must belong.
+	 * 				   Required.
+	 * 
+	 * @param observerId The observer's unique identifier. Required.
+	 * 
+	 * @param observerVersion The observer's version. Optional.
+	 * 
+	 * @param startDate The earliest day to return. Optional.
+	 * 
+	 * @param endDate The latest day to return. Optional.
+	 * 
+	 * @return The days in chronological order, each as the time of a point
+	 * 		   on that day in the time zone in which it was recorded.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	public List<DateTime> readDates(
+		final Stream stream,
+		final String username,
+		final String observerId,
+		final Long observerVersion,
+		final DateTime startDate,
+		final DateTime endDate)
+		throws DataAccessException;
+
 	/**
 	 * Retrieves the data for a stream.
 	 * 
@@ -25,6 +25,7 @@ import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.domain.campaign.SurveyResponse;
 import org.ohmage.domain.campaign.SurveyResponse.ColumnKey;
 import org.ohmage.domain.campaign.SurveyResponse.SortParameter;
+import org.ohmage.domain.campaign.SurveyResponseCount;
 import org.ohmage.exception.DataAccessException;
 
 public interface ISurveyResponseQueries {
@@ -133,6 +134,39 @@ public interface ISurveyResponseQueries {
 			List<SurveyResponse> result) 
 			throws DataAccessException;
 
+	/**
+	 * Counts the survey responses in a campaign, grouped by some set of their
+	 * attributes, that the requesting user is allowed to see. The counting is
+	 * done by the database, so no survey response is ever built.
+	 * 
+	 * @param campaign The campaign to which the survey responses must belong.
+	 * 
+	 * @param username The username of the user that is making this request.
+	 * 				   This is used by the ACLs to limit who sees what.
+	 * 
+	 * @param startDate Limits the results to only those survey responses that
+	 * 					occurred on or after this date. Optional.
+	 * 
+	 * @param endDate Limits the results to only those survey responses that
+	 * 				  occurred on or before this date. Optional.
+	 * 
+	 * @param groupings The attributes by which to group the survey responses.
+	 * 					If this is empty, a single count of all of the survey
+	 * 					responses is returned.
+	 * 
+	 * @return The counts for each group that contains at least one survey
+	 * 		   response.
+	 * 
+	 * @throws DataAccessException Thrown if there is an error.
+	 */
+	List<SurveyResponseCount> retrieveSurveyResponseCounts(
+			final Campaign campaign,
+			final String username,
+			final DateTime startDate,
+			final DateTime endDate,
+			final Collection<SurveyResponseCount.Grouping> groupings)
+			throws DataAccessException;
+
 	/**
 	 * Updates the privacy state on a survey response.
 	 * 
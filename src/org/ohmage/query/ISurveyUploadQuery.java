@@ -15,8 +15,10 @@
  ******************************************************************************/
 package org.ohmage.query;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import org.ohmage.domain.Audio;
@@ -102,4 +104,53 @@ public interface ISurveyUploadQuery {
 			final Map<UUID, IMedia> documentContentsMap, 
 			final Map<UUID, SurveyResponse> existingResponseMap)
 			throws DataAccessException;
-}
\ No newline at end of file
+	
+	/**
+	 * Returns which of the given survey responses the user has already
+	 * uploaded to the campaign.
+	 * 
+	 * @param username
+	 *        The user's username.
+	 * @param campaignUrn
+	 *        The campaign's unique identifier.
+	 * @param surveyResponseIds
+	 *        The survey responses' unique identifiers.
+	 * @return The subset of the identifiers that already exist.
+	 * @throws DataAccessException
+	 *         There was an error.
+	 */
+	Set<UUID> getExistingSurveyResponseIds(
+			final String username,
+			final String campaignUrn,
+			final Collection<UUID> surveyResponseIds)
+			throws DataAccessException;
+	
+	/**
+	 * Returns which of the given media files the user has already uploaded.
+	 * 
+	 * @param username
+	 *        The user's username.
+	 * @param mediaIds
+	 *        The media files' unique identifiers.
+	 * @return The subset of the identifiers that already exist.
+	 * @throws DataAccessException
+	 *         There was an error.
+	 */
+	Set<UUID> getExistingMediaIds(
+			final String username,
+			final Collection<UUID> mediaIds)
+			throws DataAccessException;
+	
+	/**
+	 * Finishes or undoes the survey uploads that were interrupted after their
+	 * media were staged. A staged media file whose media was recorded is
+	 * moved to where its URL points; any other staged file is deleted.
+	 * 
+	 * @param minimumAge
+	 *        The number of milliseconds since an upload last staged a file
+	 *        before it is considered interrupted.
+	 * @throws DataAccessException
+	 *         There was an error.
+	 */
+	void recoverStagedMedia(final long minimumAge) throws DataAccessException;
+}
@@ -20,17 +20,23 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import javax.sql.DataSource;
 
 import org.joda.time.DateTimeZone;
 import org.ohmage.domain.Annotation;
+import org.ohmage.domain.PromptResponseAnnotation;
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.exception.DomainException;
 import org.ohmage.query.IAnnotationQueries;
+import org.ohmage.util.StringUtils;
 import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
@@ -55,7 +61,7 @@ public class AnnotationQueries extends Query implements IAnnotationQueries {
 	private static final String SQL_INSERT_SURVEY_RESPONSE_ANNOTATION =
 		"INSERT into survey_response_annotation " +
 		"(survey_response_id, annotation_id) " +
-		"VALUES ((SELECT id from survey_response where uuid = ?), ?)";
+		"VALUES ((SELECT sr.id from survey_response sr, campaign c where sr.uuid = ? and sr.campaign_id = c.id), ?)";
 	
 	private static final String SQL_INSERT_PROMPT_RESPONSE_ANNOTATION =
 		"INSERT into prompt_response_annotation " +
@@ -64,16 +70,18 @@ public class AnnotationQueries extends Query implements IAnnotationQueries {
 	
 	private static final String SQL_READ_SURVEY_RESPONSE_ANNOTATION = 
 		"SELECT a.uuid, a.annotation, a.epoch_millis, a.timezone, u.username " +
-		"FROM survey_response sr, survey_response_annotation sra, annotation a, user u " +
+		"FROM survey_response sr, campaign c, survey_response_annotation sra, annotation a, user u " +
 		"WHERE sr.uuid = ? " +
+		"AND sr.campaign_id = c.id " +
 		"AND sr.id = sra.survey_response_id " +
 		"AND sra.annotation_id = a.id " +
 		"AND a.user_id = u.id";
 
 	private static final String SQL_READ_PROMPT_RESPONSE_ANNOTATION = 
 		"SELECT a.uuid, a.annotation, a.epoch_millis, a.timezone, u.username " +
-		"FROM prompt_response pr, survey_response sr, prompt_response_annotation pra, annotation a, user u " +
+		"FROM prompt_response pr, survey_response sr, campaign c, prompt_response_annotation pra, annotation a, user u " +
 		"WHERE sr.uuid = ? " +
+		"AND sr.campaign_id = c.id " +
 		"AND pr.survey_response_id = sr.id " +
 		"AND pr.prompt_id = ? " +
 		"AND pr.id = pra.prompt_response_id " +
@@ -84,6 +92,34 @@ public class AnnotationQueries extends Query implements IAnnotationQueries {
 		" AND repeatable_set_id = ? " +
 		"AND repeatable_set_iteration = ?";
 	
+	// The survey response's UUID is followed by the same columns as the 
+	// single survey response query, so the same columns are used for both.
+	private static final String SQL_READ_SURVEY_RESPONSE_ANNOTATIONS_FOR_SURVEY_RESPONSES = 
+		"SELECT sr.uuid, a.uuid, a.annotation, a.epoch_millis, a.timezone, u.username " +
+		"FROM survey_response sr, campaign c, survey_response_annotation sra, annotation a, user u " +
+		"WHERE sr.campaign_id = c.id " +
+		"AND sr.id = sra.survey_response_id " +
+		"AND sra.annotation_id = a.id " +
+		"AND a.user_id = u.id " +
+		"AND sr.uuid IN ";
+	
+	private static final String SQL_READ_PROMPT_RESPONSE_ANNOTATIONS_FOR_SURVEY_RESPONSES = 
+		"SELECT sr.uuid, a.uuid, a.annotation, a.epoch_millis, a.timezone, u.username, " +
+			"pr.prompt_id, pr.repeatable_set_id, pr.repeatable_set_iteration " +
+		"FROM prompt_response pr, survey_response sr, campaign c, prompt_response_annotation pra, annotation a, user u " +
+		"WHERE sr.campaign_id = c.id " +
+		"AND pr.survey_response_id = sr.id " +
+		"AND pr.id = pra.prompt_response_id " +
+		"AND pra.annotation_id = a.id " +
+		"AND a.user_id = u.id " +
+		"AND sr.uuid IN ";
+	
+	private static final String SQL_ORDER_BY_ANNOTATION_TIME =
+		" ORDER BY a.epoch_millis";
+	
+	// The maximum number of survey response IDs in a single IN clause.
+	private static final int MAX_IDS_PER_QUERY = 1000;
+	
 	private static final String SQL_ANNOTATION_EXISTS_FOR_USER = 
 		"SELECT EXISTS" +
 		" (SELECT id FROM annotation" +
@@ -298,6 +334,139 @@ public class AnnotationQueries extends Query implements IAnnotationQueries {
 		}
 	}
 	
+	@Override
+	public Map<UUID, List<Annotation>> readSurveyResponseAnnotations(
+			final Collection<UUID> surveyResponseIds)
+			throws DataAccessException {
+		
+		final Map<UUID, List<Annotation>> result = 
+			new HashMap<UUID, List<Annotation>>();
+		
+		List<String> ids = new ArrayList<String>(surveyResponseIds.size());
+		for(UUID surveyResponseId : surveyResponseIds) {
+			ids.add(surveyResponseId.toString());
+		}
+		
+		for(int i = 0; i < ids.size(); i += MAX_IDS_PER_QUERY) {
+			List<String> chunk = 
+				ids.subList(i, Math.min(ids.size(), i + MAX_IDS_PER_QUERY));
+			String sql = 
+				SQL_READ_SURVEY_RESPONSE_ANNOTATIONS_FOR_SURVEY_RESPONSES + 
+				StringUtils.generateStatementPList(chunk.size()) +
+				SQL_ORDER_BY_ANNOTATION_TIME;
+			
+			try {
+				getJdbcTemplate().query(sql, chunk.toArray(), 
+					new RowCallbackHandler() {
+						@Override
+						public void processRow(ResultSet rs) throws SQLException {
+							Annotation annotation;
+							try {
+								annotation = 
+									new Annotation(
+										rs.getString(2),
+										rs.getString(3),
+										rs.getLong(4),
+										rs.getString(5),
+										rs.getString(6)
+									);
+							}
+							catch(DomainException e) {
+								throw new SQLException("Error creating an annotation object.", e);
+							}
+							
+							UUID surveyResponseId = UUID.fromString(rs.getString(1));
+							List<Annotation> annotations = result.get(surveyResponseId);
+							if(annotations == null) {
+								annotations = new ArrayList<Annotation>();
+								result.put(surveyResponseId, annotations);
+							}
+							annotations.add(annotation);
+						}
+					}
+				);
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				throw new DataAccessException("An error occurred when running the following SQL: '" 
+					+ sql + " with the parameters " + chunk, e);
+			}
+		}
+		
+		return result;
+	}
+	
+	@Override
+	public Map<UUID, List<PromptResponseAnnotation>> readPromptResponseAnnotations(
+			final Collection<UUID> surveyResponseIds)
+			throws DataAccessException {
+		
+		final Map<UUID, List<PromptResponseAnnotation>> result = 
+			new HashMap<UUID, List<PromptResponseAnnotation>>();
+		
+		List<String> ids = new ArrayList<String>(surveyResponseIds.size());
+		for(UUID surveyResponseId : surveyResponseIds) {
+			ids.add(surveyResponseId.toString());
+		}
+		
+		for(int i = 0; i < ids.size(); i += MAX_IDS_PER_QUERY) {
+			List<String> chunk = 
+				ids.subList(i, Math.min(ids.size(), i + MAX_IDS_PER_QUERY));
+			String sql = 
+				SQL_READ_PROMPT_RESPONSE_ANNOTATIONS_FOR_SURVEY_RESPONSES + 
+				StringUtils.generateStatementPList(chunk.size()) +
+				SQL_ORDER_BY_ANNOTATION_TIME;
+			
+			try {
+				getJdbcTemplate().query(sql, chunk.toArray(), 
+					new RowCallbackHandler() {
+						@Override
+						public void processRow(ResultSet rs) throws SQLException {
+							PromptResponseAnnotation annotation;
+							try {
+								// wasNull() must be checked before any other
+								// column is read.
+								Integer iteration = rs.getInt(9);
+								if(rs.wasNull()) {
+									iteration = null;
+								}
+								
+								annotation = 
+									new PromptResponseAnnotation(
+										rs.getString(2),
+										rs.getString(3),
+										rs.getLong(4),
+										rs.getString(5),
+										rs.getString(6),
+										rs.getString(7),
+										rs.getString(8),
+										iteration
+									);
+							}
+							catch(DomainException e) {
+								throw new SQLException("Error creating an annotation object.", e);
+							}
+							
+							UUID surveyResponseId = UUID.fromString(rs.getString(1));
+							List<PromptResponseAnnotation> annotations = 
+								result.get(surveyResponseId);
+							if(annotations == null) {
+								annotations = new ArrayList<PromptResponseAnnotation>();
+								result.put(surveyResponseId, annotations);
+							}
+							annotations.add(annotation);
+						}
+					}
+				);
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				throw new DataAccessException("An error occurred when running the following SQL: '" 
+					+ sql + " with the parameters " + chunk, e);
+			}
+		}
+		
+		return result;
+	}
+	
 	@Override
 	public boolean userOwnsAnnotation(String username, UUID annotationId) 
 			throws DataAccessException {
@@ -0,0 +1,634 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query.impl;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+import org.ohmage.domain.CampaignDeletion;
+import org.ohmage.exception.DataAccessException;
+import org.ohmage.query.ICampaignDeletionQueries;
+import org.ohmage.query.IContentQueries;
+import org.ohmage.query.IMediaQueries;
+import org.ohmage.util.StringUtils;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.SingleColumnRowMapper;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+/**
+ * <p>
+ * The background work of deleting campaigns. A deleted campaign's row is
+ * gone, but its survey responses still reference its old ID and are removed
+ * here a batch at a time, each batch in its own short transaction.
+ * </p>
+ *
+ * <p>
+ * The media of the removed responses are recorded as garbage in the same
+ * transaction that removes their rows, so a file is never deleted while
+ * something still references it.
+ * </p>
+ *
+ * <p>
+ * Until they are removed, the survey responses keep their UUIDs, so a
+ * survey response that is uploaded again to a re-created campaign removes
+ * its old self first.
+ * </p>
+ */
+public class CampaignDeletionQueries
+		extends Query
+		implements ICampaignDeletionQueries {
+
+	private static final Logger LOGGER =
+		Logger.getLogger(CampaignDeletionQueries.class);
+
+	// The prompt types whose responses reference a url_based_resource.
+	private static final String MEDIA_PROMPT_TYPES =
+		"('photo', 'audio', 'video', 'document', 'file')";
+
+	// Retrieves the deletions of a campaign.
+	private static final String SQL_GET_DELETIONS =
+		"SELECT cd.uuid, cd.campaign_urn, cd.requester, cd.state, " +
+			"cd.total_survey_responses, cd.deleted_survey_responses, " +
+			"cd.creation_timestamp, cd.completion_timestamp, " +
+			"(" +
+				"SELECT COUNT(*) " +
+				"FROM media_garbage mg " +
+				"WHERE mg.campaign_deletion_id = cd.id" +
+			") AS pending_media " +
+		"FROM campaign_deletion cd " +
+		"WHERE cd.campaign_urn = ? " +
+		"ORDER BY cd.id DESC";
+
+	// Retrieves the deletions that are still removing survey responses.
+	private static final String SQL_GET_DELETIONS_IN_PROGRESS =
+		"SELECT uuid " +
+		"FROM campaign_deletion " +
+		"WHERE state = '" + CampaignDeletion.State.DELETING + "' " +
+		"ORDER BY id";
+
+	// Retrieves and locks a deletion, so that only one server removes its
+	// survey responses at a time.
+	private static final String SQL_GET_DELETION_FOR_UPDATE =
+		"SELECT id, campaign_id, state " +
+		"FROM campaign_deletion " +
+		"WHERE uuid = ? " +
+		"FOR UPDATE";
+
+	// Retrieves the deletions whose campaigns some survey responses belonged
+	// to. The IN list is appended.
+	private static final String SQL_GET_DELETIONS_FOR_SURVEY_RESPONSES =
+		"SELECT DISTINCT cd.id " +
+		"FROM survey_response sr, campaign_deletion cd " +
+		"WHERE sr.campaign_id = cd.campaign_id " +
+		"AND sr.uuid IN ";
+
+	// Locks a deletion, so that its survey responses are not removed twice.
+	private static final String SQL_LOCK_DELETION =
+		"SELECT id " +
+		"FROM campaign_deletion " +
+		"WHERE id = ? " +
+		"FOR UPDATE";
+
+	// Retrieves and locks those of some survey responses that belonged to a
+	// deletion's campaign. The IN list is appended.
+	private static final String SQL_GET_DELETED_SURVEY_RESPONSE_IDS =
+		"SELECT sr.id " +
+		"FROM survey_response sr, campaign_deletion cd " +
+		"WHERE cd.id = ? " +
+		"AND sr.campaign_id = cd.campaign_id " +
+		"AND sr.uuid IN ";
+
+	// Retrieves a batch of a deleted campaign's survey responses.
+	private static final String SQL_GET_SURVEY_RESPONSE_IDS =
+		"SELECT id " +
+		"FROM survey_response " +
+		"WHERE campaign_id = ? " +
+		"ORDER BY id " +
+		"LIMIT ?";
+
+	// Records the media of some survey responses as garbage. The IN list is
+	// appended.
+	private static final String SQL_INSERT_MEDIA_GARBAGE =
+		"INSERT INTO media_garbage(" +
+			"campaign_deletion_id, url, content_hash, photo) " +
+		"SELECT ?, ubr.url, ubr.content_hash, pr.prompt_type = 'photo' " +
+		"FROM prompt_response pr, url_based_resource ubr " +
+		"WHERE pr.prompt_type IN " + MEDIA_PROMPT_TYPES + " " +
+		"AND pr.response = ubr.uuid " +
+		"AND ubr.url IS NOT NULL " +
+		"AND pr.survey_response_id IN ";
+
+	// Removes the media rows of some survey responses. The IN list is
+	// appended.
+	private static final String SQL_DELETE_MEDIA =
+		"DELETE ubr " +
+		"FROM prompt_response pr, url_based_resource ubr " +
+		"WHERE pr.prompt_type IN " + MEDIA_PROMPT_TYPES + " " +
+		"AND pr.response = ubr.uuid " +
+		"AND pr.survey_response_id IN ";
+
+	// Removes the annotations on some survey responses. The IN list is
+	// appended.
+	private static final String SQL_DELETE_SURVEY_RESPONSE_ANNOTATIONS =
+		"DELETE a " +
+		"FROM survey_response_annotation sra, annotation a " +
+		"WHERE sra.annotation_id = a.id " +
+		"AND sra.survey_response_id IN ";
+
+	// Removes the annotations on some survey responses' prompt responses.
+	// The IN list is appended.
+	private static final String SQL_DELETE_PROMPT_RESPONSE_ANNOTATIONS =
+		"DELETE a " +
+		"FROM prompt_response pr, prompt_response_annotation pra, annotation a " +
+		"WHERE pr.id = pra.prompt_response_id " +
+		"AND pra.annotation_id = a.id " +
+		"AND pr.survey_response_id IN ";
+
+	// Removes some survey responses, which cascades to their prompt
+	// responses. The IN list is appended.
+	private static final String SQL_DELETE_SURVEY_RESPONSES =
+		"DELETE FROM survey_response " +
+		"WHERE id IN ";
+
+	// Counts the survey responses that have been removed.
+	private static final String SQL_UPDATE_DELETED_SURVEY_RESPONSES =
+		"UPDATE campaign_deletion " +
+		"SET deleted_survey_responses = deleted_survey_responses + ? " +
+		"WHERE id = ?";
+
+	// Moves a deletion on to collecting its media.
+	private static final String SQL_UPDATE_STATE =
+		"UPDATE campaign_deletion " +
+		"SET state = ? " +
+		"WHERE id = ?";
+
+	// Retrieves a batch of media garbage.
+	private static final String SQL_GET_MEDIA_GARBAGE =
+		"SELECT id, url, content_hash, photo " +
+		"FROM media_garbage " +
+		"ORDER BY id " +
+		"LIMIT ?";
+
+	// Removes media garbage that has been collected.
+	private static final String SQL_DELETE_MEDIA_GARBAGE =
+		"DELETE FROM media_garbage " +
+		"WHERE id = ?";
+
+	// Completes the deletions whose media have all been collected.
+	private static final String SQL_UPDATE_COMPLETE =
+		"UPDATE campaign_deletion cd " +
+		"SET cd.state = '" + CampaignDeletion.State.COMPLETE + "', " +
+			"cd.completion_timestamp = NOW() " +
+		"WHERE cd.state = '" + CampaignDeletion.State.COLLECTING_MEDIA + "' " +
+		"AND NOT EXISTS (" +
+			"SELECT mg.id " +
+			"FROM media_garbage mg " +
+			"WHERE mg.campaign_deletion_id = cd.id" +
+		")";
+
+	/**
+	 * A media file that is no longer referenced.
+	 */
+	private static final class MediaGarbage {
+		private final long id;
+		private final String url;
+		private final String contentHash;
+		private final boolean photo;
+
+		/**
+		 * Creates the garbage.
+		 */
+		private MediaGarbage(
+				final long id,
+				final String url,
+				final String contentHash,
+				final boolean photo) {
+
+			this.id = id;
+			this.url = url;
+			this.contentHash = contentHash;
+			this.photo = photo;
+		}
+	}
+
+	private final IMediaQueries mediaQueries;
+	private final IContentQueries contentQueries;
+
+	/**
+	 * Creates this object.
+	 *
+	 * @param dataSource The DataSource to use when querying the database.
+	 *
+	 * @param iMediaQueries The queries to delete media files.
+	 *
+	 * @param iContentQueries The content-addressed store, from which shared
+	 * 						  media are released.
+	 */
+	private CampaignDeletionQueries(
+			DataSource dataSource,
+			IMediaQueries iMediaQueries,
+			IContentQueries iContentQueries) {
+
+		super(dataSource);
+
+		if(iMediaQueries == null) {
+			throw new IllegalArgumentException("An instance of IMediaQueries is a required argument.");
+		}
+		if(iContentQueries == null) {
+			throw new IllegalArgumentException("An instance of IContentQueries is a required argument.");
+		}
+
+		mediaQueries = iMediaQueries;
+		contentQueries = iContentQueries;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.ICampaignDeletionQueries#getDeletions(java.lang.String)
+	 */
+	@Override
+	public List<CampaignDeletion> getDeletions(final String campaignId)
+			throws DataAccessException {
+
+		try {
+			return getJdbcTemplate().query(
+				SQL_GET_DELETIONS,
+				new Object[] { campaignId },
+				new RowMapper<CampaignDeletion>() {
+					@Override
+					public CampaignDeletion mapRow(
+							final ResultSet rs,
+							final int rowNum)
+							throws SQLException {
+
+						return new CampaignDeletion(
+							UUID.fromString(rs.getString("uuid")),
+							rs.getString("campaign_urn"),
+							rs.getString("requester"),
+							CampaignDeletion.State.getValue(
+								rs.getString("state")),
+							rs.getLong("total_survey_responses"),
+							rs.getLong("deleted_survey_responses"),
+							rs.getLong("pending_media"),
+							rs.getTimestamp("creation_timestamp"),
+							rs.getTimestamp("completion_timestamp"));
+					}
+				});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + SQL_GET_DELETIONS +
+					"' with parameter: " + campaignId,
+				e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.ICampaignDeletionQueries#getDeletionsInProgress()
+	 */
+	@Override
+	public List<UUID> getDeletionsInProgress() throws DataAccessException {
+		try {
+			return getJdbcTemplate().query(
+				SQL_GET_DELETIONS_IN_PROGRESS,
+				new RowMapper<UUID>() {
+					@Override
+					public UUID mapRow(final ResultSet rs, final int rowNum)
+							throws SQLException {
+
+						return UUID.fromString(rs.getString("uuid"));
+					}
+				});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + SQL_GET_DELETIONS_IN_PROGRESS + "'.",
+				e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.ICampaignDeletionQueries#deleteSurveyResponses(java.util.UUID, int)
+	 */
+	@Override
+	public int deleteSurveyResponses(
+			final UUID deletionId,
+			final int batchSize)
+			throws DataAccessException {
+
+		DefaultTransactionDefinition def = new DefaultTransactionDefinition();
+		def.setName("Deleting a batch of a deleted campaign's survey responses.");
+
+		try {
+			PlatformTransactionManager transactionManager =
+				new DataSourceTransactionManager(getDataSource());
+			TransactionStatus status = transactionManager.getTransaction(def);
+
+			int result;
+			try {
+				List<long[]> deletion =
+					getJdbcTemplate().query(
+						SQL_GET_DELETION_FOR_UPDATE,
+						new Object[] { deletionId.toString() },
+						new RowMapper<long[]>() {
+							@Override
+							public long[] mapRow(
+									final ResultSet rs,
+									final int rowNum)
+									throws SQLException {
+
+								if(! CampaignDeletion.State.DELETING.toString().equals(rs.getString("state"))) {
+									return null;
+								}
+
+								return new long[] {
+									rs.getLong("id"),
+									rs.getLong("campaign_id") };
+							}
+						});
+
+				// Another server may have finished it.
+				if(deletion.isEmpty() || (deletion.get(0) == null)) {
+					transactionManager.rollback(status);
+					return 0;
+				}
+				long id = deletion.get(0)[0];
+				long campaignId = deletion.get(0)[1];
+
+				List<Long> surveyResponseIds =
+					getJdbcTemplate().query(
+						SQL_GET_SURVEY_RESPONSE_IDS,
+						new Object[] { campaignId, batchSize },
+						new RowMapper<Long>() {
+							@Override
+							public Long mapRow(
+									final ResultSet rs,
+									final int rowNum)
+									throws SQLException {
+
+								return rs.getLong("id");
+							}
+						});
+
+				result = surveyResponseIds.size();
+				if(result == 0) {
+					getJdbcTemplate().update(
+						SQL_UPDATE_STATE,
+						CampaignDeletion.State.COLLECTING_MEDIA.toString(),
+						id);
+				}
+				else {
+					removeSurveyResponses(
+						getJdbcTemplate(),
+						id,
+						surveyResponseIds);
+				}
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException(
+					"Error deleting the survey responses of the deleted campaign: " +
+						deletionId,
+					e);
+			}
+
+			try {
+				transactionManager.commit(status);
+			}
+			catch(TransactionException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException(
+					"Error while committing the transaction.",
+					e);
+			}
+
+			return result;
+		}
+		catch(TransactionException e) {
+			throw new DataAccessException(
+				"Error while attempting to rollback the transaction.",
+				e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.ICampaignDeletionQueries#collectMediaGarbage(int)
+	 */
+	@Override
+	public int collectMediaGarbage(final int batchSize)
+			throws DataAccessException {
+
+		List<MediaGarbage> garbage;
+		try {
+			garbage =
+				getJdbcTemplate().query(
+					SQL_GET_MEDIA_GARBAGE,
+					new Object[] { batchSize },
+					new RowMapper<MediaGarbage>() {
+						@Override
+						public MediaGarbage mapRow(
+								final ResultSet rs,
+								final int rowNum)
+								throws SQLException {
+
+							return new MediaGarbage(
+								rs.getLong("id"),
+								rs.getString("url"),
+								rs.getString("content_hash"),
+								rs.getBoolean("photo"));
+						}
+					});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + SQL_GET_MEDIA_GARBAGE +
+					"' with parameter: " + batchSize,
+				e);
+		}
+
+		for(MediaGarbage media : garbage) {
+			// The row is removed first so that, if the server stops, a file
+			// is left behind rather than shared contents being released
+			// twice. If another server removed it first, that server
+			// collects it.
+			try {
+				if(getJdbcTemplate().update(
+						SQL_DELETE_MEDIA_GARBAGE,
+						media.id) != 1) {
+
+					continue;
+				}
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				throw new DataAccessException(
+					"Error executing SQL '" + SQL_DELETE_MEDIA_GARBAGE +
+						"' with parameter: " + media.id,
+					e);
+			}
+
+			// Shared contents are only deleted once nothing else references
+			// them.
+			if(media.contentHash != null) {
+				contentQueries.release(media.contentHash);
+			}
+			else {
+				try {
+					mediaQueries.deleteMediaDiskOnly(
+						new URL(media.url),
+						media.photo);
+				}
+				catch(MalformedURLException e) {
+					LOGGER.warn(
+						"The media's URL is malformed, so it cannot be deleted: " +
+							media.url,
+						e);
+				}
+			}
+		}
+
+		return garbage.size();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.ICampaignDeletionQueries#completeDeletions()
+	 */
+	@Override
+	public void completeDeletions() throws DataAccessException {
+		try {
+			getJdbcTemplate().update(SQL_UPDATE_COMPLETE);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + SQL_UPDATE_COMPLETE + "'.",
+				e);
+		}
+	}
+
+	/**
+	 * Removes those of some survey responses that belong to deleted
+	 * campaigns, so that they may be uploaded again. This must be called
+	 * from within a transaction.
+	 *
+	 * @param jdbcTemplate The template of the transaction's data source.
+	 *
+	 * @param surveyResponseIds The survey responses' UUIDs.
+	 *
+	 * @throws org.springframework.dao.DataAccessException There was an
+	 * 													   error.
+	 */
+	static void removeDeletedSurveyResponses(
+			final JdbcTemplate jdbcTemplate,
+			final Collection<String> surveyResponseIds) {
+
+		if(surveyResponseIds.isEmpty()) {
+			return;
+		}
+
+		String inList =
+			StringUtils.generateStatementPList(surveyResponseIds.size());
+		List<Long> deletionIds =
+			jdbcTemplate.query(
+				SQL_GET_DELETIONS_FOR_SURVEY_RESPONSES + inList,
+				surveyResponseIds.toArray(),
+				new SingleColumnRowMapper<Long>(Long.class));
+
+		for(Long deletionId : deletionIds) {
+			// The deletion is locked before its survey responses are read,
+			// so a batch that is removing them is waited for.
+			jdbcTemplate.query(
+				SQL_LOCK_DELETION,
+				new Object[] { deletionId },
+				new SingleColumnRowMapper<Long>(Long.class));
+
+			List<Object> parameters =
+				new ArrayList<Object>(surveyResponseIds.size() + 1);
+			parameters.add(deletionId);
+			parameters.addAll(surveyResponseIds);
+			List<Long> ids =
+				jdbcTemplate.query(
+					SQL_GET_DELETED_SURVEY_RESPONSE_IDS + inList + " FOR UPDATE",
+					parameters.toArray(),
+					new SingleColumnRowMapper<Long>(Long.class));
+
+			if(! ids.isEmpty()) {
+				removeSurveyResponses(jdbcTemplate, deletionId, ids);
+			}
+		}
+	}
+
+	/**
+	 * Removes some of a deleted campaign's survey responses and records
+	 * their media as garbage. This must be called from within a transaction
+	 * that has locked the deletion.
+	 *
+	 * @param jdbcTemplate The template of the transaction's data source.
+	 *
+	 * @param deletionId The database ID of the deletion.
+	 *
+	 * @param surveyResponseIds The database IDs of the survey responses.
+	 *
+	 * @throws org.springframework.dao.DataAccessException There was an
+	 * 													   error.
+	 */
+	private static void removeSurveyResponses(
+			final JdbcTemplate jdbcTemplate,
+			final long deletionId,
+			final List<Long> surveyResponseIds) {
+
+		int count = surveyResponseIds.size();
+		String inList = StringUtils.generateStatementPList(count);
+		Object[] ids = surveyResponseIds.toArray();
+
+		Object[] garbageParameters = new Object[count + 1];
+		garbageParameters[0] = deletionId;
+		System.arraycopy(ids, 0, garbageParameters, 1, count);
+		jdbcTemplate.update(
+			SQL_INSERT_MEDIA_GARBAGE + inList,
+			garbageParameters);
+
+		jdbcTemplate.update(SQL_DELETE_MEDIA + inList, ids);
+		jdbcTemplate.update(
+			SQL_DELETE_SURVEY_RESPONSE_ANNOTATIONS + inList,
+			ids);
+		jdbcTemplate.update(
+			SQL_DELETE_PROMPT_RESPONSE_ANNOTATIONS + inList,
+			ids);
+		jdbcTemplate.update(SQL_DELETE_SURVEY_RESPONSES + inList, ids);
+
+		jdbcTemplate.update(
+			SQL_UPDATE_DELETED_SURVEY_RESPONSES,
+			count,
+			deletionId);
+	}
+}
@@ -22,6 +22,7 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -30,11 +31,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.UUID;
 
 import javax.sql.DataSource;
 
 import org.joda.time.DateTime;
+import org.ohmage.cache.SearchIndexCache;
 import org.ohmage.domain.Clazz;
+import org.ohmage.domain.CampaignDeletion;
 import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.domain.campaign.Prompt;
 import org.ohmage.domain.campaign.RepeatableSet;
@@ -87,6 +91,13 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 		"FROM campaign " +
 		"WHERE urn = ?";
 	
+	// Returns the version of a campaign's survey responses.
+	private static final String SQL_GET_RESPONSE_VERSION =
+		"SELECT crv.version " +
+		"FROM campaign c, campaign_response_version crv " +
+		"WHERE c.urn = ? " +
+		"AND c.id = crv.campaign_id";
+	
 	// Returns the description of a campaign.
 	private static final String SQL_GET_DESCRIPTION = 
 		"SELECT description " +
@@ -226,10 +237,24 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 			+ "AND uc.user_class_role_id = ccdr.user_class_role_id "
 			+ "AND ccdr.user_role_id = ur.id";
 	
+	// Takes the next campaign ID from the sequence. Unlike the campaign
+	// table's AUTO_INCREMENT counter, which InnoDB recomputes from the 
+	// largest remaining ID when it restarts, the sequence never goes back,
+	// so a deleted campaign's ID, which its survey responses keep until 
+	// they are removed in the background, is never given to a new one. The
+	// ID is then read with SQL_GET_NEW_CAMPAIGN_ID on the same connection.
+	private static final String SQL_ADVANCE_CAMPAIGN_ID_SEQUENCE =
+		"UPDATE campaign_id_sequence " +
+		"SET id = LAST_INSERT_ID(id + 1)";
+	
+	// Returns the ID that was just taken from the sequence.
+	private static final String SQL_GET_NEW_CAMPAIGN_ID =
+		"SELECT LAST_INSERT_ID()";
+	
 	// Inserts a new campaign.
 	private static final String SQL_INSERT_CAMPAIGN = 
-		"INSERT INTO campaign(urn, name, xml, description, icon_url, authored_by, editable, creation_timestamp, running_state_id, privacy_state_id) " +
-		"VALUES (?, ?, ?, ?, ?, ?, ?, now(), (" +
+		"INSERT INTO campaign(id, urn, name, xml, description, icon_url, authored_by, editable, creation_timestamp, running_state_id, privacy_state_id) " +
+		"VALUES (?, ?, ?, ?, ?, ?, ?, ?, now(), (" +
 				"SELECT id " +
 				"FROM campaign_running_state " +
 				"WHERE running_state = ?" +
@@ -337,7 +362,36 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 	// Deletes a campaign.
 	private static final String SQL_DELETE_CAMPAIGN = 
 		"DELETE FROM campaign " +
-		"WHERE urn = ?";
+		"WHERE id = ?";
+	
+	// Retrieves and locks a campaign before it is deleted.
+	private static final String SQL_GET_ID_FOR_DELETION =
+		"SELECT id " +
+		"FROM campaign " +
+		"WHERE urn = ? " +
+		"FOR UPDATE";
+	
+	// Counts a campaign's survey responses.
+	private static final String SQL_GET_NUMBER_OF_SURVEY_RESPONSES =
+		"SELECT COUNT(*) " +
+		"FROM survey_response " +
+		"WHERE campaign_id = ?";
+	
+	// Records a campaign's deletion so that its survey responses will be
+	// removed in the background.
+	private static final String SQL_INSERT_CAMPAIGN_DELETION =
+		"INSERT INTO campaign_deletion(" +
+			"uuid, campaign_id, campaign_urn, requester, state, " +
+			"total_survey_responses, creation_timestamp) " +
+		"VALUES (?, ?, ?, ?, ?, ?, NOW())";
+	
+	// Deletes the annotations on a campaign. Their associations with the 
+	// campaign would be removed with the campaign, but not the annotations.
+	private static final String SQL_DELETE_CAMPAIGN_ANNOTATIONS =
+		"DELETE a " +
+		"FROM annotation a, campaign_annotation ca " +
+		"WHERE ca.campaign_id = ? " +
+		"AND ca.annotation_id = a.id";
 	
 	// Deletes a campaign, class association.
 	private static final String SQL_DELETE_CAMPAIGN_CLASS =
@@ -429,11 +483,23 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 				throw new DataAccessException("The XML could not be saved.");
 			}
 			
+			// Take the campaign's ID from the sequence.
+			long id;
+			try {
+				getJdbcTemplate().update(SQL_ADVANCE_CAMPAIGN_ID_SEQUENCE);
+				id = getJdbcTemplate().queryForLong(SQL_GET_NEW_CAMPAIGN_ID);
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException("Error executing SQL '" + SQL_ADVANCE_CAMPAIGN_ID_SEQUENCE + "'.", e);
+			}
+			
 			// Create the campaign.
 			try {
 				getJdbcTemplate().update(
 					SQL_INSERT_CAMPAIGN, 
 					new Object[] { 
+						id,
 						campaign.getId(), 
 						campaign.getName(), 
 						xml, 
@@ -452,6 +518,7 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 					"Error executing SQL '" + 
 						SQL_INSERT_CAMPAIGN + 
 						"' with parameters: " +
+						id + ", " + 
 						campaign.getId() + ", " + 
 						campaign.getName() + ", " + 
 						xml + ", " + 
@@ -592,6 +659,10 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 					e);
 			}
 			
+			// Other servers' search indices are now out of date.
+			long searchIndexStamp =
+				incrementSearchIndexStamp(transactionManager, status);
+			
 			// Commit the transaction.
 			try {
 				transactionManager.commit(status);
@@ -602,6 +673,15 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 					"Error while committing the transaction.",
 					e);
 			}
+			
+			// Roles may have changed, so forget any memoized privileges.
+			invalidateUserPrivileges();
+			
+			// Update the search index now that the change is visible.
+			refreshSearchIndexForCampaign(campaign.getId(), searchIndexStamp);
+			
+			// The OMH registry lists every campaign.
+			invalidateOmhRegistry();
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException(
@@ -654,20 +734,10 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 	public List<String> getCampaignsFromPartialId(String partialCampaignId)
 			throws DataAccessException {
 
-		try {
-			return getJdbcTemplate().query(
-					SQL_GET_LIKE_ID, 
-					new Object[] { "%" + partialCampaignId + "%" }, 
-					new SingleColumnRowMapper<String>());
-		}
-		catch(org.springframework.dao.DataAccessException e) {
-			throw new DataAccessException(
-					"Error executing SQL '" +
-						SQL_GET_LIKE_ID + 
-						"' with parameter: " +
-						"%" + partialCampaignId + "%",
-					e);
-		}
+		return getCampaignsFromPartial(
+				SQL_GET_LIKE_ID, 
+				SearchIndexCache.Field.CAMPAIGN_ID, 
+				partialCampaignId);
 	}
 
 	/*
@@ -678,20 +748,10 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 	public List<String> getCampaignsFromPartialName(String partialCampaignName)
 			throws DataAccessException {
 
-		try {
-			return getJdbcTemplate().query(
-					SQL_GET_LIKE_NAME, 
-					new Object[] { "%" + partialCampaignName + "%" }, 
-					new SingleColumnRowMapper<String>());
-		}
-		catch(org.springframework.dao.DataAccessException e) {
-			throw new DataAccessException(
-					"Error executing SQL '" +
-						SQL_GET_LIKE_NAME + 
-						"' with parameter: " +
-						"%" + partialCampaignName + "%",
-					e);
-		}
+		return getCampaignsFromPartial(
+				SQL_GET_LIKE_NAME, 
+				SearchIndexCache.Field.CAMPAIGN_NAME, 
+				partialCampaignName);
 	}
 
 	/*
@@ -702,18 +762,60 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 	public List<String> getCampaignsFromPartialDescription(
 			String partialDescription) throws DataAccessException {
 
+		return getCampaignsFromPartial(
+				SQL_GET_LIKE_DESCRIPTION, 
+				SearchIndexCache.Field.CAMPAIGN_DESCRIPTION, 
+				partialDescription);
+	}
+
+	/**
+	 * Retrieves the IDs of the campaigns whose value for some column contains
+	 * the partial value. If the search index can narrow the search, only
+	 * those campaigns are checked.
+	 * 
+	 * @param sql One of the SQL_GET_LIKE_* statements.
+	 * 
+	 * @param field The indexed field that corresponds to the statement.
+	 * 
+	 * @param partialValue The partial value.
+	 * 
+	 * @return The IDs of the matching campaigns.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	private List<String> getCampaignsFromPartial(
+			final String sql,
+			final SearchIndexCache.Field field,
+			final String partialValue)
+			throws DataAccessException {
+		
+		String likeValue = "%" + partialValue + "%";
+		
+		List<Object> parameters = new LinkedList<Object>();
+		parameters.add(likeValue);
+		
+		String fullSql =
+				sql + 
+				getCandidateRestriction(
+						"urn", 
+						narrowCandidates(
+								null, 
+								field, 
+								Collections.singleton(likeValue)), 
+						parameters);
+		
 		try {
 			return getJdbcTemplate().query(
-					SQL_GET_LIKE_DESCRIPTION, 
-					new Object[] { "%" + partialDescription + "%" }, 
+					fullSql, 
+					parameters.toArray(), 
 					new SingleColumnRowMapper<String>());
 		}
 		catch(org.springframework.dao.DataAccessException e) {
 			throw new DataAccessException(
 					"Error executing SQL '" +
-						SQL_GET_LIKE_DESCRIPTION + 
-						"' with parameter: " +
-						"%" + partialDescription + "%",
+						fullSql + 
+						"' with parameters: " +
+						parameters,
 					e);
 		}
 	}
@@ -845,6 +947,19 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 		}
 	}
 	
+	/* (non-Javadoc)
+	 * @see org.ohmage.query.ICampaignQueries#getResponseVersion(java.lang.String)
+	 */
+	public long getResponseVersion(String campaignId) throws DataAccessException {
+		try {
+			List<Long> versions = getJdbcTemplate().query(SQL_GET_RESPONSE_VERSION, new Object[] { campaignId }, new SingleColumnRowMapper<Long>(Long.class));
+			return (versions.isEmpty()) ? 0 : versions.get(0);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException("Error executing SQL '" + SQL_GET_RESPONSE_VERSION + "' with parameter: " + campaignId, e);
+		}
+	}
+	
 	/* (non-Javadoc)
 	 * @see org.ohmage.query.impl.ICampaignQueries#findCampaignConfiguration(java.lang.String)
 	 */
@@ -1166,6 +1281,37 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 				parameters.add("%" + partialAuthoredBy + "%");
 			}
 
+			// Restrict the search to the campaigns whose ID, name, and 
+			// description may match the partial values above. The LIKE 
+			// clauses still verify each one.
+			Set<String> candidates = null;
+			if(partialCampaignId != null) {
+				candidates =
+						narrowCandidates(
+								candidates, 
+								SearchIndexCache.Field.CAMPAIGN_ID, 
+								Collections.singleton(
+										"%" + partialCampaignId + "%"));
+			}
+			if(partialCampaignName != null) {
+				candidates =
+						narrowCandidates(
+								candidates, 
+								SearchIndexCache.Field.CAMPAIGN_NAME, 
+								Collections.singleton(
+										"%" + partialCampaignName + "%"));
+			}
+			if(partialDescription != null) {
+				candidates =
+						narrowCandidates(
+								candidates, 
+								SearchIndexCache.Field.CAMPAIGN_DESCRIPTION, 
+								Collections.singleton(
+										"%" + partialDescription + "%"));
+			}
+			builder.append(
+					getCandidateRestriction("ca.urn", candidates, parameters));
+
 			if(startDate != null) {
 				builder.append(" AND ca.creation_timestamp >= ?");
 				parameters.add(DateTimeUtils.getIso8601DateString(startDate, true));
@@ -1302,6 +1448,21 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 				builder.append(")");
 			}
 			
+			// Restrict the campaigns to those whose name and description may
+			// match the tokens above. The LIKE clauses still verify each one.
+			Set<String> candidates =
+					narrowCandidates(
+							null, 
+							SearchIndexCache.Field.CAMPAIGN_NAME, 
+							toLikePatterns(nameTokens));
+			candidates =
+					narrowCandidates(
+							candidates, 
+							SearchIndexCache.Field.CAMPAIGN_DESCRIPTION, 
+							toLikePatterns(descriptionTokens));
+			builder.append(
+					getCandidateRestriction("ca.urn", candidates, parameters));
+			
 			if(startDate != null) {
 				builder.append(" AND ca.creation_timestamp >= ?");
 				
@@ -1782,6 +1943,10 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 				}
 			}
 			
+			// Other servers' search indices are now out of date.
+			long searchIndexStamp =
+				incrementSearchIndexStamp(transactionManager, status);
+			
 			// Commit the transaction.
 			try {
 				transactionManager.commit(status);
@@ -1790,6 +1955,15 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 				transactionManager.rollback(status);
 				throw new DataAccessException("Error while committing the transaction.", e);
 			}
+			
+			// Roles may have changed, so forget any memoized privileges.
+			invalidateUserPrivileges();
+			
+			// Update the search index now that the change is visible.
+			refreshSearchIndexForCampaign(campaignId, searchIndexStamp);
+			
+			// The OMH registry lists every campaign.
+			invalidateOmhRegistry();
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
@@ -1797,26 +1971,73 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 	}
 	
 	/* (non-Javadoc)
-	 * @see org.ohmage.query.impl.ICampaignQueries#deleteCampaign(java.lang.String)
+	 * @see org.ohmage.query.impl.ICampaignQueries#deleteCampaign(java.lang.String, java.lang.String)
 	 */
-	public void deleteCampaign(String campaignId) throws DataAccessException {
+	public UUID deleteCampaign(String campaignId, String requester) throws DataAccessException {
 		// Create the transaction.
 		DefaultTransactionDefinition def = new DefaultTransactionDefinition();
 		def.setName("Deleting a campaign.");
 		
+		UUID deletionId = UUID.randomUUID();
 		try {
 			// Begin the transaction.
 			PlatformTransactionManager transactionManager = new DataSourceTransactionManager(getDataSource());
 			TransactionStatus status = transactionManager.getTransaction(def);
 			
+			long id;
+			try {
+				id = getJdbcTemplate().queryForLong(SQL_GET_ID_FOR_DELETION, campaignId);
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException("Error executing SQL '" + SQL_GET_ID_FOR_DELETION + "' with parameter: " + campaignId, e);
+			}
+			
+			long numSurveyResponses;
 			try {
-				getJdbcTemplate().update(SQL_DELETE_CAMPAIGN, campaignId);
+				numSurveyResponses = getJdbcTemplate().queryForLong(SQL_GET_NUMBER_OF_SURVEY_RESPONSES, id);
 			}
 			catch(org.springframework.dao.DataAccessException e) {
 				transactionManager.rollback(status);
-				throw new DataAccessException("Error executing SQL '" + SQL_DELETE_CAMPAIGN + "' with parameter: " + campaignId, e);
+				throw new DataAccessException("Error executing SQL '" + SQL_GET_NUMBER_OF_SURVEY_RESPONSES + "' with parameter: " + id, e);
 			}
 			
+			// The survey responses are left for the background deletion.
+			try {
+				getJdbcTemplate().update(
+					SQL_INSERT_CAMPAIGN_DELETION, 
+					deletionId.toString(),
+					id,
+					campaignId,
+					requester,
+					CampaignDeletion.State.DELETING.toString(),
+					numSurveyResponses);
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException("Error executing SQL '" + SQL_INSERT_CAMPAIGN_DELETION + "' with parameters: " + deletionId + ", " + id + ", " + campaignId + ", " + requester, e);
+			}
+			
+			try {
+				getJdbcTemplate().update(SQL_DELETE_CAMPAIGN_ANNOTATIONS, id);
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException("Error executing SQL '" + SQL_DELETE_CAMPAIGN_ANNOTATIONS + "' with parameter: " + id, e);
+			}
+			
+			try {
+				getJdbcTemplate().update(SQL_DELETE_CAMPAIGN, id);
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException("Error executing SQL '" + SQL_DELETE_CAMPAIGN + "' with parameter: " + id, e);
+			}
+			
+			// Other servers' search indices are now out of date.
+			long searchIndexStamp =
+				incrementSearchIndexStamp(transactionManager, status);
+			
 			// Commit the transaction.
 			try {
 				transactionManager.commit(status);
@@ -1825,10 +2046,21 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 				transactionManager.rollback(status);
 				throw new DataAccessException("Error while committing the transaction.", e);
 			}
+			
+			// Roles may have changed, so forget any memoized privileges.
+			invalidateUserPrivileges();
+			
+			// Update the search index now that the change is visible.
+			refreshSearchIndexForCampaign(campaignId, searchIndexStamp);
+			
+			// The OMH registry lists every campaign.
+			invalidateOmhRegistry();
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
 		}
+		
+		return deletionId;
 	}
 	
 	/**
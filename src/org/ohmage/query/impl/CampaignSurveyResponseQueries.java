@@ -39,15 +39,13 @@ import org.springframework.jdbc.core.RowMapper;
  * @author John Jenkins
  */
 public class CampaignSurveyResponseQueries extends Query implements ICampaignSurveyResponseQueries {
-	// Retrieves the total number of survey responses for a campaign.
+	// Retrieves the total number of survey responses for a campaign from its
+	// response statistics.
 	private static final String SQL_COUNT_SURVEY_RESPONSES =
-		"SELECT COUNT(Id) " +
-		"FROM survey_response " +
-		"WHERE campaign_id = (" +
-			"SELECT Id " +
-			"FROM campaign " +
-			"WHERE urn = ?" +
-		")";
+		"SELECT COALESCE(SUM(crs.response_count), 0) " +
+		"FROM campaign_response_stats crs " +
+			"JOIN campaign c ON (crs.campaign_id = c.id) " +
+		"WHERE c.urn = ?";
 	
 	// Retrieves the total number of prompt responses for a campaign.
 	private static final String SQL_COUNT_PROMPT_RESPONSES = 
@@ -137,25 +135,35 @@ public class CampaignSurveyResponseQueries extends Query implements ICampaignSur
 	
 	    Collection<Object> parameters = new LinkedList<Object>();
 	    
+	    // The counts come from the campaigns' response statistics rather than
+	    // the survey responses themselves. A user may have several roles in a
+	    // campaign, so they are checked in a subquery to avoid counting the
+	    // same statistics more than once.
 	    StringBuilder sql = new StringBuilder(
-		    "SELECT c.urn, srps.privacy_state, COUNT(DISTINCT sr.id) as count " + 
-		    "FROM survey_response sr " +
-		    	"JOIN campaign c ON (sr.campaign_id = c.id) " +
-		    	"JOIN user u ON (sr.user_id = u.id) " + 
-		    	"JOIN survey_response_privacy_state srps ON (sr.privacy_state_id = srps.id) " + 
+		    "SELECT c.urn, srps.privacy_state, SUM(crs.response_count) as count " + 
+		    "FROM campaign_response_stats crs " +
+		    	"JOIN campaign c ON (crs.campaign_id = c.id) " +
+		    	"JOIN survey_response_privacy_state srps ON (crs.privacy_state_id = srps.id) " + 
 		    	"JOIN campaign_privacy_state cps ON (c.privacy_state_id = cps.id) " +
-		    	"CROSS JOIN user ru " +
-		    	"LEFT JOIN user_role_campaign urc on (urc.user_id = ru.id AND urc.campaign_id = c.id) " +
-		    	"LEFT JOIN user_role ur on (urc.user_role_id = ur.id) " +
+		    	"JOIN user ru ON (ru.username = ?) " +
 		    "WHERE "  +
 		      "( " +
 		    	"ru.admin = TRUE " + 
-		        "OR ru.id = sr.user_id " +
-		        "OR ur.role = 'supervisor' " +
-		        "OR (ur.role = 'author' AND srps.privacy_state = 'shared') " +
-		        "OR (ur.role = 'analyst' AND srps.privacy_state = 'shared' AND cps.privacy_state = 'shared') " +
+		        "OR ru.id = crs.user_id " +
+		        "OR EXISTS (" +
+		          "SELECT urc.id " +
+		          "FROM user_role_campaign urc " +
+		            "JOIN user_role ur ON (urc.user_role_id = ur.id) " +
+		          "WHERE urc.user_id = ru.id " +
+		          "AND urc.campaign_id = c.id " +
+		          "AND (" +
+		            "ur.role = 'supervisor' " +
+		            "OR (ur.role = 'author' AND srps.privacy_state = 'shared') " +
+		            "OR (ur.role = 'analyst' AND srps.privacy_state = 'shared' AND cps.privacy_state = 'shared')" +
+		          ")" +
+		        ") " +
 		      ") " +
-		      "AND ru.username = ? " +
+		      "AND crs.response_count > 0 " +
 		      "AND c.id IN ");
 	    sql.append(	   "(" + campaignSqlStmt  + ")");
 	    sql.append(" GROUP BY c.urn, srps.id ");
@@ -25,10 +25,12 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.sql.DataSource;
 
 import org.apache.log4j.Logger;
+import org.ohmage.cache.SearchIndexCache;
 import org.ohmage.domain.Clazz;
 import org.ohmage.domain.Clazz.Role;
 import org.ohmage.domain.campaign.Campaign;
@@ -272,6 +274,10 @@ public class ClassQueries extends Query implements IClassQueries {
 						classId + ", " + className + ", " + classDescription, e);
 			}
 			
+			// Other servers' search indices are now out of date.
+			long searchIndexStamp =
+				incrementSearchIndexStamp(transactionManager, status);
+			
 			// Commit the transaction.
 			try {
 				transactionManager.commit(status);
@@ -280,6 +286,12 @@ public class ClassQueries extends Query implements IClassQueries {
 				transactionManager.rollback(status);
 				throw new DataAccessException("Error while committing the transaction.", e);
 			}
+			
+			// Roles may have changed, so forget any memoized privileges.
+			invalidateUserPrivileges();
+			
+			// Update the search index now that the change is visible.
+			refreshSearchIndexForClass(classId, searchIndexStamp);
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
@@ -327,20 +339,10 @@ public class ClassQueries extends Query implements IClassQueries {
 	public List<String> getClassIdsFromPartialId(String partialId)
 			throws DataAccessException {
 
-		try {
-			return getJdbcTemplate().query(
-					SQL_GET_LIKE_CLASS_ID, 
-					new Object[] { "%" + partialId + "%" }, 
-					new SingleColumnRowMapper<String>());
-		}
-		catch(org.springframework.dao.DataAccessException e) {
-			throw new DataAccessException(
-					"Error executing SQL '" + 
-						SQL_GET_LIKE_CLASS_ID + 
-						"' with parameter: " + 
-						"%" + partialId + "%", 
-					e);
-		}
+		return getClassIdsFromPartial(
+				SQL_GET_LIKE_CLASS_ID, 
+				SearchIndexCache.Field.CLASS_ID, 
+				partialId);
 	}
 
 	/*
@@ -351,20 +353,10 @@ public class ClassQueries extends Query implements IClassQueries {
 	public List<String> getClassIdsFromPartialName(String partialName)
 			throws DataAccessException {
 
-		try {
-			return getJdbcTemplate().query(
-					SQL_GET_LIKE_CLASS_NAME, 
-					new Object[] { "%" + partialName + "%" }, 
-					new SingleColumnRowMapper<String>());
-		}
-		catch(org.springframework.dao.DataAccessException e) {
-			throw new DataAccessException(
-					"Error executing SQL '" + 
-						SQL_GET_LIKE_CLASS_ID + 
-						"' with parameter: " + 
-						"%" + partialName + "%", 
-					e);
-		}
+		return getClassIdsFromPartial(
+				SQL_GET_LIKE_CLASS_NAME, 
+				SearchIndexCache.Field.CLASS_NAME, 
+				partialName);
 	}
 
 	/*
@@ -376,18 +368,60 @@ public class ClassQueries extends Query implements IClassQueries {
 			String partialDescription) 
 			throws DataAccessException {
 
+		return getClassIdsFromPartial(
+				SQL_GET_LIKE_CLASS_DESCRIPTION, 
+				SearchIndexCache.Field.CLASS_DESCRIPTION, 
+				partialDescription);
+	}
+	
+	/**
+	 * Retrieves the IDs of the classes whose value for some column contains
+	 * the partial value. If the search index can narrow the search, only
+	 * those classes are checked.
+	 * 
+	 * @param sql One of the SQL_GET_LIKE_CLASS_* statements.
+	 * 
+	 * @param field The indexed field that corresponds to the statement.
+	 * 
+	 * @param partialValue The partial value.
+	 * 
+	 * @return The IDs of the matching classes.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	private List<String> getClassIdsFromPartial(
+			final String sql,
+			final SearchIndexCache.Field field,
+			final String partialValue)
+			throws DataAccessException {
+		
+		String likeValue = "%" + partialValue + "%";
+		
+		List<Object> parameters = new LinkedList<Object>();
+		parameters.add(likeValue);
+		
+		String fullSql =
+				sql + 
+				getCandidateRestriction(
+						"urn", 
+						narrowCandidates(
+								null, 
+								field, 
+								Collections.singleton(likeValue)), 
+						parameters);
+		
 		try {
 			return getJdbcTemplate().query(
-					SQL_GET_LIKE_CLASS_DESCRIPTION, 
-					new Object[] { "%" + partialDescription + "%" }, 
+					fullSql, 
+					parameters.toArray(), 
 					new SingleColumnRowMapper<String>());
 		}
 		catch(org.springframework.dao.DataAccessException e) {
 			throw new DataAccessException(
 					"Error executing SQL '" + 
-						SQL_GET_LIKE_CLASS_ID + 
-						"' with parameter: " + 
-						"%" + partialDescription + "%", 
+						fullSql + 
+						"' with parameters: " + 
+						parameters, 
 					e);
 		}
 	}
@@ -495,6 +529,21 @@ public class ClassQueries extends Query implements IClassQueries {
 			sqlBuilder.append(")");
 		}
 		
+		// Restrict the search to the classes whose name and description may
+		// match the tokens above. The LIKE clauses still verify each one.
+		Set<String> candidates = 
+				narrowCandidates(
+						null, 
+						SearchIndexCache.Field.CLASS_NAME, 
+						toLikePatterns(classNameTokens));
+		candidates =
+				narrowCandidates(
+						candidates, 
+						SearchIndexCache.Field.CLASS_DESCRIPTION, 
+						toLikePatterns(classDescriptionTokens));
+		sqlBuilder.append(
+				getCandidateRestriction("c.urn", candidates, parameters));
+		
 		// Finally, tack on the JOIN that will give us the user's role or limit
 		// the results by the given role if one was given.
 		sqlBuilder.append(
@@ -999,6 +1048,10 @@ public class ClassQueries extends Query implements IClassQueries {
 				}
 			}
 			
+			// Other servers' search indices are now out of date.
+			long searchIndexStamp =
+				incrementSearchIndexStamp(transactionManager, status);
+			
 			// Commit the transaction.
 			try {
 				transactionManager.commit(status);
@@ -1008,6 +1061,12 @@ public class ClassQueries extends Query implements IClassQueries {
 				throw new DataAccessException("Error while committing the transaction.", e);
 			}
 			
+			// Roles may have changed, so forget any memoized privileges.
+			invalidateUserPrivileges();
+			
+			// Update the search index now that the change is visible.
+			refreshSearchIndexForClass(classId, searchIndexStamp);
+			
 			return warningMessages;
 		}
 		catch(TransactionException e) {
@@ -1192,6 +1251,10 @@ public class ClassQueries extends Query implements IClassQueries {
 				throw new DataAccessException("Error while executing SQL '" + SQL_DELETE_CLASS + "' with parameter: " + classId, e);
 			}
 			
+			// Other servers' search indices are now out of date.
+			long searchIndexStamp =
+				incrementSearchIndexStamp(transactionManager, status);
+			
 			// Commit the transaction.
 			try {
 				transactionManager.commit(status);
@@ -1200,6 +1263,12 @@ public class ClassQueries extends Query implements IClassQueries {
 				transactionManager.rollback(status);
 				throw new DataAccessException("Error while committing the transaction.", e);
 			}
+			
+			// Roles may have changed, so forget any memoized privileges.
+			invalidateUserPrivileges();
+			
+			// Update the search index now that the change is visible.
+			refreshSearchIndexForClass(classId, searchIndexStamp);
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
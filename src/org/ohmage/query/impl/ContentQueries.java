@@ -0,0 +1,542 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+import org.ohmage.cache.ConnectionContext;
+import org.ohmage.cache.PreferenceCache;
+import org.ohmage.exception.CacheMissException;
+import org.ohmage.exception.DataAccessException;
+import org.ohmage.query.IContentQueries;
+import org.ohmage.util.StringUtils;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+/**
+ * <p>
+ * The content-addressed store. Each distinct set of contents is written once
+ * to the content directory, under the SHA-256 hash of the contents, and the
+ * content_blob table counts the number of rows that reference it.
+ * </p>
+ *
+ * <p>
+ * Adding a reference to contents that are already stored only increments the
+ * count, so re-uploading identical contents costs a hash and a single update.
+ * Removing the last reference deletes the contents' row, and their file is
+ * only deleted once that has been committed, so a rollback never leaves a
+ * row without its file. Each time contents are written, they get a file of
+ * their own, so contents that are uploaded again while their old file is
+ * waiting to be deleted are not deleted with it.
+ * </p>
+ */
+public class ContentQueries extends Query implements IContentQueries {
+	private static final Logger LOGGER =
+		Logger.getLogger(ContentQueries.class);
+
+	private static final String HASH_ALGORITHM = "SHA-256";
+
+	// Adds a reference to existing contents.
+	private static final String SQL_UPDATE_ADD_REFERENCE =
+		"UPDATE content_blob " +
+		"SET reference_count = reference_count + 1 " +
+		"WHERE hash = ?";
+
+	// Adds new contents with a single reference. If the same contents were
+	// added concurrently, this only adds the reference.
+	private static final String SQL_INSERT_CONTENT =
+		"INSERT INTO content_blob(hash, url, size, reference_count) " +
+		"VALUES (?, ?, ?, 1) " +
+		"ON DUPLICATE KEY UPDATE reference_count = reference_count + 1";
+
+	// Retrieves the URL of some contents.
+	private static final String SQL_GET_URL =
+		"SELECT url " +
+		"FROM content_blob " +
+		"WHERE hash = ?";
+
+	// Retrieves and locks the contents' row before removing a reference.
+	private static final String SQL_GET_FOR_RELEASE =
+		"SELECT url, reference_count " +
+		"FROM content_blob " +
+		"WHERE hash = ? " +
+		"FOR UPDATE";
+
+	// Removes a reference from some contents.
+	private static final String SQL_UPDATE_REMOVE_REFERENCE =
+		"UPDATE content_blob " +
+		"SET reference_count = reference_count - 1 " +
+		"WHERE hash = ?";
+
+	// Removes contents that are no longer referenced.
+	private static final String SQL_DELETE_CONTENT =
+		"DELETE FROM content_blob " +
+		"WHERE hash = ?";
+
+	/**
+	 * Creates this object.
+	 *
+	 * @param dataSource The DataSource to use when querying the database.
+	 */
+	private ContentQueries(DataSource dataSource) {
+		super(dataSource);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IContentQueries#isEnabled()
+	 */
+	@Override
+	public boolean isEnabled() {
+		String value;
+		try {
+			value =
+				PreferenceCache.instance().lookup(
+					PreferenceCache.KEY_CONTENT_ADDRESSED_STORAGE_ENABLED);
+		}
+		catch(CacheMissException e) {
+			return false;
+		}
+
+		Boolean enabled = StringUtils.decodeBoolean(value);
+		if(enabled == null) {
+			LOGGER.warn(
+				"The content-addressed storage preference is not a valid boolean, so it is disabled: " +
+					value);
+			return false;
+		}
+		return enabled;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IContentQueries#store(byte[])
+	 */
+	@Override
+	public String store(final byte[] contents) throws DataAccessException {
+		MessageDigest digest = getDigest();
+		digest.update(contents);
+		String hash = toHex(digest.digest());
+
+		if(addReference(hash)) {
+			return hash;
+		}
+
+		File file = getNewFile(hash);
+		File tempFile = createTempFile(file);
+		try {
+			OutputStream os = new FileOutputStream(tempFile);
+			try {
+				os.write(contents);
+				os.flush();
+			}
+			finally {
+				os.close();
+			}
+		}
+		catch(IOException e) {
+			tempFile.delete();
+			throw new DataAccessException(
+				"Error writing the contents to the system.",
+				e);
+		}
+
+		addContents(hash, tempFile, file);
+		return hash;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IContentQueries#store(java.io.InputStream)
+	 */
+	@Override
+	public String store(final InputStream contents)
+			throws DataAccessException {
+
+		// The hash is not known until the contents have been read, so they
+		// are spooled to a temporary file at the root of the store.
+		File tempFile = createTempFile(new File(getRoot(), "upload"));
+		MessageDigest digest = getDigest();
+		try {
+			OutputStream os = new FileOutputStream(tempFile);
+			try {
+				byte[] buffer = new byte[4096];
+				int read;
+				while((read = contents.read(buffer)) != -1) {
+					digest.update(buffer, 0, read);
+					os.write(buffer, 0, read);
+				}
+				os.flush();
+			}
+			finally {
+				os.close();
+			}
+		}
+		catch(IOException e) {
+			tempFile.delete();
+			throw new DataAccessException(
+				"Error writing the contents to the system.",
+				e);
+		}
+		String hash = toHex(digest.digest());
+
+		if(addReference(hash)) {
+			tempFile.delete();
+			return hash;
+		}
+
+		File file = getNewFile(hash);
+		ensureDirectory(file.getParentFile());
+		addContents(hash, tempFile, file);
+		return hash;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IContentQueries#getUrl(java.lang.String)
+	 */
+	@Override
+	public String getUrl(final String hash) throws DataAccessException {
+		try {
+			List<String> result =
+				getJdbcTemplate().query(
+					SQL_GET_URL,
+					new Object[] { hash },
+					new RowMapper<String>() {
+						@Override
+						public String mapRow(ResultSet rs, int rowNum)
+								throws SQLException {
+
+							return rs.getString("url");
+						}
+					});
+
+			if(result.isEmpty()) {
+				return null;
+			}
+			return result.get(0);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + SQL_GET_URL +
+					"' with parameter: " + hash,
+				e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IContentQueries#release(java.lang.String)
+	 */
+	@Override
+	public void release(final String hash) throws DataAccessException {
+		DefaultTransactionDefinition def = new DefaultTransactionDefinition();
+		def.setName("Releasing stored contents.");
+
+		try {
+			PlatformTransactionManager transactionManager =
+				new DataSourceTransactionManager(getDataSource());
+			TransactionStatus status = transactionManager.getTransaction(def);
+
+			String deletedUrl = null;
+			try {
+				List<Object[]> result =
+					getJdbcTemplate().query(
+						SQL_GET_FOR_RELEASE,
+						new Object[] { hash },
+						new RowMapper<Object[]>() {
+							@Override
+							public Object[] mapRow(ResultSet rs, int rowNum)
+									throws SQLException {
+
+								return new Object[] {
+									rs.getString("url"),
+									rs.getInt("reference_count") };
+							}
+						});
+
+				if(result.isEmpty()) {
+					LOGGER.warn(
+						"The contents were already released: " + hash);
+				}
+				else if((Integer) result.get(0)[1] > 1) {
+					getJdbcTemplate().update(
+						SQL_UPDATE_REMOVE_REFERENCE,
+						new Object[] { hash });
+				}
+				else {
+					getJdbcTemplate().update(
+						SQL_DELETE_CONTENT,
+						new Object[] { hash });
+					deletedUrl = (String) result.get(0)[0];
+				}
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException(
+					"Error releasing the contents: " + hash,
+					e);
+			}
+
+			try {
+				transactionManager.commit(status);
+			}
+			catch(TransactionException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException(
+					"Error while committing the transaction.",
+					e);
+			}
+
+			// The file may only be deleted once its row is gone for good,
+			// which, on a request's connection, is when the request commits.
+			if(deletedUrl != null) {
+				final String url = deletedUrl;
+				ConnectionContext.afterCommit(new Runnable() {
+					@Override
+					public void run() {
+						deleteFile(url);
+					}
+				});
+			}
+		}
+		catch(TransactionException e) {
+			throw new DataAccessException(
+				"Error while attempting to rollback the transaction.",
+				e);
+		}
+	}
+
+	/**
+	 * Adds a reference to contents that are already stored.
+	 *
+	 * @param hash The contents' hash.
+	 *
+	 * @return True if the contents were already stored; false, otherwise.
+	 *
+	 * @throws DataAccessException There was an error.
+	 */
+	private boolean addReference(final String hash)
+			throws DataAccessException {
+
+		try {
+			return
+				getJdbcTemplate().update(
+					SQL_UPDATE_ADD_REFERENCE,
+					new Object[] { hash }) > 0;
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + SQL_UPDATE_ADD_REFERENCE +
+					"' with parameter: " + hash,
+				e);
+		}
+	}
+
+	/**
+	 * Moves newly written contents into place and records them with a single
+	 * reference.
+	 *
+	 * @param hash The contents' hash.
+	 *
+	 * @param tempFile The file to which the contents were written.
+	 *
+	 * @param file The contents' file in the store.
+	 *
+	 * @throws DataAccessException There was an error.
+	 */
+	private void addContents(
+			final String hash,
+			final File tempFile,
+			final File file)
+			throws DataAccessException {
+
+		try {
+			Files.move(
+				tempFile.toPath(),
+				file.toPath(),
+				StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(IOException e) {
+			tempFile.delete();
+			throw new DataAccessException(
+				"Error moving the contents into the store: " + file,
+				e);
+		}
+
+		String url = "file://" + file.getAbsolutePath();
+		try {
+			getJdbcTemplate().update(
+				SQL_INSERT_CONTENT,
+				new Object[] { hash, url, file.length() });
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			file.delete();
+			throw new DataAccessException(
+				"Error executing SQL '" + SQL_INSERT_CONTENT +
+					"' with parameters: " + hash + ", " + url,
+				e);
+		}
+
+		// If identical contents were added concurrently, only the reference
+		// was added, and this copy is not needed.
+		if(! url.equals(getUrl(hash))) {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Deletes the file of contents whose row has been deleted. Errors are
+	 * logged but not thrown, as the contents are already gone.
+	 *
+	 * @param url The URL of the contents' file.
+	 */
+	private static void deleteFile(final String url) {
+		File file = new File(url.substring("file://".length()));
+		if(! file.delete()) {
+			LOGGER.warn("The contents no longer existed: " + url);
+		}
+	}
+
+	/**
+	 * Returns a new file in which some contents may be stored. Files are
+	 * spread across two levels of directories named after the first bytes
+	 * of their hash, and they are named after the hash and a random suffix.
+	 *
+	 * @param hash The contents' hash.
+	 *
+	 * @return The new file.
+	 *
+	 * @throws DataAccessException The content directory is unknown.
+	 */
+	private File getNewFile(final String hash) throws DataAccessException {
+		File directory =
+			new File(
+				getRoot(),
+				hash.substring(0, 2) + "/" + hash.substring(2, 4));
+		return new File(directory, hash + "-" + UUID.randomUUID());
+	}
+
+	/**
+	 * Creates a temporary file next to the file to which it will be moved.
+	 *
+	 * @param file The file to which the temporary file will be moved.
+	 *
+	 * @return The temporary file.
+	 *
+	 * @throws DataAccessException The file could not be created.
+	 */
+	private File createTempFile(final File file) throws DataAccessException {
+		File directory = file.getParentFile();
+		ensureDirectory(directory);
+		try {
+			return File.createTempFile(file.getName(), ".tmp", directory);
+		}
+		catch(IOException e) {
+			throw new DataAccessException(
+				"Error creating a file in the content directory: " +
+					directory,
+				e);
+		}
+	}
+
+	/**
+	 * Creates a directory, and any missing parents, if it doesn't exist.
+	 *
+	 * @param directory The directory.
+	 *
+	 * @throws DataAccessException The directory could not be created.
+	 */
+	private static void ensureDirectory(final File directory)
+			throws DataAccessException {
+
+		if((! directory.mkdirs()) && (! directory.isDirectory())) {
+			throw new DataAccessException(
+				"The content directory could not be created: " + directory);
+		}
+	}
+
+	/**
+	 * Returns the root of the content directory.
+	 *
+	 * @return The root of the content directory.
+	 *
+	 * @throws DataAccessException The content directory is unknown.
+	 */
+	private static File getRoot() throws DataAccessException {
+		try {
+			return new File(
+				PreferenceCache.instance().lookup(
+					PreferenceCache.KEY_CONTENT_DIRECTORY));
+		}
+		catch(CacheMissException e) {
+			throw new DataAccessException(
+				"Preference cache doesn't know about 'known' key: " +
+					PreferenceCache.KEY_CONTENT_DIRECTORY,
+				e);
+		}
+	}
+
+	/**
+	 * Returns a new digest for hashing contents.
+	 *
+	 * @return The digest.
+	 */
+	private static MessageDigest getDigest() {
+		try {
+			return MessageDigest.getInstance(HASH_ALGORITHM);
+		}
+		catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException(
+				"The hash algorithm is not supported: " + HASH_ALGORITHM,
+				e);
+		}
+	}
+
+	/**
+	 * Encodes a hash as lower-case hexadecimal.
+	 *
+	 * @param bytes The hash.
+	 *
+	 * @return The hexadecimal string.
+	 */
+	private static String toHex(final byte[] bytes) {
+		StringBuilder builder = new StringBuilder(bytes.length * 2);
+		for(byte b : bytes) {
+			builder.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1));
+		}
+		return builder.toString();
+	}
+}
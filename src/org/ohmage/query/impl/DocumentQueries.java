@@ -41,6 +41,7 @@ import javax.sql.DataSource;
 
 import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
+import org.ohmage.cache.ConnectionContext;
 import org.ohmage.cache.PreferenceCache;
 import org.ohmage.domain.Clazz;
 import org.ohmage.domain.Document;
@@ -48,6 +49,7 @@ import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.exception.CacheMissException;
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.exception.DomainException;
+import org.ohmage.query.IContentQueries;
 import org.ohmage.query.IDocumentQueries;
 import org.ohmage.util.DateTimeUtils;
 import org.ohmage.util.StringUtils;
@@ -87,6 +89,13 @@ public class DocumentQueries extends Query implements IDocumentQueries {
 		"FROM document " +
 		"WHERE uuid = ?";
 	
+	// Retrieves a document's URL and the hash of its contents if they are in
+	// the content-addressed store.
+	private static final String SQL_GET_DOCUMENT_STORED_CONTENTS = 
+		"SELECT url, content_hash " +
+		"FROM document " +
+		"WHERE uuid = ?";
+	
 	// Retrieves a document's name.
 	private static final String SQL_GET_DOCUMENT_NAME = 
 		"SELECT name " +
@@ -95,8 +104,8 @@ public class DocumentQueries extends Query implements IDocumentQueries {
 	
 	// Inserts the document into the database.
 	private static final String SQL_INSERT_DOCUMENT = 
-		"INSERT INTO document(uuid, name, description, extension, url, size, privacy_state_id, creation_timestamp) " +
-		"VALUES (?, ?, ?, ?, ?, ?, (SELECT id FROM document_privacy_state WHERE privacy_state = ?), now())";
+		"INSERT INTO document(uuid, name, description, extension, url, content_hash, size, privacy_state_id, creation_timestamp) " +
+		"VALUES (?, ?, ?, ?, ?, ?, ?, (SELECT id FROM document_privacy_state WHERE privacy_state = ?), now())";
 	
 	// Associates a static user string as the creator of a document.
 	private static final String SQL_INSERT_DOCUMENT_USER_CREATOR = 
@@ -184,6 +193,11 @@ public class DocumentQueries extends Query implements IDocumentQueries {
 		"SET size = ? " +
 		"WHERE uuid = ?";
 
+	private static final String SQL_UPDATE_STORED_CONTENTS = 
+		"UPDATE document " +
+		"SET url = ?, content_hash = ?, size = ? " +
+		"WHERE uuid = ?";
+
 	private static final String SQL_UPDATE_CAMPAIGN_ROLE = 
 		"UPDATE document_campaign_role " +
 		"SET document_role_id = (" +
@@ -304,16 +318,50 @@ public class DocumentQueries extends Query implements IDocumentQueries {
 		}
 	}
 	
+	/**
+	 * Where a document's contents are stored.
+	 */
+	private static final class StoredContents {
+		private final String url;
+		// The hash of the contents if they are in the content-addressed store
+		// or null if the document has its own file.
+		private final String hash;
+		
+		/**
+		 * Creates a new location.
+		 * 
+		 * @param url The URL of the contents.
+		 * 
+		 * @param hash The hash of the contents or null if the contents are
+		 * 			   not in the content-addressed store.
+		 */
+		private StoredContents(final String url, final String hash) {
+			this.url = url;
+			this.hash = hash;
+		}
+	}
+	
 	// The current directory to which the next document should be saved.
 	private static File currLeafDirectory;
 	
+	private IContentQueries contentQueries;
+	
 	/**
 	 * Creates this object.
 	 * 
 	 * @param dataSource A DataSource object to use when querying the database.
+	 * 
+	 * @param iContentQueries The content-addressed store in which the 
+	 * 						  documents' contents are saved when it is 
+	 * 						  enabled.
 	 */
-	private DocumentQueries(DataSource dataSource) {
+	private DocumentQueries(DataSource dataSource, IContentQueries iContentQueries) {
 		super(dataSource);
+		
+		if(iContentQueries == null) {
+			throw new IllegalArgumentException("An instance of IContentQueries is a required argument.");
+		}
+		this.contentQueries = iContentQueries;
 	}
 	
 	/* (non-Javadoc)
@@ -326,24 +374,11 @@ public class DocumentQueries extends Query implements IDocumentQueries {
 		// Create a new, random UUID to use to save this file.
 		String uuid = UUID.randomUUID().toString();
 		
-		// getDirectory() is used as opposed to accessing the current leaf
-		// directory class variable as it will do sanitation in case it hasn't
-		// been initialized or is full.
-		File documentDirectory = getDirectory();
-		File newFile = new File(documentDirectory.getAbsolutePath() + "/" + uuid);
-		String url = "file://" + newFile.getAbsolutePath();
-		
-		// Write the document to the file system.
-		try {
-			FileOutputStream os = new FileOutputStream(newFile);
-			os.write(contents);
-			os.flush();
-			os.close();
-		}
-		catch(IOException e) {
-			throw new DataAccessException("Error writing the new document to the system.", e);
-		}
-		long fileLength = newFile.length();
+		// Save the contents either in the content-addressed store, where
+		// identical contents are only saved once, or in a new file.
+		StoredContents newContents = storeContents(uuid, contents);
+		String url = newContents.url;
+		long fileLength = contents.length;
 		
 		// Parse the name and get the extension.
 		String extension = getExtension(name);
@@ -367,20 +402,17 @@ public class DocumentQueries extends Query implements IDocumentQueries {
 								description, 
 								extension, 
 								url, 
+								newContents.hash, 
 								fileLength, 
 								privacyState.toString()
 						}
 					);
 			}
 			catch(org.springframework.dao.DataAccessException e) {
-				if(newFile.delete()) {
-					LOGGER.warn(
-						"Could not delete the file that was just created: " +
-							newFile.toString());
-				}
 				transactionManager.rollback(status);
+				discardContents(newContents);
 				throw new DataAccessException("Error executing SQL '" + SQL_INSERT_DOCUMENT + "' with parameters: " +
-						uuid + ", " + name + ", " + description + ", " + extension + ", " + url + ", " + fileLength + ", " + privacyState, e);
+						uuid + ", " + name + ", " + description + ", " + extension + ", " + url + ", " + newContents.hash + ", " + fileLength + ", " + privacyState, e);
 			}
 			
 			// Insert the creator in the DB.
@@ -394,12 +426,8 @@ public class DocumentQueries extends Query implements IDocumentQueries {
 					);
 			}
 			catch(org.springframework.dao.DataAccessException e) {
-				if(newFile.delete()) {
-					LOGGER.warn(
-						"Could not delete the file that was just created: " +
-							newFile.toString());
-				}
 				transactionManager.rollback(status);
+				discardContents(newContents);
 				throw new DataAccessException("Error executing SQL '" + SQL_INSERT_DOCUMENT_USER_CREATOR + "' with parameters: " +
 						uuid + ", " + creatorUsername, e);
 			}
@@ -416,12 +444,8 @@ public class DocumentQueries extends Query implements IDocumentQueries {
 					);
 			}
 			catch(org.springframework.dao.DataAccessException e) {
-				if(newFile.delete()) {
-					LOGGER.warn(
-						"Could not delete the file that was just created: " +
-							newFile.toString());
-				}
 				transactionManager.rollback(status);
+				discardContents(newContents);
 				throw new DataAccessException("Error executing SQL '" + SQL_INSERT_USER_ROLE + "' with parameters: " +
 						uuid + ", " + creatorUsername + ", " + Document.Role.OWNER, e);
 			}
@@ -441,12 +465,8 @@ public class DocumentQueries extends Query implements IDocumentQueries {
 							);
 					}
 					catch(org.springframework.dao.DataAccessException e) {
-						if(newFile.delete()) {
-							LOGGER.warn(
-								"Could not delete the file that was just created: " +
-									newFile.toString());
-						}
 						transactionManager.rollback(status);
+						discardContents(newContents);
 						throw new DataAccessException("Error executing SQL '" + SQL_INSERT_CAMPAIGN_ROLE + "' with parameters: " + 
 								uuid + ", " + campaignId + ", " + campaignRoleMap.get(campaignId), e);
 					}
@@ -468,12 +488,8 @@ public class DocumentQueries extends Query implements IDocumentQueries {
 							);
 					}
 					catch(org.springframework.dao.DataAccessException e) {
-						if(newFile.delete()) {
-							LOGGER.warn(
-								"Could not delete the file that was just created: " +
-									newFile.toString());
-						}
 						transactionManager.rollback(status);
+						discardContents(newContents);
 						throw new DataAccessException("Error executing SQL '" + SQL_INSERT_CLASS_ROLE + "' with parameters: " + 
 								uuid + ", " + classId + ", " + classRoleMap.get(classId), e);
 					}
@@ -486,6 +502,7 @@ public class DocumentQueries extends Query implements IDocumentQueries {
 			}
 			catch(TransactionException e) {
 				transactionManager.rollback(status);
+				discardContents(newContents);
 				throw new DataAccessException("Error while committing the transaction.", e);
 			}
 			
@@ -873,6 +890,17 @@ public class DocumentQueries extends Query implements IDocumentQueries {
 			final Collection<String> usersToRemove) 
 			throws DataAccessException {
 		
+		// New contents that will not overwrite the document's file are saved
+		// before the transaction begins, so no row is locked while they are
+		// written, and they are discarded if the update fails.
+		StoredContents newContents = null;
+		if(contents != null) {
+			StoredContents storedContents = getStoredContents(documentId);
+			if((storedContents.hash != null) || contentQueries.isEnabled()) {
+				newContents = storeContents(documentId, contents);
+			}
+		}
+		
 		// Begin transaction
 		DefaultTransactionDefinition def = new DefaultTransactionDefinition();
 		def.setName("Document update.");
@@ -881,6 +909,7 @@ public class DocumentQueries extends Query implements IDocumentQueries {
 			PlatformTransactionManager transactionManager = new DataSourceTransactionManager(getDataSource());
 			TransactionStatus status = transactionManager.getTransaction(def);
 			
+			StoredContents replacedContents;
 			try {
 				updateName(documentId, name);
 				updateDescription(documentId, description);
@@ -899,19 +928,27 @@ public class DocumentQueries extends Query implements IDocumentQueries {
 				// Update the contents last, so if there are any problems with
 				// the other actions, then we fail before we write to the 
 				// system.
-				updateContents(documentId, contents);
+				replacedContents = updateContents(documentId, contents, newContents);
 			}
 			catch(IllegalArgumentException e) {
 				// Rollback transaction and throw a DataAccessException.
 				transactionManager.rollback(status);
+				discardContents(newContents);
 				throw new DataAccessException("Error while executing the update.", e);
 			}
 			catch(CacheMissException e) {
 				transactionManager.rollback(status);
+				discardContents(newContents);
 				throw new DataAccessException("Error while reading from the cache.", e);
 			}
+			catch(DataAccessException e) {
+				transactionManager.rollback(status);
+				discardContents(newContents);
+				throw e;
+			}
 			catch(org.springframework.dao.DataAccessException e) {
 				transactionManager.rollback(status);
+				discardContents(newContents);
 				throw e;
 			}
 			
@@ -921,8 +958,15 @@ public class DocumentQueries extends Query implements IDocumentQueries {
 			}
 			catch(TransactionException e) {
 				transactionManager.rollback(status);
+				discardContents(newContents);
 				throw new DataAccessException("Error while committing the transaction.", e);
 			}
+			
+			// Only once the document points to its new contents may the old
+			// ones be removed.
+			if(replacedContents != null) {
+				discardContents(replacedContents);
+			}
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while rolling back the transaction.", e);
@@ -941,7 +985,7 @@ public class DocumentQueries extends Query implements IDocumentQueries {
 			PlatformTransactionManager transactionManager = new DataSourceTransactionManager(getDataSource());
 			TransactionStatus status = transactionManager.getTransaction(def);
 			
-			String documentUrl = getDocumentUrl(documentId);
+			StoredContents storedContents = getStoredContents(documentId);
 			
 			try {
 				getJdbcTemplate().update(SQL_DELETE_DOCUMENT, new Object[] { documentId });
@@ -951,18 +995,6 @@ public class DocumentQueries extends Query implements IDocumentQueries {
 				throw new DataAccessException("Error executing SQL '" + SQL_DELETE_DOCUMENT + "' with parameter: " + documentId, e);
 			}
 			
-			try {
-				if(! (new File((new URL(documentUrl)).getFile())).delete()) {
-					LOGGER.warn("The document no longer existed, so the deletion only removed the entry from the database.");
-				}
-			}
-			catch(MalformedURLException e) {
-				LOGGER.warn("The URL was malformed, meaning that we couldn't have referenced the file anyway. Cannot delete the file.", e);
-			}
-			catch(SecurityException e) {
-				LOGGER.warn("Failed to delete the file because the security manager stopped us. Are we attempting to delete a file that isn't part of the heirarchy?", e);
-			}
-			
 			// Commit transaction.
 			try {
 				transactionManager.commit(status);
@@ -971,6 +1003,10 @@ public class DocumentQueries extends Query implements IDocumentQueries {
 				transactionManager.rollback(status);
 				throw new DataAccessException("Error while committing the transaction.", e);
 			}
+			
+			// The contents are only discarded once the document is gone, so
+			// a rollback never leaves the document without them.
+			discardContents(storedContents);
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while rolling back the transaction.", e);
@@ -1053,17 +1089,43 @@ public class DocumentQueries extends Query implements IDocumentQueries {
 	 * Updates the file's size in the database and updates the contents on the
 	 * disk. If the contents is null, nothing happens.
 	 * 
+	 * If the new contents were already saved elsewhere, because the 
+	 * document's contents are in the content-addressed store or it is 
+	 * enabled, the document is pointed at them rather than overwriting the 
+	 * contents, which may be shared. The caller must discard the replaced 
+	 * contents once the transaction has committed.
+	 * 
 	 * @param documentId The unique identifier for the document.
 	 * 
 	 * @param contents The new contents of the document.
+	 * 
+	 * @param newContents Where the new contents were saved or null if they
+	 * 					  are to be written over the document's file.
+	 * 
+	 * @return The contents that were replaced and must be discarded or null
+	 * 		   if there are none.
 	 */
-	private void updateContents(String documentId, byte[] contents) throws DataAccessException {
+	private StoredContents updateContents(String documentId, byte[] contents, StoredContents newContents) throws DataAccessException {
 		if(contents == null) {
-			return;
+			return null;
 		}
 		
 		// Lookup the document's URL.
-		String documentUrl = getDocumentUrl(documentId);
+		StoredContents storedContents = getStoredContents(documentId);
+		String documentUrl = storedContents.url;
+		
+		if(newContents != null) {
+			try {
+				getJdbcTemplate().update(
+						SQL_UPDATE_STORED_CONTENTS, 
+						new Object[] { newContents.url, newContents.hash, contents.length, documentId });
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				throw new DataAccessException("Error executing SQL '" + SQL_UPDATE_STORED_CONTENTS + "' with parameters: " + 
+						newContents.url + ", " + newContents.hash + ", " + contents.length + ", " + documentId, e);
+			}
+			return storedContents;
+		}
 		
 		// Update the size in the database.
 		try {
@@ -1096,6 +1158,119 @@ public class DocumentQueries extends Query implements IDocumentQueries {
 		catch (IOException e) {
 			throw new DataAccessException("There was an error writing to the URL.", e);
 		}
+		return null;
+	}
+	
+	/**
+	 * Retrieves where a document's contents are stored.
+	 * 
+	 * @param documentId The unique identifier for the document.
+	 * 
+	 * @return The document's URL and, if its contents are in the 
+	 * 		   content-addressed store, their hash.
+	 */
+	private StoredContents getStoredContents(String documentId) throws DataAccessException {
+		try {
+			return getJdbcTemplate().queryForObject(
+					SQL_GET_DOCUMENT_STORED_CONTENTS, 
+					new Object[] { documentId }, 
+					new RowMapper<StoredContents>() {
+						@Override
+						public StoredContents mapRow(ResultSet rs, int rowNum) throws SQLException {
+							return new StoredContents(rs.getString("url"), rs.getString("content_hash"));
+						}
+					}
+				);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException("Error executing SQL '" + SQL_GET_DOCUMENT_STORED_CONTENTS + "' with parameter: " + documentId, e);
+		}
+	}
+	
+	/**
+	 * Saves a document's contents, either in the content-addressed store if 
+	 * it is enabled or in a new file named after the document.
+	 * 
+	 * @param documentId The unique identifier for the document.
+	 * 
+	 * @param contents The contents of the document.
+	 * 
+	 * @return Where the contents were saved.
+	 */
+	private StoredContents storeContents(String documentId, byte[] contents) throws DataAccessException {
+		if(contentQueries.isEnabled()) {
+			String hash = contentQueries.store(contents);
+			return new StoredContents(contentQueries.getUrl(hash), hash);
+		}
+		
+		// getDirectory() is used as opposed to accessing the current leaf
+		// directory class variable as it will do sanitation in case it hasn't
+		// been initialized or is full.
+		File documentDirectory = getDirectory();
+		File newFile = new File(documentDirectory.getAbsolutePath() + "/" + documentId);
+		
+		// Write the document to the file system.
+		try {
+			FileOutputStream os = new FileOutputStream(newFile);
+			os.write(contents);
+			os.flush();
+			os.close();
+		}
+		catch(IOException e) {
+			throw new DataAccessException("Error writing the new document to the system.", e);
+		}
+		
+		return new StoredContents("file://" + newFile.getAbsolutePath(), null);
+	}
+	
+	/**
+	 * Discards contents that are no longer referenced by a document once the
+	 * request's changes have been committed. Errors are logged but not 
+	 * thrown, as the document has already been updated.
+	 * 
+	 * @param storedContents The contents to discard or null if there are 
+	 * 						 none.
+	 */
+	private void discardContents(final StoredContents storedContents) {
+		if(storedContents == null) {
+			return;
+		}
+		
+		ConnectionContext.afterCommit(new Runnable() {
+			@Override
+			public void run() {
+				if(storedContents.hash == null) {
+					deleteFile(storedContents.url);
+					return;
+				}
+				
+				try {
+					contentQueries.release(storedContents.hash);
+				}
+				catch(DataAccessException e) {
+					LOGGER.error("Could not release the contents: " + storedContents.hash, e);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Deletes a document's own file.
+	 * 
+	 * @param documentUrl The URL of the file.
+	 */
+	private void deleteFile(String documentUrl) {
+		try {
+			if(! (new File((new URL(documentUrl)).getFile())).delete()) {
+				LOGGER.warn("The document no longer existed, so the deletion only removed the entry from the database.");
+			}
+		}
+		catch(MalformedURLException e) {
+			LOGGER.warn("The URL was malformed, meaning that we couldn't have referenced the file anyway. Cannot delete the file.", e);
+		}
+		catch(SecurityException e) {
+			LOGGER.warn("Failed to delete the file because the security manager stopped us. Are we attempting to delete a file that isn't part of the heirarchy?", e);
+		}
 	}
 	
 	/**
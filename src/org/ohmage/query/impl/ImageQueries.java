@@ -29,6 +29,7 @@ import java.util.UUID;
 import javax.sql.DataSource;
 
 import org.apache.log4j.Logger;
+import org.ohmage.cache.ConnectionContext;
 import org.ohmage.domain.Image;
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.exception.DomainException;
@@ -251,7 +252,7 @@ public final class ImageQueries extends Query implements IImageQueries {
 			PlatformTransactionManager transactionManager = new DataSourceTransactionManager(getDataSource());
 			TransactionStatus status = transactionManager.getTransaction(def);
 			
-			URL imageUrl = getImageUrl(imageId);
+			final URL imageUrl = getImageUrl(imageId);
 			
 			try {
 				getJdbcTemplate().update(
@@ -267,10 +268,6 @@ public final class ImageQueries extends Query implements IImageQueries {
 						e);
 			}
 			
-			if(imageUrl != null) {
-				deleteImageDiskOnly(imageUrl);
-			}
-
 			// Commit the transaction.
 			try {
 				transactionManager.commit(status);
@@ -279,6 +276,16 @@ public final class ImageQueries extends Query implements IImageQueries {
 				transactionManager.rollback(status);
 				throw new DataAccessException("Error while committing the transaction.", e);
 			}
+			
+			// The file is only deleted once the image's row is gone.
+			if(imageUrl != null) {
+				ConnectionContext.afterCommit(new Runnable() {
+					@Override
+					public void run() {
+						deleteImageDiskOnly(imageUrl);
+					}
+				});
+			}
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
@@ -0,0 +1,594 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query.impl;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.ohmage.cache.ConnectionContext;
+import org.ohmage.reporting.QueryMetrics;
+
+/**
+ * <p>
+ * Wraps the connection pool so that every statement run through it, whether
+ * from a {@link org.springframework.jdbc.core.JdbcTemplate} or directly, is
+ * timed and counted in the {@link QueryMetrics}. This includes how long it
+ * took to borrow the connection, how long each statement took to execute,
+ * how many rows it wrote, and how many rows of its results were read. The
+ * borrows and statements are also counted against the current request's
+ * {@link ConnectionContext}, if any.
+ * </p>
+ *
+ * <p>
+ * This is the data source that every query and transaction manager is
+ * given, so all of them see the same connections and Spring's transaction
+ * synchronization is unaffected.
+ * </p>
+ */
+public class InstrumentedDataSource implements DataSource {
+	private static final Class<?>[] CONNECTION_INTERFACES =
+		new Class<?>[] { Connection.class };
+	private static final Class<?>[] STATEMENT_INTERFACES =
+		new Class<?>[] { Statement.class };
+	private static final Class<?>[] PREPARED_STATEMENT_INTERFACES =
+		new Class<?>[] { PreparedStatement.class };
+	private static final Class<?>[] CALLABLE_STATEMENT_INTERFACES =
+		new Class<?>[] { CallableStatement.class };
+	private static final Class<?>[] RESULT_SET_INTERFACES =
+		new Class<?>[] { ResultSet.class };
+
+	private final DataSource dataSource;
+
+	/**
+	 * Handles the calls shared by all of the proxies. Proxies are only equal
+	 * to themselves.
+	 */
+	private abstract static class Handler implements InvocationHandler {
+		/**
+		 * Invokes a method on the proxied object, unwrapping any exception
+		 * it throws.
+		 *
+		 * @param target The proxied object.
+		 *
+		 * @param method The method.
+		 *
+		 * @param args The arguments.
+		 *
+		 * @return The method's result.
+		 *
+		 * @throws Throwable The exception the method threw.
+		 */
+		protected static Object call(
+				final Object target,
+				final Method method,
+				final Object[] args)
+				throws Throwable {
+
+			try {
+				return method.invoke(target, args);
+			}
+			catch(InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+
+		/**
+		 * Handles equals() and hashCode() or returns null if the method is
+		 * neither.
+		 *
+		 * @param proxy The proxy.
+		 *
+		 * @param method The method.
+		 *
+		 * @param args The arguments.
+		 *
+		 * @return The result or null.
+		 */
+		protected static Object identity(
+				final Object proxy,
+				final Method method,
+				final Object[] args) {
+
+			String name = method.getName();
+			if("equals".equals(name) && (args != null) && (args.length == 1)) {
+				return proxy == args[0];
+			}
+			else if("hashCode".equals(name) && (args == null)) {
+				return System.identityHashCode(proxy);
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Wraps the statements created by a connection.
+	 */
+	private static final class ConnectionHandler extends Handler {
+		private final Connection connection;
+
+		/**
+		 * Creates the handler.
+		 *
+		 * @param connection The connection.
+		 */
+		private ConnectionHandler(final Connection connection) {
+			this.connection = connection;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object, java.lang.reflect.Method, java.lang.Object[])
+		 */
+		@Override
+		public Object invoke(
+				final Object proxy,
+				final Method method,
+				final Object[] args)
+				throws Throwable {
+
+			Object identity = identity(proxy, method, args);
+			if(identity != null) {
+				return identity;
+			}
+
+			Object result = call(connection, method, args);
+			String name = method.getName();
+			if("prepareStatement".equals(name)) {
+				return
+					wrap(
+						(Statement) result,
+						PREPARED_STATEMENT_INTERFACES,
+						proxy,
+						(String) args[0]);
+			}
+			else if("prepareCall".equals(name)) {
+				return
+					wrap(
+						(Statement) result,
+						CALLABLE_STATEMENT_INTERFACES,
+						proxy,
+						(String) args[0]);
+			}
+			else if("createStatement".equals(name)) {
+				return
+					wrap(
+						(Statement) result,
+						STATEMENT_INTERFACES,
+						proxy,
+						null);
+			}
+			else if("unwrap".equals(name) &&
+					Connection.class.equals(args[0])) {
+
+				return proxy;
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Times a statement's executions and records the types of its
+	 * parameters.
+	 */
+	private static final class StatementHandler extends Handler {
+		private final Statement statement;
+		private final Object connection;
+		private QueryMetrics.Shape shape;
+		private final SortedMap<Integer, String> parameters =
+			new TreeMap<Integer, String>();
+		private long rowsRead = 0;
+
+		/**
+		 * Creates the handler.
+		 *
+		 * @param statement The statement.
+		 *
+		 * @param connection The proxied connection that created the
+		 * 					 statement.
+		 *
+		 * @param sql The statement's SQL if it was prepared or null.
+		 */
+		private StatementHandler(
+				final Statement statement,
+				final Object connection,
+				final String sql) {
+
+			this.statement = statement;
+			this.connection = connection;
+			shape = (sql == null) ? null : QueryMetrics.instance().getShape(sql);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object, java.lang.reflect.Method, java.lang.Object[])
+		 */
+		@Override
+		public Object invoke(
+				final Object proxy,
+				final Method method,
+				final Object[] args)
+				throws Throwable {
+
+			Object identity = identity(proxy, method, args);
+			if(identity != null) {
+				return identity;
+			}
+
+			String name = method.getName();
+			if(name.startsWith("execute")) {
+				return execute(proxy, method, args);
+			}
+			else if(name.startsWith("set") &&
+					(args != null) &&
+					(args.length >= 2) &&
+					(args[0] instanceof Integer)) {
+
+				parameters.put((Integer) args[0], parameterType(name, args[1]));
+			}
+			else if("clearParameters".equals(name)) {
+				parameters.clear();
+			}
+			else if("close".equals(name)) {
+				flushRowsRead();
+			}
+			else if("getConnection".equals(name)) {
+				return connection;
+			}
+			else if("getResultSet".equals(name)) {
+				return wrap((ResultSet) call(statement, method, args), proxy);
+			}
+
+			return call(statement, method, args);
+		}
+
+		/**
+		 * Executes the statement, timing it and counting the rows it wrote.
+		 */
+		private Object execute(
+				final Object proxy,
+				final Method method,
+				final Object[] args)
+				throws Throwable {
+
+			if((args != null) && (args.length > 0) && (args[0] instanceof String)) {
+				shape = QueryMetrics.instance().getShape((String) args[0]);
+			}
+			else if(shape == null) {
+				shape = QueryMetrics.instance().getShape(null);
+			}
+
+			ConnectionContext.recordStatement();
+
+			boolean failed = true;
+			long rowsWritten = 0;
+			long start = System.nanoTime();
+			try {
+				Object result = call(statement, method, args);
+				failed = false;
+
+				if(result instanceof Integer) {
+					rowsWritten = (Integer) result;
+				}
+				else if(result instanceof int[]) {
+					for(int count : (int[]) result) {
+						if(count > 0) {
+							rowsWritten += count;
+						}
+					}
+				}
+				else if(result instanceof ResultSet) {
+					return wrap((ResultSet) result, proxy);
+				}
+				return result;
+			}
+			finally {
+				QueryMetrics.instance().recordExecution(
+					shape,
+					System.nanoTime() - start,
+					rowsWritten,
+					failed,
+					parameters.isEmpty() ? null : parameters.values().toString());
+			}
+		}
+
+		/**
+		 * Wraps a result set so that the rows read from it are counted.
+		 *
+		 * @param resultSet The result set.
+		 *
+		 * @param proxy The proxied statement.
+		 *
+		 * @return The wrapped result set.
+		 */
+		private ResultSet wrap(final ResultSet resultSet, final Object proxy) {
+			if(resultSet == null) {
+				return null;
+			}
+
+			return (ResultSet) Proxy.newProxyInstance(
+				InstrumentedDataSource.class.getClassLoader(),
+				RESULT_SET_INTERFACES,
+				new ResultSetHandler(resultSet, this, proxy));
+		}
+
+		/**
+		 * Records the rows that have been read from this statement's results
+		 * since the last time they were recorded.
+		 */
+		private void flushRowsRead() {
+			if((rowsRead > 0) && (shape != null)) {
+				QueryMetrics.instance().recordRowsRead(shape, rowsRead);
+			}
+			rowsRead = 0;
+		}
+
+		/**
+		 * Returns the type of a parameter from the name of its setter, e.g.
+		 * "String" for "setString", or the value's class for "setObject".
+		 *
+		 * @param setter The setter's name.
+		 *
+		 * @param value The value being set.
+		 *
+		 * @return The type.
+		 */
+		private static String parameterType(
+				final String setter,
+				final Object value) {
+
+			if("setObject".equals(setter) && (value != null)) {
+				return value.getClass().getSimpleName();
+			}
+			return setter.substring(3);
+		}
+	}
+
+	/**
+	 * Counts the rows that are read from a result set.
+	 */
+	private static final class ResultSetHandler extends Handler {
+		private final ResultSet resultSet;
+		private final StatementHandler statementHandler;
+		private final Object statement;
+
+		/**
+		 * Creates the handler.
+		 *
+		 * @param resultSet The result set.
+		 *
+		 * @param statementHandler The handler of the statement that created
+		 * 						   the result set.
+		 *
+		 * @param statement The proxied statement.
+		 */
+		private ResultSetHandler(
+				final ResultSet resultSet,
+				final StatementHandler statementHandler,
+				final Object statement) {
+
+			this.resultSet = resultSet;
+			this.statementHandler = statementHandler;
+			this.statement = statement;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object, java.lang.reflect.Method, java.lang.Object[])
+		 */
+		@Override
+		public Object invoke(
+				final Object proxy,
+				final Method method,
+				final Object[] args)
+				throws Throwable {
+
+			Object identity = identity(proxy, method, args);
+			if(identity != null) {
+				return identity;
+			}
+
+			String name = method.getName();
+			if("getStatement".equals(name)) {
+				return statement;
+			}
+
+			Object result = call(resultSet, method, args);
+			if("next".equals(name)) {
+				if(Boolean.TRUE.equals(result)) {
+					statementHandler.rowsRead++;
+				}
+			}
+			else if("close".equals(name)) {
+				statementHandler.flushRowsRead();
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Wraps a data source.
+	 *
+	 * @param dataSource The data source, i.e. the connection pool.
+	 */
+	public InstrumentedDataSource(final DataSource dataSource) {
+		if(dataSource == null) {
+			throw new IllegalArgumentException("The data source is null.");
+		}
+
+		this.dataSource = dataSource;
+	}
+
+	/**
+	 * Sets the threshold above which statements are logged and captured as
+	 * slow.
+	 *
+	 * @param millis The threshold in milliseconds. A negative value turns the
+	 * 				 capture off.
+	 */
+	public void setSlowQueryThreshold(final long millis) {
+		QueryMetrics.instance().setSlowQueryThreshold(millis);
+	}
+
+	/**
+	 * Borrows a connection, recording how long it took.
+	 */
+	@Override
+	public Connection getConnection() throws SQLException {
+		long start = System.nanoTime();
+		Connection connection = dataSource.getConnection();
+		long wait = System.nanoTime() - start;
+		QueryMetrics.instance().recordConnectionWait(wait);
+		ConnectionContext.recordConnectionWait(wait);
+		return wrap(connection);
+	}
+
+	/**
+	 * Borrows a connection, recording how long it took.
+	 */
+	@Override
+	public Connection getConnection(
+			final String username,
+			final String password)
+			throws SQLException {
+
+		long start = System.nanoTime();
+		Connection connection = dataSource.getConnection(username, password);
+		long wait = System.nanoTime() - start;
+		QueryMetrics.instance().recordConnectionWait(wait);
+		ConnectionContext.recordConnectionWait(wait);
+		return wrap(connection);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see javax.sql.CommonDataSource#getLogWriter()
+	 */
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return dataSource.getLogWriter();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see javax.sql.CommonDataSource#setLogWriter(java.io.PrintWriter)
+	 */
+	@Override
+	public void setLogWriter(final PrintWriter out) throws SQLException {
+		dataSource.setLogWriter(out);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see javax.sql.CommonDataSource#setLoginTimeout(int)
+	 */
+	@Override
+	public void setLoginTimeout(final int seconds) throws SQLException {
+		dataSource.setLoginTimeout(seconds);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see javax.sql.CommonDataSource#getLoginTimeout()
+	 */
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return dataSource.getLoginTimeout();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see javax.sql.CommonDataSource#getParentLogger()
+	 */
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.sql.Wrapper#unwrap(java.lang.Class)
+	 */
+	@Override
+	public <T> T unwrap(final Class<T> iface) throws SQLException {
+		if(iface.isInstance(this)) {
+			return iface.cast(this);
+		}
+		return dataSource.unwrap(iface);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.sql.Wrapper#isWrapperFor(java.lang.Class)
+	 */
+	@Override
+	public boolean isWrapperFor(final Class<?> iface) throws SQLException {
+		return iface.isInstance(this) || dataSource.isWrapperFor(iface);
+	}
+
+	/**
+	 * Wraps a connection so that its statements are instrumented.
+	 *
+	 * @param connection The connection.
+	 *
+	 * @return The wrapped connection.
+	 */
+	private static Connection wrap(final Connection connection) {
+		return (Connection) Proxy.newProxyInstance(
+			InstrumentedDataSource.class.getClassLoader(),
+			CONNECTION_INTERFACES,
+			new ConnectionHandler(connection));
+	}
+
+	/**
+	 * Wraps a statement so that its executions are instrumented.
+	 *
+	 * @param statement The statement.
+	 *
+	 * @param interfaces The interfaces the wrapper should implement.
+	 *
+	 * @param connection The proxied connection that created the statement.
+	 *
+	 * @param sql The statement's SQL if it was prepared or null.
+	 *
+	 * @return The wrapped statement.
+	 */
+	private static Statement wrap(
+			final Statement statement,
+			final Class<?>[] interfaces,
+			final Object connection,
+			final String sql) {
+
+		return (Statement) Proxy.newProxyInstance(
+			InstrumentedDataSource.class.getClassLoader(),
+			interfaces,
+			new StatementHandler(statement, connection, sql));
+	}
+}
@@ -0,0 +1,257 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query.impl;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.ohmage.cache.ConnectionContext;
+import org.ohmage.domain.OutboxMessage;
+import org.ohmage.exception.DataAccessException;
+import org.ohmage.query.IMailOutboxQueries;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+/**
+ * <p>
+ * The outgoing mail that has not yet been sent. Messages are claimed by
+ * pushing their next attempt into the future, within a transaction that
+ * locks their rows, so each message is only sent by one dispatcher at a
+ * time. If the dispatcher dies before it finishes, the lease expires and the
+ * message is claimed again.
+ * </p>
+ */
+public class MailOutboxQueries extends Query implements IMailOutboxQueries {
+	// Queues a message to be sent immediately.
+	private static final String SQL_INSERT_MESSAGE =
+		"INSERT INTO mail_outbox(recipient, message, next_attempt_timestamp) " +
+		"VALUES (?, ?, NOW())";
+
+	// Retrieves and locks the messages that are due.
+	private static final String SQL_GET_DUE_MESSAGES =
+		"SELECT id, recipient, message, attempts " +
+		"FROM mail_outbox " +
+		"WHERE failed = false " +
+		"AND next_attempt_timestamp <= NOW() " +
+		"ORDER BY next_attempt_timestamp " +
+		"LIMIT ? " +
+		"FOR UPDATE";
+
+	// Pushes a message's next attempt into the future while it is being
+	// sent.
+	private static final String SQL_UPDATE_LEASE =
+		"UPDATE mail_outbox " +
+		"SET next_attempt_timestamp = NOW() + INTERVAL ? SECOND " +
+		"WHERE id = ?";
+
+	// Removes a message that has been sent.
+	private static final String SQL_DELETE_MESSAGE =
+		"DELETE FROM mail_outbox " +
+		"WHERE id = ?";
+
+	// Records a failed attempt.
+	private static final String SQL_UPDATE_FAILURE =
+		"UPDATE mail_outbox " +
+		"SET attempts = attempts + 1, " +
+			"last_error = ?, " +
+			"next_attempt_timestamp = NOW() + INTERVAL ? SECOND, " +
+			"failed = ? " +
+		"WHERE id = ?";
+
+	/**
+	 * Creates this object.
+	 *
+	 * @param dataSource The DataSource to use when querying the database.
+	 */
+	private MailOutboxQueries(DataSource dataSource) {
+		super(dataSource);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IMailOutboxQueries#queueMessage(java.lang.String, byte[])
+	 */
+	@Override
+	public void queueMessage(final String recipient, final byte[] message)
+			throws DataAccessException {
+
+		// The message is committed on its own connection, outside of the
+		// request's work, so that the dispatcher, which is told about it
+		// immediately, can see it even while the request that queued it is
+		// still running.
+		DefaultTransactionDefinition def = new DefaultTransactionDefinition();
+		def.setName("Queueing a message.");
+
+		Object suspended = ConnectionContext.suspend();
+		try {
+			PlatformTransactionManager transactionManager =
+				new DataSourceTransactionManager(getDataSource());
+			TransactionStatus status = transactionManager.getTransaction(def);
+
+			try {
+				getJdbcTemplate().update(
+					SQL_INSERT_MESSAGE,
+					new Object[] { recipient, message });
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException(
+					"Error executing SQL '" + SQL_INSERT_MESSAGE +
+						"' with parameter: " + recipient,
+					e);
+			}
+
+			try {
+				transactionManager.commit(status);
+			}
+			catch(TransactionException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException(
+					"Error while committing the transaction.",
+					e);
+			}
+		}
+		catch(TransactionException e) {
+			throw new DataAccessException(
+				"Error while attempting to rollback the transaction.",
+				e);
+		}
+		finally {
+			ConnectionContext.resume(suspended);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IMailOutboxQueries#claimDueMessages(int, int)
+	 */
+	@Override
+	public List<OutboxMessage> claimDueMessages(
+			final int limit,
+			final int leaseSeconds)
+			throws DataAccessException {
+
+		DefaultTransactionDefinition def = new DefaultTransactionDefinition();
+		def.setName("Claiming the queued mail.");
+
+		try {
+			PlatformTransactionManager transactionManager =
+				new DataSourceTransactionManager(getDataSource());
+			TransactionStatus status = transactionManager.getTransaction(def);
+
+			List<OutboxMessage> result;
+			try {
+				result =
+					getJdbcTemplate().query(
+						SQL_GET_DUE_MESSAGES,
+						new Object[] { limit },
+						new RowMapper<OutboxMessage>() {
+							@Override
+							public OutboxMessage mapRow(
+									final ResultSet rs,
+									final int rowNum)
+									throws SQLException {
+
+								return new OutboxMessage(
+									rs.getLong("id"),
+									rs.getString("recipient"),
+									rs.getBytes("message"),
+									rs.getInt("attempts"));
+							}
+						});
+
+				for(OutboxMessage message : result) {
+					getJdbcTemplate().update(
+						SQL_UPDATE_LEASE,
+						new Object[] { leaseSeconds, message.getId() });
+				}
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException(
+					"Error claiming the queued mail.",
+					e);
+			}
+
+			try {
+				transactionManager.commit(status);
+			}
+			catch(TransactionException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException(
+					"Error while committing the transaction.",
+					e);
+			}
+
+			return result;
+		}
+		catch(TransactionException e) {
+			throw new DataAccessException(
+				"Error while attempting to rollback the transaction.",
+				e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IMailOutboxQueries#deleteMessage(long)
+	 */
+	@Override
+	public void deleteMessage(final long id) throws DataAccessException {
+		try {
+			getJdbcTemplate().update(SQL_DELETE_MESSAGE, new Object[] { id });
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + SQL_DELETE_MESSAGE +
+					"' with parameter: " + id,
+				e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IMailOutboxQueries#recordFailure(long, java.lang.String, int, boolean)
+	 */
+	@Override
+	public void recordFailure(
+			final long id,
+			final String error,
+			final int retrySeconds,
+			final boolean failed)
+			throws DataAccessException {
+
+		try {
+			getJdbcTemplate().update(
+				SQL_UPDATE_FAILURE,
+				new Object[] { error, retrySeconds, failed, id });
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + SQL_UPDATE_FAILURE +
+					"' with parameters: " + id + ", " + retrySeconds + ", " +
+					failed,
+				e);
+		}
+	}
+}
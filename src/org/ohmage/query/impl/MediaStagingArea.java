@@ -0,0 +1,352 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.log4j.Logger;
+import org.ohmage.domain.IMedia;
+import org.ohmage.exception.DomainException;
+
+/**
+ * <p>
+ * The media of one survey upload, which are written to disk before the
+ * upload's transaction begins so that the transaction only writes rows.
+ * Each media file is written and synced to a directory of its own for the
+ * upload under its type's staging directory. Once the request's changes
+ * have been committed, the files of the media it recorded are moved
+ * atomically into their media directories, which is where their URLs
+ * already point. Everything else is discarded.
+ * </p>
+ *
+ * <p>
+ * Media in the content-addressed store are stored directly, as the store
+ * already moves its files into place atomically. Their references must be
+ * released if they are discarded.
+ * </p>
+ *
+ * <p>
+ * If the server stops or the commit fails before the files are moved,
+ * they are left in the staging directory. {@link SurveyUploadQuery#recoverStagedMedia(long)}
+ * then moves the ones that were recorded and deletes the rest.
+ * </p>
+ */
+final class MediaStagingArea {
+	private static final Logger LOGGER =
+		Logger.getLogger(MediaStagingArea.class);
+
+	/**
+	 * A media file that has been written but whose transaction has not yet
+	 * committed.
+	 */
+	static final class StagedMedia {
+		private final String url;
+		private final String metadata;
+		private final String contentHash;
+		private final File directory;
+		private final Collection<File> files;
+
+		/**
+		 * Creates a staged media file.
+		 *
+		 * @param url The URL at which the media will be found.
+		 *
+		 * @param metadata The media's metadata.
+		 *
+		 * @param contentHash The hash of the media's contents if they are in
+		 * 					  the content-addressed store; otherwise, null.
+		 *
+		 * @param directory The directory into which the files will be moved.
+		 *
+		 * @param files The staged files, which for an image include its
+		 * 				resized copies.
+		 */
+		private StagedMedia(
+				final String url,
+				final String metadata,
+				final String contentHash,
+				final File directory,
+				final Collection<File> files) {
+
+			this.url = url;
+			this.metadata = metadata;
+			this.contentHash = contentHash;
+			this.directory = directory;
+			this.files = files;
+		}
+
+		/**
+		 * Returns the URL at which the media will be found.
+		 *
+		 * @return The media's URL.
+		 */
+		String getUrl() {
+			return url;
+		}
+
+		/**
+		 * Returns the media's metadata.
+		 *
+		 * @return The media's metadata.
+		 */
+		String getMetadata() {
+			return metadata;
+		}
+
+		/**
+		 * Returns the hash of the media's contents.
+		 *
+		 * @return The hash if the contents are in the content-addressed
+		 * 		   store; otherwise, null.
+		 */
+		String getContentHash() {
+			return contentHash;
+		}
+	}
+
+	/**
+	 * The name of this upload's directory in each staging directory.
+	 */
+	private final String uploadId = UUID.randomUUID().toString();
+
+	/**
+	 * This upload's directories, which are created as they are needed.
+	 */
+	private final List<File> uploadDirectories = new LinkedList<File>();
+
+	/**
+	 * The media that have been staged and not yet promoted or discarded.
+	 */
+	private final Map<UUID, StagedMedia> stagedMedia =
+		new HashMap<UUID, StagedMedia>();
+
+	/**
+	 * The IDs of the staged media that have been recorded in the upload's
+	 * transaction.
+	 */
+	private final Collection<UUID> recordedIds = new LinkedList<UUID>();
+
+	/**
+	 * Writes a media file to the staging directory and syncs it to disk.
+	 *
+	 * @param id The media's ID.
+	 *
+	 * @param media The media.
+	 *
+	 * @param stagingDirectory The staging directory for the media's type.
+	 *
+	 * @param directory The media directory to which it will be moved.
+	 *
+	 * @throws DomainException The media could not be written.
+	 */
+	void stage(
+			final UUID id,
+			final IMedia media,
+			final File stagingDirectory,
+			final File directory)
+			throws DomainException {
+
+		File uploadDirectory = new File(stagingDirectory, uploadId);
+		if(! uploadDirectories.contains(uploadDirectory)) {
+			if(! uploadDirectory.mkdir()) {
+				throw new DomainException(
+					"The staging directory could not be created: " +
+						uploadDirectory);
+			}
+			uploadDirectories.add(uploadDirectory);
+		}
+
+		File mediaFile = media.writeContent(uploadDirectory);
+
+		// Images write their resized copies next to the original, all named
+		// after their ID.
+		Collection<File> files = new LinkedList<File>();
+		for(File file : uploadDirectory.listFiles()) {
+			if(file.getName().startsWith(id.toString())) {
+				files.add(file);
+			}
+		}
+
+		stagedMedia.put(
+			id,
+			new StagedMedia(
+				"file://" +
+					new File(directory, mediaFile.getName()).getAbsolutePath(),
+				media.getMetadata(),
+				null,
+				directory,
+				files));
+
+		for(File file : files) {
+			sync(file);
+		}
+	}
+
+	/**
+	 * Records a media file that was added to the content-addressed store.
+	 *
+	 * @param id The media's ID.
+	 *
+	 * @param media The media.
+	 *
+	 * @param contentHash The hash of the media's contents.
+	 *
+	 * @param url The URL of the media's contents.
+	 */
+	void stageContent(
+			final UUID id,
+			final IMedia media,
+			final String contentHash,
+			final String url) {
+
+		stagedMedia.put(
+			id,
+			new StagedMedia(
+				url,
+				media.getMetadata(),
+				contentHash,
+				null,
+				new LinkedList<File>()));
+	}
+
+	/**
+	 * Marks a staged media file as recorded in the upload's transaction.
+	 *
+	 * @param id The media's ID.
+	 *
+	 * @return The staged media or null if it was not staged.
+	 */
+	StagedMedia record(final UUID id) {
+		StagedMedia result = stagedMedia.get(id);
+		if(result != null) {
+			recordedIds.add(id);
+		}
+		return result;
+	}
+
+	/**
+	 * Moves the files of the recorded media into their media directories.
+	 * This must only be called after the transaction has committed. A file
+	 * that cannot be moved is left to be recovered later.
+	 */
+	void promote() {
+		for(UUID id : recordedIds) {
+			StagedMedia media = stagedMedia.remove(id);
+			if(media == null) {
+				continue;
+			}
+
+			for(File file : media.files) {
+				try {
+					move(file, media.directory);
+				}
+				catch(IOException e) {
+					LOGGER.error(
+						"The staged media file could not be moved and will " +
+							"be recovered later: " + file,
+						e);
+				}
+			}
+		}
+		recordedIds.clear();
+	}
+
+	/**
+	 * Deletes the files of every media that has not been promoted, as well
+	 * as this upload's directories if they are empty.
+	 *
+	 * @return The content hashes of the discarded media in the
+	 * 		   content-addressed store, whose references must be released.
+	 */
+	Collection<String> discard() {
+		Collection<String> result = new LinkedList<String>();
+
+		Iterator<StagedMedia> mediaIter = stagedMedia.values().iterator();
+		while(mediaIter.hasNext()) {
+			StagedMedia media = mediaIter.next();
+			for(File file : media.files) {
+				if(! file.delete()) {
+					LOGGER.warn("The staged media file could not be deleted: " + file);
+				}
+			}
+			if(media.contentHash != null) {
+				result.add(media.contentHash);
+			}
+			mediaIter.remove();
+		}
+		recordedIds.clear();
+
+		// Files that could not be promoted remain, so their directory does.
+		for(File uploadDirectory : uploadDirectories) {
+			uploadDirectory.delete();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Moves a staged file atomically into a directory, keeping its name.
+	 *
+	 * @param file The staged file.
+	 *
+	 * @param directory The directory.
+	 *
+	 * @throws IOException The file could not be moved.
+	 */
+	static void move(final File file, final File directory) throws IOException {
+		Files.move(
+			file.toPath(),
+			new File(directory, file.getName()).toPath(),
+			StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Forces a file's contents to disk.
+	 *
+	 * @param file The file.
+	 *
+	 * @throws DomainException The file could not be synced.
+	 */
+	private static void sync(final File file) throws DomainException {
+		try {
+			FileChannel channel =
+				FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+			try {
+				channel.force(true);
+			}
+			finally {
+				channel.close();
+			}
+		}
+		catch(IOException e) {
+			throw new DomainException(
+				"The staged media file could not be synced: " + file,
+				e);
+		}
+	}
+}
@@ -24,6 +24,7 @@ import org.codehaus.jackson.map.MappingJsonFactory;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.format.ISODateTimeFormat;
+import org.ohmage.cache.ConnectionContext;
 import org.ohmage.domain.DataStream;
 import org.ohmage.domain.DataStream.MetaData;
 import org.ohmage.domain.Location;
@@ -52,6 +53,35 @@ import org.springframework.transaction.support.DefaultTransactionDefinition;
  * @author John Jenkins
  */
 public class ObserverQueries extends Query implements IObserverQueries {
+	/**
+	 * The number of milliseconds in a day, which divides a point's adjusted
+	 * time into the day on which it was recorded.
+	 */
+	private static final long MILLIS_PER_DAY = 1000 * 60 * 60 * 24;
+
+	/**
+	 * The least number of milliseconds between checks of the database's
+	 * version stamp for observers that were created or updated by another
+	 * server.
+	 */
+	private static final long MILLIS_BETWEEN_STAMP_CHECKS = 1000;
+
+	/**
+	 * The observers and their streams. It is replaced, never modified, and
+	 * is only loaded when it is first needed.
+	 */
+	private volatile ObserverRegistry registry = null;
+
+	/**
+	 * When the database's version stamp was last checked.
+	 */
+	private volatile long lastStampCheck = 0;
+
+	/**
+	 * Guards replacing the registry.
+	 */
+	private final Object registryLock = new Object();
+
 	/**
 	 * Creates this object via dependency injection (reflection).
 	 * 
@@ -263,6 +293,16 @@ public class ObserverQueries extends Query implements IObserverQueries {
 				}
 			}
 
+			// Let the other servers know that the observers have changed.
+			long registryStamp;
+			try {
+				registryStamp = incrementRegistryStamp();
+			}
+			catch(DataAccessException e) {
+				transactionManager.rollback(status);
+				throw e;
+			}
+
 			// Commit the transaction.
 			try {
 				transactionManager.commit(status);
@@ -273,6 +313,16 @@ public class ObserverQueries extends Query implements IObserverQueries {
 					"Error while committing the transaction.",
 					e);
 			}
+			
+			// Add the observer to this server's registry once it has been
+			// committed.
+			final long newStamp = registryStamp;
+			ConnectionContext.afterCommit(new Runnable() {
+				@Override
+				public void run() {
+					registerObserver(newStamp, observer);
+				}
+			});
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException(
@@ -365,192 +415,8 @@ public class ObserverQueries extends Query implements IObserverQueries {
 			final long numToReturn)
 			throws DataAccessException {
 		
-		// Build the SQL that will get all of the observers visible to the 
-		// requesting user.
-		StringBuilder observerSql =
-			new StringBuilder(
-				"SELECT " +
-					"id, " +
-					"observer_id, " +
-					"version, " +
-					"name, " +
-					"description, " +
-					"version_string " +
-				"FROM observer o");
-
-		List<String> whereClauses = new LinkedList<String>();
-		List<Object> parameters = new LinkedList<Object>();
-		
-		// Add the ID if it is present.
-		if(id != null) {
-			whereClauses.add("o.observer_id = ?");
-			parameters.add(id);
-		}
-		
-		// Add the version if present.
-		if(version != null) {
-			whereClauses.add("o.version = ?");
-			parameters.add(version);
-		}
-		
-		// Add the WHERE clauses to the query.
-		boolean firstPass = true;
-		for(String whereClause : whereClauses) {
-			if(firstPass) {
-				observerSql.append(" WHERE ");
-				firstPass = false;
-			}
-			else {
-				observerSql.append(" AND ");
-			}
-			
-			observerSql.append(whereClause);
-		}
-		
-		observerSql.append(" ORDER BY o.observer_id ASC, o.version DESC");
-		
-		observerSql.append(" LIMIT ?, ?");
-		parameters.add(numToSkip);
-		parameters.add(numToReturn);
-		
-		final Map<Long, Observer.Builder> observerBuilders = 
-			new HashMap<Long, Observer.Builder>();
-		try {
-			getJdbcTemplate().query(
-				observerSql.toString(),
-				parameters.toArray(),
-				new RowMapper<Object> () {
-					/**
-					 * Maps the row of data to a new observer builder.
-					 */
-					@Override
-					public Object mapRow(
-							final ResultSet rs, 
-							final int rowNum)
-							throws SQLException {
-					
-						Observer.Builder observerBuilder = 
-							new Observer.Builder();
-						
-						observerBuilder
-							.setId(rs.getString("observer_id"))
-							.setVersion(rs.getLong("version"))
-							.setName(rs.getString("name"))
-							.setDescription(rs.getString("description"))
-							.setVersionString(
-								rs.getString("version_string"));
-	
-						observerBuilders.put(
-							rs.getLong("id"), 
-							observerBuilder);
-						
-						return null;
-					}
-				}
-			);
-		}
-		catch(org.springframework.dao.DataAccessException e) {
-			throw new DataAccessException(
-				"Error executing SQL '" +
-					observerSql +
-					"' with parameters: " +
-					parameters,
-				e);
-		}
-		
-		final String streamSql = 
-			"SELECT " +
-				"os.stream_id, " +
-				"os.version, " +
-				"os.name, " +
-				"os.description, " +
-				"os.with_id, " +
-				"os.with_timestamp, " +
-				"os.with_location, " +
-				"os.stream_schema " +
-			"FROM observer_stream os, observer_stream_link osl " +
-			"WHERE osl.observer_id = ? " +
-			"AND osl.observer_stream_id = os.id";
-		
-		for(Long dbId : observerBuilders.keySet()) {
-			try {
-				observerBuilders
-				.get(dbId)
-				.addStreams(
-					getJdbcTemplate().query(
-						streamSql, 
-						new Object[] { dbId },
-						new RowMapper<Observer.Stream>() {
-							/**
-							 * Maps the row of data to a new stream.
-							 */
-							@Override
-							public Stream mapRow(
-									final ResultSet rs, 
-									final int rowNum)
-									throws SQLException {
-								
-								// Because the with_* values are optional and
-								// may be null, they must be retrieve in this
-								// special way.
-								Boolean withId, withTimestamp, withLocation;
-								withId = rs.getBoolean("with_id");
-								if(rs.wasNull()) {
-									withId = null;
-								}
-								withTimestamp =
-									rs.getBoolean("with_timestamp");
-								if(rs.wasNull()) {
-									withTimestamp = null;
-								}
-								withLocation = rs.getBoolean("with_location");
-								if(rs.wasNull()) {
-									withLocation = null;
-								}
-								
-								try {
-									return new Observer.Stream(
-										rs.getString("stream_id"), 
-										rs.getLong("version"), 
-										rs.getString("name"), 
-										rs.getString("description"), 
-										withId,
-										withTimestamp, 
-										withLocation, 
-										rs.getString("stream_schema"));
-								}
-								catch(DomainException e) {
-									throw new SQLException(e);
-								}
-							}
-						}
-					)
-				);
-			}
-			catch(org.springframework.dao.DataAccessException e) {
-				throw new DataAccessException(
-					"Error executing SQL '" +
-						streamSql +
-						"' with parameter: " +
-						dbId,
-					e);
-			}
-		}
-		
-		ArrayList<Observer> result = 
-			new ArrayList<Observer>(observerBuilders.size());
-		for(Observer.Builder observerBuilder : observerBuilders.values()) {
-			try {
-				result.add(observerBuilder.build());
-			}
-			catch(DomainException e) {
-				throw new DataAccessException(
-					"There was a problem building an observer.",
-					e);
-			}
-		}
-		
-		return result;
+		return 
+			getRegistry().getObservers(id, version, numToSkip, numToReturn);
 	}
 	
 	/*
@@ -600,42 +466,44 @@ public class ObserverQueries extends Query implements IObserverQueries {
 			return Collections.emptyMap();
 		}
 		
-		// Create the default SQL.
+		// Without a user, the streams can be found in the registry.
+		if(username == null) {
+			return
+				getRegistry()
+					.getStreams(
+						observerId,
+						observerVersion,
+						streamId,
+						streamVersion,
+						numToSkip,
+						numToReturn);
+		}
+		
+		// Otherwise, the database must be asked which streams the user has
+		// uploaded data for, but only their IDs and versions are needed.
 		StringBuilder sqlBuilder = 
 			new StringBuilder(
 				"SELECT DISTINCT " +
 					"o.observer_id, " +
 					"os.stream_id, " +
-					"os.version, " +
-					"os.name, " +
-					"os.description, " +
-					"os.with_id, " +
-					"os.with_timestamp, " +
-					"os.with_location, " +
-					"os.stream_schema " +
+					"os.version " +
 				"FROM " +
 					"observer o, " +
 					"observer_stream os, " +
 					"observer_stream_link osl " +
 				"WHERE o.id = osl.observer_id " +
-				"AND os.id = osl.observer_stream_id");
+				"AND os.id = osl.observer_stream_id " +
+				"AND EXISTS (" +
+					"SELECT osd.id " +
+					"FROM user u, observer_stream_data osd " +
+					"WHERE u.username = ? " +
+					"AND u.id = osd.user_id " +
+					"AND osl.id = osd.observer_stream_link_id" +
+				")");
 
 		// Create the default set of parameters.
 		List<Object> parameters = new LinkedList<Object>();
-		
-		if(username != null) {
-			sqlBuilder
-				.append(
-					" AND EXISTS (" +
-						"SELECT osd.id " +
-						"FROM user u, observer_stream_data osd " +
-						"WHERE u.username = ? " +
-						"AND u.id = osd.user_id " +
-						"AND osl.id = osd.observer_stream_link_id" +
-					")"
-				);
-			parameters.add(username);
-		}
+		parameters.add(username);
 			
 		// If querying about the observer's ID, add that WHERE clause and
 		// add the parameter.
@@ -675,79 +543,32 @@ public class ObserverQueries extends Query implements IObserverQueries {
 		parameters.add(numToSkip);
 		parameters.add(numToReturn);
 		
-		// Query for the results and add them to the result map.
-		final Map<String, Collection<Observer.Stream>> result =
-			new HashMap<String, Collection<Observer.Stream>>();
+		// Query for the streams' IDs and versions.
+		final List<String[]> keys;
 		try {
-			getJdbcTemplate().query(
-				sqlBuilder.toString(), 
-				parameters.toArray(),
-				new RowMapper<Object>() {
-					/**
-					 * Maps the row of data to a new stream.
-					 */
-					@Override
-					public Object mapRow(
-							final ResultSet rs, 
-							final int rowNum)
-							throws SQLException {
-						
-						// Get the observer's ID.
-						String observerId = rs.getString("observer_id");
-						
-						// Get the streams from the result.
-						Collection<Observer.Stream> streams =
-							result.get(observerId);
-						
-						// If no collection exists for that observer ID yet,
-						// create a new collection and add it.
-						if(streams == null) {
-							streams = new LinkedList<Observer.Stream>();
-							result.put(observerId, streams);
-						}
-						
-						// Because the with_* values are optional and
-						// may be null, they must be retrieve in this
-						// special way.
-						Boolean withId, withTimestamp, withLocation;
-						withId = rs.getBoolean("with_id");
-						if(rs.wasNull()) {
-							withId = null;
-						}
-						withTimestamp =
-							rs.getBoolean("with_timestamp");
-						if(rs.wasNull()) {
-							withTimestamp = null;
-						}
-						withLocation = rs.getBoolean("with_location");
-						if(rs.wasNull()) {
-							withLocation = null;
-						}
-						
-						// Add the stream to its respective result list.
-						try {
-							streams
-								.add(
-									new Observer.Stream(
-										rs.getString("stream_id"), 
-										rs.getLong("version"), 
-										rs.getString("name"), 
-										rs.getString("description"), 
-										withId,
-										withTimestamp, 
-										withLocation, 
-										rs.getString("stream_schema")));
-						}
-						catch(DomainException e) {
-							throw new SQLException(e);
+			keys =
+				getJdbcTemplate().query(
+					sqlBuilder.toString(), 
+					parameters.toArray(),
+					new RowMapper<String[]>() {
+						/**
+						 * Maps the row of data to the observer's ID, the
+						 * stream's ID, and the stream's version.
+						 */
+						@Override
+						public String[] mapRow(
+								final ResultSet rs, 
+								final int rowNum)
+								throws SQLException {
+							
+							return new String[] {
+								rs.getString("observer_id"),
+								rs.getString("stream_id"),
+								rs.getString("version")
+							};
 						}
-						
-						// Return nothing as it will never be used.
-						return null;
 					}
-					
-				}
-			);
+				);
 		}
 		catch(org.springframework.dao.DataAccessException e) {
 			throw new DataAccessException(
@@ -758,6 +579,38 @@ public class ObserverQueries extends Query implements IObserverQueries {
 				e);
 		}
 		
+		// Look up each stream in the registry and add it to the result map.
+		ObserverRegistry currentRegistry = getRegistry();
+		Map<String, Collection<Observer.Stream>> result =
+			new HashMap<String, Collection<Observer.Stream>>();
+		for(String[] key : keys) {
+			long version = Long.decode(key[2]);
+			
+			Observer.Stream stream =
+				currentRegistry.getStream(key[0], key[1], version);
+			
+			// The stream may have been created on another server since the
+			// registry was last checked.
+			if(stream == null) {
+				currentRegistry = reloadRegistry();
+				stream = currentRegistry.getStream(key[0], key[1], version);
+			}
+			if(stream == null) {
+				throw new DataAccessException(
+					"The stream is missing from the registry: " +
+						key[0] + ", " +
+						key[1] + ", " +
+						version);
+			}
+			
+			Collection<Observer.Stream> streams = result.get(key[0]);
+			if(streams == null) {
+				streams = new LinkedList<Observer.Stream>();
+				result.put(key[0], streams);
+			}
+			streams.add(stream);
+		}
+		
 		// Return the result.
 		return result;
 	}
@@ -911,7 +764,37 @@ public class ObserverQueries extends Query implements IObserverQueries {
 				"?, " +
 				"?)";
 		
+		// The first point of a day for a stream marks the day as having data.
+		// Later points for the same day leave it as it is.
+		String daySql =
+			"INSERT INTO observer_stream_data_day (" +
+				"user_id, " +
+				"observer_stream_link_id, " +
+				"day, " +
+				"time, " +
+				"time_zone) " +
+			"VALUES (" +
+				"(SELECT id FROM user WHERE username = ?), " +
+				"(" +
+					"SELECT osl.id " +
+					"FROM " +
+						"observer o, " +
+						"observer_stream os, " +
+						"observer_stream_link osl " +
+					"WHERE o.observer_id = ? " +
+					"AND o.version = ? " +
+					"AND os.stream_id = ? " +
+					"AND os.version = ? " +
+					"AND o.id = osl.observer_id " +
+					"AND os.id = osl.observer_stream_id" +
+				"), " +
+				"?, " +
+				"?, " +
+				"?) " +
+			"ON DUPLICATE KEY UPDATE day = day";
+		
 		List<Object[]> args = new ArrayList<Object[]>(data.size());
+		Map<String, Object[]> dayArgs = new HashMap<String, Object[]>();
 		for(DataStream currData : data) {
 			MetaData metaData = currData.getMetaData();
 			String id = null;
@@ -953,6 +836,30 @@ public class ObserverQueries extends Query implements IObserverQueries {
 					currData.getData().toString()
 				}
 			);
+			
+			// Record the day on which the point was made, once per stream 
+			// and day.
+			if(timestamp != null) {
+				long day = timeAdjusted / MILLIS_PER_DAY;
+				String key =
+					currData.getStream().getId() + ":" +
+					currData.getStream().getVersion() + ":" +
+					day;
+				if(! dayArgs.containsKey(key)) {
+					dayArgs.put(
+						key,
+						new Object[] {
+							username,
+							observer.getId(),
+							observer.getVersion(),
+							currData.getStream().getId(),
+							currData.getStream().getVersion(),
+							day,
+							time,
+							timeZoneId
+						});
+				}
+			}
 		}
 		
 		// Create the transaction.
@@ -975,6 +882,21 @@ public class ObserverQueries extends Query implements IObserverQueries {
 					e);
 			}
 			
+			if(! dayArgs.isEmpty()) {
+				try {
+					getJdbcTemplate()
+						.batchUpdate(
+							daySql,
+							new ArrayList<Object[]>(dayArgs.values()));
+				}
+				catch(org.springframework.dao.DataAccessException e) {
+					transactionManager.rollback(status);
+					throw new DataAccessException(
+						"Error executing SQL '" + daySql +"'.", 
+						e);
+				}
+			}
+			
 			// Commit the transaction.
 			try {
 				transactionManager.commit(status);
@@ -1291,6 +1213,106 @@ public class ObserverQueries extends Query implements IObserverQueries {
 		}
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IObserverQueries#readDates(org.ohmage.domain.Observer.Stream, java.lang.String, java.lang.String, java.lang.Long, org.joda.time.DateTime, org.joda.time.DateTime)
+	 */
+	@Override
+	public List<DateTime> readDates(
+			final Stream stream,
+			final String username,
+			final String observerId,
+			final Long observerVersion,
+			final DateTime startDate,
+			final DateTime endDate)
+			throws DataAccessException {
+		
+		StringBuilder builder = 
+			new StringBuilder(
+				"SELECT osdd.time, osdd.time_zone " +
+				"FROM observer_stream_data_day osdd " +
+				"WHERE " +
+					"osdd.user_id = (" +
+						"SELECT id " +
+						"FROM user " +
+						"WHERE username = ?" +
+					") " +
+				"AND osdd.observer_stream_link_id = " +
+					"( SELECT id FROM observer_stream_link WHERE observer_id = " +
+						"( SELECT id FROM observer WHERE observer_id = ? ");
+		
+		List<Object> parameters = new LinkedList<Object>();
+		parameters.add(username);
+		parameters.add(observerId);
+		
+		// If the observer's version is specified, add it to the sub-query.
+		if(observerVersion != null) {
+			builder.append(" AND version = ?)");
+			parameters.add(observerVersion);
+		}
+		// Otherwise, end the subquery.
+		else {
+			builder.append(" ORDER BY version DESC LIMIT 1)");
+		}
+		
+		builder
+			.append(
+				" AND observer_stream_id IN " +
+				"(" +
+					"SELECT id " +
+					"FROM observer_stream " +
+					"WHERE stream_id = ? " +
+					"AND version = ?" +
+				"))");
+		parameters.add(stream.getId());
+		parameters.add(stream.getVersion());
+		
+		// The days are bounded the same way as the data, by comparing the
+		// dates to the adjusted times.
+		if(startDate != null) {
+			builder.append(" AND osdd.day >= ?");
+			parameters.add(startDate.getMillis() / MILLIS_PER_DAY);
+		}
+		if(endDate != null) {
+			builder.append(" AND osdd.day <= ?");
+			parameters.add(endDate.getMillis() / MILLIS_PER_DAY);
+		}
+		
+		builder.append(" ORDER BY osdd.day");
+		
+		try {
+			return
+				getJdbcTemplate().query(
+					builder.toString(),
+					parameters.toArray(),
+					new RowMapper<DateTime>() {
+						/**
+						 * Creates the day in the time zone of its point.
+						 */
+						@Override
+						public DateTime mapRow(
+								final ResultSet rs, 
+								final int rowNum)
+								throws SQLException {
+							
+							return 
+								new DateTime(
+									rs.getLong("time"),
+									DateTimeZone.forID(
+										rs.getString("time_zone")));
+						}
+					});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + 
+					builder.toString() + 
+					"' with parameters: " +
+					parameters,
+				e);
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see org.ohmage.query.IObserverQueries#readInvalidData(org.ohmage.domain.Observer, org.joda.time.DateTime, org.joda.time.DateTime, long, long)
@@ -1654,6 +1676,16 @@ public class ObserverQueries extends Query implements IObserverQueries {
 				}
 			}
 			
+			// Let the other servers know that the observers have changed.
+			long registryStamp;
+			try {
+				registryStamp = incrementRegistryStamp();
+			}
+			catch(DataAccessException e) {
+				transactionManager.rollback(status);
+				throw e;
+			}
+
 			// Commit the transaction.
 			try {
 				transactionManager.commit(status);
@@ -1664,6 +1696,16 @@ public class ObserverQueries extends Query implements IObserverQueries {
 					"Error while committing the transaction.",
 					e);
 			}
+			
+			// Add the observer to this server's registry once it has been
+			// committed.
+			final long newStamp = registryStamp;
+			ConnectionContext.afterCommit(new Runnable() {
+				@Override
+				public void run() {
+					registerObserver(newStamp, observer);
+				}
+			});
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException(
@@ -1671,4 +1713,330 @@ public class ObserverQueries extends Query implements IObserverQueries {
 				e);
 		}
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Returns the registry of observers, loading it if it hasn't been loaded
+	 * yet or if the database's version stamp shows that another server has
+	 * changed the observers since it was loaded. The stamp is checked at most
+	 * once every {@value #MILLIS_BETWEEN_STAMP_CHECKS} milliseconds.
+	 * 
+	 * @return The registry.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	private ObserverRegistry getRegistry() throws DataAccessException {
+		ObserverRegistry current = registry;
+		
+		// A request that has written sees its own changes, which have not 
+		// been committed yet, so what it loads is not shared.
+		if(ConnectionContext.hasUncommittedWrites()) {
+			long stamp = getRegistryStamp();
+			if((current != null) && (current.getStamp() >= stamp)) {
+				return current;
+			}
+			return loadRegistry(stamp);
+		}
+		
+		long now = System.currentTimeMillis();
+		if((current != null) &&
+			((now - lastStampCheck) < MILLIS_BETWEEN_STAMP_CHECKS)) {
+			
+			return current;
+		}
+		
+		long stamp = getRegistryStamp();
+		lastStampCheck = now;
+		if((current != null) && (current.getStamp() >= stamp)) {
+			return current;
+		}
+		
+		synchronized(registryLock) {
+			current = registry;
+			if((current == null) || (current.getStamp() < stamp)) {
+				// If another server changed the observers, then the OMH
+				// registry is out of date as well.
+				if(current != null) {
+					invalidateOmhRegistry();
+				}
+				
+				current = loadRegistry(stamp);
+				registry = current;
+			}
+			
+			return current;
+		}
+	}
+	
+	/**
+	 * Reloads the registry of observers regardless of when it was last
+	 * checked.
+	 * 
+	 * @return The new registry.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	private ObserverRegistry reloadRegistry() throws DataAccessException {
+		synchronized(registryLock) {
+			registry = null;
+			lastStampCheck = 0;
+		}
+		
+		return getRegistry();
+	}
+	
+	/**
+	 * Adds an observer that was just created or updated on this server to the
+	 * registry. If another server changed the observers as well, the
+	 * registry is dropped so that it is reloaded.
+	 * 
+	 * @param newStamp The database's version stamp after the change.
+	 * 
+	 * @param observer The observer.
+	 */
+	private void registerObserver(
+			final long newStamp,
+			final Observer observer) {
+		
+		// The OMH registry lists every stream.
+		invalidateOmhRegistry();
+		
+		synchronized(registryLock) {
+			ObserverRegistry current = registry;
+			if(current == null) {
+				return;
+			}
+			
+			if(current.getStamp() == (newStamp - 1)) {
+				try {
+					registry = current.with(newStamp, observer);
+					return;
+				}
+				catch(DomainException e) {
+					// Fall through and reload it.
+				}
+			}
+			
+			registry = null;
+		}
+	}
+	
+	/**
+	 * Loads every version of every observer and their streams. Each stream
+	 * is only built once, even if it is shared by many versions of its
+	 * observer.
+	 * 
+	 * @param stamp The database's version stamp, which must have been read
+	 * 				before the observers are.
+	 * 
+	 * @return The registry.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	private ObserverRegistry loadRegistry(
+			final long stamp)
+			throws DataAccessException {
+		
+		final String observerSql =
+			"SELECT " +
+				"id, " +
+				"observer_id, " +
+				"version, " +
+				"name, " +
+				"description, " +
+				"version_string " +
+			"FROM observer";
+		
+		final Map<Long, Observer.Builder> observerBuilders = 
+			new HashMap<Long, Observer.Builder>();
+		try {
+			getJdbcTemplate().query(
+				observerSql,
+				new RowMapper<Object> () {
+					/**
+					 * Maps the row of data to a new observer builder.
+					 */
+					@Override
+					public Object mapRow(
+							final ResultSet rs, 
+							final int rowNum)
+							throws SQLException {
+					
+						Observer.Builder observerBuilder = 
+							new Observer.Builder();
+						
+						observerBuilder
+							.setId(rs.getString("observer_id"))
+							.setVersion(rs.getLong("version"))
+							.setName(rs.getString("name"))
+							.setDescription(rs.getString("description"))
+							.setVersionString(
+								rs.getString("version_string"));
+	
+						observerBuilders.put(
+							rs.getLong("id"), 
+							observerBuilder);
+						
+						return null;
+					}
+				}
+			);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + observerSql + "'.",
+				e);
+		}
+		
+		final String streamSql = 
+			"SELECT " +
+				"osl.observer_id, " +
+				"os.id, " +
+				"os.stream_id, " +
+				"os.version, " +
+				"os.name, " +
+				"os.description, " +
+				"os.with_id, " +
+				"os.with_timestamp, " +
+				"os.with_location, " +
+				"os.stream_schema " +
+			"FROM observer_stream os, observer_stream_link osl " +
+			"WHERE osl.observer_stream_id = os.id";
+		
+		final Map<Long, Observer.Stream> streams =
+			new HashMap<Long, Observer.Stream>();
+		try {
+			getJdbcTemplate().query(
+				streamSql, 
+				new RowMapper<Object>() {
+					/**
+					 * Maps the row of data to a stream and adds it to its
+					 * observer.
+					 */
+					@Override
+					public Object mapRow(
+							final ResultSet rs, 
+							final int rowNum)
+							throws SQLException {
+						
+						// Ignore the links of any observer that was created
+						// after the observers were read.
+						Observer.Builder observerBuilder =
+							observerBuilders.get(rs.getLong("observer_id"));
+						if(observerBuilder == null) {
+							return null;
+						}
+						
+						long streamDbId = rs.getLong("id");
+						Observer.Stream stream = streams.get(streamDbId);
+						if(stream == null) {
+							// Because the with_* values are optional and
+							// may be null, they must be retrieve in this
+							// special way.
+							Boolean withId, withTimestamp, withLocation;
+							withId = rs.getBoolean("with_id");
+							if(rs.wasNull()) {
+								withId = null;
+							}
+							withTimestamp =
+								rs.getBoolean("with_timestamp");
+							if(rs.wasNull()) {
+								withTimestamp = null;
+							}
+							withLocation = rs.getBoolean("with_location");
+							if(rs.wasNull()) {
+								withLocation = null;
+							}
+							
+							try {
+								stream =
+									new Observer.Stream(
+										rs.getString("stream_id"), 
+										rs.getLong("version"), 
+										rs.getString("name"), 
+										rs.getString("description"), 
+										withId,
+										withTimestamp, 
+										withLocation, 
+										rs.getString("stream_schema"));
+							}
+							catch(DomainException e) {
+								throw new SQLException(e);
+							}
+							
+							streams.put(streamDbId, stream);
+						}
+						
+						observerBuilder.addStream(stream);
+						return null;
+					}
+				}
+			);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + streamSql + "'.",
+				e);
+		}
+		
+		List<Observer> observers = 
+			new ArrayList<Observer>(observerBuilders.size());
+		for(Observer.Builder observerBuilder : observerBuilders.values()) {
+			try {
+				observers.add(observerBuilder.build());
+			}
+			catch(DomainException e) {
+				throw new DataAccessException(
+					"There was a problem building an observer.",
+					e);
+			}
+		}
+		
+		return new ObserverRegistry(stamp, observers);
+	}
+	
+	/**
+	 * Returns the database's version stamp for the observers.
+	 * 
+	 * @return The version stamp.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	private long getRegistryStamp() throws DataAccessException {
+		String sql = "SELECT version FROM observer_registry_version WHERE id = 1";
+		
+		try {
+			return getJdbcTemplate().queryForLong(sql);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + sql + "'.",
+				e);
+		}
+	}
+	
+	/**
+	 * Increments the database's version stamp for the observers. This must be
+	 * called in the transaction that changes the observers.
+	 * 
+	 * @return The new version stamp.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	private long incrementRegistryStamp() throws DataAccessException {
+		String sql = 
+			"UPDATE observer_registry_version " +
+			"SET version = version + 1 " +
+			"WHERE id = 1";
+		
+		try {
+			getJdbcTemplate().update(sql);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + sql + "'.",
+				e);
+		}
+		
+		return getRegistryStamp();
+	}
+}
@@ -0,0 +1,354 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.query.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.ohmage.domain.Observer;
+import org.ohmage.domain.Observer.Stream;
+import org.ohmage.exception.DomainException;
+
+/**
+ * <p>
+ * An immutable snapshot of every version of every observer and their
+ * streams. Building a stream validates its schema, which is expensive, so
+ * the observers are built once and shared by every request rather than
+ * rebuilt from the database each time they are read.
+ * </p>
+ *
+ * <p>
+ * A snapshot is never modified. Creating or updating an observer makes a
+ * new snapshot that shares everything else with the old one. Each snapshot
+ * records the database's version stamp it reflects, so that it can be
+ * replaced when another server changes the observers.
+ * </p>
+ */
+final class ObserverRegistry {
+	/**
+	 * The database's version stamp when this snapshot was taken.
+	 */
+	private final long stamp;
+
+	/**
+	 * The observers by their ID and then by their version.
+	 */
+	private final SortedMap<String, NavigableMap<Long, Observer>> observers;
+
+	/**
+	 * Creates a snapshot.
+	 *
+	 * @param stamp The database's version stamp.
+	 *
+	 * @param observers Every version of every observer.
+	 */
+	ObserverRegistry(final long stamp, final Collection<Observer> observers) {
+		this.stamp = stamp;
+
+		this.observers = new TreeMap<String, NavigableMap<Long, Observer>>();
+		for(Observer observer : observers) {
+			NavigableMap<Long, Observer> versions =
+				this.observers.get(observer.getId());
+			if(versions == null) {
+				versions = new TreeMap<Long, Observer>();
+				this.observers.put(observer.getId(), versions);
+			}
+			versions.put(observer.getVersion(), observer);
+		}
+	}
+
+	/**
+	 * Creates a snapshot from another one with a different set of versions
+	 * for one of the observers.
+	 *
+	 * @param stamp The database's version stamp.
+	 *
+	 * @param other The snapshot to copy.
+	 *
+	 * @param observerId The observer's ID.
+	 *
+	 * @param versions Every version of that observer.
+	 */
+	private ObserverRegistry(
+			final long stamp,
+			final ObserverRegistry other,
+			final String observerId,
+			final NavigableMap<Long, Observer> versions) {
+
+		this.stamp = stamp;
+
+		observers =
+			new TreeMap<String, NavigableMap<Long, Observer>>(
+				other.observers);
+		observers.put(observerId, versions);
+	}
+
+	/**
+	 * Returns the database's version stamp when this snapshot was taken.
+	 *
+	 * @return The version stamp.
+	 */
+	long getStamp() {
+		return stamp;
+	}
+
+	/**
+	 * Returns a new snapshot that also contains an observer that has just
+	 * been created or updated. A stream that was not changed by the update is
+	 * linked to the one that already existed, so that one is kept.
+	 *
+	 * @param newStamp The database's version stamp after the change.
+	 *
+	 * @param observer The new observer or version of an observer.
+	 *
+	 * @return The new snapshot.
+	 *
+	 * @throws DomainException The observer could not be rebuilt.
+	 */
+	ObserverRegistry with(
+			final long newStamp,
+			final Observer observer)
+			throws DomainException {
+
+		List<Stream> streams =
+			new ArrayList<Stream>(observer.getStreams().size());
+		for(Stream stream : observer.getStreams()) {
+			Stream existing =
+				getStream(
+					observer.getId(),
+					stream.getId(),
+					stream.getVersion());
+
+			streams.add((existing == null) ? stream : existing);
+		}
+
+		NavigableMap<Long, Observer> versions =
+			new TreeMap<Long, Observer>();
+		NavigableMap<Long, Observer> oldVersions =
+			observers.get(observer.getId());
+		if(oldVersions != null) {
+			versions.putAll(oldVersions);
+		}
+		versions.put(
+			observer.getVersion(),
+			new Observer(
+				observer.getId(),
+				observer.getVersion(),
+				observer.getName(),
+				observer.getDescription(),
+				observer.getVersionString(),
+				streams));
+
+		return
+			new ObserverRegistry(newStamp, this, observer.getId(), versions);
+	}
+
+	/**
+	 * Returns the observers ordered by their ID and then with the newest
+	 * version first.
+	 *
+	 * @param id Limits the results to the observer with this ID. Optional.
+	 *
+	 * @param version Limits the results to observers with this version.
+	 * 				  Optional.
+	 *
+	 * @param numToSkip The number of observers to skip for paging.
+	 *
+	 * @param numToReturn The number of observers to return for paging.
+	 *
+	 * @return The observers.
+	 */
+	List<Observer> getObservers(
+			final String id,
+			final Long version,
+			final long numToSkip,
+			final long numToReturn) {
+
+		Collection<NavigableMap<Long, Observer>> candidates;
+		if(id == null) {
+			candidates = observers.values();
+		}
+		else {
+			NavigableMap<Long, Observer> versions = observers.get(id);
+			if(versions == null) {
+				return Collections.emptyList();
+			}
+			candidates = Collections.singletonList(versions);
+		}
+
+		List<Observer> result = new LinkedList<Observer>();
+		long skipped = 0;
+		for(NavigableMap<Long, Observer> versions : candidates) {
+			for(Observer observer : versions.descendingMap().values()) {
+				if((version != null) && (observer.getVersion() != version)) {
+					continue;
+				}
+				if(skipped < numToSkip) {
+					skipped++;
+					continue;
+				}
+				if(result.size() >= numToReturn) {
+					return result;
+				}
+
+				result.add(observer);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the streams that match the criteria, grouped by their
+	 * observer's ID. A stream that is shared by more than one version of its
+	 * observer is only returned once. The streams are ordered by their
+	 * observer's ID and version and then by their own ID and version, which
+	 * is the order in which they are paged.
+	 *
+	 * @param observerId Limits the results to this observer. Optional.
+	 *
+	 * @param observerVersion Limits the results to observers with this
+	 * 						  version. Optional.
+	 *
+	 * @param streamId Limits the results to streams with this ID. Optional.
+	 *
+	 * @param streamVersion Limits the results to streams with this version.
+	 * 						Optional.
+	 *
+	 * @param numToSkip The number of streams to skip for paging.
+	 *
+	 * @param numToReturn The number of streams to return for paging.
+	 *
+	 * @return The streams by their observer's ID.
+	 */
+	Map<String, Collection<Stream>> getStreams(
+			final String observerId,
+			final Long observerVersion,
+			final String streamId,
+			final Long streamVersion,
+			final long numToSkip,
+			final long numToReturn) {
+
+		Map<String, Collection<Stream>> result =
+			new HashMap<String, Collection<Stream>>();
+
+		Collection<NavigableMap<Long, Observer>> candidates;
+		if(observerId == null) {
+			candidates = observers.values();
+		}
+		else {
+			NavigableMap<Long, Observer> versions = observers.get(observerId);
+			if(versions == null) {
+				return result;
+			}
+			candidates = Collections.singletonList(versions);
+		}
+
+		long skipped = 0;
+		long returned = 0;
+		for(NavigableMap<Long, Observer> versions : candidates) {
+			// The stream IDs and versions that have already been seen for
+			// this observer.
+			Set<String> seen = new HashSet<String>();
+
+			for(Observer observer : versions.values()) {
+				if((observerVersion != null) &&
+					(observer.getVersion() != observerVersion)) {
+
+					continue;
+				}
+
+				SortedMap<String, Stream> streams =
+					new TreeMap<String, Stream>(observer.getStreamsMap());
+				for(Stream stream : streams.values()) {
+					if((streamId != null) &&
+						(! streamId.equals(stream.getId()))) {
+
+						continue;
+					}
+					if((streamVersion != null) &&
+						(stream.getVersion() != streamVersion)) {
+
+						continue;
+					}
+					if(! seen.add(stream.getId() + ":" + stream.getVersion())) {
+						continue;
+					}
+					if(skipped < numToSkip) {
+						skipped++;
+						continue;
+					}
+					if(returned >= numToReturn) {
+						return result;
+					}
+
+					Collection<Stream> observerStreams =
+						result.get(observer.getId());
+					if(observerStreams == null) {
+						observerStreams = new LinkedList<Stream>();
+						result.put(observer.getId(), observerStreams);
+					}
+					observerStreams.add(stream);
+					returned++;
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns a version of one of an observer's streams.
+	 *
+	 * @param observerId The observer's ID.
+	 *
+	 * @param streamId The stream's ID.
+	 *
+	 * @param streamVersion The stream's version.
+	 *
+	 * @return The stream or null if no version of the observer has that
+	 * 		   version of the stream.
+	 */
+	Stream getStream(
+			final String observerId,
+			final String streamId,
+			final long streamVersion) {
+
+		NavigableMap<Long, Observer> versions = observers.get(observerId);
+		if(versions == null) {
+			return null;
+		}
+
+		for(Observer observer : versions.descendingMap().values()) {
+			Stream stream = observer.getStreamsMap().get(streamId);
+			if((stream != null) && (stream.getVersion() == streamVersion)) {
+				return stream;
+			}
+		}
+
+		return null;
+	}
+}
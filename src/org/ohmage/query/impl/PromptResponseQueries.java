@@ -34,8 +34,9 @@ public class PromptResponseQueries extends Query implements IPromptResponseQueri
 	
 	private static final String SQL_GET_PROMPT_RESPONSE_ID =
 	    "SELECT pr.id " +
-	    "FROM survey_response sr, prompt_response pr " +
+	    "FROM survey_response sr, campaign c, prompt_response pr " +
 	    "WHERE sr.uuid = ? " +
+	    "AND sr.campaign_id = c.id " +
 	    "AND sr.id = pr.survey_response_id " +
 	    "AND pr.prompt_id = ?";
 
@@ -15,10 +15,32 @@
  ******************************************************************************/
 package org.ohmage.query.impl;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import javax.sql.DataSource;
 
+import org.ohmage.cache.AuthorizationContext;
+import org.ohmage.cache.ConnectionContext;
+import org.ohmage.cache.OmhRegistryCache;
+import org.ohmage.cache.SearchIndexCache;
+import org.ohmage.cache.UserPrivilegeCache;
+import org.ohmage.domain.Clazz;
+import org.ohmage.domain.UserPrivileges;
+import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.exception.DataAccessException;
+import org.ohmage.util.StringUtils;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
 
 /**
  * The superclass for all Queries, this class contains the DataSource with which 
@@ -31,6 +53,89 @@ import org.springframework.jdbc.core.JdbcTemplate;
  * @author John Jenkins
  */
 public abstract class Query {
+	// Retrieves a user's admin, enabled, and new account flags along with
+	// each of their campaign roles and class roles. The first half always
+	// returns at least one row if the user exists, even if they belong to no
+	// campaigns.
+	private static final String SQL_GET_USER_PRIVILEGES =
+		"SELECT u.admin, u.enabled, u.new_account, " +
+			"'campaign' AS type, c.urn, ur.role " +
+		"FROM user u " +
+			"LEFT JOIN user_role_campaign urc ON u.id = urc.user_id " +
+			"LEFT JOIN campaign c ON c.id = urc.campaign_id " +
+			"LEFT JOIN user_role ur ON ur.id = urc.user_role_id " +
+		"WHERE u.username = ? " +
+		"UNION ALL " +
+		"SELECT u.admin, u.enabled, u.new_account, " +
+			"'class' AS type, c.urn, ucr.role " +
+		"FROM user u, user_class uc, class c, user_class_role ucr " +
+		"WHERE u.username = ? " +
+		"AND u.id = uc.user_id " +
+		"AND c.id = uc.class_id " +
+		"AND ucr.id = uc.user_class_role_id";
+	
+	// Adds survey responses to their campaigns' response statistics. The
+	// responses must already be stored as they are to be counted.
+	private static final String SQL_ADD_RESPONSE_STATISTICS =
+		"INSERT INTO campaign_response_stats(" +
+			"campaign_id, user_id, survey_id, privacy_state_id, " +
+			"response_count, last_upload_timestamp) " +
+		"SELECT sr.campaign_id, sr.user_id, sr.survey_id, " +
+			"sr.privacy_state_id, COUNT(*), MAX(sr.upload_timestamp) " +
+		"FROM survey_response sr " +
+			"JOIN campaign c ON c.id = sr.campaign_id " +
+		"WHERE sr.uuid IN ";
+	private static final String SQL_ADD_RESPONSE_STATISTICS_GROUP =
+		" GROUP BY sr.campaign_id, sr.user_id, sr.survey_id, " +
+			"sr.privacy_state_id " +
+		"ON DUPLICATE KEY UPDATE " +
+			"response_count = response_count + VALUES(response_count), " +
+			"last_upload_timestamp = " +
+				"GREATEST(last_upload_timestamp, " +
+					"VALUES(last_upload_timestamp))";
+	
+	// Removes survey responses from their campaigns' response statistics.
+	// The responses must still be stored as they were counted.
+	private static final String SQL_SUBTRACT_RESPONSE_STATISTICS =
+		"UPDATE campaign_response_stats crs " +
+			"JOIN (" +
+				"SELECT campaign_id, user_id, survey_id, " +
+					"privacy_state_id, COUNT(*) AS response_count " +
+				"FROM survey_response " +
+				"WHERE uuid IN ";
+	private static final String SQL_SUBTRACT_RESPONSE_STATISTICS_GROUP =
+				" GROUP BY campaign_id, user_id, survey_id, " +
+					"privacy_state_id" +
+			") sr ON (" +
+				"crs.campaign_id = sr.campaign_id " +
+				"AND crs.user_id = sr.user_id " +
+				"AND crs.survey_id = sr.survey_id " +
+				"AND crs.privacy_state_id = sr.privacy_state_id" +
+			") " +
+		"SET crs.response_count = " +
+			"GREATEST(crs.response_count - sr.response_count, 0)";
+	
+	// Advances the response version of the campaigns to which survey 
+	// responses belong.
+	private static final String SQL_ADVANCE_RESPONSE_VERSION =
+		"INSERT INTO campaign_response_version(campaign_id, version) " +
+		"SELECT DISTINCT sr.campaign_id, 1 " +
+		"FROM survey_response sr " +
+			"JOIN campaign c ON c.id = sr.campaign_id " +
+		"WHERE sr.uuid IN ";
+	private static final String SQL_ADVANCE_RESPONSE_VERSION_UPDATE =
+		" ON DUPLICATE KEY UPDATE version = version + 1";
+	
+	// Advances the version stamp of the values in the search indices.
+	private static final String SQL_INCREMENT_SEARCH_INDEX_STAMP =
+		"UPDATE search_index_version " +
+		"SET version = version + 1 " +
+		"WHERE id = 1";
+	
+	// Retrieves the version stamp of the values in the search indices.
+	private static final String SQL_GET_SEARCH_INDEX_STAMP =
+		"SELECT version FROM search_index_version WHERE id = 1";
+	
 	private boolean initialized = false;
 	
 	private final DataSource dataSource;
@@ -110,4 +215,481 @@ public abstract class Query {
 	protected JdbcTemplate getJdbcTemplate() {
 		return jdbcTemplate;
 	}
+	
+	/**
+	 * Counts survey responses in their campaigns' response statistics and
+	 * advances the campaigns' response versions. This must be called in the
+	 * same transaction that inserts the responses or changes them, after
+	 * they have been written.
+	 * 
+	 * @param surveyResponseIds The survey responses' unique identifiers.
+	 * 
+	 * @throws org.springframework.dao.DataAccessException There was an
+	 * 													   error.
+	 */
+	protected void addResponseStatistics(
+			final Collection<String> surveyResponseIds) {
+		
+		if(surveyResponseIds.isEmpty()) {
+			return;
+		}
+		
+		jdbcTemplate.update(
+			SQL_ADD_RESPONSE_STATISTICS +
+				StringUtils.generateStatementPList(surveyResponseIds.size()) +
+				SQL_ADD_RESPONSE_STATISTICS_GROUP,
+			surveyResponseIds.toArray());
+		advanceResponseVersion(surveyResponseIds);
+	}
+	
+	/**
+	 * Stops counting survey responses in their campaigns' response
+	 * statistics and advances the campaigns' response versions. This must be
+	 * called in the same transaction that deletes the responses or changes
+	 * them, before they are changed.
+	 * 
+	 * @param surveyResponseIds The survey responses' unique identifiers.
+	 * 
+	 * @throws org.springframework.dao.DataAccessException There was an
+	 * 													   error.
+	 */
+	protected void subtractResponseStatistics(
+			final Collection<String> surveyResponseIds) {
+		
+		if(surveyResponseIds.isEmpty()) {
+			return;
+		}
+		
+		jdbcTemplate.update(
+			SQL_SUBTRACT_RESPONSE_STATISTICS +
+				StringUtils.generateStatementPList(surveyResponseIds.size()) +
+				SQL_SUBTRACT_RESPONSE_STATISTICS_GROUP,
+			surveyResponseIds.toArray());
+		advanceResponseVersion(surveyResponseIds);
+	}
+	
+	/**
+	 * Advances the response versions of the campaigns to which survey 
+	 * responses belong, so that anything cached from their responses is no
+	 * longer used.
+	 * 
+	 * @param surveyResponseIds The survey responses' unique identifiers.
+	 * 
+	 * @throws org.springframework.dao.DataAccessException There was an
+	 * 													   error.
+	 */
+	private void advanceResponseVersion(
+			final Collection<String> surveyResponseIds) {
+		
+		jdbcTemplate.update(
+			SQL_ADVANCE_RESPONSE_VERSION +
+				StringUtils.generateStatementPList(surveyResponseIds.size()) +
+				SQL_ADVANCE_RESPONSE_VERSION_UPDATE,
+			surveyResponseIds.toArray());
+	}
+	
+	/**
+	 * Builds the clause that restricts a search to the candidates returned by
+	 * the {@link SearchIndexCache}. The search's LIKE clauses must remain in
+	 * the query, as the candidates are only a superset of the matches.
+	 * 
+	 * @param column The column to restrict, e.g. "u.username".
+	 * 
+	 * @param candidates The candidate keys or null if the index could not 
+	 * 					 narrow the search.
+	 * 
+	 * @param parameters The list of parameters for the query to which the 
+	 * 					 candidates will be appended.
+	 * 
+	 * @return An " AND ..." clause to append to the query's WHERE clause or 
+	 * 		   an empty string if the search should not be restricted.
+	 */
+	protected static String getCandidateRestriction(
+			final String column,
+			final Set<String> candidates,
+			final Collection<Object> parameters) {
+		
+		if((candidates == null) || 
+				(candidates.size() > SearchIndexCache.MAX_CANDIDATES)) {
+			
+			return "";
+		}
+		else if(candidates.isEmpty()) {
+			return " AND FALSE";
+		}
+		
+		StringBuilder builder = new StringBuilder(" AND ");
+		builder.append(column).append(" IN ");
+		builder.append(StringUtils.generateStatementPList(candidates.size()));
+		parameters.addAll(candidates);
+		
+		return builder.toString();
+	}
+	
+	/**
+	 * Narrows the candidates for a search using the {@link SearchIndexCache},
+	 * if it is available.
+	 * 
+	 * @param candidates The current candidates or null if the search has not
+	 * 					 yet been narrowed.
+	 * 
+	 * @param field The field being searched.
+	 * 
+	 * @param likePatterns The LIKE patterns being applied to the field.
+	 * 
+	 * @return The narrowed candidates or null if the search could not be
+	 * 		   narrowed.
+	 */
+	protected static Set<String> narrowCandidates(
+			final Set<String> candidates,
+			final SearchIndexCache.Field field,
+			final Collection<String> likePatterns) {
+		
+		SearchIndexCache cache = SearchIndexCache.instance();
+		if(cache == null) {
+			return candidates;
+		}
+		return cache.narrow(candidates, field, likePatterns);
+	}
+	
+	/**
+	 * Advances the version stamp of the values in the search indices, which
+	 * tells every server that its {@link SearchIndexCache} is out of date.
+	 * This must be called in any transaction that creates, updates, or 
+	 * deletes a user, class, or campaign. If it fails, the transaction is
+	 * rolled back.
+	 * 
+	 * @param transactionManager The transaction's manager.
+	 * 
+	 * @param status The transaction.
+	 * 
+	 * @return The new version stamp, which is passed to the 
+	 * 		   <code>refreshSearchIndexFor</code> methods once the transaction
+	 * 		   has been committed.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	protected long incrementSearchIndexStamp(
+			final PlatformTransactionManager transactionManager,
+			final TransactionStatus status)
+			throws DataAccessException {
+		
+		try {
+			jdbcTemplate.update(SQL_INCREMENT_SEARCH_INDEX_STAMP);
+			return jdbcTemplate.queryForLong(SQL_GET_SEARCH_INDEX_STAMP);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			transactionManager.rollback(status);
+			throw new DataAccessException(
+				"Error executing SQL '" + 
+					SQL_INCREMENT_SEARCH_INDEX_STAMP + 
+					"'.",
+				e);
+		}
+	}
+	
+	/**
+	 * Re-indexes a user in the {@link SearchIndexCache} once the request's
+	 * changes have been committed. This should be called after any 
+	 * transaction that creates, updates, or deletes the user has been 
+	 * committed.
+	 * 
+	 * @param username The user's username.
+	 * 
+	 * @param stamp The version stamp the transaction's 
+	 * 				{@link #incrementSearchIndexStamp(PlatformTransactionManager, TransactionStatus)}
+	 * 				returned.
+	 */
+	protected static void refreshSearchIndexForUser(
+			final String username,
+			final long stamp) {
+		
+		final SearchIndexCache cache = SearchIndexCache.instance();
+		if(cache != null) {
+			ConnectionContext.afterCommit(new Runnable() {
+				@Override
+				public void run() {
+					cache.refreshUser(username, stamp);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Re-indexes a class in the {@link SearchIndexCache} once the request's
+	 * changes have been committed. This should be called after any 
+	 * transaction that creates, updates, or deletes the class has been 
+	 * committed.
+	 * 
+	 * @param classId The class' unique identifier.
+	 * 
+	 * @param stamp The version stamp the transaction's 
+	 * 				{@link #incrementSearchIndexStamp(PlatformTransactionManager, TransactionStatus)}
+	 * 				returned.
+	 */
+	protected static void refreshSearchIndexForClass(
+			final String classId,
+			final long stamp) {
+		
+		final SearchIndexCache cache = SearchIndexCache.instance();
+		if(cache != null) {
+			ConnectionContext.afterCommit(new Runnable() {
+				@Override
+				public void run() {
+					cache.refreshClass(classId, stamp);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Re-indexes a campaign in the {@link SearchIndexCache} once the 
+	 * request's changes have been committed. This should be called after any
+	 * transaction that creates, updates, or deletes the campaign has been 
+	 * committed.
+	 * 
+	 * @param campaignId The campaign's unique identifier.
+	 * 
+	 * @param stamp The version stamp the transaction's 
+	 * 				{@link #incrementSearchIndexStamp(PlatformTransactionManager, TransactionStatus)}
+	 * 				returned.
+	 */
+	protected static void refreshSearchIndexForCampaign(
+			final String campaignId,
+			final long stamp) {
+		
+		final SearchIndexCache cache = SearchIndexCache.instance();
+		if(cache != null) {
+			ConnectionContext.afterCommit(new Runnable() {
+				@Override
+				public void run() {
+					cache.refreshCampaign(campaignId, stamp);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Wraps each search token in '%' so that it may be used as a LIKE 
+	 * pattern that matches any value containing the token.
+	 * 
+	 * @param tokens The search tokens, which may be null.
+	 * 
+	 * @return The LIKE patterns or null if the tokens were null.
+	 */
+	protected static Collection<String> toLikePatterns(
+			final Collection<String> tokens) {
+		
+		if(tokens == null) {
+			return null;
+		}
+		
+		Collection<String> result = new ArrayList<String>(tokens.size());
+		for(String token : tokens) {
+			result.add('%' + token + '%');
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns a user's privileges from the current request's
+	 * {@link AuthorizationContext} or, failing that, the shared
+	 * {@link UserPrivilegeCache}. If neither has them, they are loaded with a
+	 * single query and stored in both.
+	 * 
+	 * @param username The user's username.
+	 * 
+	 * @return The user's privileges or null if there is neither a context
+	 * 		   bound to this thread nor a cache or the user does not exist. In
+	 * 		   either case, the caller should fall back to querying the 
+	 * 		   database directly.
+	 * 
+	 * @throws DataAccessException There was an error loading the privileges.
+	 */
+	protected UserPrivileges getUserPrivileges(
+			final String username)
+			throws DataAccessException {
+		
+		AuthorizationContext context = AuthorizationContext.current();
+		UserPrivilegeCache cache = UserPrivilegeCache.instance();
+		if(((context == null) && (cache == null)) || (username == null)) {
+			return null;
+		}
+		
+		UserPrivileges result = null;
+		if(context != null) {
+			result = context.get(username);
+			if(result != null) {
+				return result;
+			}
+		}
+		
+		// A request that has written may have changed the privileges, and
+		// what it reads must not be shared until it has been committed.
+		boolean shared = 
+			(cache != null) && (! ConnectionContext.hasUncommittedWrites());
+		
+		long generation = 0;
+		if(shared) {
+			result = cache.lookup(username);
+			if(result != null) {
+				if(context != null) {
+					context.put(result);
+				}
+				return result;
+			}
+			generation = cache.getGeneration();
+		}
+		
+		try {
+			result = getJdbcTemplate().query(
+				SQL_GET_USER_PRIVILEGES,
+				new Object[] { username, username },
+				new ResultSetExtractor<UserPrivileges>() {
+					/**
+					 * Gathers the admin flag and the roles from every row.
+					 */
+					@Override
+					public UserPrivileges extractData(
+							final ResultSet rs)
+							throws SQLException {
+						
+						boolean exists = false;
+						boolean admin = false;
+						boolean enabled = false;
+						boolean newAccount = false;
+						Map<String, List<Campaign.Role>> campaignRoles =
+							new HashMap<String, List<Campaign.Role>>();
+						Map<String, Clazz.Role> classRoles =
+							new HashMap<String, Clazz.Role>();
+						
+						while(rs.next()) {
+							exists = true;
+							admin = rs.getBoolean("admin");
+							enabled = rs.getBoolean("enabled");
+							newAccount = rs.getBoolean("new_account");
+							
+							String id = rs.getString("urn");
+							if(id == null) {
+								continue;
+							}
+							
+							try {
+								if("campaign".equals(rs.getString("type"))) {
+									List<Campaign.Role> roles =
+										campaignRoles.get(id);
+									if(roles == null) {
+										roles = new LinkedList<Campaign.Role>();
+										campaignRoles.put(id, roles);
+									}
+									roles.add(
+										Campaign.Role.getValue(
+											rs.getString("role")));
+								}
+								else {
+									classRoles.put(
+										id, 
+										Clazz.Role.getValue(
+											rs.getString("role")));
+								}
+							}
+							catch(IllegalArgumentException e) {
+								throw new SQLException(
+									"Unknown role in the database.", 
+									e);
+							}
+						}
+						
+						if(! exists) {
+							return null;
+						}
+						return new UserPrivileges(
+							username, 
+							admin, 
+							enabled,
+							newAccount,
+							campaignRoles, 
+							classRoles);
+					}
+				});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + SQL_GET_USER_PRIVILEGES + 
+					"' with parameter: " + username,
+				e);
+		}
+		
+		if(result != null) {
+			if(context != null) {
+				context.put(result);
+			}
+			if(shared) {
+				cache.put(result, generation);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Forgets a user's privileges in the current request's 
+	 * {@link AuthorizationContext} and, once the request's changes have been
+	 * committed, the shared {@link UserPrivilegeCache}. This should be 
+	 * called after any transaction that may change the user's flags or their
+	 * campaign or class roles has been committed.
+	 * 
+	 * @param username The user's username.
+	 */
+	protected static void invalidateUserPrivileges(final String username) {
+		AuthorizationContext.invalidate();
+		
+		final UserPrivilegeCache cache = UserPrivilegeCache.instance();
+		if(cache != null) {
+			ConnectionContext.afterCommit(new Runnable() {
+				@Override
+				public void run() {
+					cache.invalidate(username);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Forgets every user's privileges in the current request's 
+	 * {@link AuthorizationContext} and, once the request's changes have been
+	 * committed, the shared {@link UserPrivilegeCache}. This should be 
+	 * called after any transaction that may change many users' roles at 
+	 * once, e.g. a class or campaign update, has been committed.
+	 */
+	protected static void invalidateUserPrivileges() {
+		AuthorizationContext.invalidate();
+		
+		final UserPrivilegeCache cache = UserPrivilegeCache.instance();
+		if(cache != null) {
+			ConnectionContext.afterCommit(new Runnable() {
+				@Override
+				public void run() {
+					cache.invalidateAll();
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Forgets every rendered response in the shared {@link OmhRegistryCache}
+	 * once the request's changes have been committed. This should be called
+	 * after any transaction that creates, updates, or deletes an observer or
+	 * a campaign has been committed.
+	 */
+	protected static void invalidateOmhRegistry() {
+		final OmhRegistryCache cache = OmhRegistryCache.instance();
+		if(cache != null) {
+			ConnectionContext.afterCommit(new Runnable() {
+				@Override
+				public void run() {
+					cache.invalidateAll();
+				}
+			});
+		}
+	}
 }
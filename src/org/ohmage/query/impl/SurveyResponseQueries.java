@@ -33,12 +33,14 @@ import javax.sql.DataSource;
 import org.joda.time.DateTime;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.ohmage.domain.UserPrivileges;
 import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.domain.campaign.Prompt;
 import org.ohmage.domain.campaign.SurveyResponse;
 import org.ohmage.domain.campaign.SurveyResponse.ColumnKey;
 import org.ohmage.domain.campaign.SurveyResponse.PrivacyState;
 import org.ohmage.domain.campaign.SurveyResponse.SortParameter;
+import org.ohmage.domain.campaign.SurveyResponseCount;
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.exception.DomainException;
 import org.ohmage.query.ISurveyResponseQueries;
@@ -86,6 +88,18 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 				"LEFT JOIN survey_response_privacy_state AS srps " +
 					"ON srps.id = sr.privacy_state_id ";
 	
+	/**
+	 * The date on which a survey response was taken in the time zone of the
+	 * phone that took it in the form "yyyy-M-d".
+	 */
+	private static final String SQL_LOCAL_DATE =
+		"DATE_FORMAT(" +
+			"CONVERT_TZ(" +
+				"FROM_UNIXTIME(sr.epoch_millis / 1000), " +
+				"'UTC', " +
+				"sr.phone_timezone), " +
+			"'%Y-%c-%e')";
+	
 	/**
 	 * The additional component of the FROM clause to include the prompt
 	 * responses.
@@ -683,6 +697,119 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 		}
 	}
 	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.ISurveyResponseQueries#retrieveSurveyResponseCounts(org.ohmage.domain.campaign.Campaign, java.lang.String, org.joda.time.DateTime, org.joda.time.DateTime, java.util.Collection)
+	 */
+	@Override
+	public List<SurveyResponseCount> retrieveSurveyResponseCounts(
+			final Campaign campaign,
+			final String username,
+			final DateTime startDate,
+			final DateTime endDate,
+			final Collection<SurveyResponseCount.Grouping> groupings)
+			throws DataAccessException {
+		
+		final boolean byUser = 
+				groupings.contains(SurveyResponseCount.Grouping.USER);
+		final boolean bySurvey = 
+				groupings.contains(SurveyResponseCount.Grouping.SURVEY);
+		final boolean byPrivacyState = 
+				groupings.contains(SurveyResponseCount.Grouping.PRIVACY_STATE);
+		final boolean byDate = 
+				groupings.contains(SurveyResponseCount.Grouping.DATE);
+		
+		// Build the list of columns that are both selected and grouped.
+		List<String> groupColumns = new LinkedList<String>();
+		if(byUser) {
+			groupColumns.add("u.username");
+		}
+		if(bySurvey) {
+			groupColumns.add("sr.survey_id");
+		}
+		if(byPrivacyState) {
+			groupColumns.add("srps.privacy_state");
+		}
+		if(byDate) {
+			groupColumns.add(SQL_LOCAL_DATE);
+		}
+		
+		StringBuilder sqlBuilder = new StringBuilder("SELECT COUNT(sr.id) AS count");
+		for(String groupColumn : groupColumns) {
+			sqlBuilder.append(", ").append(groupColumn);
+		}
+		sqlBuilder.append(' ').append(SQL_BASE_FROM).append(SQL_BASE_WHERE);
+		
+		List<Object> parameters = new LinkedList<Object>();
+		parameters.add(campaign.getId());
+		
+		appendAcl(sqlBuilder, campaign, username, parameters);
+		
+		if(startDate != null) {
+			sqlBuilder.append(SQL_WHERE_ON_OR_AFTER);
+			parameters.add(startDate.getMillis());
+		}
+		if(endDate != null) {
+			sqlBuilder.append(SQL_WHERE_ON_OR_BEFORE);
+			parameters.add(endDate.getMillis());
+		}
+		
+		if(groupColumns.size() > 0) {
+			sqlBuilder.append(" GROUP BY ");
+			boolean firstPass = true;
+			for(String groupColumn : groupColumns) {
+				if(firstPass) {
+					firstPass = false;
+				}
+				else {
+					sqlBuilder.append(", ");
+				}
+				sqlBuilder.append(groupColumn);
+			}
+		}
+		
+		String sql = sqlBuilder.toString();
+		try {
+			return getJdbcTemplate().query(
+					sql, 
+					parameters.toArray(), 
+					new RowMapper<SurveyResponseCount>() {
+						/**
+						 * Creates a count from the columns that were grouped.
+						 */
+						@Override
+						public SurveyResponseCount mapRow(
+								final ResultSet rs, 
+								final int rowNum)
+								throws SQLException {
+							
+							long count = rs.getLong("count");
+							
+							// The grouped columns follow the count in the
+							// order in which they were selected.
+							int column = 2;
+							return new SurveyResponseCount(
+									(byUser) ? rs.getString(column++) : null,
+									(bySurvey) ? rs.getString(column++) : null,
+									(byPrivacyState) ?
+										PrivacyState.getValue(
+											rs.getString(column++)) :
+										null,
+									(byDate) ? rs.getString(column++) : null,
+									count);
+						}
+					});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+					"Error executing SQL '" + 
+						sql + 
+						"' with parameters: " + 
+						parameters, 
+					e);
+		}
+	}
+	
 	/* (non-Javadoc)
 	 * @see org.ohmage.query.impl.ISurveyResponseQueries#updateSurveyResponsePrivacyState(java.lang.Long, org.ohmage.domain.campaign.SurveyResponse.PrivacyState)
 	 */
@@ -696,12 +823,16 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 		sqlBuilder.append(
 				StringUtils.generateStatementPList(surveyResponseIds.size()));
 
+		List<String> surveyResponseIdStrings =
+				new ArrayList<String>(surveyResponseIds.size());
+		for(UUID surveyResponseId : surveyResponseIds) {
+			surveyResponseIdStrings.add(surveyResponseId.toString());
+		}
+		
 		List<Object> parameters = 
 				new ArrayList<Object>(surveyResponseIds.size() + 1);
 		parameters.add(newPrivacyState.toString());
-		for(UUID surveyResponseId : surveyResponseIds) {
-			parameters.add(surveyResponseId.toString());
-		}
+		parameters.addAll(surveyResponseIdStrings);
 		
 		// Create the transaction.
 		DefaultTransactionDefinition def = new DefaultTransactionDefinition();
@@ -714,9 +845,13 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 			TransactionStatus status = transactionManager.getTransaction(def);
 			
 			try {
+				// Move the responses to their new privacy state in the
+				// campaigns' statistics.
+				subtractResponseStatistics(surveyResponseIdStrings);
 				getJdbcTemplate().update(
 						sqlBuilder.toString(), 
 						parameters.toArray());
+				addResponseStatistics(surveyResponseIdStrings);
 			}
 			catch(org.springframework.dao.DataAccessException e) {
 				transactionManager.rollback(status);
@@ -760,6 +895,8 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 			TransactionStatus status = transactionManager.getTransaction(def);
 			
 			try {
+				subtractResponseStatistics(
+						Collections.singletonList(surveyResponseId.toString()));
 				getJdbcTemplate().update(
 						SQL_DELETE_SURVEY_RESPONSE, 
 						new Object[] { surveyResponseId.toString() });
@@ -788,6 +925,118 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 		}
 	}
 	
+	/**
+	 * Appends the ACLs to a survey response query's WHERE clause that limit
+	 * the results to only those survey responses that the requesting user is
+	 * allowed to see. The query must use {@link #SQL_BASE_FROM}.
+	 * 
+	 * @param sqlBuilder The builder containing the WHERE clause so far.
+	 * 
+	 * @param campaign The campaign to which the survey responses belong.
+	 * 
+	 * @param username The username of the user that is making this request.
+	 * 
+	 * @param parameters The list of parameters to which the ACLs' parameters
+	 * 					 will be appended.
+	 * 
+	 * @throws DataAccessException There was an error querying about the user.
+	 */
+	private void appendAcl(
+		final StringBuilder sqlBuilder,
+		final Campaign campaign,
+		final String username,
+		final Collection<Object> parameters)
+		throws DataAccessException {
+		
+		// Catch any query exceptions.
+		try {
+			// Use the request's memoized privileges if there are any.
+			boolean admin;
+			List<Campaign.Role> roles = null;
+			UserPrivileges privileges = getUserPrivileges(username);
+			if(privileges != null) {
+				admin = privileges.isAdmin();
+				roles = privileges.getCampaignRoles(campaign.getId());
+			}
+			else {
+				admin =
+					getJdbcTemplate()
+						.queryForObject(
+							"SELECT admin FROM user WHERE username = ?",
+							new Object[] { username },
+							Boolean.class);
+			}
+			
+			// If the requesting user is an admin, don't bother applying the
+			// ACLs.
+			if(! admin) {
+				
+				// Get the roles for the user in the campaign.
+				if(roles == null) {
+					roles =
+						getJdbcTemplate().query(
+							"SELECT ur.role " +
+								"FROM user u, campaign c, user_role ur, user_role_campaign urc " +
+								"WHERE u.username = ? " +
+								"AND u.id = urc.user_id " +
+								"AND c.urn = ? " +
+								"AND c.id = urc.campaign_id " +
+								"AND urc.user_role_id = ur.id", 
+							new Object[] { username, campaign.getId() }, 
+							new RowMapper<Campaign.Role>() {
+								@Override
+								public Campaign.Role mapRow(
+									final ResultSet rs,
+									final int rowNum)
+									throws SQLException {
+									
+									return
+										Campaign
+											.Role
+											.getValue(rs.getString("role"));
+								}
+							}
+						);
+				}
+				
+				// If the user is not a supervisor in the campaign, then we
+				// will add additional ACLs based on their role.
+				if(! roles.contains(Campaign.Role.SUPERVISOR)) {
+					// Users are always allowed to query about themselves.
+					sqlBuilder.append(" AND ((u.username = ?)");
+					parameters.add(username);
+					
+					// If the user is an author or analyst, they may see shared
+					// responses as well.
+					if(
+						roles.contains(Campaign.Role.AUTHOR) ||
+						roles.contains(Campaign.Role.ANALYST)) {
+						
+						// Add the shared survey responses.
+						sqlBuilder
+							.append(" OR ((srps.privacy_state = 'shared')");
+						
+						// However, if the user is only an analyst, the
+						// campaign must also be shared.
+						if(! roles.contains(Campaign.Role.AUTHOR)) {
+							sqlBuilder
+								.append(" AND (cps.privacy_state = 'shared')");
+						}
+						
+						// Finally, close the OR.
+						sqlBuilder.append(')');
+					}
+					
+					// Finally, close the AND.
+					sqlBuilder.append(')');
+				}
+			}
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException("Error querying about the user.", e);
+		}
+	}
+	
 	/**
 	 * Builds the SQL for the survey response SELECT and generates a parameter
 	 * list that corresponds to that SQL. The parameter list is returned and
@@ -851,79 +1100,8 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 		StringBuilder sqlBuilder = new StringBuilder(SQL_BASE_WHERE);
 		parameters.add(campaign.getId());
 		
-		// Catch any query exceptions.
-		try {
-			// If the requesting user is an admin, don't bother applying the
-			// ACLs.
-			if(!
-				getJdbcTemplate()
-					.queryForObject(
-						"SELECT admin FROM user WHERE username = ?",
-						new Object[] { username },
-						Boolean.class)) {
-				
-				// Get the roles for the user in the campaign.
-				List<Campaign.Role> roles =
-					getJdbcTemplate().query(
-						"SELECT ur.role " +
-							"FROM user u, campaign c, user_role ur, user_role_campaign urc " +
-							"WHERE u.username = ? " +
-							"AND u.id = urc.user_id " +
-							"AND c.urn = ? " +
-							"AND c.id = urc.campaign_id " +
-							"AND urc.user_role_id = ur.id", 
-						new Object[] { username, campaign.getId() }, 
-						new RowMapper<Campaign.Role>() {
-							@Override
-							public Campaign.Role mapRow(
-								final ResultSet rs,
-								final int rowNum)
-								throws SQLException {
-								
-								return
-									Campaign
-										.Role
-										.getValue(rs.getString("role"));
-							}
-						}
-					);
-				
-				// If the user is not a supervisor in the campaign, then we
-				// will add additional ACLs based on their role.
-				if(! roles.contains(Campaign.Role.SUPERVISOR)) {
-					// Users are always allowed to query about themselves.
-					sqlBuilder.append(" AND ((u.username = ?)");
-					parameters.add(username);
-					
-					// If the user is an author or analyst, they may see shared
-					// responses as well.
-					if(
-						roles.contains(Campaign.Role.AUTHOR) ||
-						roles.contains(Campaign.Role.ANALYST)) {
-						
-						// Add the shared survey responses.
-						sqlBuilder
-							.append(" OR ((srps.privacy_state = 'shared')");
-						
-						// However, if the user is only an analyst, the
-						// campaign must also be shared.
-						if(! roles.contains(Campaign.Role.AUTHOR)) {
-							sqlBuilder
-								.append(" AND (cps.privacy_state = 'shared')");
-						}
-						
-						// Finally, close the OR.
-						sqlBuilder.append(')');
-					}
-					
-					// Finally, close the AND.
-					sqlBuilder.append(')');
-				}
-			}
-		}
-		catch(org.springframework.dao.DataAccessException e) {
-			throw new DataAccessException("Error querying about the user.", e);
-		}
+		// Limit the results to those the requesting user may see.
+		appendAcl(sqlBuilder, campaign, username, parameters);
 		
 		// Check all of the criteria and if any are non-null add their SQL and
 		// append the parameters.
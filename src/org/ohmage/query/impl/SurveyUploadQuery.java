@@ -16,6 +16,7 @@
 package org.ohmage.query.impl;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URL;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -24,9 +25,9 @@ import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -39,6 +40,7 @@ import org.joda.time.DateTime;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.cache.ConnectionContext;
 import org.ohmage.cache.MediaDirectoryCache;
 import org.ohmage.cache.PreferenceCache;
 import org.ohmage.domain.Audio;
@@ -46,6 +48,7 @@ import org.ohmage.domain.IMedia;
 import org.ohmage.domain.Image;
 import org.ohmage.domain.Location;
 import org.ohmage.domain.Location.LocationColumnKey;
+import org.ohmage.domain.OFile;
 import org.ohmage.domain.Video;
 import org.ohmage.domain.campaign.PromptResponse;
 import org.ohmage.domain.campaign.RepeatableSet;
@@ -63,12 +66,15 @@ import org.ohmage.exception.CacheMissException;
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.exception.DomainException;
 import org.ohmage.exception.ServiceException;
+import org.ohmage.query.IContentQueries;
 import org.ohmage.query.IMediaQueries;
 import org.ohmage.query.ISurveyUploadQuery;
 import org.ohmage.service.MediaServices;
 import org.ohmage.util.DateTimeUtils;
+import org.ohmage.util.StringUtils;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.SingleColumnRowMapper;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
@@ -85,6 +91,7 @@ import org.springframework.transaction.support.DefaultTransactionDefinition;
  */
 public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUploadQuery {
 	private IMediaQueries mediaQueries;
+	private IContentQueries contentQueries;
 
 	public static final String IMAGE_STORE_FORMAT = "jpg";
 	public static final String IMAGE_SCALED_EXTENSION = "-s";
@@ -116,7 +123,7 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 		
 	// Inserts an images/media information into the url_based_resource table.
 	private static final String SQL_INSERT_MEDIA = 
-		"INSERT INTO url_based_resource(user_id, client, uuid, url, metadata) " +
+		"INSERT INTO url_based_resource(user_id, client, uuid, url, metadata, content_hash) " +
 		"VALUES (" +
 			"(" +	// user_id
 				"SELECT id " +
@@ -126,22 +133,82 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 			"?, " +	// client
 			"?, " +	// uuid
 			"?, " +	// url
-			"?" +   // metadata
+			"?, " + // metadata
+			"?" +   // content_hash
 		")";
 
+	// Retrieves the hash of a media's contents if they are in the 
+	// content-addressed store.
+	private static final String SQL_GET_MEDIA_CONTENT_HASH =
+		"SELECT content_hash " +
+		"FROM url_based_resource " +
+		"WHERE uuid = ?";
+
+	// Retrieves the URL of a media file.
+	private static final String SQL_GET_MEDIA_URL =
+		"SELECT url " +
+		"FROM url_based_resource " +
+		"WHERE uuid = ?";
+
+	// Retrieves which of a list of survey responses a user has uploaded to a
+	// campaign. The parameter list is appended.
+	private static final String SQL_GET_EXISTING_SURVEY_RESPONSE_IDS =
+		"SELECT sr.uuid " +
+		"FROM survey_response sr " +
+			"JOIN user u ON u.id = sr.user_id " +
+			"JOIN campaign c ON c.id = sr.campaign_id " +
+		"WHERE u.username = ? " +
+		"AND c.urn = ? " +
+		"AND sr.uuid IN ";
+
+	// Retrieves which of a list of media files a user has uploaded, other
+	// than those of deleted campaigns' survey responses, which will be
+	// removed when they are uploaded again. The parameter list is appended.
+	private static final String SQL_GET_EXISTING_MEDIA_IDS =
+		"SELECT ubr.uuid " +
+		"FROM url_based_resource ubr " +
+			"JOIN user u ON u.id = ubr.user_id " +
+		"WHERE u.username = ? " +
+		"AND NOT EXISTS (" +
+			"SELECT pr.id " +
+			"FROM prompt_response pr " +
+				"JOIN survey_response sr ON sr.id = pr.survey_response_id " +
+				"JOIN campaign_deletion cd ON cd.campaign_id = sr.campaign_id " +
+			"WHERE pr.response = ubr.uuid" +
+		") " +
+		"AND ubr.uuid IN ";
+
+	/**
+	 * The number of identifiers that are looked up in each query.
+	 */
+	private static final int EXISTING_ID_BATCH_SIZE = 500;
+
+	/**
+	 * The length of a media ID, with which the names of its files begin.
+	 */
+	private static final int UUID_STRING_LENGTH = 36;
+
 	/**
 	 * Creates this object.
 	 * 
 	 * @param dataSource The DataSource to use when querying the database.
+	 * 
+	 * @param iContentQueries The content-addressed store in which the 
+	 * 						  non-image media are saved when it is enabled.
 	 */
 	private SurveyUploadQuery(DataSource dataSource, 
-				IMediaQueries iMediaQueries) {
+				IMediaQueries iMediaQueries,
+				IContentQueries iContentQueries) {
 	    
 		super(dataSource);
 		if(iMediaQueries == null) {
 			throw new IllegalArgumentException("An instance of IImageQueries is a required argument.");
 		}
+		if(iContentQueries == null) {
+			throw new IllegalArgumentException("An instance of IContentQueries is a required argument.");
+		}
 		this.mediaQueries = iMediaQueries;
+		this.contentQueries = iContentQueries;
 	}
 	
 	/*
@@ -161,6 +228,7 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 			throws DataAccessException {
 		
 		List<Integer> duplicateIndexList = new ArrayList<Integer>();
+		List<String> insertedIdList = new ArrayList<String>();
 		int numberOfSurveys = surveyUploadList.size();
 		
 		// The following variables are used in logging messages when errors occur
@@ -168,19 +236,52 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 		Response currentPromptResponse = null;
 		String currentSql = null;
 
-		List<File> fileList = new LinkedList<File>();  // keep track of files created along the process
+		// Write the media before the transaction begins, so that it only 
+		// writes rows and its duration does not depend on the media's size.
+		final MediaStagingArea stagingArea = 
+			stageMedia(
+				surveyUploadList,
+				bufferedImageMap,
+				videoContentsMap,
+				audioContentsMap,
+				documentContentsMap);
 		
 		// Wrap all of the inserts in a transaction 
 		DefaultTransactionDefinition def = new DefaultTransactionDefinition();
 		def.setName("survey upload");
 		DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(getDataSource());
-		TransactionStatus status = transactionManager.getTransaction(def); // begin transaction
+		TransactionStatus status;
+		try {
+			status = transactionManager.getTransaction(def); // begin transaction
+		}
+		catch(TransactionException te) {
+			discardMedia(stagingArea);
+			throw new DataAccessException(te);
+		}
 		
 		// Use a savepoint to handle nested rollbacks if duplicates are found
 		// Object savepoint = status.createSavepoint();
 		
 		try { // handle TransactionExceptions
 			
+		    // A deleted campaign's survey responses keep their UUIDs until
+		    // they are removed in the background, so any that are being 
+		    // uploaded again are removed now.
+		    List<String> surveyResponseIds = new ArrayList<String>(numberOfSurveys);
+		    for(SurveyResponse surveyUpload : surveyUploadList) {
+			surveyResponseIds.add(surveyUpload.getSurveyResponseId().toString());
+		    }
+		    try {
+			CampaignDeletionQueries.removeDeletedSurveyResponses(
+				getJdbcTemplate(), 
+				surveyResponseIds);
+		    } catch (org.springframework.dao.DataAccessException dae) {
+			LOGGER.error("caught DataAccessException", dae);
+			rollback(transactionManager, status);
+			discardMedia(stagingArea);
+			throw new DataAccessException(dae);
+		    }
+		    
 		    for(int surveyIndex = 0; surveyIndex < numberOfSurveys; surveyIndex++) { 
 				
 			try { // handle DataAccessExceptions
@@ -264,17 +365,15 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 					username,
 					client,
 					surveyResponseId,
-					fileList,
+					stagingArea,
 					uploadPromptResponse,
 					null,
-					bufferedImageMap,
-					videoContentsMap,
-					audioContentsMap,
-					documentContentsMap,
 					transactionManager,
 				    	status);
 			    }
 			    
+			    insertedIdList.add(surveyUpload.getSurveyResponseId().toString());
+			    
 			} catch (DataIntegrityViolationException dive) { // a unique index exists only on the survey_response table
 			    if(isDuplicate(dive)) {
 				LOGGER.debug("Found a duplicate survey upload message for user " + username);				
@@ -289,10 +388,8 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 				
 				LOGGER.error("Caught DataAccessException", dive);
 				logErrorDetails(currentSurveyResponse, currentPromptResponse, currentSql, username, campaignUrn);
-				for(File f : fileList) {
-				    f.delete();
-				}
 				rollback(transactionManager, status);
+				discardMedia(stagingArea);
 				throw new DataAccessException(dive);
 			    }
 			} catch (org.springframework.dao.DataAccessException|
@@ -302,25 +399,43 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 			    // Or something is wrong with createPromptResponse e.g. duplicate UUID	
 			    LOGGER.error("caught DataAccessException", dae);
 			    logErrorDetails(currentSurveyResponse, currentPromptResponse, currentSql, username, campaignUrn);
-			    for(File f : fileList) {
-				f.delete();
-			    }
 			    rollback(transactionManager, status);
+			    discardMedia(stagingArea);
 			    throw new DataAccessException(dae);
 			}
 				
 		    } // for surveyIndex
+		    
+		    // Count the new responses in the campaign's statistics
+		    try {
+			addResponseStatistics(insertedIdList);
+		    } catch (org.springframework.dao.DataAccessException dae) {
+			LOGGER.error("caught DataAccessException", dae);
+			rollback(transactionManager, status);
+			discardMedia(stagingArea);
+			throw new DataAccessException(dae);
+		    }
 			
 		    // Finally, commit the transaction
 		    transactionManager.commit(status);
 		    LOGGER.info("Completed survey message persistence");
+		    
+		    // Once the request's changes have been committed, move the 
+		    // recorded media into place and discard the media of any 
+		    // duplicates. Until then, the files are left staged, which is 
+		    // where recovery finds them if the commit fails.
+		    ConnectionContext.afterCommit(new Runnable() {
+			@Override
+			public void run() {
+			    stagingArea.promote();
+			    discardMedia(stagingArea);
+			}
+		    });
 		} 		
 		catch (TransactionException te) { 	
 		    LOGGER.error("failed to commit survey upload transaction, attempting to rollback", te);
 		    rollback(transactionManager, status);
-		    for(File f : fileList) {
-			f.delete();
-		    }
+		    discardMedia(stagingArea);
 		    logErrorDetails(currentSurveyResponse, currentPromptResponse, currentSql, username, campaignUrn);
 		    throw new DataAccessException(te);
 		}
@@ -379,9 +494,8 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 	 * @param surveyResponseId
 	 *        The unique identifier for this survey response.
 	 * 
-	 * @param fileList
-	 *        The list of files saved to the disk, which should be a reference
-	 *        to a list that will be populated by this function.
+	 * @param stagingArea
+	 *        The media that were written before the transaction began.
 	 * 
 	 * @param promptUploadList
 	 *        The collection of prompt responses to store.
@@ -390,12 +504,6 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 	 *        If these prompt responses were part of a repeatable set, this is
 	 *        the iteration of that repeatable set; otherwise, null.
 	 * 
-	 * @param bufferedImageMap
-	 *        The map of image IDs to their contents.
-	 * 
-	 * @param videoContentsMap
-	 *        The map of video IDs to their contents.
-	 * 
 	 * @param transactionManager
 	 *        The manager for this transaction.
 	 * 
@@ -408,13 +516,9 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 	private void createPromptResponse(
 		final String username, final String client,
 		final Number surveyResponseId,
-		final List<File> fileList,
+		final MediaStagingArea stagingArea,
 		final Response uploadPromptResponse, 
 		final Integer repeatableSetIteration,
-		final Map<UUID, Image> bufferedImageMap,
-		final Map<UUID, Video> videoContentsMap, 
-		final Map<UUID, Audio> audioContentsMap, 
-		final Map<UUID, IMedia> documentContentsMap,
 		final DataSourceTransactionManager transactionManager,
 		final TransactionStatus status) 
 			throws DataAccessException {
@@ -429,13 +533,9 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 			    username,
 			    client,
 			    surveyResponseId,
-			    fileList,
+			    stagingArea,
 			    response,
 			    iteration,
-			    bufferedImageMap,
-			    videoContentsMap,
-			    audioContentsMap,
-			    documentContentsMap,
 			    transactionManager,
 			    status);
 		    }
@@ -493,16 +593,12 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 	    // Save other media files.
 	    if( (promptResponse instanceof MediaPromptResponse)	) {
 
-		// insert a new entry in the db and file system
+		// insert a new entry in the db for the staged media
 		try {
-		    insertMediaReseponse(
+		    insertStagedMediaResponse(
 			    username, client,
 			    promptResponse,
-			    bufferedImageMap,
-			    videoContentsMap, 
-			    audioContentsMap, 
-			    documentContentsMap,
-			    fileList);
+			    stagingArea);
 		} catch (DataAccessException e) {
 		    throw new DataAccessException("Can't insert a new entry in the url_based_resource", e);
 		}
@@ -511,21 +607,12 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 	}
 	
 	/**
-	 * Insert the media prompt response entry in url_based_resource
-	 * and save a list of any attached files, images, videos, etc..
+	 * Writes the media of the survey responses to the staging area, or adds
+	 * them to the content-addressed store, before the upload's transaction
+	 * begins.
 	 * 
-	 * @param username
-	 *        The username of the user saving this prompt response.
-	 * 
-	 * @param client
-	 *        The name of the device used to generate the response.
-	 * 	  
-	 * @param promptResponse
-	 *        The media prompt response.
-	 * 
-	 * @param repeatableSetIteration
-	 *        If these prompt responses were part of a repeatable set, this is
-	 *        the iteration of that repeatable set; otherwise, null.
+	 * @param surveyUploadList
+	 *        The survey responses being uploaded.
 	 * 
 	 * @param imageContentsMap
 	 *        The map of image IDs to their contents.
@@ -536,105 +623,320 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 	 * @param audioContentsMap
 	 *        The map of audio IDs to their contents.
 	 *
-	 * @param fileContentMap
+	 * @param fileContentsMap
 	 *        The map of file IDs to their contents.
-	 *	 
-	 * @param fileList
-	 *        The list of files saved to the disk. The content of 
-	 *        the list is populated by this function.
-	 *        
+	 * 
+	 * @return The staged media.
+	 * 
 	 * @throws DataAccessException
-	 *         There was an error saving the information.
+	 *         A media file could not be written. Any that were written have
+	 *         been discarded.
 	 */
-	public void insertMediaReseponse(
-		final String username, final String client,
-		final PromptResponse promptResponse,
+	private MediaStagingArea stageMedia(
+		final List<SurveyResponse> surveyUploadList,
 		final Map<UUID, Image> imageContentsMap,
 		final Map<UUID, Video> videoContentsMap, 
 		final Map<UUID, Audio> audioContentsMap, 
-		final Map<UUID, IMedia> fileContentsMap,
-		final Collection<File> fileList
-		) throws DataAccessException {
+		final Map<UUID, IMedia> fileContentsMap)
+			throws DataAccessException {
+	    
+	    MediaStagingArea stagingArea = new MediaStagingArea();
+	    try {
+		for(SurveyResponse surveyResponse : surveyUploadList) {
+		    for(Response response : surveyResponse.getResponses().values()) {
+			stageMedia(
+				stagingArea,
+				response,
+				imageContentsMap,
+				videoContentsMap,
+				audioContentsMap,
+				fileContentsMap);
+		    }
+		}
+	    }
+	    catch(DataAccessException e) {
+		discardMedia(stagingArea);
+		throw e;
+	    }
+	    catch(DomainException e) {
+		discardMedia(stagingArea);
+		throw new DataAccessException(
+			"Could not get or write to the media directory.",
+			e);
+	    }
+	    
+	    return stagingArea;
+	}
+	
+	/**
+	 * Stages the media of a prompt response or of the prompt responses in a
+	 * repeatable set.
+	 * 
+	 * @see #stageMedia(List, Map, Map, Map, Map)
+	 */
+	private void stageMedia(
+		final MediaStagingArea stagingArea,
+		final Response response,
+		final Map<UUID, Image> imageContentsMap,
+		final Map<UUID, Video> videoContentsMap, 
+		final Map<UUID, Audio> audioContentsMap, 
+		final Map<UUID, IMedia> fileContentsMap)
+			throws DataAccessException, DomainException {
 	    
-	    if (! (promptResponse instanceof MediaPromptResponse)) {
-		LOGGER.error("Attempting to update url_based_resource with non-media prompts: " + promptResponse.getId());
-		throw new DataAccessException("Can't insert non_media prompts in the url_based_resource: " + promptResponse.getId());
+	    if(response instanceof RepeatableSetResponse) {
+		for(Map<Integer, Response> iteration : 
+		    ((RepeatableSetResponse) response).getResponseGroups().values()) {
+		    
+		    for(Response iterationResponse : iteration.values()) {
+			stageMedia(
+				stagingArea,
+				iterationResponse,
+				imageContentsMap,
+				videoContentsMap,
+				audioContentsMap,
+				fileContentsMap);
+		    }
+		}
+		return;
 	    }
 	    
+	    if(! (response instanceof MediaPromptResponse)) {
+		return;
+	    }
+	    Object responseValue = ((PromptResponse) response).getResponse();
+	    if(responseValue instanceof NoResponse) {
+		return;
+	    }
+	    
+	    UUID id = UUID.fromString(responseValue.toString());
+	    IMedia media;
+	    Class<? extends IMedia> mediaType;
+	    if(response instanceof PhotoPromptResponse) {
+		media = imageContentsMap.get(id);
+		mediaType = Image.class;
+	    } else if(response instanceof AudioPromptResponse) {
+		media = audioContentsMap.get(id);
+		mediaType = Audio.class;
+	    } else if(response instanceof VideoPromptResponse) {
+		media = videoContentsMap.get(id);
+		mediaType = Video.class;
+	    } else if(response instanceof FilePromptResponse) {
+		media = fileContentsMap.get(id);
+		mediaType = OFile.class;
+	    } else {
+		return;
+	    }
+	    if(media == null) {
+		throw new DataAccessException("The media is missing: " + id);
+	    }
+	    
+	    // Images are stored next to their resized copies, so only the other
+	    // media may share their contents.
+	    if((mediaType != Image.class) && contentQueries.isEnabled()) {
+		String contentHash = contentQueries.store(media.getContentStream());
+		stagingArea.stageContent(
+			id, 
+			media, 
+			contentHash, 
+			contentQueries.getUrl(contentHash));
+	    }
+	    else {
+		stagingArea.stage(
+			id,
+			media,
+			MediaDirectoryCache.getStagingDirectory(mediaType),
+			MediaDirectoryCache.getMediaDirectory(mediaType));
+	    }
+	}
+	
+	/**
+	 * Inserts the url_based_resource entry of a media prompt response whose
+	 * media has already been staged.
+	 * 
+	 * @param username
+	 *        The username of the user saving this prompt response.
+	 * 
+	 * @param client
+	 *        The name of the device used to generate the response.
+	 * 
+	 * @param promptResponse
+	 *        The media prompt response.
+	 * 
+	 * @param stagingArea
+	 *        The staged media.
+	 * 
+	 * @throws DataAccessException
+	 *         The media already exists, was not staged, or could not be 
+	 *         inserted.
+	 */
+	private void insertStagedMediaResponse(
+		final String username, final String client,
+		final PromptResponse promptResponse,
+		final MediaStagingArea stagingArea)
+			throws DataAccessException {
+	    
 	    Object responseValue = promptResponse.getResponse();
-	    if(! (responseValue instanceof NoResponse)) {	
-				
-		// Attempt to write it to the file system.
+	    if(responseValue instanceof NoResponse) {
+		return;
+	    }
+	    
+	    String mediaId = responseValue.toString();
+	    UUID id = UUID.fromString(mediaId);
+	    try {
+		MediaServices.instance().verifyMediaExistance(id, false);	
+	    } catch (ServiceException e) {
+		throw new DataAccessException(e);
+	    }
+	    
+	    MediaStagingArea.StagedMedia media = stagingArea.record(id);
+	    if(media == null) {
+		throw new DataAccessException("The media was not staged: " + mediaId);
+	    }
+	    
+	    try {
+		getJdbcTemplate().update(
+			SQL_INSERT_MEDIA, 
+			new Object[] { 
+				username, 
+				client, 
+				mediaId, 
+				media.getUrl(), 
+				media.getMetadata(), 
+				media.getContentHash() }
+			);
+	    }
+	    catch(org.springframework.dao.DataAccessException e) {
+		throw new DataAccessException(
+			"Error executing SQL '" + SQL_INSERT_MEDIA + 
+			"' with parameters: " + username + ", " + 
+			client + ", " + mediaId + ", " + media.getUrl() + ", " + 
+			media.getMetadata() + ", " + media.getContentHash(),
+			e);
+	    }
+	}
+	
+	/**
+	 * Deletes the staged media that were not promoted and releases their 
+	 * contents from the content-addressed store. This must not be called
+	 * while the upload's transaction is open, as the releases would join it.
+	 * 
+	 * @param stagingArea
+	 *        The staged media.
+	 */
+	private void discardMedia(final MediaStagingArea stagingArea) {
+	    for(String contentHash : stagingArea.discard()) {
 		try {
-		    // Get the media ID.
-		    String mediaId = responseValue.toString();
-		    UUID id = UUID.fromString(mediaId);
-		    IMedia media = null;
-				
-		    try {
-			MediaServices.instance().verifyMediaExistance(id, false);	
-		    } catch (ServiceException e) {
-			LOGGER.debug("HT: The media UUID already exist" + mediaId);
-			throw new DataAccessException(e);
+		    contentQueries.release(contentHash);
+		}
+		catch(DataAccessException e) {
+		    LOGGER.error("Could not release staged contents: " + contentHash, e);
+		}
+	    }
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.ISurveyUploadQuery#recoverStagedMedia(long)
+	 */
+	@Override
+	public void recoverStagedMedia(final long minimumAge) 
+			throws DataAccessException {
+	    
+	    Collection<File> stagingDirectories;
+	    try {
+		stagingDirectories = MediaDirectoryCache.getStagingDirectories();
+	    }
+	    catch(DomainException e) {
+		throw new DataAccessException(
+			"Could not get the staging directories.",
+			e);
+	    }
+	    
+	    long cutoff = System.currentTimeMillis() - minimumAge;
+	    for(File stagingDirectory : stagingDirectories) {
+		File[] uploadDirectories = stagingDirectory.listFiles();
+		if(uploadDirectories == null) {
+		    continue;
+		}
+		
+		for(File uploadDirectory : uploadDirectories) {
+		    // Uploads that are still in progress are left alone.
+		    if(uploadDirectory.lastModified() > cutoff) {
+			continue;
 		    }
-
-		    // Get the current media directory.
-		    File currMediaDirectory = null;
-		    if (promptResponse instanceof PhotoPromptResponse) {
-			currMediaDirectory = MediaDirectoryCache.getImageDirectory();
-			media = imageContentsMap.get(id);	
-		    } else if (promptResponse instanceof AudioPromptResponse) {
-			currMediaDirectory = MediaDirectoryCache.getAudioDirectory();
-			media = audioContentsMap.get(id);		
-		    } else if (promptResponse instanceof VideoPromptResponse) {							
-			currMediaDirectory = MediaDirectoryCache.getVideoDirectory();
-			media = videoContentsMap.get(id);	
-		    } else if (promptResponse instanceof FilePromptResponse) {
-			currMediaDirectory = MediaDirectoryCache.getFileDirectory();
-			media = fileContentsMap.get(id);	
-		    } else if (promptResponse instanceof PhotoPromptResponse) {
-			currMediaDirectory = MediaDirectoryCache.getImageDirectory();
-			media = imageContentsMap.get(id);	
-		    } 
-		    
-		    
-		    // Get the file. Only use UUID to store file since all detail should 
-		    // be stored in the db. 
-		    
-		    File mediaFile = media.writeContent(currMediaDirectory);  // write the media content to mediaFile
-		    fileList.add(mediaFile);	// Store the file reference. 
 		    
-		    // Get the media URL.
-		    String url = "file://" + mediaFile.getAbsolutePath();
-		    // LOGGER.debug("HT: media prompt: " + promptResponse.getPrompt().getType() + ", " + url);
-					
-		    // Get the contentInfo
-		    String metadata = media.getMetadata();
+		    File[] files = uploadDirectory.listFiles();
+		    if(files != null) {
+			for(File file : files) {
+			    recoverStagedFile(file);
+			}
+		    }
 		    
-		    // Insert the media URL into the database.
-		    try {
-			getJdbcTemplate().update(
-				SQL_INSERT_MEDIA, 
-				new Object[] { username, client, mediaId, url, metadata }
-				);
+		    if(! uploadDirectory.delete()) {
+			LOGGER.warn("Could not delete the staging directory: " + uploadDirectory);
 		    }
-		    catch(org.springframework.dao.DataAccessException e) {
-			throw new DataAccessException(
-				"Error executing SQL '" + SQL_INSERT_MEDIA + 
-				"' with parameters: " + username + ", " + 
-				client + ", " + mediaId + ", " + url + ", " + metadata,
-				e);
+		}
+	    }
+	}
+	
+	/**
+	 * Moves a staged file to where its media's URL points if the media was
+	 * recorded; otherwise, deletes it.
+	 * 
+	 * @param file
+	 *        The staged file, whose name begins with its media's ID.
+	 * 
+	 * @throws DataAccessException
+	 *         There was an error looking up the media.
+	 */
+	private void recoverStagedFile(final File file) throws DataAccessException {
+	    String name = file.getName();
+	    String mediaId = 
+		    name.substring(0, Math.min(name.length(), UUID_STRING_LENGTH));
+	    
+	    List<String> urls;
+	    try {
+		urls = 
+			getJdbcTemplate().query(
+				SQL_GET_MEDIA_URL, 
+				new Object[] { mediaId }, 
+				new SingleColumnRowMapper<String>());
+	    }
+	    catch(org.springframework.dao.DataAccessException e) {
+		throw new DataAccessException(
+			"Error executing SQL '" + SQL_GET_MEDIA_URL + 
+			"' with parameter: " + mediaId,
+			e);
+	    }
+	    
+	    // Only a URL that was built from the staged file's ID points into a
+	    // media directory.
+	    if(urls.size() == 1) {
+		try {
+		    File mediaFile = new File(new URL(urls.get(0)).getFile());
+		    if(mediaFile.getName().equals(mediaId)) {
+			File target = new File(mediaFile.getParentFile(), name);
+			if(target.exists()) {
+			    file.delete();
+			}
+			else {
+			    MediaStagingArea.move(file, mediaFile.getParentFile());
+			    LOGGER.info("Recovered a staged media file: " + target);
+			}
+			return;
 		    }
 		}
-		// If it fails, roll back the transaction.
-		catch(DomainException e) {
-		    throw new DataAccessException(
-			    "Could not get or write to the media directory.",
-			    e);
-		}	 
-	    } // end if
-	} 	    
-
+		catch(IOException e) {
+		    LOGGER.error("Could not recover a staged media file: " + file, e);
+		    return;
+		}
+	    }
+	    
+	    if(! file.delete()) {
+		LOGGER.warn("Could not delete a staged media file: " + file);
+	    }
+	}
+	
 	/**
 	 * Update the survey response entries in the corresponding tables and saves
 	 * any attached files, images, videos, etc., as well as deleting 
@@ -684,8 +986,8 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 		throws DataAccessException {
 	
 	    
-	    Set<File> newFileList = new HashSet<File>();  // keep track of files created along the process
-	    Set<File> oldFileList = new HashSet<File>();  // keep track of files to be deleted after the process
+	    final Set<File> oldFileList = new HashSet<File>();  // keep track of files to be deleted after the process
+	    final Set<String> oldContentHashes = new HashSet<String>();  // keep track of shared contents to be released after the process
 
 	    // need a list of media object UUID before it is updated. This is needed
 	    // to delete the entries in url_based_resource table, if applicable.
@@ -747,19 +1049,53 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 	    // The following variables are used in logging messages when errors occur
 	    SurveyResponse currentSurveyResponse = null;
 	    Response currentPromptResponse = null;
+	    
+	    // Write the new media before the transaction begins, as the inserts
+	    // do, so that no rows are locked while they are written and they
+	    // can be discarded if the update fails.
+	    final MediaStagingArea stagingArea = 
+		    stageMedia(
+			    surveyUploadList,
+			    imageContentsMap,
+			    videoContentsMap,
+			    audioContentsMap,
+			    fileContentsMap);
 	   
 	    // Wrap all of the inserts in a transaction 
 	    DefaultTransactionDefinition def = new DefaultTransactionDefinition();
 	    def.setName("survey upload---update");
 	    DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(getDataSource());
-	    TransactionStatus status = transactionManager.getTransaction(def); // begin transaction
+	    TransactionStatus status;
+	    try {
+		status = transactionManager.getTransaction(def); // begin transaction
+	    }
+	    catch(TransactionException te) {
+		discardMedia(stagingArea);
+		throw new DataAccessException(te);
+	    }
 	
 	    // Use a savepoint to handle nested rollbacks if something is wrong. 
 	    // Only do this if we want to support a subset of successful upload.
 	    // Object savepoint = status.createSavepoint();	
 
+	    // The survey and privacy state may change, so the responses are
+	    // taken out of the campaign's statistics and counted again after
+	    List<String> updatedIdList = new ArrayList<String>(numberOfSurveys);
+	    for(SurveyResponse uploadSurvey : surveyUploadList) {
+		updatedIdList.add(uploadSurvey.getSurveyResponseId().toString());
+	    }
+
 	    try { // handle TransactionExceptions
 
+		try {
+		    subtractResponseStatistics(updatedIdList);
+		} catch (org.springframework.dao.DataAccessException dae) {
+		    LOGGER.error("caught Spring DataAccessException", dae);
+		    rollback(transactionManager, status);
+		    discardMedia(stagingArea);
+		    throw new DataAccessException(dae);
+		}
+
 		for(int surveyIndex = 0; surveyIndex < numberOfSurveys; surveyIndex++) { 
 			
 		    try { // handle DataAccessExceptions
@@ -848,13 +1184,10 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 					surveyResponseDbId,
 					uploadPromptResponse,
 					null,
-					imageContentsMap,
-					videoContentsMap,
-					audioContentsMap,
-					fileContentsMap,
+					stagingArea,
 					mediaResponseMap, 
-					newFileList,
-					oldFileList);
+					oldFileList,
+					oldContentHashes);
 			    } catch (DataAccessException e) {
 				LOGGER.error("Can't update prompt_response and/or url_based_resource" + username);	
 				throw new DataAccessException(e);	    
@@ -866,9 +1199,7 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 			LOGGER.error("Caught DataIntegrityViolationException", dive);
 			logErrorDetails(currentSurveyResponse, currentPromptResponse, sqlUpdateSurveyResponse, username, campaignUrn);
 			rollback(transactionManager, status);
-			for(File f : newFileList) {
-			    f.delete();
-			}
+			discardMedia(stagingArea);
 			throw new DataAccessException(dive);
 			
 		    } catch (org.springframework.dao.DataAccessException|DataAccessException dae) { 
@@ -877,22 +1208,45 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 			LOGGER.error("caught Spring DataAccessException", dae);
 			logErrorDetails(currentSurveyResponse, currentPromptResponse, sqlUpdateSurveyResponse, username, campaignUrn);
 			rollback(transactionManager, status);
-			for(File f : newFileList) {
-			    f.delete();
-			}
+			discardMedia(stagingArea);
 			throw new DataAccessException(dae);
 		    }
 			
 		} // for surveyIndex
 		
+		try {
+		    addResponseStatistics(updatedIdList);
+		} catch (org.springframework.dao.DataAccessException dae) {
+		    LOGGER.error("caught Spring DataAccessException", dae);
+		    rollback(transactionManager, status);
+		    discardMedia(stagingArea);
+		    throw new DataAccessException(dae);
+		}
+		
 		// Finally, commit the transaction
 		transactionManager.commit(status);
 		
-		// Delete old files if the update is done successfully 
-		for (File f : oldFileList) {
-		    f.delete();
-		    LOGGER.debug("File Deleted: " + f.getAbsolutePath());
-		}
+		// Once the request's changes have been committed, move the new 
+		// media into place and delete the old files.
+		ConnectionContext.afterCommit(new Runnable() {
+		    @Override
+		    public void run() {
+			stagingArea.promote();
+			discardMedia(stagingArea);
+			
+			for (File f : oldFileList) {
+			    f.delete();
+			    LOGGER.debug("File Deleted: " + f.getAbsolutePath());
+			}
+			for (String contentHash : oldContentHashes) {
+			    try {
+				contentQueries.release(contentHash);
+			    } catch (DataAccessException e) {
+				LOGGER.error("Could not release the contents: " + contentHash, e);
+			    }
+			}
+		    }
+		});
 		
 		LOGGER.info("Completed survey update persistence");
 	} 
@@ -900,9 +1254,7 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 	    LOGGER.error("failed to commit survey update transaction, attempting to rollback", te);
 	    logErrorDetails(currentSurveyResponse, currentPromptResponse, sqlUpdateSurveyResponse, username, campaignUrn);
 	    rollback(transactionManager, status);
-	    for(File f : newFileList) {
-		f.delete();
-	    }
+	    discardMedia(stagingArea);
 	    throw new DataAccessException(te);
 	}
 	    
@@ -933,31 +1285,23 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 	 *        If these prompt responses were part of a repeatable set, this is
 	 *        the iteration of that repeatable set; otherwise, null.
 	 * 
-	 * @param imageContentsMap
-	 *        The map of image IDs to their contents.
-	 * 
-	 * @param videoContentsMap
-	 *        The map of video IDs to their contents.
-	 * 
-	 * @param audioContentsMap
-	 *        The map of audio IDs to their contents.
-	 *
-	 * @param fileContentMap
-	 *        The map of file IDs to their contents.
+	 * @param stagingArea
+	 *        The staged media of the updated prompt responses.
 	 *
 	 * @param mediaResponseMap 
 	 * 	  The map of media prompt ID to its media UUID.
 	 * 	  This map contains the mapping stored in the DB prior
 	 * 	  to the update.
-	 *
-	 * @param newFileList
-	 *        The list of files saved to the disk. The content of 
-	 *        the list is populated by this function.
 	 * 	  
 	 * @param oldFileList
 	 *        The list of files to be deleted from the disk. The content of 
 	 *        the list is populated by this function. It contains 
 	 *        the out-of-date media files to be deleted due to the update.
+	 * 
+	 * @param oldContentHashes
+	 *        The hashes of the out-of-date media contents in the 
+	 *        content-addressed store that are to be released due to the
+	 *        update. The content of the list is populated by this function.
 	 *        
 	 * @throws DataAccessException
 	 *         There was an error saving the information.
@@ -967,13 +1311,10 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 			final Number surveyResponseDbId,
 			final Response uploadPromptResponse,
 			final Integer repeatableSetIteration,
-			final Map<UUID, Image> imageContentsMap,
-			final Map<UUID, Video> videoContentsMap, 
-			final Map<UUID, Audio> audioContentsMap, 
-			final Map<UUID, IMedia> fileContentsMap,
+			final MediaStagingArea stagingArea,
 			final Map<String, UUID> mediaResponseMap, 
-			final Collection<File> newFileList,
-			final Collection<File> oldFileList
+			final Collection<File> oldFileList,
+			final Collection<String> oldContentHashes
 		) 
 			throws DataAccessException {
 
@@ -1049,6 +1390,23 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 		    } else {
 			LOGGER.debug("Attempt to dalete " + existingUuid.toString() + ", " + existingMediaUrl);
 		    }
+		    
+		    // check whether the contents are shared in the content-addressed
+		    // store rather than being in their own file.
+		    String existingContentHash;
+		    try {
+			existingContentHash = 
+				getJdbcTemplate().queryForObject(
+					SQL_GET_MEDIA_CONTENT_HASH, 
+					new Object[] { existingUuid.toString() }, 
+					String.class);
+		    }
+		    catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + SQL_GET_MEDIA_CONTENT_HASH + 
+				"' with parameter: " + existingUuid.toString(), 
+				e);
+		    }
 			
 		    // delete the entry from the db
 		    String sqlDeleteUrlBasedResource = 
@@ -1069,7 +1427,10 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 		    // If the operation files, the db entries can be recovered, but not 
 		    // the deleted files.
 		    try { 
-			if (promptResponse instanceof PhotoPromptResponse) {	
+			if (existingContentHash != null) {
+			    LOGGER.debug("Add the following contents to release: " + existingContentHash);
+			    oldContentHashes.add(existingContentHash);
+			} else if (promptResponse instanceof PhotoPromptResponse) {	
 			    // TODO: put this in the proper prompt response
 			    for (Image.Size size : Image.getSizes()) {
 				try {
@@ -1098,20 +1459,115 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 			
 		}
 
-		// insert a new entry in the db and file system
+		// insert a new entry in the db for the staged media
 		try {
-		    insertMediaReseponse(
+		    insertStagedMediaResponse(
 			    username, client,
 			    promptResponse,
-			    imageContentsMap,
-			    videoContentsMap, 
-			    audioContentsMap, 
-			    fileContentsMap,
-			    newFileList);
+			    stagingArea);
 		} catch (DataAccessException e) {
 		    throw new DataAccessException("Can't insert a new entry in the url_based_resource", e);
 		}
 	    }		
 	}
 	
-}
\ No newline at end of file
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.ISurveyUploadQuery#getExistingSurveyResponseIds(java.lang.String, java.lang.String, java.util.Collection)
+	 */
+	@Override
+	public Set<UUID> getExistingSurveyResponseIds(
+			final String username,
+			final String campaignUrn,
+			final Collection<UUID> surveyResponseIds)
+			throws DataAccessException {
+		
+		return
+			getExistingIds(
+				SQL_GET_EXISTING_SURVEY_RESPONSE_IDS,
+				new Object[] { username, campaignUrn },
+				surveyResponseIds);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.ISurveyUploadQuery#getExistingMediaIds(java.lang.String, java.util.Collection)
+	 */
+	@Override
+	public Set<UUID> getExistingMediaIds(
+			final String username,
+			final Collection<UUID> mediaIds)
+			throws DataAccessException {
+		
+		return
+			getExistingIds(
+				SQL_GET_EXISTING_MEDIA_IDS,
+				new Object[] { username },
+				mediaIds);
+	}
+	
+	/**
+	 * Looks up which of the identifiers exist, a batch at a time, using the 
+	 * unique index on the table's 'uuid' column.
+	 * 
+	 * @param sql
+	 *        The query, which must end with an IN clause to which the 
+	 *        parameter list is appended.
+	 * @param parameters
+	 *        The parameters that precede the identifiers.
+	 * @param ids
+	 *        The identifiers.
+	 * @return The subset of the identifiers that exist.
+	 * @throws DataAccessException
+	 *         There was an error.
+	 */
+	private Set<UUID> getExistingIds(
+			final String sql,
+			final Object[] parameters,
+			final Collection<UUID> ids)
+			throws DataAccessException {
+		
+		Set<UUID> result = new HashSet<UUID>();
+		if((ids == null) || ids.isEmpty()) {
+			return result;
+		}
+		
+		List<UUID> idList = new ArrayList<UUID>(ids);
+		for(int start = 0; start < idList.size(); start += EXISTING_ID_BATCH_SIZE) {
+			List<UUID> batch = 
+				idList.subList(
+					start, 
+					Math.min(start + EXISTING_ID_BATCH_SIZE, idList.size()));
+			
+			String batchSql = 
+				sql + StringUtils.generateStatementPList(batch.size());
+			List<Object> batchParameters = 
+				new ArrayList<Object>(parameters.length + batch.size());
+			Collections.addAll(batchParameters, parameters);
+			for(UUID id : batch) {
+				batchParameters.add(id.toString());
+			}
+			
+			try {
+				for(String id : 
+						getJdbcTemplate().query(
+							batchSql, 
+							batchParameters.toArray(), 
+							new SingleColumnRowMapper<String>())) {
+					
+					result.add(UUID.fromString(id));
+				}
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				throw new DataAccessException(
+					"Error executing SQL '" + 
+						batchSql + 
+						"' with parameters: " + 
+						batchParameters,
+					e);
+			}
+		}
+		
+		return result;
+	}
+}
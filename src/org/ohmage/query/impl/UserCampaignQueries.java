@@ -32,6 +32,7 @@ import java.util.Set;
 import javax.sql.DataSource;
 
 import org.joda.time.DateTime;
+import org.ohmage.domain.UserPrivileges;
 import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.domain.campaign.Campaign.Role;
 import org.ohmage.domain.campaign.CampaignMask;
@@ -319,6 +320,12 @@ public final class UserCampaignQueries extends Query implements IUserCampaignQue
 	 * @return A possibly empty List of roles for this user in this campaign.
 	 */
 	public List<Campaign.Role> getUserCampaignRoles(String username, String campaignId) throws DataAccessException {
+		UserPrivileges privileges = getUserPrivileges(username);
+		if(privileges != null) {
+			return new ArrayList<Campaign.Role>(
+					privileges.getCampaignRoles(campaignId));
+		}
+		
 		try {
 			return getJdbcTemplate().query(
 					SQL_GET_USER_CAMPAIGN_ROLES, 
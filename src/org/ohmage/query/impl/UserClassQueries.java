@@ -32,6 +32,7 @@ import javax.sql.DataSource;
 import org.apache.log4j.Logger;
 import org.ohmage.domain.Clazz;
 import org.ohmage.domain.Clazz.Role;
+import org.ohmage.domain.UserPrivileges;
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.query.IUserClassQueries;
 import org.ohmage.util.StringUtils;
@@ -261,6 +262,11 @@ public final class UserClassQueries extends Query implements IUserClassQueries {
 	 * 		   the class in which case null is returned.
 	 */
 	public Clazz.Role getUserClassRole(String classId, String username) throws DataAccessException {
+		UserPrivileges privileges = getUserPrivileges(username);
+		if(privileges != null) {
+			return privileges.getClassRole(classId);
+		}
+		
 		try {
 			return Clazz.Role.getValue(getJdbcTemplate().queryForObject(SQL_GET_USER_ROLE, new Object[] { username, classId }, String.class));
 		}
@@ -290,6 +296,18 @@ public final class UserClassQueries extends Query implements IUserClassQueries {
 			return Collections.emptySet();
 		}
 		
+		UserPrivileges privileges = getUserPrivileges(username);
+		if(privileges != null) {
+			Set<Clazz.Role> result = new HashSet<Clazz.Role>();
+			for(String classId : classIds) {
+				Clazz.Role role = privileges.getClassRole(classId);
+				if(role != null) {
+					result.add(role);
+				}
+			}
+			return result;
+		}
+		
 		String sql = 
 				SQL_GET_DISTINCT_USER_ROLES + 
 				StringUtils.generateStatementPList(classIds.size());
@@ -584,6 +602,9 @@ public final class UserClassQueries extends Query implements IUserClassQueries {
 						"Error while committing the transaction.", 
 						e);
 			}
+			
+			// The user's roles have changed.
+			invalidateUserPrivileges(username);
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException(
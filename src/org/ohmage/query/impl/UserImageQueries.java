@@ -40,12 +40,13 @@ public final class UserImageQueries extends Query implements IUserImageQueries {
 	private static final String SQL_EXISTS_IMAGE_FOR_USER_IN_RESPONSE =
 		"SELECT EXISTS(" +
 			"SELECT pr.response " +
-			"FROM user u, prompt_response pr, survey_response sr " +
+			"FROM user u, prompt_response pr, survey_response sr, campaign c " +
 			"WHERE u.username = ? " +
 			"AND pr.response = ? " +
 			"AND pr.prompt_type = 'photo' " +
 			"AND pr.survey_response_id = sr.id " +
-			"AND sr.user_id = u.id" +
+			"AND sr.user_id = u.id " +
+			"AND sr.campaign_id = c.id" +
 		")";
 	
 	// Retrieves the name of the user that created the image.
@@ -59,9 +60,10 @@ public final class UserImageQueries extends Query implements IUserImageQueries {
 	// survey responses for all campaigns.
 	private static final String SQL_GET_URLS_FOR_ALL_IMAGE_RESPONSES_FOR_USER =
 		"SELECT ubr.url " +
-		"FROM user u, survey_response sr, prompt_response pr, url_based_resource ubr " +
+		"FROM user u, survey_response sr, campaign c, prompt_response pr, url_based_resource ubr " +
 		"WHERE u.username = ? " +
 		"AND u.id = sr.user_id " +
+		"AND sr.campaign_id = c.id " +
 		"AND sr.id = pr.survey_response_id " +
 		"AND pr.prompt_type = 'photo' " +
 		"AND pr.response = ubr.uuid";
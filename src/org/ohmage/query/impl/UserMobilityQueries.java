@@ -125,11 +125,13 @@ public final class UserMobilityQueries extends AbstractUploadQuery implements IU
 	private static final String SQL_ORDER_BY_DATE =
 		" ORDER BY epoch_millis";
 	
-	// Retrieves the epoch millisecond values for all of the mobility points 
-	// for a user within the date ranges.
+	// Retrieves a time and time zone for each day on which a user has 
+	// Mobility points within the date range. This reads the index of days
+	// that is kept as stream data is uploaded, so it doesn't need to read the
+	// points themselves.
 	private static final String SQL_GET_MIN_MAX_MILLIS_FOR_USER_WITHIN_RANGE_GROUPED_BY_TIME_AND_TIMEZONE =
 		"SELECT time, time_zone " +
-		"FROM observer_stream_data " +
+		"FROM observer_stream_data_day " +
 		"WHERE user_id = (SELECT id FROM user WHERE username = ?) " +
 		"AND observer_stream_link_id IN (" +
 			"SELECT id FROM observer_stream_link WHERE observer_id IN (" +
@@ -138,9 +140,9 @@ public final class UserMobilityQueries extends AbstractUploadQuery implements IU
 				"WHERE observer_id = 'edu.ucla.cens.Mobility'" +
 			")" +
 		") " +
-		"AND time_adjusted >= ? " +
-		"AND time_adjusted <= ? " +
-		"GROUP BY (time_adjusted DIV " + MILLIS_PER_DAY + ")";
+		"AND day >= ? " +
+		"AND day <= ? " +
+		"GROUP BY day";
 	
 	// Inserts a mode-only entry into the database.
 	private static final String SQL_INSERT =
@@ -630,8 +632,8 @@ public final class UserMobilityQueries extends AbstractUploadQuery implements IU
 
 		List<Object> parameters = new ArrayList<Object>(3);
 		parameters.add(username);
-		parameters.add(startDate.getMillis());
-		parameters.add(endDate.getMillis());
+		parameters.add(startDate.getMillis() / MILLIS_PER_DAY);
+		parameters.add(endDate.getMillis() / MILLIS_PER_DAY);
 		
 		try {
 			return getJdbcTemplate().query(
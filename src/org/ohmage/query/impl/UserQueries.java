@@ -22,14 +22,17 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 import javax.sql.DataSource;
 
 import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.cache.PreferenceCache;
+import org.ohmage.cache.SearchIndexCache;
 import org.ohmage.domain.Clazz;
 import org.ohmage.domain.UserInformation;
 import org.ohmage.domain.UserInformation.UserPersonal;
+import org.ohmage.domain.UserPrivileges;
 import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.exception.CacheMissException;
 import org.ohmage.exception.DataAccessException;
@@ -458,6 +461,10 @@ public class UserQueries extends Query implements IUserQueries {
 						username + ", " + hashedPassword + ", " + initialPassword + ", " + emailAddress + ", " + tAdmin + ", " + tEnabled + ", " + tNewAccount + ", " + tCampaignCreationPrivilege + ", " + tExternalAccount, e);
 			}
 			
+			// Other servers' search indices are now out of date.
+			long searchIndexStamp =
+				incrementSearchIndexStamp(transactionManager, status);
+			
 			// Commit the transaction.
 			try {
 				transactionManager.commit(status);
@@ -466,6 +473,12 @@ public class UserQueries extends Query implements IUserQueries {
 				transactionManager.rollback(status);
 				throw new DataAccessException("Error while committing the transaction.", e);
 			}
+			
+			// The user's privileges may have changed.
+			invalidateUserPrivileges(username);
+			
+			// Update the search index now that the change is visible.
+			refreshSearchIndexForUser(username, searchIndexStamp);
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
@@ -678,6 +691,10 @@ public class UserQueries extends Query implements IUserQueries {
 			
 			// Commit the transaction if necessary.
 			if(result) {
+				// Other servers' search indices are now out of date.
+				long searchIndexStamp =
+					incrementSearchIndexStamp(transactionManager, status);
+				
 				try {
 					transactionManager.commit(status);
 				}
@@ -685,6 +702,12 @@ public class UserQueries extends Query implements IUserQueries {
 					transactionManager.rollback(status);
 					throw new DataAccessException("Error while committing the transaction.", e);
 				}
+				
+				// The user's privileges may have changed.
+				invalidateUserPrivileges(username);
+				
+				// Update the search index now that the change is visible.
+				refreshSearchIndexForUser(username, searchIndexStamp);
 			}
 		}
 		catch(TransactionException e) {
@@ -892,6 +915,10 @@ public class UserQueries extends Query implements IUserQueries {
 						e);
 			}
 			
+			// Other servers' search indices are now out of date.
+			long searchIndexStamp =
+				incrementSearchIndexStamp(transactionManager, status);
+			
 			// Commit the transaction.
 			try {
 				transactionManager.commit(status);
@@ -900,6 +927,12 @@ public class UserQueries extends Query implements IUserQueries {
 				transactionManager.rollback(status);
 				throw new DataAccessException("Error while committing the transaction.", e);
 			}
+			
+			// The user's privileges may have changed.
+			invalidateUserPrivileges(username);
+			
+			// Update the search index now that the change is visible.
+			refreshSearchIndexForUser(username, searchIndexStamp);
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
@@ -1014,6 +1047,11 @@ public class UserQueries extends Query implements IUserQueries {
 	 * 							   query.
 	 */
 	public Boolean userIsAdmin(String username) throws DataAccessException {
+		UserPrivileges privileges = getUserPrivileges(username);
+		if(privileges != null) {
+			return privileges.isAdmin();
+		}
+		
 		try {
 			return getJdbcTemplate().queryForObject(
 					SQL_EXISTS_USER_IS_ADMIN, 
@@ -1032,6 +1070,11 @@ public class UserQueries extends Query implements IUserQueries {
 	 */
 	@Override
 	public Boolean userIsEnabled(String username) throws DataAccessException {
+		UserPrivileges privileges = getUserPrivileges(username);
+		if(privileges != null) {
+			return privileges.isEnabled();
+		}
+		
 		try {
 			return getJdbcTemplate().queryForObject(
 					SQL_EXISTS_USER_IS_ENABLED, 
@@ -1070,6 +1113,11 @@ public class UserQueries extends Query implements IUserQueries {
 	public Boolean userHasNewAccount(String username)
 			throws DataAccessException {
 		
+		UserPrivileges privileges = getUserPrivileges(username);
+		if(privileges != null) {
+			return privileges.isNewAccount();
+		}
+		
 		try {
 			return getJdbcTemplate().queryForObject(
 					SQL_EXISTS_USER_IS_NEW_ACCOUNT, 
@@ -1887,6 +1935,39 @@ public class UserQueries extends Query implements IUserQueries {
 			parameters.addAll(classIds);
 		}
 		
+		// Restrict the search to the users whose text fields may match the
+		// tokens above. The LIKE clauses still verify each candidate.
+		Set<String> candidates = 
+				narrowCandidates(
+						null,
+						SearchIndexCache.Field.USER_USERNAME, 
+						usernames);
+		candidates = 
+				narrowCandidates(
+						candidates,
+						SearchIndexCache.Field.USER_EMAIL_ADDRESS, 
+						emailAddresses);
+		candidates = 
+				narrowCandidates(
+						candidates,
+						SearchIndexCache.Field.USER_FIRST_NAME, 
+						firstNames);
+		candidates = 
+				narrowCandidates(
+						candidates,
+						SearchIndexCache.Field.USER_LAST_NAME, 
+						lastNames);
+		candidates = 
+				narrowCandidates(
+						candidates,
+						SearchIndexCache.Field.USER_ORGANIZATION, 
+						organizations);
+		sql.append(
+				getCandidateRestriction(
+						"u.username", 
+						candidates, 
+						parameters));
+		
 		// Always order the results by username to facilitate paging.
 		sql.append(" ORDER BY u.username");
 		
@@ -2326,6 +2407,10 @@ public class UserQueries extends Query implements IUserQueries {
 				}
 			}
 			
+			// Other servers' search indices are now out of date.
+			long searchIndexStamp =
+				incrementSearchIndexStamp(transactionManager, status);
+			
 			// Commit the transaction.
 			try {
 				transactionManager.commit(status);
@@ -2334,6 +2419,12 @@ public class UserQueries extends Query implements IUserQueries {
 				transactionManager.rollback(status);
 				throw new DataAccessException("Error while committing the transaction.", e);
 			}
+			
+			// The user's privileges may have changed.
+			invalidateUserPrivileges(username);
+			
+			// Update the search index now that the change is visible.
+			refreshSearchIndexForUser(username, searchIndexStamp);
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
@@ -2385,6 +2476,9 @@ public class UserQueries extends Query implements IUserQueries {
 				transactionManager.rollback(status);
 				throw new DataAccessException("Error while committing the transaction.", e);
 			}
+			
+			// The user's new account flag may have changed.
+			invalidateUserPrivileges(username);
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
@@ -2453,6 +2547,10 @@ public class UserQueries extends Query implements IUserQueries {
 				transactionManager.rollback(status);
 				throw new DataAccessException("Error while committing the transaction.", e);
 			}
+			
+			// Only the registration ID is known, so forget everyone's 
+			// privileges to be sure this user's enabled flag is reloaded.
+			invalidateUserPrivileges();
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
@@ -2540,6 +2638,10 @@ public class UserQueries extends Query implements IUserQueries {
 				}
 			}
 			
+			// Other servers' search indices are now out of date.
+			long searchIndexStamp =
+				incrementSearchIndexStamp(transactionManager, status);
+			
 			// Commit the transaction.
 			try {
 				transactionManager.commit(status);
@@ -2548,6 +2650,13 @@ public class UserQueries extends Query implements IUserQueries {
 				transactionManager.rollback(status);
 				throw new DataAccessException("Error while committing the transaction.", e);
 			}
+			
+			// Forget the deleted users' privileges and update the search
+			// index now that the change is visible.
+			for(String username : usernames) {
+				invalidateUserPrivileges(username);
+				refreshSearchIndexForUser(username, searchIndexStamp);
+			}
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
@@ -41,12 +41,14 @@ import org.springframework.jdbc.core.RowMapper;
  * @author John Jenkins
  */
 public final class UserSurveyResponseQueries extends Query implements IUserSurveyResponseQueries {
-	// Retrieves the username of the owner of a survey response.
+	// Retrieves the username of the owner of a survey response. The survey
+	// responses of deleted campaigns have no owner.
 	private static final String SQL_GET_SURVEY_RESPONSE_OWNER =
 		"SELECT u.username " +
-		"FROM user u, survey_response sr " +
+		"FROM user u, survey_response sr, campaign c " +
 		"WHERE sr.uuid = ? " +
-		"AND sr.user_id = u.id";
+		"AND sr.user_id = u.id " +
+		"AND sr.campaign_id = c.id";
 	
 	// Retrieves all of the survey responses for a user that are visible to a
 	// requesting user.
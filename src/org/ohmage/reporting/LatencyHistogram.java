@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.reporting;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * A lock-free histogram of latencies in the style of an HDR histogram. Each
+ * power of two is split into {@value #SUB_BUCKETS} equal buckets, so every
+ * recorded value is kept to within about 6% of its true value, from one
+ * microsecond up to several hours, in a fixed, small array.
+ * </p>
+ *
+ * <p>
+ * Recording a value is a handful of atomic increments, so it is cheap enough
+ * to do for every request. Reading is done from a {@link Snapshot}, which is
+ * not atomic with respect to concurrent recordings but is never off by more
+ * than the recordings that happened while it was being taken.
+ * </p>
+ */
+public final class LatencyHistogram {
+	/**
+	 * The number of bits used for the buckets within a power of two.
+	 */
+	private static final int SUB_BUCKET_BITS = 4;
+
+	/**
+	 * The number of buckets within a power of two.
+	 */
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * The largest power of two that is tracked. Larger values, about 9.5
+	 * hours in microseconds, are counted in the last bucket.
+	 */
+	private static final int MAX_MAGNITUDE = 35;
+
+	/**
+	 * The total number of buckets.
+	 */
+	private static final int NUM_BUCKETS =
+		SUB_BUCKETS + ((MAX_MAGNITUDE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+
+	/**
+	 * A consistent-enough copy of a histogram from which statistics may be
+	 * computed.
+	 */
+	public static final class Snapshot {
+		private final long[] counts;
+		private final long count;
+		private final long sum;
+		private final long max;
+
+		/**
+		 * Creates a snapshot.
+		 *
+		 * @param counts The copied buckets.
+		 *
+		 * @param sum The sum of all of the values.
+		 *
+		 * @param max The largest value.
+		 */
+		private Snapshot(final long[] counts, final long sum, final long max) {
+			this.counts = counts;
+
+			long total = 0;
+			for(long bucketCount : counts) {
+				total += bucketCount;
+			}
+			count = total;
+
+			this.sum = sum;
+			this.max = max;
+		}
+
+		/**
+		 * Returns the number of recorded values.
+		 *
+		 * @return The number of recorded values.
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * Returns the sum of the recorded values in microseconds.
+		 *
+		 * @return The sum of the recorded values.
+		 */
+		public long getSum() {
+			return sum;
+		}
+
+		/**
+		 * Returns the largest recorded value in microseconds.
+		 *
+		 * @return The largest recorded value or 0 if there are none.
+		 */
+		public long getMax() {
+			return max;
+		}
+
+		/**
+		 * Returns the mean of the recorded values in microseconds.
+		 *
+		 * @return The mean or 0 if there are no values.
+		 */
+		public double getMean() {
+			if(count == 0) {
+				return 0;
+			}
+			return ((double) sum) / count;
+		}
+
+		/**
+		 * Returns the value in microseconds at or below which the given
+		 * fraction of the recorded values fall. The value is the upper bound
+		 * of the bucket in which the percentile falls, but never more than
+		 * the largest recorded value.
+		 *
+		 * @param quantile The fraction, from 0 to 1.
+		 *
+		 * @return The value or 0 if there are no values.
+		 */
+		public long getValueAtQuantile(final double quantile) {
+			if(count == 0) {
+				return 0;
+			}
+
+			long rank = (long) Math.ceil(quantile * count);
+			if(rank < 1) {
+				rank = 1;
+			}
+
+			long seen = 0;
+			for(int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if(seen >= rank) {
+					return Math.min(highestValueInBucket(i), max);
+				}
+			}
+			return max;
+		}
+	}
+
+	private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+	private final AtomicLong sum = new AtomicLong(0);
+	private final AtomicLong max = new AtomicLong(0);
+
+	/**
+	 * Records a latency.
+	 *
+	 * @param nanos The latency in nanoseconds. Negative values are recorded
+	 * 				as 0.
+	 */
+	public void record(final long nanos) {
+		long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos));
+
+		counts.incrementAndGet(bucket(micros));
+		sum.addAndGet(micros);
+
+		long currMax;
+		while(micros > (currMax = max.get())) {
+			if(max.compareAndSet(currMax, micros)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Copies the histogram so that statistics may be computed from it.
+	 *
+	 * @return The snapshot.
+	 */
+	public Snapshot snapshot() {
+		long[] copy = new long[NUM_BUCKETS];
+		for(int i = 0; i < NUM_BUCKETS; i++) {
+			copy[i] = counts.get(i);
+		}
+		return new Snapshot(copy, sum.get(), max.get());
+	}
+
+	/**
+	 * Returns the bucket for a value.
+	 *
+	 * @param value The value.
+	 *
+	 * @return The bucket's index.
+	 */
+	private static int bucket(final long value) {
+		if(value < SUB_BUCKETS) {
+			return (int) value;
+		}
+
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		if(magnitude > MAX_MAGNITUDE) {
+			return NUM_BUCKETS - 1;
+		}
+
+		int shift = magnitude - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+		return SUB_BUCKETS + (shift * SUB_BUCKETS) + subBucket;
+	}
+
+	/**
+	 * Returns the largest value that is counted in a bucket.
+	 *
+	 * @param bucket The bucket's index.
+	 *
+	 * @return The largest value in the bucket.
+	 */
+	private static long highestValueInBucket(final int bucket) {
+		if(bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+
+		int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+		long subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+		long lowest = (SUB_BUCKETS + subBucket) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
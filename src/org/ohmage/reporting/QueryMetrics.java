@@ -0,0 +1,624 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.reporting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.apache.log4j.NDC;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * <p>
+ * Collects, per statement shape, how long the database took to execute the
+ * statements, how many rows they read and wrote, and how often they failed,
+ * along with how long connections took to be borrowed from the pool. A
+ * statement's shape is its SQL with the whitespace collapsed and its lists
+ * of parameters, e.g. the values of an IN clause, folded into one, so the
+ * same query with a different number of parameters is counted together.
+ * </p>
+ *
+ * <p>
+ * Statements that take longer than a threshold are logged and the most
+ * recent of them are kept along with the request that ran them, the method
+ * that called them, and the types of their parameters.
+ * </p>
+ */
+public final class QueryMetrics {
+	private static final Logger LOGGER = Logger.getLogger(QueryMetrics.class);
+
+	/**
+	 * The maximum number of distinct shapes that are tracked. Any further
+	 * shapes are counted together.
+	 */
+	private static final int MAX_SHAPES = 1000;
+
+	/**
+	 * The maximum number of distinct SQL strings whose shapes are remembered
+	 * so they don't need to be recomputed.
+	 */
+	private static final int MAX_CACHED_SQL = 10000;
+
+	/**
+	 * The number of slow statements that are kept.
+	 */
+	private static final int MAX_SLOW_QUERIES = 100;
+
+	/**
+	 * The shape under which statements are counted once there are too many
+	 * shapes.
+	 */
+	public static final String OTHER_SHAPE = "other";
+
+	/**
+	 * The default threshold above which statements are captured.
+	 */
+	public static final long DEFAULT_SLOW_QUERY_THRESHOLD_MILLIS = 1000;
+
+	private static final Pattern PATTERN_WHITESPACE = Pattern.compile("\\s+");
+	private static final Pattern PATTERN_PARAMETER_LIST =
+		Pattern.compile("\\(\\s*\\?(\\s*,\\s*\\?)+\\s*\\)");
+	private static final Pattern PATTERN_PARAMETER_LISTS =
+		Pattern.compile("\\(\\?\\.\\.\\.\\)(\\s*,\\s*\\(\\?\\.\\.\\.\\))+");
+
+	private static final String JSON_KEY_CONNECTION_WAIT = "connection_wait_ms";
+	private static final String JSON_KEY_STATEMENTS = "statements";
+	private static final String JSON_KEY_SLOW = "slow";
+	private static final String JSON_KEY_SLOW_THRESHOLD = "slow_threshold_ms";
+	private static final String JSON_KEY_CALLER = "caller";
+	private static final String JSON_KEY_EXECUTIONS = "executions";
+	private static final String JSON_KEY_FAILURES = "failures";
+	private static final String JSON_KEY_ROWS_READ = "rows_read";
+	private static final String JSON_KEY_ROWS_WRITTEN = "rows_written";
+	private static final String JSON_KEY_LATENCY = "latency_ms";
+	private static final String JSON_KEY_TIMESTAMP = "timestamp";
+	private static final String JSON_KEY_REQUEST_ID = "request_id";
+	private static final String JSON_KEY_SHAPE = "shape";
+	private static final String JSON_KEY_PARAMETERS = "parameters";
+	private static final String JSON_KEY_MILLIS = "millis";
+
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	private static final double MICROS_PER_MILLI = 1000.0;
+	private static final double MICROS_PER_SECOND = 1000000.0;
+
+	/**
+	 * The metrics for one statement shape.
+	 */
+	public static final class Shape {
+		private final String shape;
+		private final String caller;
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final AtomicLong failures = new AtomicLong(0);
+		private final AtomicLong rowsRead = new AtomicLong(0);
+		private final AtomicLong rowsWritten = new AtomicLong(0);
+
+		/**
+		 * Creates the metrics for a shape.
+		 *
+		 * @param shape The shape.
+		 *
+		 * @param caller The method that first ran a statement of this shape.
+		 */
+		private Shape(final String shape, final String caller) {
+			this.shape = shape;
+			this.caller = caller;
+		}
+
+		/**
+		 * Returns the shape's normalized SQL.
+		 *
+		 * @return The shape.
+		 */
+		public String getShape() {
+			return shape;
+		}
+	}
+
+	/**
+	 * A statement that took longer than the threshold.
+	 */
+	private static final class SlowQuery {
+		private final long timestamp;
+		private final String requestId;
+		private final String caller;
+		private final String shape;
+		private final String parameters;
+		private final long micros;
+
+		/**
+		 * Creates a record of a slow statement.
+		 */
+		private SlowQuery(
+				final long timestamp,
+				final String requestId,
+				final String caller,
+				final String shape,
+				final String parameters,
+				final long micros) {
+
+			this.timestamp = timestamp;
+			this.requestId = requestId;
+			this.caller = caller;
+			this.shape = shape;
+			this.parameters = parameters;
+			this.micros = micros;
+		}
+	}
+
+	private static final QueryMetrics INSTANCE = new QueryMetrics();
+
+	private final ConcurrentMap<String, Shape> shapes =
+		new ConcurrentHashMap<String, Shape>();
+	private final ConcurrentMap<String, Shape> shapesBySql =
+		new ConcurrentHashMap<String, Shape>();
+	private final Shape other = new Shape(OTHER_SHAPE, null);
+
+	private final LatencyHistogram connectionWait = new LatencyHistogram();
+
+	private final AtomicReferenceArray<SlowQuery> slowQueries =
+		new AtomicReferenceArray<SlowQuery>(MAX_SLOW_QUERIES);
+	private final AtomicInteger nextSlowQuery = new AtomicInteger(0);
+
+	private volatile long slowQueryThresholdNanos =
+		TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_QUERY_THRESHOLD_MILLIS);
+
+	/**
+	 * Default constructor. Private so that there is only one instance.
+	 */
+	private QueryMetrics() {}
+
+	/**
+	 * Returns the metrics.
+	 *
+	 * @return The metrics.
+	 */
+	public static QueryMetrics instance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Sets the threshold above which statements are captured as slow.
+	 *
+	 * @param millis The threshold in milliseconds. A negative value turns the
+	 * 				 capture off.
+	 */
+	public void setSlowQueryThreshold(final long millis) {
+		slowQueryThresholdNanos =
+			(millis < 0) ?
+				Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+	/**
+	 * Returns the metrics for the shape of some SQL, creating them if the
+	 * shape hasn't been seen before.
+	 *
+	 * @param sql The SQL. This may be null if it is unknown.
+	 *
+	 * @return The metrics for the SQL's shape.
+	 */
+	public Shape getShape(final String sql) {
+		if(sql == null) {
+			return other;
+		}
+
+		Shape result = shapesBySql.get(sql);
+		if(result != null) {
+			return result;
+		}
+
+		String shape = normalize(sql);
+		result = shapes.get(shape);
+		if(result == null) {
+			if(shapes.size() >= MAX_SHAPES) {
+				result = other;
+			}
+			else {
+				Shape newShape = new Shape(shape, findCaller());
+				result = shapes.putIfAbsent(shape, newShape);
+				if(result == null) {
+					result = newShape;
+				}
+			}
+		}
+
+		if(shapesBySql.size() < MAX_CACHED_SQL) {
+			shapesBySql.put(sql, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Records the execution of a statement.
+	 *
+	 * @param shape The statement's shape.
+	 *
+	 * @param nanos How long the statement took.
+	 *
+	 * @param rowsWritten The number of rows the statement wrote.
+	 *
+	 * @param failed Whether or not the statement failed.
+	 *
+	 * @param parameters The types of the statement's parameters or null if
+	 * 					 they are unknown.
+	 */
+	public void recordExecution(
+			final Shape shape,
+			final long nanos,
+			final long rowsWritten,
+			final boolean failed,
+			final String parameters) {
+
+		shape.latency.record(nanos);
+		if(rowsWritten > 0) {
+			shape.rowsWritten.addAndGet(rowsWritten);
+		}
+		if(failed) {
+			shape.failures.incrementAndGet();
+		}
+
+		if(nanos >= slowQueryThresholdNanos) {
+			recordSlowQuery(shape, nanos, parameters);
+		}
+	}
+
+	/**
+	 * Records the rows that were read from a statement's results.
+	 *
+	 * @param shape The statement's shape.
+	 *
+	 * @param rowsRead The number of rows.
+	 */
+	public void recordRowsRead(final Shape shape, final long rowsRead) {
+		if(rowsRead > 0) {
+			shape.rowsRead.addAndGet(rowsRead);
+		}
+	}
+
+	/**
+	 * Records how long it took to borrow a connection.
+	 *
+	 * @param nanos The time.
+	 */
+	public void recordConnectionWait(final long nanos) {
+		connectionWait.record(nanos);
+	}
+
+	/**
+	 * Returns all of the metrics as JSON. The latencies are in milliseconds.
+	 *
+	 * @return The metrics.
+	 *
+	 * @throws JSONException There was an error building the JSON.
+	 */
+	public JSONObject toJson() throws JSONException {
+		JSONObject statementsJson = new JSONObject();
+		for(Map.Entry<String, Shape> entry : getAll().entrySet()) {
+			Shape shape = entry.getValue();
+
+			JSONObject shapeJson = new JSONObject();
+			shapeJson.put(JSON_KEY_CALLER, shape.caller);
+			shapeJson.put(JSON_KEY_FAILURES, shape.failures.get());
+			shapeJson.put(JSON_KEY_ROWS_READ, shape.rowsRead.get());
+			shapeJson.put(JSON_KEY_ROWS_WRITTEN, shape.rowsWritten.get());
+			LatencyHistogram.Snapshot snapshot = shape.latency.snapshot();
+			shapeJson.put(JSON_KEY_EXECUTIONS, snapshot.getCount());
+			shapeJson.put(JSON_KEY_LATENCY, toJson(snapshot));
+
+			statementsJson.put(entry.getKey(), shapeJson);
+		}
+
+		JSONArray slowJson = new JSONArray();
+		for(SlowQuery slowQuery : getSlowQueries()) {
+			JSONObject slowQueryJson = new JSONObject();
+			slowQueryJson.put(JSON_KEY_TIMESTAMP, slowQuery.timestamp);
+			slowQueryJson.put(JSON_KEY_REQUEST_ID, slowQuery.requestId);
+			slowQueryJson.put(JSON_KEY_CALLER, slowQuery.caller);
+			slowQueryJson.put(JSON_KEY_SHAPE, slowQuery.shape);
+			slowQueryJson.put(JSON_KEY_PARAMETERS, slowQuery.parameters);
+			slowQueryJson.put(
+				JSON_KEY_MILLIS,
+				slowQuery.micros / MICROS_PER_MILLI);
+			slowJson.put(slowQueryJson);
+		}
+
+		JSONObject result = new JSONObject();
+		result.put(
+			JSON_KEY_CONNECTION_WAIT,
+			toJson(connectionWait.snapshot()));
+		result.put(JSON_KEY_STATEMENTS, statementsJson);
+		if(slowQueryThresholdNanos != Long.MAX_VALUE) {
+			result.put(
+				JSON_KEY_SLOW_THRESHOLD,
+				TimeUnit.NANOSECONDS.toMillis(slowQueryThresholdNanos));
+		}
+		result.put(JSON_KEY_SLOW, slowJson);
+		return result;
+	}
+
+	/**
+	 * Returns all of the metrics, except the slow statements, in the
+	 * Prometheus text exposition format. The latencies are summaries in
+	 * seconds.
+	 *
+	 * @return The metrics.
+	 */
+	public String toPrometheus() {
+		StringBuilder builder = new StringBuilder();
+
+		builder
+			.append("# HELP ohmage_db_connection_wait_seconds ")
+			.append("The time spent borrowing a connection from the pool.\n")
+			.append("# TYPE ohmage_db_connection_wait_seconds summary\n");
+		appendSummary(
+			builder,
+			"ohmage_db_connection_wait_seconds",
+			"",
+			connectionWait.snapshot());
+
+		Map<String, Shape> all = getAll();
+		builder
+			.append("# HELP ohmage_db_statement_duration_seconds ")
+			.append("The time spent executing statements, by shape.\n")
+			.append("# TYPE ohmage_db_statement_duration_seconds summary\n");
+		for(Map.Entry<String, Shape> entry : all.entrySet()) {
+			appendSummary(
+				builder,
+				"ohmage_db_statement_duration_seconds",
+				"shape=\"" + RequestMetrics.escapeLabel(entry.getKey()) + "\"",
+				entry.getValue().latency.snapshot());
+		}
+
+		builder
+			.append("# HELP ohmage_db_rows_read_total ")
+			.append("The number of rows read, by shape.\n")
+			.append("# TYPE ohmage_db_rows_read_total counter\n");
+		for(Map.Entry<String, Shape> entry : all.entrySet()) {
+			builder
+				.append("ohmage_db_rows_read_total{shape=\"")
+				.append(RequestMetrics.escapeLabel(entry.getKey()))
+				.append("\"} ")
+				.append(entry.getValue().rowsRead.get())
+				.append('\n');
+		}
+
+		builder
+			.append("# HELP ohmage_db_rows_written_total ")
+			.append("The number of rows written, by shape.\n")
+			.append("# TYPE ohmage_db_rows_written_total counter\n");
+		for(Map.Entry<String, Shape> entry : all.entrySet()) {
+			builder
+				.append("ohmage_db_rows_written_total{shape=\"")
+				.append(RequestMetrics.escapeLabel(entry.getKey()))
+				.append("\"} ")
+				.append(entry.getValue().rowsWritten.get())
+				.append('\n');
+		}
+
+		builder
+			.append("# HELP ohmage_db_statement_failures_total ")
+			.append("The number of statements that failed, by shape.\n")
+			.append("# TYPE ohmage_db_statement_failures_total counter\n");
+		for(Map.Entry<String, Shape> entry : all.entrySet()) {
+			builder
+				.append("ohmage_db_statement_failures_total{shape=\"")
+				.append(RequestMetrics.escapeLabel(entry.getKey()))
+				.append("\"} ")
+				.append(entry.getValue().failures.get())
+				.append('\n');
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * Normalizes some SQL into its shape.
+	 *
+	 * @param sql The SQL.
+	 *
+	 * @return The shape.
+	 */
+	static String normalize(final String sql) {
+		String result = PATTERN_WHITESPACE.matcher(sql.trim()).replaceAll(" ");
+		result = PATTERN_PARAMETER_LIST.matcher(result).replaceAll("(?...)");
+		result =
+			PATTERN_PARAMETER_LISTS.matcher(result).replaceAll("(?...), ...");
+		return result;
+	}
+
+	/**
+	 * Captures a slow statement.
+	 *
+	 * @param shape The statement's shape.
+	 *
+	 * @param nanos How long it took.
+	 *
+	 * @param parameters The types of its parameters.
+	 */
+	private void recordSlowQuery(
+			final Shape shape,
+			final long nanos,
+			final String parameters) {
+
+		String requestId = NDC.peek();
+		SlowQuery slowQuery =
+			new SlowQuery(
+				System.currentTimeMillis(),
+				(requestId.length() == 0) ? null : requestId,
+				findCaller(),
+				shape.shape,
+				parameters,
+				TimeUnit.NANOSECONDS.toMicros(nanos));
+
+		int index =
+			(nextSlowQuery.getAndIncrement() & Integer.MAX_VALUE) %
+				MAX_SLOW_QUERIES;
+		slowQueries.set(index, slowQuery);
+
+		LOGGER.warn(
+			"Slow statement (" +
+				TimeUnit.NANOSECONDS.toMillis(nanos) +
+				"ms) from " +
+				slowQuery.caller +
+				" with parameters [" +
+				parameters +
+				"]: " +
+				shape.shape);
+	}
+
+	/**
+	 * Returns the captured slow statements, the most recent first.
+	 *
+	 * @return The slow statements.
+	 */
+	private List<SlowQuery> getSlowQueries() {
+		int next = nextSlowQuery.get() & Integer.MAX_VALUE;
+		List<SlowQuery> result = new ArrayList<SlowQuery>(MAX_SLOW_QUERIES);
+		for(int i = 1; i <= MAX_SLOW_QUERIES; i++) {
+			int index = (next - i) % MAX_SLOW_QUERIES;
+			if(index < 0) {
+				index += MAX_SLOW_QUERIES;
+			}
+
+			SlowQuery slowQuery = slowQueries.get(index);
+			if(slowQuery != null) {
+				result.add(slowQuery);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the metrics of every shape, sorted by shape, along with those
+	 * of the shapes that weren't tracked.
+	 *
+	 * @return The metrics.
+	 */
+	private Map<String, Shape> getAll() {
+		Map<String, Shape> result = new TreeMap<String, Shape>(shapes);
+		if(other.latency.snapshot().getCount() > 0) {
+			result.put(OTHER_SHAPE, other);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the method outside of the data access infrastructure that is
+	 * running the current statement, e.g. "UserQueries.getUser".
+	 *
+	 * @return The method or null if it couldn't be found.
+	 */
+	private static String findCaller() {
+		for(StackTraceElement element : new Throwable().getStackTrace()) {
+			String className = element.getClassName();
+			if(className.startsWith("org.ohmage.") &&
+					(! className.startsWith(QueryMetrics.class.getName())) &&
+					(! className.startsWith("org.ohmage.query.impl.InstrumentedDataSource"))) {
+
+				return
+					className.substring(className.lastIndexOf('.') + 1) +
+						"." +
+						element.getMethodName();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Converts a snapshot to JSON in milliseconds.
+	 *
+	 * @param snapshot The snapshot.
+	 *
+	 * @return The JSON.
+	 *
+	 * @throws JSONException There was an error building the JSON.
+	 */
+	private static JSONObject toJson(
+			final LatencyHistogram.Snapshot snapshot)
+			throws JSONException {
+
+		JSONObject result = new JSONObject();
+		result.put("count", snapshot.getCount());
+		result.put("mean", snapshot.getMean() / MICROS_PER_MILLI);
+		for(double quantile : QUANTILES) {
+			result.put(
+				RequestMetrics.getQuantileName(quantile),
+				snapshot.getValueAtQuantile(quantile) / MICROS_PER_MILLI);
+		}
+		result.put("max", snapshot.getMax() / MICROS_PER_MILLI);
+		return result;
+	}
+
+	/**
+	 * Appends a summary in the Prometheus text format.
+	 *
+	 * @param builder The builder to append to.
+	 *
+	 * @param name The summary's name.
+	 *
+	 * @param labels The summary's labels, without braces, or an empty
+	 * 				 string.
+	 *
+	 * @param snapshot The values.
+	 */
+	private static void appendSummary(
+			final StringBuilder builder,
+			final String name,
+			final String labels,
+			final LatencyHistogram.Snapshot snapshot) {
+
+		String separator = (labels.length() == 0) ? "" : ",";
+		for(double quantile : QUANTILES) {
+			builder
+				.append(name)
+				.append('{')
+				.append(labels)
+				.append(separator)
+				.append("quantile=\"")
+				.append(quantile)
+				.append("\"} ")
+				.append(
+					snapshot.getValueAtQuantile(quantile) / MICROS_PER_SECOND)
+				.append('\n');
+		}
+		builder
+			.append(name)
+			.append("_sum{")
+			.append(labels)
+			.append("} ")
+			.append(snapshot.getSum() / MICROS_PER_SECOND)
+			.append('\n');
+		builder
+			.append(name)
+			.append("_count{")
+			.append(labels)
+			.append("} ")
+			.append(snapshot.getCount())
+			.append('\n');
+	}
+}
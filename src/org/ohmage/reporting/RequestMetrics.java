@@ -0,0 +1,604 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.reporting;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.cache.UserPrivilegeCache;
+import org.ohmage.request.RequestBuilder;
+
+/**
+ * <p>
+ * Collects, per API, how long requests take to be built, serviced, and
+ * responded to, how many bytes they read and write, and which errors they
+ * fail with. The metrics are kept in memory from the time the server starts
+ * and are read through the metrics read API as JSON or in the Prometheus
+ * text format.
+ * </p>
+ *
+ * <p>
+ * Recording is lock-free. Only URIs that are known to the
+ * {@link RequestBuilder} get their own metrics; all other URIs share one set,
+ * so a client cannot grow the metrics without bound.
+ * </p>
+ */
+public final class RequestMetrics {
+	/**
+	 * The key under which the metrics for unknown URIs are kept.
+	 */
+	public static final String UNKNOWN_URI = "unknown";
+
+	private static final String JSON_KEY_APIS = "apis";
+	private static final String JSON_KEY_CACHES = "caches";
+	private static final String JSON_KEY_REQUESTS = "requests";
+	private static final String JSON_KEY_FAILURES = "failures";
+	private static final String JSON_KEY_REQUEST_BYTES = "request_bytes";
+	private static final String JSON_KEY_RESPONSE_BYTES = "response_bytes";
+	private static final String JSON_KEY_LATENCY = "latency_ms";
+	private static final String JSON_KEY_ERRORS = "errors";
+	private static final String JSON_KEY_DB_STATEMENTS = "db_statements";
+	private static final String JSON_KEY_DB_CONNECTIONS = "db_connections";
+	private static final String JSON_KEY_DB_CONNECTION_WAIT =
+		"db_connection_wait_ms";
+	private static final String JSON_KEY_COUNT = "count";
+	private static final String JSON_KEY_MEAN = "mean";
+	private static final String JSON_KEY_MAX = "max";
+	private static final String JSON_KEY_HITS = "hits";
+	private static final String JSON_KEY_MISSES = "misses";
+	private static final String JSON_KEY_HIT_RATIO = "hit_ratio";
+
+	/**
+	 * The quantiles that are reported for each histogram.
+	 */
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	private static final double MICROS_PER_MILLI = 1000.0;
+	private static final double MICROS_PER_SECOND = 1000000.0;
+
+	/**
+	 * The phases of a request that are timed.
+	 */
+	public static enum Phase {
+		/**
+		 * Parsing and validating the parameters.
+		 */
+		BUILD,
+		/**
+		 * Authenticating and doing the work.
+		 */
+		SERVICE,
+		/**
+		 * Writing the response.
+		 */
+		RESPOND,
+		/**
+		 * All of the above.
+		 */
+		TOTAL;
+
+		/**
+		 * Returns the lower-case name of the phase.
+		 */
+		@Override
+		public String toString() {
+			return name().toLowerCase();
+		}
+	}
+
+	/**
+	 * The metrics for a single API.
+	 */
+	private static final class ApiMetrics {
+		private final LatencyHistogram[] latencies =
+			new LatencyHistogram[Phase.values().length];
+		private final AtomicLong requests = new AtomicLong(0);
+		private final AtomicLong failures = new AtomicLong(0);
+		private final AtomicLong requestBytes = new AtomicLong(0);
+		private final AtomicLong responseBytes = new AtomicLong(0);
+		private final AtomicLong dbStatements = new AtomicLong(0);
+		private final AtomicLong dbConnections = new AtomicLong(0);
+		private final AtomicLong dbConnectionWaitMicros = new AtomicLong(0);
+		private final AtomicLongArray errors =
+			new AtomicLongArray(ErrorCode.values().length);
+
+		/**
+		 * Creates an empty set of metrics.
+		 */
+		private ApiMetrics() {
+			for(int i = 0; i < latencies.length; i++) {
+				latencies[i] = new LatencyHistogram();
+			}
+		}
+	}
+
+	private static final RequestMetrics INSTANCE = new RequestMetrics();
+
+	private final ConcurrentMap<String, ApiMetrics> apis =
+		new ConcurrentHashMap<String, ApiMetrics>();
+	private final ApiMetrics unknown = new ApiMetrics();
+
+	/**
+	 * Default constructor. Private so that there is only one instance.
+	 */
+	private RequestMetrics() {}
+
+	/**
+	 * Returns the metrics.
+	 *
+	 * @return The metrics.
+	 */
+	public static RequestMetrics instance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Records a request. The phases are given as {@link System#nanoTime()}
+	 * marks. A mark of 0 means the request never reached that phase.
+	 *
+	 * @param uri The request's URI.
+	 *
+	 * @param buildStart When the request began to be built.
+	 *
+	 * @param serviceStart When the request began to be serviced or 0.
+	 *
+	 * @param respondStart When the request began to respond or 0.
+	 *
+	 * @param end When the request was done.
+	 *
+	 * @param requestBytes The length of the request's body or a negative
+	 * 					   number if it is unknown.
+	 *
+	 * @param responseBytes The number of bytes that were written.
+	 *
+	 * @param errorCode The error with which the request failed or null if it
+	 * 					succeeded.
+	 */
+	public void record(
+			final String uri,
+			final long buildStart,
+			final long serviceStart,
+			final long respondStart,
+			final long end,
+			final long requestBytes,
+			final long responseBytes,
+			final ErrorCode errorCode) {
+
+		ApiMetrics metrics = getMetrics(uri);
+
+		long buildEnd =
+			(serviceStart != 0) ?
+				serviceStart : ((respondStart != 0) ? respondStart : end);
+		metrics.latencies[Phase.BUILD.ordinal()].record(buildEnd - buildStart);
+		if(serviceStart != 0) {
+			metrics.latencies[Phase.SERVICE.ordinal()].record(
+				((respondStart != 0) ? respondStart : end) - serviceStart);
+		}
+		if(respondStart != 0) {
+			metrics.latencies[Phase.RESPOND.ordinal()].record(
+				end - respondStart);
+		}
+		metrics.latencies[Phase.TOTAL.ordinal()].record(end - buildStart);
+
+		metrics.requests.incrementAndGet();
+		if(requestBytes > 0) {
+			metrics.requestBytes.addAndGet(requestBytes);
+		}
+		if(responseBytes > 0) {
+			metrics.responseBytes.addAndGet(responseBytes);
+		}
+
+		if(errorCode != null) {
+			metrics.failures.incrementAndGet();
+			metrics.errors.incrementAndGet(errorCode.ordinal());
+		}
+	}
+
+	/**
+	 * Records a request's database activity.
+	 *
+	 * @param uri The request's URI.
+	 *
+	 * @param statements The number of statements it executed.
+	 *
+	 * @param connections The number of connections it borrowed from the
+	 * 					  pool.
+	 *
+	 * @param connectionWaitNanos The time it spent waiting for them.
+	 */
+	public void recordDatabase(
+			final String uri,
+			final long statements,
+			final long connections,
+			final long connectionWaitNanos) {
+
+		ApiMetrics metrics = getMetrics(uri);
+		metrics.dbStatements.addAndGet(statements);
+		metrics.dbConnections.addAndGet(connections);
+		metrics.dbConnectionWaitMicros.addAndGet(connectionWaitNanos / 1000);
+	}
+
+	/**
+	 * Returns all of the metrics as JSON. The latencies are in milliseconds.
+	 *
+	 * @return The metrics.
+	 *
+	 * @throws JSONException There was an error building the JSON.
+	 */
+	public JSONObject toJson() throws JSONException {
+		JSONObject apisJson = new JSONObject();
+		for(Map.Entry<String, ApiMetrics> entry : getAll().entrySet()) {
+			ApiMetrics metrics = entry.getValue();
+
+			JSONObject apiJson = new JSONObject();
+			apiJson.put(JSON_KEY_REQUESTS, metrics.requests.get());
+			apiJson.put(JSON_KEY_FAILURES, metrics.failures.get());
+			apiJson.put(JSON_KEY_REQUEST_BYTES, metrics.requestBytes.get());
+			apiJson.put(JSON_KEY_RESPONSE_BYTES, metrics.responseBytes.get());
+			apiJson.put(JSON_KEY_DB_STATEMENTS, metrics.dbStatements.get());
+			apiJson.put(JSON_KEY_DB_CONNECTIONS, metrics.dbConnections.get());
+			apiJson.put(
+				JSON_KEY_DB_CONNECTION_WAIT,
+				metrics.dbConnectionWaitMicros.get() / MICROS_PER_MILLI);
+
+			JSONObject latencyJson = new JSONObject();
+			for(Phase phase : Phase.values()) {
+				LatencyHistogram.Snapshot snapshot =
+					metrics.latencies[phase.ordinal()].snapshot();
+
+				JSONObject phaseJson = new JSONObject();
+				phaseJson.put(JSON_KEY_COUNT, snapshot.getCount());
+				phaseJson.put(
+					JSON_KEY_MEAN,
+					snapshot.getMean() / MICROS_PER_MILLI);
+				for(double quantile : QUANTILES) {
+					phaseJson.put(
+						getQuantileName(quantile),
+						snapshot.getValueAtQuantile(quantile) /
+							MICROS_PER_MILLI);
+				}
+				phaseJson.put(
+					JSON_KEY_MAX,
+					snapshot.getMax() / MICROS_PER_MILLI);
+
+				latencyJson.put(phase.toString(), phaseJson);
+			}
+			apiJson.put(JSON_KEY_LATENCY, latencyJson);
+
+			JSONObject errorsJson = new JSONObject();
+			ErrorCode[] errorCodes = ErrorCode.values();
+			for(int i = 0; i < errorCodes.length; i++) {
+				long count = metrics.errors.get(i);
+				if(count > 0) {
+					errorsJson.put(errorCodes[i].toString(), count);
+				}
+			}
+			apiJson.put(JSON_KEY_ERRORS, errorsJson);
+
+			apisJson.put(entry.getKey(), apiJson);
+		}
+
+		UserPrivilegeCache privilegeCache = UserPrivilegeCache.instance();
+		JSONObject privilegeCacheJson = new JSONObject();
+		if(privilegeCache != null) {
+			privilegeCacheJson.put(JSON_KEY_HITS, privilegeCache.getHitCount());
+			privilegeCacheJson.put(JSON_KEY_MISSES, privilegeCache.getMissCount());
+			privilegeCacheJson.put(JSON_KEY_HIT_RATIO, privilegeCache.getHitRatio());
+		}
+		JSONObject cachesJson = new JSONObject();
+		cachesJson.put(UserPrivilegeCache.CACHE_KEY, privilegeCacheJson);
+
+		JSONObject result = new JSONObject();
+		result.put(JSON_KEY_APIS, apisJson);
+		result.put(JSON_KEY_CACHES, cachesJson);
+		return result;
+	}
+
+	/**
+	 * Returns all of the metrics in the Prometheus text exposition format.
+	 * The latencies are summaries in seconds.
+	 *
+	 * @return The metrics.
+	 */
+	public String toPrometheus() {
+		Map<String, ApiMetrics> all = getAll();
+		StringBuilder builder = new StringBuilder();
+
+		builder
+			.append("# HELP ohmage_request_duration_seconds ")
+			.append("The time spent in each phase of a request.\n")
+			.append("# TYPE ohmage_request_duration_seconds summary\n");
+		for(Map.Entry<String, ApiMetrics> entry : all.entrySet()) {
+			String uri = escapeLabel(entry.getKey());
+
+			for(Phase phase : Phase.values()) {
+				LatencyHistogram.Snapshot snapshot =
+					entry.getValue().latencies[phase.ordinal()].snapshot();
+				String labels =
+					"uri=\"" + uri + "\",phase=\"" + phase + "\"";
+
+				for(double quantile : QUANTILES) {
+					builder
+						.append("ohmage_request_duration_seconds{")
+						.append(labels)
+						.append(",quantile=\"")
+						.append(quantile)
+						.append("\"} ")
+						.append(
+							snapshot.getValueAtQuantile(quantile) /
+								MICROS_PER_SECOND)
+						.append('\n');
+				}
+				builder
+					.append("ohmage_request_duration_seconds_sum{")
+					.append(labels)
+					.append("} ")
+					.append(snapshot.getSum() / MICROS_PER_SECOND)
+					.append('\n');
+				builder
+					.append("ohmage_request_duration_seconds_count{")
+					.append(labels)
+					.append("} ")
+					.append(snapshot.getCount())
+					.append('\n');
+			}
+		}
+
+		appendCounter(
+			builder,
+			"ohmage_requests_total",
+			"The number of requests.",
+			all,
+			new CounterReader() {
+				@Override
+				public long read(final ApiMetrics metrics) {
+					return metrics.requests.get();
+				}
+			});
+		appendCounter(
+			builder,
+			"ohmage_request_bytes_total",
+			"The number of bytes in the bodies of requests.",
+			all,
+			new CounterReader() {
+				@Override
+				public long read(final ApiMetrics metrics) {
+					return metrics.requestBytes.get();
+				}
+			});
+		appendCounter(
+			builder,
+			"ohmage_response_bytes_total",
+			"The number of bytes written in responses.",
+			all,
+			new CounterReader() {
+				@Override
+				public long read(final ApiMetrics metrics) {
+					return metrics.responseBytes.get();
+				}
+			});
+
+		appendCounter(
+			builder,
+			"ohmage_request_db_statements_total",
+			"The number of database statements executed by requests.",
+			all,
+			new CounterReader() {
+				@Override
+				public long read(final ApiMetrics metrics) {
+					return metrics.dbStatements.get();
+				}
+			});
+		appendCounter(
+			builder,
+			"ohmage_request_db_connections_total",
+			"The number of database connections borrowed by requests.",
+			all,
+			new CounterReader() {
+				@Override
+				public long read(final ApiMetrics metrics) {
+					return metrics.dbConnections.get();
+				}
+			});
+
+		builder
+			.append("# HELP ohmage_request_db_connection_wait_seconds_total ")
+			.append("The time requests spent waiting for connections.\n")
+			.append("# TYPE ohmage_request_db_connection_wait_seconds_total ")
+			.append("counter\n");
+		for(Map.Entry<String, ApiMetrics> entry : all.entrySet()) {
+			builder
+				.append("ohmage_request_db_connection_wait_seconds_total{uri=\"")
+				.append(escapeLabel(entry.getKey()))
+				.append("\"} ")
+				.append(
+					entry.getValue().dbConnectionWaitMicros.get() /
+						MICROS_PER_SECOND)
+				.append('\n');
+		}
+
+		builder
+			.append("# HELP ohmage_request_errors_total ")
+			.append("The number of requests that failed, by error code.\n")
+			.append("# TYPE ohmage_request_errors_total counter\n");
+		ErrorCode[] errorCodes = ErrorCode.values();
+		for(Map.Entry<String, ApiMetrics> entry : all.entrySet()) {
+			for(int i = 0; i < errorCodes.length; i++) {
+				long count = entry.getValue().errors.get(i);
+				if(count > 0) {
+					builder
+						.append("ohmage_request_errors_total{uri=\"")
+						.append(escapeLabel(entry.getKey()))
+						.append("\",code=\"")
+						.append(errorCodes[i])
+						.append("\"} ")
+						.append(count)
+						.append('\n');
+				}
+			}
+		}
+
+		UserPrivilegeCache privilegeCache = UserPrivilegeCache.instance();
+		if(privilegeCache != null) {
+			builder
+				.append("# HELP ohmage_cache_hits_total ")
+				.append("The number of cache lookups that were found.\n")
+				.append("# TYPE ohmage_cache_hits_total counter\n")
+				.append("ohmage_cache_hits_total{cache=\"")
+				.append(UserPrivilegeCache.CACHE_KEY)
+				.append("\"} ")
+				.append(privilegeCache.getHitCount())
+				.append('\n');
+			builder
+				.append("# HELP ohmage_cache_misses_total ")
+				.append("The number of cache lookups that were not found.\n")
+				.append("# TYPE ohmage_cache_misses_total counter\n")
+				.append("ohmage_cache_misses_total{cache=\"")
+				.append(UserPrivilegeCache.CACHE_KEY)
+				.append("\"} ")
+				.append(privilegeCache.getMissCount())
+				.append('\n');
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * Reads a counter from the metrics of an API.
+	 */
+	private static interface CounterReader {
+		/**
+		 * Reads the counter.
+		 *
+		 * @param metrics The metrics.
+		 *
+		 * @return The counter's value.
+		 */
+		long read(ApiMetrics metrics);
+	}
+
+	/**
+	 * Appends a counter for every API in the Prometheus text format.
+	 *
+	 * @param builder The builder to append to.
+	 *
+	 * @param name The counter's name.
+	 *
+	 * @param help The counter's description.
+	 *
+	 * @param all The metrics of every API.
+	 *
+	 * @param reader Reads the counter.
+	 */
+	private static void appendCounter(
+			final StringBuilder builder,
+			final String name,
+			final String help,
+			final Map<String, ApiMetrics> all,
+			final CounterReader reader) {
+
+		builder
+			.append("# HELP ").append(name).append(' ').append(help)
+			.append('\n')
+			.append("# TYPE ").append(name).append(" counter\n");
+		for(Map.Entry<String, ApiMetrics> entry : all.entrySet()) {
+			builder
+				.append(name)
+				.append("{uri=\"")
+				.append(escapeLabel(entry.getKey()))
+				.append("\"} ")
+				.append(reader.read(entry.getValue()))
+				.append('\n');
+		}
+	}
+
+	/**
+	 * Returns the metrics for a URI, creating them if the URI is known and
+	 * hasn't been seen before.
+	 *
+	 * @param uri The URI.
+	 *
+	 * @return The metrics.
+	 */
+	private ApiMetrics getMetrics(final String uri) {
+		if(uri == null) {
+			return unknown;
+		}
+
+		ApiMetrics metrics = apis.get(uri);
+		if(metrics != null) {
+			return metrics;
+		}
+
+		if(! RequestBuilder.getInstance().knownUri(uri)) {
+			return unknown;
+		}
+
+		metrics = new ApiMetrics();
+		ApiMetrics existing = apis.putIfAbsent(uri, metrics);
+		return (existing == null) ? metrics : existing;
+	}
+
+	/**
+	 * Returns the metrics of every API that has been seen, sorted by URI,
+	 * along with those of the unknown URIs.
+	 *
+	 * @return The metrics.
+	 */
+	private Map<String, ApiMetrics> getAll() {
+		Map<String, ApiMetrics> result = new TreeMap<String, ApiMetrics>(apis);
+		if(unknown.requests.get() > 0) {
+			result.put(UNKNOWN_URI, unknown);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the name of a quantile in the JSON output, e.g. "p99".
+	 *
+	 * @param quantile The quantile.
+	 *
+	 * @return The name.
+	 */
+	static String getQuantileName(final double quantile) {
+		String digits = Double.toString(quantile).substring(2);
+		if(digits.length() == 1) {
+			digits += "0";
+		}
+		return "p" + digits;
+	}
+
+	/**
+	 * Escapes a Prometheus label value.
+	 *
+	 * @param value The value.
+	 *
+	 * @return The escaped value.
+	 */
+	static String escapeLabel(final String value) {
+		return value
+			.replace("\\", "\\\\")
+			.replace("\"", "\\\"")
+			.replace("\n", "\\n");
+	}
+}
@@ -124,6 +124,7 @@ public final class InputKeys {
 	
 	// media constants
 	public static final String MEDIA_ID = "id";
+	public static final String MEDIA_ID_LIST = "media_id_list";
 	
 	// User Constants
 	public static final String USER = "user";
@@ -186,6 +187,7 @@ public final class InputKeys {
 	public static final String SUPPRESS_METADATA = "suppress_metadata";
 	public static final String COLUMN_LIST = "column_list";
 	public static final String RETURN_ID = "return_id";
+	public static final String INCLUDE_ANNOTATIONS = "include_annotations";
 	public static final String COLLAPSE = "collapse";
 	
 	// Shared Constants
@@ -567,6 +567,52 @@ public abstract class Request {
 			throw new ValidationException(e); 
 		}
 	}
+	
+	/**
+	 * <p>
+	 * Returns the body of the request if it is a JSON document, i.e. its 
+	 * "Content-Type" is "application/json". If its "Content-Encoding" is 
+	 * "gzip", the returned stream inflates it as it is read.
+	 * </p>
+	 * 
+	 * <p>
+	 * This allows uploads to be parsed directly from the request rather than
+	 * first being buffered, URL-decoded, and copied into a parameter.
+	 * </p>
+	 * 
+	 * @param httpRequest
+	 *        The HTTP request.
+	 * 
+	 * @return The stream from which the JSON body may be read or null if the
+	 *         body is not a JSON document.
+	 * 
+	 * @throws ValidationException
+	 *         The body could not be read or was not valid GZIP data.
+	 */
+	protected InputStream getJsonBody(
+		final HttpServletRequest httpRequest)
+		throws ValidationException {
+		
+		if((httpRequest == null) || (! GzipFilter.isJsonBody(httpRequest))) {
+			return null;
+		}
+		
+		try {
+			InputStream result = httpRequest.getInputStream();
+			if(GzipFilter.isGzipEncoded(httpRequest)) {
+				result = new GZIPInputStream(result);
+			}
+			return result;
+		}
+		catch(IOException e) {
+			LOGGER.info("The JSON body could not be read.", e);
+			throw
+				new ValidationException(
+					ErrorCode.SERVER_INVALID_GZIP_DATA,
+					"The JSON body could not be read.",
+					e);
+		}
+	}
 		
 	/**
 	 * Reads the HttpServletRequest for a key-value pair and returns the value
@@ -36,6 +36,7 @@ import org.ohmage.request.auth.AuthTokenRequest;
 import org.ohmage.request.auth.AuthTokenWhoAmIRequest;
 import org.ohmage.request.campaign.CampaignAssignmentRequest;
 import org.ohmage.request.campaign.CampaignCreationRequest;
+import org.ohmage.request.campaign.CampaignDeletionReadRequest;
 import org.ohmage.request.campaign.CampaignDeletionRequest;
 import org.ohmage.request.campaign.CampaignReadRequest;
 import org.ohmage.request.campaign.CampaignSearchRequest;
@@ -55,6 +56,7 @@ import org.ohmage.request.document.DocumentUpdateRequest;
 import org.ohmage.request.image.ImageBatchZipReadRequest;
 import org.ohmage.request.image.ImageReadRequest;
 import org.ohmage.request.media.MediaReadRequest;
+import org.ohmage.request.metrics.MetricsReadRequest;
 import org.ohmage.request.mobility.MobilityAggregateReadRequest;
 import org.ohmage.request.mobility.MobilityDatesReadRequest;
 import org.ohmage.request.mobility.MobilityReadChunkedRequest;
@@ -65,6 +67,7 @@ import org.ohmage.request.mobility.MobilityUploadRequest;
 import org.ohmage.request.observer.ObserverCreationRequest;
 import org.ohmage.request.observer.ObserverReadRequest;
 import org.ohmage.request.observer.ObserverUpdateRequest;
+import org.ohmage.request.observer.StreamDatesReadRequest;
 import org.ohmage.request.observer.StreamReadInvalidRequest;
 import org.ohmage.request.observer.StreamReadRequest;
 import org.ohmage.request.observer.StreamUploadRequest;
@@ -80,6 +83,7 @@ import org.ohmage.request.survey.SurveyResponseDeleteRequest;
 import org.ohmage.request.survey.SurveyResponseFunctionReadRequest;
 import org.ohmage.request.survey.SurveyResponseReadRequest;
 import org.ohmage.request.survey.SurveyResponseUpdateRequest;
+import org.ohmage.request.survey.SurveyUploadCheckRequest;
 import org.ohmage.request.survey.SurveyUploadRequest;
 import org.ohmage.request.survey.annotation.AnnotationDeleteRequest;
 import org.ohmage.request.survey.annotation.AnnotationUpdateRequest;
@@ -140,6 +144,9 @@ public final class RequestBuilder implements ServletContextAware {
 	// Audit
 	private String apiAuditRead;
 	
+	// Metrics
+	private String apiMetricsRead;
+	
 	// Authentication
 	private String apiUserAuth;
 	private String apiUserAuthToken;
@@ -153,6 +160,7 @@ public final class RequestBuilder implements ServletContextAware {
 	private String apiCampaignSearch;
 	private String apiCampaignUpdate;
 	private String apiCampaignDelete;
+	private String apiCampaignDeletionRead;
 	
 	// Class
 	private String apiClassCreate;
@@ -197,6 +205,7 @@ public final class RequestBuilder implements ServletContextAware {
 	private String apiStreamUpload;
 	private String apiStreamRead;
 	private String apiStreamInvalidRead;
+	private String apiStreamDatesRead;
 	
 	// OMH
 	private String apiOmhAuth;
@@ -209,6 +218,7 @@ public final class RequestBuilder implements ServletContextAware {
 	
 	// Survey
 	private String apiSurveyUpload;
+	private String apiSurveyUploadCheck;
 	private String apiSurveyResponseDelete;
 	private String apiSurveyResponseRead;
 	private String apiSurveyResponseUpdate;
@@ -302,6 +312,9 @@ public final class RequestBuilder implements ServletContextAware {
 		// Audit
 		apiAuditRead = apiRoot + "/audit/read";
 		
+		// Metrics
+		apiMetricsRead = apiRoot + "/metrics/read";
+		
 		// Authentication
 		apiUserAuth = apiRoot + "/user/auth";
 		apiUserAuthToken = apiRoot + "/user/auth_token";
@@ -315,6 +328,7 @@ public final class RequestBuilder implements ServletContextAware {
 		apiCampaignSearch = apiRoot + "/campaign/search";
 		apiCampaignUpdate = apiRoot + "/campaign/update";
 		apiCampaignDelete = apiRoot + "/campaign/delete";
+		apiCampaignDeletionRead = apiRoot + "/campaign/deletion/read";
 		
 		// Class
 		apiClassCreate = apiRoot + "/class/create";
@@ -359,6 +373,7 @@ public final class RequestBuilder implements ServletContextAware {
 		apiStreamUpload = apiRoot + "/stream/upload";
 		apiStreamRead = apiRoot + "/stream/read";
 		apiStreamInvalidRead = apiRoot + "/stream/invalid/read";
+		apiStreamDatesRead = apiRoot + "/stream/dates/read";
 		
 		// OMH
 		apiOmhAuth = apiRoot + "/omh/v1.0/authenticate";
@@ -371,6 +386,7 @@ public final class RequestBuilder implements ServletContextAware {
 		
 		// Survey
 		apiSurveyUpload = apiRoot + "/survey/upload";
+		apiSurveyUploadCheck = apiRoot + "/survey/upload/check";
 		apiSurveyResponseDelete = apiRoot + "/survey_response/delete";
 		apiSurveyResponseRead = apiRoot + "/survey_response/read";
 		apiSurveyResponseUpdate = apiRoot + "/survey_response/update";
@@ -501,6 +517,10 @@ public final class RequestBuilder implements ServletContextAware {
 		else if(apiAuditRead.equals(requestUri)) {
 			return new AuditReadRequest(httpRequest);
 		}
+		// Metrics
+		else if(apiMetricsRead.equals(requestUri)) {
+			return new MetricsReadRequest(httpRequest);
+		}
 		// Campaign
 		else if(apiCampaignAssignment.equals(requestUri)) {
 			return new CampaignAssignmentRequest(httpRequest);
@@ -520,6 +540,9 @@ public final class RequestBuilder implements ServletContextAware {
 		else if(apiCampaignDelete.equals(requestUri)) {
 			return new CampaignDeletionRequest(httpRequest);
 		}
+		else if(apiCampaignDeletionRead.equals(requestUri)) {
+			return new CampaignDeletionReadRequest(httpRequest);
+		}
 		// Class
 		else if(apiClassCreate.equals(requestUri)) {
 			return new ClassCreationRequest(httpRequest);
@@ -613,6 +636,9 @@ public final class RequestBuilder implements ServletContextAware {
 		else if(apiStreamInvalidRead.equals(requestUri)) {
 			return new StreamReadInvalidRequest(httpRequest);
 		}
+		else if(apiStreamDatesRead.equals(requestUri)) {
+			return new StreamDatesReadRequest(httpRequest);
+		}
 		// OMH
 		else if(apiOmhAuth.equals(requestUri)) {
 			return new OmhAuthenticateRequest(httpRequest);
@@ -639,6 +665,9 @@ public final class RequestBuilder implements ServletContextAware {
 		else if(apiSurveyUpload.equals(requestUri)) {
 			return new SurveyUploadRequest(httpRequest);
 		}
+		else if(apiSurveyUploadCheck.equals(requestUri)) {
+			return new SurveyUploadCheckRequest(httpRequest);
+		}
 		else if(apiSurveyResponseRead.equals(requestUri)) {
 			return new SurveyResponseReadRequest(httpRequest);
 		}
@@ -788,6 +817,8 @@ public final class RequestBuilder implements ServletContextAware {
 				apiAudioRead.equals(uri) ||
 				// Audit
 				apiAuditRead.equals(uri) ||
+				// Metrics
+				apiMetricsRead.equals(uri) ||
 				// Campaign
 				apiCampaignAssignment.equals(uri) ||
 				apiCampaignCreate.equals(uri) ||
@@ -795,6 +826,7 @@ public final class RequestBuilder implements ServletContextAware {
 				apiCampaignSearch.equals(uri) ||
 				apiCampaignUpdate.equals(uri) ||
 				apiCampaignDelete.equals(uri) ||
+				apiCampaignDeletionRead.equals(uri) ||
 				// Class
 				apiClassCreate.equals(uri) ||
 				apiClassRead.equals(uri) ||
@@ -830,6 +862,7 @@ public final class RequestBuilder implements ServletContextAware {
 				apiStreamUpload.equals(uri) ||
 				apiStreamRead.equals(uri) ||
 				apiStreamInvalidRead.equals(uri) ||
+				apiStreamDatesRead.equals(uri) ||
 				// OMH
 				apiOmhAuth.equals(uri) ||
 				apiOmhRegistryCreate.equals(uri) ||
@@ -840,6 +873,7 @@ public final class RequestBuilder implements ServletContextAware {
 				apiOmhWrite.equals(uri) ||
 				// Survey
 				apiSurveyUpload.equals(uri) ||
+				apiSurveyUploadCheck.equals(uri) ||
 				apiSurveyResponseRead.equals(uri) ||
 				apiSurveyResponseUpdate.equals(uri) ||
 				apiSurveyResponseDelete.equals(uri) ||
@@ -882,6 +916,39 @@ public final class RequestBuilder implements ServletContextAware {
 		return false;
 	}
 
+	/**
+	 * Returns whether or not the request for some URI only reads from the
+	 * database once its user has been authenticated. These requests are run
+	 * as a single read-only transaction.
+	 * 
+	 * @param uri The URI to check.
+	 * 
+	 * @return Returns true if the request only reads; false, otherwise.
+	 */
+	public boolean isReadOnly(String uri) {
+		return
+			apiAccessRequestRead.equals(uri) ||
+			apiAnnotationPromptResponseRead.equals(uri) ||
+			apiAnnotationSurveyResponseRead.equals(uri) ||
+			apiAuditRead.equals(uri) ||
+			apiCampaignRead.equals(uri) ||
+			apiCampaignSearch.equals(uri) ||
+			apiCampaignDeletionRead.equals(uri) ||
+			apiClassRead.equals(uri) ||
+			apiClassRosterRead.equals(uri) ||
+			apiClassSearch.equals(uri) ||
+			apiDocumentRead.equals(uri) ||
+			apiObserverRead.equals(uri) ||
+			apiStreamRead.equals(uri) ||
+			apiSurveyUploadCheck.equals(uri) ||
+			apiSurveyResponseRead.equals(uri) ||
+			apiSurveyResponseFunctionRead.equals(uri) ||
+			apiUserRead.equals(uri) ||
+			apiUserInfoRead.equals(uri) ||
+			apiUserStatsRead.equals(uri) ||
+			apiUserSearch.equals(uri);
+	}
+
 	/**
 	 * Returns the root of this web application.
 	 * 
@@ -963,6 +1030,15 @@ public final class RequestBuilder implements ServletContextAware {
 		return apiAuditRead;
 	}
 
+	/**
+	 * Returns apiMetricsRead.
+	 *
+	 * @return The apiMetricsRead.
+	 */
+	public String getApiMetricsRead() {
+		return apiMetricsRead;
+	}
+
 	/**
 	 * Returns apiUserAuth.
 	 *
@@ -1062,6 +1138,15 @@ public final class RequestBuilder implements ServletContextAware {
 		return apiCampaignDelete;
 	}
 
+	/**
+	 * Returns apiCampaignDeletionRead.
+	 *
+	 * @return The apiCampaignDeletionRead.
+	 */
+	public String getApiCampaignDeletionRead() {
+		return apiCampaignDeletionRead;
+	}
+
 	/**
 	 * Returns apiClassCreate.
 	 *
@@ -1314,6 +1399,15 @@ public final class RequestBuilder implements ServletContextAware {
 		return apiStreamInvalidRead;
 	}
 
+	/**
+	 * Returns apiStreamDatesRead.
+	 *
+	 * @return The apiStreamDatesRead.
+	 */
+	public String getApiStreamDatesRead() {
+		return apiStreamDatesRead;
+	}
+
 	/**
 	 * Returns apiSurveyUpload.
 	 *
@@ -1323,6 +1417,15 @@ public final class RequestBuilder implements ServletContextAware {
 		return apiSurveyUpload;
 	}
 
+	/**
+	 * Returns apiSurveyUploadCheck.
+	 *
+	 * @return The apiSurveyUploadCheck.
+	 */
+	public String getApiSurveyUploadCheck() {
+		return apiSurveyUploadCheck;
+	}
+
 	/**
 	 * Returns apiSurveyResponseDelete.
 	 *
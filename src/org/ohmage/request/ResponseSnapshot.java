@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.request;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * <p>
+ * A JSON response body that has already been rendered, along with its
+ * gzipped form and their entity tags. A snapshot may be written to any
+ * number of responses without rendering or compressing it again.
+ * </p>
+ *
+ * <p>
+ * The entity tags are strong and are derived from the body's content, so
+ * every server gives the same tag to the same body and a client that sends
+ * it back in an <code>If-None-Match</code> header receives a
+ * <code>304 Not Modified</code> instead of the body.
+ * </p>
+ */
+public final class ResponseSnapshot {
+	/**
+	 * The algorithm used to derive the entity tags.
+	 */
+	private static final String HASH_ALGORITHM = "SHA-256";
+
+	private final byte[] body;
+	private final byte[] gzippedBody;
+	private final String eTag;
+	private final String gzippedETag;
+
+	/**
+	 * Creates a snapshot of a body.
+	 *
+	 * @param body The UTF-8 encoded JSON body.
+	 *
+	 * @throws IOException The body could not be compressed.
+	 */
+	public ResponseSnapshot(final byte[] body) throws IOException {
+		this.body = body;
+
+		ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+		GZIPOutputStream gzipStream = new GZIPOutputStream(gzipped);
+		gzipStream.write(body);
+		gzipStream.close();
+		gzippedBody = gzipped.toByteArray();
+
+		String hash = hash(body);
+		eTag = '"' + hash + '"';
+		gzippedETag = "\"" + hash + "-gzip\"";
+	}
+
+	/**
+	 * Returns the size of the uncompressed body.
+	 *
+	 * @return The number of bytes in the body.
+	 */
+	public int getSize() {
+		return body.length;
+	}
+
+	/**
+	 * Returns the entity tag of the uncompressed body.
+	 *
+	 * @return The quoted entity tag.
+	 */
+	public String getETag() {
+		return eTag;
+	}
+
+	/**
+	 * Writes the snapshot to a response. The gzipped body is used if the
+	 * client accepts it. If the client already has this body, as indicated
+	 * by its <code>If-None-Match</code> header, only the headers are
+	 * written with a <code>304 Not Modified</code> status.
+	 *
+	 * @param httpRequest The HTTP request.
+	 *
+	 * @param httpResponse The HTTP response.
+	 *
+	 * @param shared Whether or not the body is the same for every user,
+	 * 				 in which case shared caches may store it.
+	 *
+	 * @throws IOException There was an error writing the body.
+	 */
+	public void write(
+			final HttpServletRequest httpRequest,
+			final HttpServletResponse httpResponse,
+			final boolean shared)
+			throws IOException {
+
+		String encoding = httpRequest.getHeader("Accept-Encoding");
+		boolean gzip = (encoding != null) && (encoding.indexOf("gzip") >= 0);
+		String tag = (gzip) ? gzippedETag : eTag;
+
+		// The client may keep the body but must check that it is still
+		// current before using it.
+		httpResponse.setHeader(
+			"Cache-Control",
+			(shared) ? "no-cache" : "private, no-cache");
+		httpResponse.setHeader("ETag", tag);
+		httpResponse.setHeader("Vary", "Accept-Encoding");
+
+		if(matches(httpRequest.getHeader("If-None-Match"), tag)) {
+			httpResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		byte[] content = (gzip) ? gzippedBody : body;
+		httpResponse.setContentType("application/json");
+		if(gzip) {
+			httpResponse.setHeader("Content-Encoding", "gzip");
+		}
+		httpResponse.setContentLength(content.length);
+
+		OutputStream outputStream = httpResponse.getOutputStream();
+		outputStream.write(content);
+		outputStream.flush();
+	}
+
+	/**
+	 * Returns whether or not an <code>If-None-Match</code> header names an
+	 * entity tag.
+	 *
+	 * @param ifNoneMatch The header's value, which may be null.
+	 *
+	 * @param tag The quoted entity tag.
+	 *
+	 * @return Whether or not the header names the tag.
+	 */
+	private static boolean matches(final String ifNoneMatch, final String tag) {
+		if(ifNoneMatch == null) {
+			return false;
+		}
+
+		for(String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if(candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+
+			if("*".equals(candidate) || tag.equals(candidate)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Hashes a body.
+	 *
+	 * @param body The body.
+	 *
+	 * @return The hash as a hexadecimal string.
+	 */
+	private static String hash(final byte[] body) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(HASH_ALGORITHM);
+		}
+		catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException(
+				"The hash algorithm is not supported: " + HASH_ALGORITHM,
+				e);
+		}
+
+		StringBuilder result = new StringBuilder();
+		for(byte b : digest.digest(body)) {
+			result.append(Character.forDigit((b >> 4) & 0xF, 16));
+			result.append(Character.forDigit(b & 0xF, 16));
+		}
+		return result.toString();
+	}
+}
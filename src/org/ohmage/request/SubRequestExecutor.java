@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.request;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Stack;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.NDC;
+
+/**
+ * <p>
+ * Services independent sub-requests concurrently. Requests that are composed
+ * of other requests, e.g. a Mobility read that is made of two stream reads,
+ * use this to service their sub-requests at the same time rather than one
+ * after another.
+ * </p>
+ *
+ * <p>
+ * The sub-requests share one small, bounded pool of threads. Each
+ * sub-request borrows its own database connection, so the pool is kept well
+ * below the size of the connection pool. When the pool and its queue are
+ * full, the sub-request is serviced by the calling thread instead, so a
+ * burst of requests degrades to the original, sequential behavior rather
+ * than failing.
+ * </p>
+ */
+public final class SubRequestExecutor {
+	/**
+	 * The maximum number of sub-requests that may be serviced by the pool at
+	 * the same time.
+	 */
+	private static final int MAX_THREADS = 8;
+
+	/**
+	 * The maximum number of sub-requests that may wait for a thread.
+	 */
+	private static final int MAX_QUEUED = 64;
+
+	/**
+	 * The number of seconds an idle thread is kept before it is stopped.
+	 */
+	private static final long KEEP_ALIVE_SECONDS = 60;
+
+	private static final ThreadPoolExecutor EXECUTOR;
+	static {
+		EXECUTOR =
+			new ThreadPoolExecutor(
+				MAX_THREADS,
+				MAX_THREADS,
+				KEEP_ALIVE_SECONDS,
+				TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(MAX_QUEUED),
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(final Runnable runnable) {
+						Thread thread =
+							new Thread(
+								runnable,
+								"SubRequest-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				},
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		EXECUTOR.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Default constructor. Private so that no one can instantiate it.
+	 */
+	private SubRequestExecutor() {}
+
+	/**
+	 * Services each of the requests and returns once all of them have been
+	 * serviced. All but the last request are handed to the pool and the last
+	 * one is serviced by the calling thread. Failures are reported the usual
+	 * way, through each request's own {@link Request#isFailed()}.
+	 *
+	 * @param requests
+	 *        The requests to service.
+	 *
+	 * @throws RuntimeException
+	 *         One of the requests threw an unexpected exception while it was
+	 *         being serviced.
+	 */
+	public static void serviceAll(final Request... requests) {
+		if(requests.length == 0) {
+			return;
+		}
+
+		// Keep the log context of the calling thread, so the sub-requests'
+		// log messages can still be traced back to the request.
+		final Stack<?> context = NDC.cloneStack();
+
+		// When the pool is full, a sub-request is serviced by this thread,
+		// which already has the context.
+		final Thread caller = Thread.currentThread();
+
+		List<Future<?>> futures = new ArrayList<Future<?>>(requests.length);
+		for(int i = 0; i < requests.length - 1; i++) {
+			final Request request = requests[i];
+			futures.add(
+				EXECUTOR.submit(
+					new Runnable() {
+						@Override
+						public void run() {
+							boolean inherited =
+								Thread.currentThread() != caller;
+							if(inherited) {
+								NDC.inherit(context);
+							}
+							try {
+								request.service();
+							}
+							finally {
+								if(inherited) {
+									NDC.remove();
+								}
+							}
+						}
+					}));
+		}
+
+		RuntimeException failure = null;
+		try {
+			requests[requests.length - 1].service();
+		}
+		catch(RuntimeException e) {
+			failure = e;
+		}
+
+		// Always wait for every sub-request, even if one of them failed, so
+		// none of them is left running after its parent has responded.
+		boolean interrupted = false;
+		for(Future<?> future : futures) {
+			while(true) {
+				try {
+					future.get();
+					break;
+				}
+				catch(InterruptedException e) {
+					interrupted = true;
+				}
+				catch(ExecutionException e) {
+					if(failure == null) {
+						Throwable cause = e.getCause();
+						if(cause instanceof RuntimeException) {
+							failure = (RuntimeException) cause;
+						}
+						else if(cause instanceof Error) {
+							throw (Error) cause;
+						}
+						else {
+							failure = new IllegalStateException(cause);
+						}
+					}
+					break;
+				}
+			}
+		}
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		if(failure != null) {
+			throw failure;
+		}
+	}
+}
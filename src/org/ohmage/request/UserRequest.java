@@ -27,6 +27,7 @@ import org.apache.log4j.Logger;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.cache.ConnectionContext;
 import org.ohmage.cache.KeycloakCache;
 import org.ohmage.cache.UserBin;
 import org.ohmage.domain.User;
@@ -236,7 +237,7 @@ public abstract class UserRequest extends Request {
 		try {
 			// Validate that the username and password are valid.
 			LOGGER.debug("Authenticating the user: " + getUser().getUsername());
-			return
+			boolean authenticated =
 				AuthenticationService
 					.instance()
 					.authenticate(
@@ -244,6 +245,15 @@ public abstract class UserRequest extends Request {
 						AllowNewAccount
 							.NEW_ACCOUNT_ALLOWED
 							.equals(newAccountsAllowed));
+			
+			// Authentication may have written to the database, e.g. to
+			// create the user, so a read-only request's transaction may
+			// only begin now.
+			if(authenticated) {
+				ConnectionContext.beginReadOnly();
+			}
+			
+			return authenticated;
 		}
 		catch(ServiceException e) {
 			e.logException(LOGGER);
@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.request.campaign;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.domain.CampaignDeletion;
+import org.ohmage.exception.InvalidRequestException;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.exception.ValidationException;
+import org.ohmage.request.InputKeys;
+import org.ohmage.request.UserRequest;
+import org.ohmage.service.CampaignDeletionServices;
+import org.ohmage.service.UserServices;
+import org.ohmage.validator.CampaignValidators;
+
+/**
+ * <p>Reads the progress of a campaign's deletion. Admins may read every
+ * deletion of the campaign and other users only the ones they requested.</p>
+ * <table border="1">
+ *   <tr>
+ *     <td>Parameter Name</td>
+ *     <td>Description</td>
+ *     <td>Required</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#CLIENT}</td>
+ *     <td>A string describing the client that is making this request.</td>
+ *     <td>true</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#CAMPAIGN_URN}</td>
+ *     <td>The unique identifier for the campaign that was deleted.</td>
+ *     <td>true</td>
+ *   </tr>
+ * </table>
+ */
+public class CampaignDeletionReadRequest extends UserRequest {
+	private static final Logger LOGGER =
+		Logger.getLogger(CampaignDeletionReadRequest.class);
+	
+	private static final String JSON_KEY_DELETIONS = "deletions";
+	
+	private final String campaignId;
+	
+	private List<CampaignDeletion> deletions = null;
+	
+	/**
+	 * Creates a campaign deletion read request.
+	 * 
+	 * @param httpRequest The HTTP request.
+	 * 
+	 * @throws InvalidRequestException Thrown if the parameters cannot be 
+	 * 								   parsed.
+	 * 
+	 * @throws IOException There was an error reading from the request.
+	 */
+	public CampaignDeletionReadRequest(
+			final HttpServletRequest httpRequest)
+			throws IOException, InvalidRequestException {
+		
+		super(httpRequest, null, TokenLocation.EITHER, null);
+		
+		LOGGER.info("Creating a campaign deletion read request.");
+		
+		String tCampaignId = null;
+		
+		if(! isFailed()) {
+			try {
+				tCampaignId =
+					CampaignValidators
+						.validateCampaignId(
+							httpRequest.getParameter(InputKeys.CAMPAIGN_URN));
+				if(tCampaignId == null) {
+					throw
+						new ValidationException(
+							ErrorCode.CAMPAIGN_INVALID_ID,
+							"A campaign identifier is required: " +
+								InputKeys.CAMPAIGN_URN);
+				}
+				else if(httpRequest.getParameterValues(InputKeys.CAMPAIGN_URN).length > 1) {
+					throw
+						new ValidationException(
+							ErrorCode.CAMPAIGN_INVALID_ID,
+							"Multiple campaign IDs were found.");
+				}
+			}
+			catch(ValidationException e) {
+				e.failRequest(this);
+				e.logException(LOGGER);
+			}
+		}
+		
+		campaignId = tCampaignId;
+	}
+
+	/**
+	 * Services this request.
+	 */
+	@Override
+	public void service() {
+		LOGGER.info("Servicing the campaign deletion read request.");
+		
+		if(! authenticate(AllowNewAccount.NEW_ACCOUNT_DISALLOWED)) {
+			return;
+		}
+		
+		try {
+			LOGGER.info("Checking if the user is an admin.");
+			boolean isAdmin =
+				UserServices
+					.instance()
+					.isUserAnAdmin(getUser().getUsername());
+			
+			LOGGER.info("Reading the campaign's deletions.");
+			deletions =
+				CampaignDeletionServices
+					.instance()
+					.getDeletions(
+						campaignId,
+						getUser().getUsername(),
+						isAdmin);
+		}
+		catch(ServiceException e) {
+			e.failRequest(this);
+			e.logException(LOGGER);
+		}
+	}
+
+	/**
+	 * Responds to the request with the deletions' progress or a fail message.
+	 */
+	@Override
+	public void respond(
+			final HttpServletRequest httpRequest,
+			final HttpServletResponse httpResponse) {
+		
+		LOGGER.info("Responding to the campaign deletion read request.");
+		
+		JSONArray result = null;
+		if((! isFailed()) && (deletions != null)) {
+			result = new JSONArray();
+			try {
+				for(CampaignDeletion deletion : deletions) {
+					result.put(deletion.toJsonObject());
+				}
+			}
+			catch(JSONException e) {
+				LOGGER.error("There was an error building the response.", e);
+				setFailed();
+			}
+		}
+		
+		super.respond(httpRequest, httpResponse, JSON_KEY_DELETIONS, result);
+	}
+}
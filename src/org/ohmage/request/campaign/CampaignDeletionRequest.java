@@ -16,12 +16,12 @@
 package org.ohmage.request.campaign;
 
 import java.io.IOException;
+import java.util.UUID;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
-import org.json.JSONObject;
 import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.exception.InvalidRequestException;
 import org.ohmage.exception.ServiceException;
@@ -34,7 +34,10 @@ import org.ohmage.service.UserServices;
 import org.ohmage.validator.CampaignValidators;
 
 /**
- * <p>Deletes a campaign.</p>
+ * <p>Deletes a campaign. The campaign is gone immediately, but its survey
+ * responses and their media are removed in the background. The response
+ * includes the deletion's unique identifier, and its progress may be read
+ * with the {@link CampaignDeletionReadRequest}.</p>
  * <table border="1">
  *   <tr>
  *     <td>Parameter Name</td>
@@ -60,6 +63,8 @@ public class CampaignDeletionRequest extends UserRequest {
 	
 	private final String campaignId;
 	
+	private UUID deletionId = null;
+	
 	/**
 	 * Creates a campaign deletion request.
 	 * 
@@ -131,7 +136,10 @@ public class CampaignDeletionRequest extends UserRequest {
 			}
 			
 			LOGGER.info("Deleting the campaign.");
-			CampaignServices.instance().deleteCampaign(campaignId);
+			deletionId =
+				CampaignServices
+					.instance()
+					.deleteCampaign(campaignId, getUser().getUsername());
 		}
 		catch(ServiceException e) {
 			e.failRequest(this);
@@ -140,10 +148,15 @@ public class CampaignDeletionRequest extends UserRequest {
 	}
 
 	/**
-	 * Responds to the request with a success or fail message.
+	 * Responds to the request with the deletion's unique identifier or a fail
+	 * message.
 	 */
 	@Override
 	public void respond(HttpServletRequest httpRequest, HttpServletResponse httpResponse) {
-		super.respond(httpRequest, httpResponse, (JSONObject) null);
+		super.respond(
+			httpRequest,
+			httpResponse,
+			"deletion_id",
+			(deletionId == null) ? null : deletionId.toString());
 	}
 }
@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.request.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.exception.InvalidRequestException;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.exception.ValidationException;
+import org.ohmage.reporting.QueryMetrics;
+import org.ohmage.reporting.RequestMetrics;
+import org.ohmage.request.InputKeys;
+import org.ohmage.request.UserRequest;
+import org.ohmage.service.UserServices;
+import org.ohmage.validator.MetricsValidators;
+import org.ohmage.validator.MetricsValidators.OutputFormat;
+
+/**
+ * <p>Reads the server's request metrics: for each API, the latency of each
+ * phase of its requests, the number of bytes read and written, and the
+ * number of failures by error code; and, for each shape of database
+ * statement, its latency, the rows it read and wrote, and the most recent
+ * slow statements. In order to read the metrics the user must be an
+ * admin.</p>
+ * <table border="1">
+ *   <tr>
+ *     <td>Parameter Name</td>
+ *     <td>Description</td>
+ *     <td>Required</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#CLIENT}</td>
+ *     <td>A string describing the client that is making this request.</td>
+ *     <td>true</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#OUTPUT_FORMAT}</td>
+ *     <td>Either "json", the default, or "prometheus" for the Prometheus
+ *       text exposition format.</td>
+ *     <td>false</td>
+ *   </tr>
+ * </table>
+ */
+public class MetricsReadRequest extends UserRequest {
+	private static final Logger LOGGER =
+		Logger.getLogger(MetricsReadRequest.class);
+
+	private static final String RESULT_KEY = "metrics";
+	private static final String JSON_KEY_QUERIES = "queries";
+
+	private static final String CONTENT_TYPE_PROMETHEUS =
+		"text/plain; version=0.0.4";
+
+	private final OutputFormat outputFormat;
+
+	private JSONObject jsonResult = null;
+	private String prometheusResult = null;
+
+	/**
+	 * Creates a metrics read request.
+	 *
+	 * @param httpRequest The HttpServletRequest with the parameters.
+	 *
+	 * @throws InvalidRequestException Thrown if the parameters cannot be
+	 * 								   parsed.
+	 *
+	 * @throws IOException There was an error reading from the request.
+	 */
+	public MetricsReadRequest(
+			final HttpServletRequest httpRequest)
+			throws IOException, InvalidRequestException {
+
+		super(httpRequest, false, TokenLocation.EITHER, null);
+
+		OutputFormat tOutputFormat = OutputFormat.JSON;
+
+		if(! isFailed()) {
+			LOGGER.info("Creating a metrics read request.");
+			String[] t;
+
+			try {
+				t = getParameterValues(InputKeys.OUTPUT_FORMAT);
+				if(t.length > 1) {
+					throw new ValidationException(
+						ErrorCode.METRICS_INVALID_OUTPUT_FORMAT,
+						"Multiple output formats were given: " +
+							InputKeys.OUTPUT_FORMAT);
+				}
+				else if(t.length == 1) {
+					OutputFormat format =
+						MetricsValidators.validateOutputFormat(t[0]);
+					if(format != null) {
+						tOutputFormat = format;
+					}
+				}
+			}
+			catch(ValidationException e) {
+				e.failRequest(this);
+				e.logException(LOGGER);
+			}
+		}
+
+		outputFormat = tOutputFormat;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.request.Request#service()
+	 */
+	@Override
+	public void service() {
+		LOGGER.info("Servicing the metrics read request.");
+
+		if(! authenticate(AllowNewAccount.NEW_ACCOUNT_DISALLOWED)) {
+			return;
+		}
+
+		try {
+			LOGGER.info("Verifying the user is an admin.");
+			UserServices.instance().verifyUserIsAdmin(getUser().getUsername());
+
+			LOGGER.info("Gathering the metrics.");
+			if(OutputFormat.PROMETHEUS.equals(outputFormat)) {
+				prometheusResult = RequestMetrics.instance().toPrometheus();
+			}
+			else {
+				try {
+					jsonResult = RequestMetrics.instance().toJson();
+				}
+				catch(JSONException e) {
+					throw new ServiceException(
+						"There was an error building the metrics.",
+						e);
+				}
+			}
+		}
+		catch(ServiceException e) {
+			e.failRequest(this);
+			e.logException(LOGGER);
+		}
+	}
+
+	/**
+	 * Replies with the metrics as JSON or, if requested, as Prometheus text.
+	 * Failures are always reported as JSON.
+	 */
+	@Override
+	public void respond(
+			final HttpServletRequest httpRequest,
+			final HttpServletResponse httpResponse) {
+
+		LOGGER.info("Responding to the metrics read request.");
+
+		if(isFailed() || (prometheusResult == null)) {
+			super.respond(httpRequest, httpResponse, RESULT_KEY, jsonResult);
+			return;
+		}
+
+		expireResponse(httpResponse);
+		httpResponse.setContentType(CONTENT_TYPE_PROMETHEUS);
+
+		OutputStream os = null;
+		try {
+			os = getOutputStream(httpRequest, httpResponse);
+			os.write(prometheusResult.getBytes("UTF-8"));
+		}
+		catch(IOException e) {
+			LOGGER.error("Unable to write the response.", e);
+		}
+		finally {
+			if(os != null) {
+				try {
+					os.close();
+				}
+				catch(IOException e) {
+					LOGGER.warn("Unable to close the output stream.", e);
+				}
+			}
+		}
+	}
+}
@@ -3,7 +3,6 @@ package org.ohmage.request.mobility;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -29,11 +28,13 @@ import org.ohmage.exception.InvalidRequestException;
 import org.ohmage.exception.ServiceException;
 import org.ohmage.exception.ValidationException;
 import org.ohmage.request.InputKeys;
+import org.ohmage.request.SubRequestExecutor;
 import org.ohmage.request.UserRequest;
 import org.ohmage.request.observer.StreamReadRequest;
 import org.ohmage.service.MobilityServices;
 import org.ohmage.service.UserClassServices;
 import org.ohmage.service.UserServices;
+import org.ohmage.util.CollectionUtils;
 import org.ohmage.util.DateTimeUtils;
 import org.ohmage.util.StringUtils;
 import org.ohmage.validator.MobilityValidators;
@@ -318,8 +319,11 @@ public class MobilityAggregateReadRequest extends UserRequest {
 				}
 			}
 			
-			// Service the read requests.
-			regularReadRequest.service();
+			// Service the read requests at the same time, each with its own
+			// connection.
+			SubRequestExecutor.serviceAll(
+				regularReadRequest,
+				extendedReadRequest);
 			if(regularReadRequest.isFailed()) {
 				Annotator annotator = regularReadRequest.getAnnotator();
 				throw
@@ -327,7 +331,6 @@ public class MobilityAggregateReadRequest extends UserRequest {
 						annotator.getErrorCode(),
 						annotator.getErrorText());
 			}
-			extendedReadRequest.service();
 			if(extendedReadRequest.isFailed()) {
 				Annotator annotator = extendedReadRequest.getAnnotator();
 				throw
@@ -339,9 +342,11 @@ public class MobilityAggregateReadRequest extends UserRequest {
 			LOGGER.info("Aggregating the resulting points.");
 			Collection<DataStream> regularResults = 
 				regularReadRequest.getResults();
+			List<MobilityPoint> regularPoints =
+				new ArrayList<MobilityPoint>(regularResults.size());
 			for(DataStream dataStream : regularResults) {
 				try {
-					points.add(
+					regularPoints.add(
 						new MobilityPoint(
 							dataStream, 
 							SubType.MODE_ONLY,
@@ -356,9 +361,11 @@ public class MobilityAggregateReadRequest extends UserRequest {
 
 			Collection<DataStream> extendedResults = 
 				extendedReadRequest.getResults();
+			List<MobilityPoint> extendedPoints =
+				new ArrayList<MobilityPoint>(extendedResults.size());
 			for(DataStream dataStream : extendedResults) {
 				try {
-					points.add(
+					extendedPoints.add(
 						new MobilityPoint(
 							dataStream, 
 							SubType.SENSOR_DATA,
@@ -371,8 +378,14 @@ public class MobilityAggregateReadRequest extends UserRequest {
 				}
 			}
 			
-			LOGGER.info("Sorting the aggregated points.");
-			Collections.sort(points);
+			// Both streams were read in chronological order, so they only
+			// need to be merged.
+			LOGGER.info("Merging the aggregated points.");
+			List<List<MobilityPoint>> streams =
+				new ArrayList<List<MobilityPoint>>(2);
+			streams.add(regularPoints);
+			streams.add(extendedPoints);
+			points.addAll(CollectionUtils.mergeSorted(streams));
 			
 			// Run them through the classifier.
 			LOGGER.info("Classifying the points.");
@@ -46,11 +46,13 @@ import org.ohmage.exception.ServiceException;
 import org.ohmage.exception.ValidationException;
 import org.ohmage.request.InputKeys;
 import org.ohmage.request.Request;
+import org.ohmage.request.SubRequestExecutor;
 import org.ohmage.request.UserRequest.TokenLocation;
 import org.ohmage.request.observer.StreamReadRequest;
 import org.ohmage.service.MobilityServices;
 import org.ohmage.service.UserClassServices;
 import org.ohmage.service.UserServices;
+import org.ohmage.util.CollectionUtils;
 import org.ohmage.util.StringUtils;
 import org.ohmage.validator.MobilityValidators;
 import org.ohmage.validator.UserValidators;
@@ -364,19 +366,20 @@ public class MobilityReadRequest extends Request {
 				}
 			}
 			
-			// Service the read requests.
-			regularReadRequest.service();
-			if(regularReadRequest.isFailed()) {
-				return;
-			}
-			extendedReadRequest.service();
-			if(extendedReadRequest.isFailed()) {
+			// Service the read requests at the same time, each with its own
+			// connection.
+			SubRequestExecutor.serviceAll(
+				regularReadRequest,
+				extendedReadRequest);
+			if(regularReadRequest.isFailed() || extendedReadRequest.isFailed()) {
 				return;
 			}
 			
 			LOGGER.info("Aggregating the resulting points.");
 			Collection<DataStream> regularResults = 
 				regularReadRequest.getResults();
+			List<MobilityPoint> regularPoints =
+				new ArrayList<MobilityPoint>(regularResults.size());
 			for(DataStream dataStream : regularResults) {
 				MetaData metaData = dataStream.getMetaData();
 				if(metaData == null) {
@@ -393,7 +396,7 @@ public class MobilityReadRequest extends Request {
 				}
 				
 				try {
-					points.add(
+					regularPoints.add(
 						new MobilityPoint(
 							dataStream, 
 							SubType.MODE_ONLY,
@@ -408,6 +411,8 @@ public class MobilityReadRequest extends Request {
 
 			Collection<DataStream> extendedResults = 
 				extendedReadRequest.getResults();
+			List<MobilityPoint> extendedPoints =
+				new ArrayList<MobilityPoint>(extendedResults.size());
 			for(DataStream dataStream : extendedResults) {
 				MetaData metaData = dataStream.getMetaData();
 				if(metaData == null) {
@@ -424,7 +429,7 @@ public class MobilityReadRequest extends Request {
 				}
 				
 				try {
-					points.add(
+					extendedPoints.add(
 						new MobilityPoint(
 							dataStream, 
 							SubType.SENSOR_DATA,
@@ -437,8 +442,14 @@ public class MobilityReadRequest extends Request {
 				}
 			}
 			
-			LOGGER.info("Sorting the aggregated points.");
-			Collections.sort(points);
+			// Both streams were read in chronological order, so they only
+			// need to be merged.
+			LOGGER.info("Merging the aggregated points.");
+			List<List<MobilityPoint>> streams =
+				new ArrayList<List<MobilityPoint>>(2);
+			streams.add(regularPoints);
+			streams.add(extendedPoints);
+			points.addAll(CollectionUtils.mergeSorted(streams));
 			
 			// Run them through the classifier.
 			LOGGER.info("Classifying the points.");
@@ -16,6 +16,8 @@
 package org.ohmage.request.mobility;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -28,6 +30,7 @@ import org.apache.log4j.Logger;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.domain.ColumnKey;
 import org.ohmage.domain.Location;
@@ -149,7 +152,10 @@ import org.ohmage.service.ObserverServices;
  *                   place.</li>
  *               </ul></li>
  *           </ul></li>
- *       </ul></td>
+ *       </ul>
+ *       If the request's body is an "application/json" document, optionally
+ *       GZIP'd, the body is used as this value, and the other parameters
+ *       may be given in the query string or as "X-Ohmage-" headers.</td>
  *     <td>false</td>
  *   </tr>
  * </table>
@@ -197,21 +203,40 @@ public class MobilityUploadRequest extends Request {
 		
 		if(! isFailed()) {
 			try {
-				String[] dataArray = getParameterValues(InputKeys.DATA);
-				if(dataArray.length == 0) {
-					throw new ValidationException(
-						ErrorCode.MOBILITY_INVALID_DATA,
-						"The upload data is missing: " + 
-							ErrorCode.MOBILITY_INVALID_DATA);
-				}
-				else if(dataArray.length > 1) {
-					throw new ValidationException(
-						ErrorCode.MOBILITY_INVALID_DATA,
-						"Multiple data parameters were given: " + 
-							ErrorCode.MOBILITY_INVALID_DATA);
+				// If the body is a JSON document, it is the data and is parsed
+				// directly from the request. Otherwise, the data is a 
+				// parameter.
+				JSONArray jsonDataArray;
+				InputStream jsonBody = getJsonBody(httpRequest);
+				if(jsonBody != null) {
+					try {
+						jsonDataArray = 
+							new JSONArray(
+								new JSONTokener(
+									new InputStreamReader(jsonBody, "UTF-8")));
+					}
+					catch(JSONException e) {
+						throw new ValidationException(
+							ErrorCode.MOBILITY_INVALID_DATA,
+							"The data is not well formed.",
+							e);
+					}
 				}
 				else {
-					JSONArray jsonDataArray;
+					String[] dataArray = getParameterValues(InputKeys.DATA);
+					if(dataArray.length == 0) {
+						throw new ValidationException(
+							ErrorCode.MOBILITY_INVALID_DATA,
+							"The upload data is missing: " + 
+								ErrorCode.MOBILITY_INVALID_DATA);
+					}
+					else if(dataArray.length > 1) {
+						throw new ValidationException(
+							ErrorCode.MOBILITY_INVALID_DATA,
+							"Multiple data parameters were given: " + 
+								ErrorCode.MOBILITY_INVALID_DATA);
+					}
+					
 					try {
 						jsonDataArray = new JSONArray(dataArray[0]);
 					}
@@ -221,116 +246,116 @@ public class MobilityUploadRequest extends Request {
 							"The data is not well formed.",
 							e);
 					}
+				}
+				
+				JSONArray resultDataArray = new JSONArray();
+				for(int i = 0; i < jsonDataArray.length(); i++) {
+					JSONObject pointJson;
+					try {
+						pointJson = jsonDataArray.getJSONObject(i);
+					}
+					catch(JSONException e) {
+						throw new ValidationException(
+							ErrorCode.MOBILITY_INVALID_DATA,
+							"A Mobility data point was not a JSON object.",
+							e);
+					}
 					
-					JSONArray resultDataArray = new JSONArray();
-					for(int i = 0; i < jsonDataArray.length(); i++) {
-						JSONObject pointJson;
-						try {
-							pointJson = jsonDataArray.getJSONObject(i);
-						}
-						catch(JSONException e) {
-							throw new ValidationException(
-								ErrorCode.MOBILITY_INVALID_DATA,
-								"A Mobility data point was not a JSON object.",
-								e);
-						}
-						
-						MobilityPoint point;
-						try {
-							point = 
-								new MobilityPoint(
-									pointJson,
-									MobilityPoint.PrivacyState.PRIVATE);
+					MobilityPoint point;
+					try {
+						point = 
+							new MobilityPoint(
+								pointJson,
+								MobilityPoint.PrivacyState.PRIVATE);
+					}
+					catch(DomainException e) {
+						invalidPointsMap.put(i, e.getMessage());
+						invalidPointsJson.add(pointJson);
+						continue;
+					}
+
+					validIds.add(point.getId().toString());
+					
+					try {
+						JSONObject jsonPoint = new JSONObject();
+						if(MobilityPoint.Mode.ERROR.equals(point.getMode())) {
+							jsonPoint.put("stream_id", "error");
+							
+							// Create the error object.
+							JSONObject errorObject = new JSONObject();
+							errorObject.put("mode", MobilityPoint.Mode.ERROR.toString().toLowerCase());
+							
+							jsonPoint.put("data", errorObject);
+							jsonPoint.put("stream_version", 2012061300);
 						}
-						catch(DomainException e) {
-							invalidPointsMap.put(i, e.getMessage());
-							invalidPointsJson.add(pointJson);
-							continue;
+						else if(MobilityPoint.SubType.MODE_ONLY.equals(point.getSubType())) {
+							jsonPoint.put("stream_id", "mode_only");
+							
+							// Create the mode object.
+							JSONObject modeObject = new JSONObject();
+							modeObject.put("mode", point.getMode().toString());
+							
+							jsonPoint.put("data", modeObject);
+							jsonPoint.put("stream_version", 2012050700);
 						}
-
-						validIds.add(point.getId().toString());
-						
-						try {
-							JSONObject jsonPoint = new JSONObject();
-							if(MobilityPoint.Mode.ERROR.equals(point.getMode())) {
-								jsonPoint.put("stream_id", "error");
-								
-								// Create the error object.
-								JSONObject errorObject = new JSONObject();
-								errorObject.put("mode", MobilityPoint.Mode.ERROR.toString().toLowerCase());
-								
-								jsonPoint.put("data", errorObject);
-								jsonPoint.put("stream_version", 2012061300);
+						else {
+							jsonPoint.put("stream_id", "extended");
+							
+							// Add the sensor data and rename it to "data".
+							Collection<ColumnKey> columns = new LinkedList<ColumnKey>();
+							columns.add(MobilityColumnKey.SENSOR_DATA);
+							JSONObject mobilityJson;
+							try {
+								mobilityJson = point.toJson(false, columns);
 							}
-							else if(MobilityPoint.SubType.MODE_ONLY.equals(point.getSubType())) {
-								jsonPoint.put("stream_id", "mode_only");
-								
-								// Create the mode object.
-								JSONObject modeObject = new JSONObject();
-								modeObject.put("mode", point.getMode().toString());
-								
-								jsonPoint.put("data", modeObject);
-								jsonPoint.put("stream_version", 2012050700);
+							catch(DomainException e) {
+								throw new ValidationException(
+									"The point could not be converted back to a JSON object.",
+									e);
 							}
-							else {
-								jsonPoint.put("stream_id", "extended");
-								
-								// Add the sensor data and rename it to "data".
-								Collection<ColumnKey> columns = new LinkedList<ColumnKey>();
-								columns.add(MobilityColumnKey.SENSOR_DATA);
-								JSONObject mobilityJson;
-								try {
-									mobilityJson = point.toJson(false, columns);
-								}
-								catch(DomainException e) {
-									throw new ValidationException(
-										"The point could not be converted back to a JSON object.",
-										e);
-								}
-								jsonPoint.put("data", mobilityJson.getJSONObject("sensor_data"));
-								jsonPoint.put("stream_version", 2012050700);
+							jsonPoint.put("data", mobilityJson.getJSONObject("sensor_data"));
+							jsonPoint.put("stream_version", 2012050700);
+						}
+						
+						JSONObject metadata = new JSONObject();
+						metadata.put("id", point.getId().toString());
+						metadata.put("time", point.getTime());
+						metadata.put("timezone", point.getTimezone().getID());
+						
+						Location location = point.getLocation();
+						if(location != null) {
+							try {
+								metadata.put(
+									"location", 
+									location.toJson(
+										false, 
+										LocationColumnKey.ALL_COLUMNS));
 							}
-							
-							JSONObject metadata = new JSONObject();
-							metadata.put("id", point.getId().toString());
-							metadata.put("time", point.getTime());
-							metadata.put("timezone", point.getTimezone().getID());
-							
-							Location location = point.getLocation();
-							if(location != null) {
-								try {
-									metadata.put(
-										"location", 
-										location.toJson(
-											false, 
-											LocationColumnKey.ALL_COLUMNS));
-								}
-								catch(DomainException e) {
-									throw new ValidationException(
-										"The location could not be converted back to a JSON object.",
-										e);
-								}
+							catch(DomainException e) {
+								throw new ValidationException(
+									"The location could not be converted back to a JSON object.",
+									e);
 							}
-							jsonPoint.put("metadata", metadata);
-	
-							resultDataArray.put(jsonPoint);
-						}
-						catch(JSONException e) {
-							throw new ValidationException(
-								"The stream information could not be built.",
-								e);
 						}
+						jsonPoint.put("metadata", metadata);
+
+						resultDataArray.put(jsonPoint);
+					}
+					catch(JSONException e) {
+						throw new ValidationException(
+							"The stream information could not be built.",
+							e);
 					}
-					
-					tStreamUploadRequest =
-						new StreamUploadRequest(
-							httpRequest,
-							getParameterMap(),
-							OBSERVER_ID,
-							OBSERVER_VERSION,
-							resultDataArray.toString(),
-							false);
 				}
+				
+				tStreamUploadRequest =
+					new StreamUploadRequest(
+						httpRequest,
+						getParameterMap(),
+						OBSERVER_ID,
+						OBSERVER_VERSION,
+						resultDataArray.toString(),
+						false);
 			}
 			catch(ValidationException e) {
 				e.failRequest(this);
@@ -0,0 +1,360 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.request.observer;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+import org.joda.time.DateTime;
+import org.json.JSONArray;
+import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.cache.PreferenceCache;
+import org.ohmage.domain.Observer;
+import org.ohmage.exception.CacheMissException;
+import org.ohmage.exception.InvalidRequestException;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.exception.ValidationException;
+import org.ohmage.request.InputKeys;
+import org.ohmage.request.UserRequest;
+import org.ohmage.service.ObserverServices;
+import org.ohmage.service.UserClassServices;
+import org.ohmage.service.UserServices;
+import org.ohmage.util.DateTimeUtils;
+import org.ohmage.util.StringUtils;
+import org.ohmage.validator.ObserverValidators;
+import org.ohmage.validator.UserValidators;
+
+/**
+ * Queries the system for all of the dates within an optional bound on which
+ * the user uploaded data for a stream.<br />
+ * <br />
+ * <table border="1">
+ *   <tr>
+ *     <td>Parameter Name</td>
+ *     <td>Description</td>
+ *     <td>Required</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#CLIENT}</td>
+ *     <td>A string describing the client that is making this request.</td>
+ *     <td>true</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#OBSERVER_ID}</td>
+ *     <td>The observer's unique identifier.</td>
+ *     <td>true</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#OBSERVER_VERSION}</td>
+ *     <td>A specific version of the observer. If omitted, the latest version
+ *       is used.</td>
+ *     <td>false</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#STREAM_ID}</td>
+ *     <td>The stream's unique identifier.</td>
+ *     <td>true</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#STREAM_VERSION}</td>
+ *     <td>A specific version of the stream.</td>
+ *     <td>true</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#START_DATE}</td>
+ *     <td>An ISO-8601 date-time-zone that limits the results to only those on
+ *       or after this date.</td>
+ *     <td>false</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#END_DATE}</td>
+ *     <td>An ISO-8601 date-time-zone that limits the results to only those on
+ *       or before this date.</td>
+ *     <td>false</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#USERNAME}</td>
+ *     <td>The username of the user for whom the data is desired. If omitted,
+ *       the requesting user is used.</td>
+ *     <td>false</td>
+ *   </tr>
+ * </table>
+ */
+public class StreamDatesReadRequest extends UserRequest {
+	private static final Logger LOGGER =
+		Logger.getLogger(StreamDatesReadRequest.class);
+
+	// The username of the user whose data is being read.
+	private final String username;
+
+	private final String observerId;
+	private final Long observerVersion;
+	private final String streamId;
+	private final Long streamVersion;
+
+	private final DateTime startDate;
+	private final DateTime endDate;
+
+	private List<DateTime> dates;
+
+	/**
+	 * Creates a stream dates read request.
+	 *
+	 * @param httpRequest The HTTP request.
+	 *
+	 * @throws InvalidRequestException Thrown if the parameters cannot be
+	 * 								   parsed.
+	 *
+	 * @throws IOException There was an error reading from the request.
+	 */
+	public StreamDatesReadRequest(
+			final HttpServletRequest httpRequest)
+			throws IOException, InvalidRequestException {
+
+		super(httpRequest, false, TokenLocation.EITHER, null);
+
+		String tUsername = null;
+		String tObserverId = null;
+		Long tObserverVersion = null;
+		String tStreamId = null;
+		Long tStreamVersion = null;
+		DateTime tStartDate = null;
+		DateTime tEndDate = null;
+
+		if(! isFailed()) {
+			LOGGER.info("Creating a stream dates read request.");
+			String[] t;
+
+			try {
+				t = getParameterValues(InputKeys.USERNAME);
+				if(t.length > 1) {
+					throw new ValidationException(
+						ErrorCode.USER_INVALID_USERNAME,
+						"Multiple usernames were given: " +
+							InputKeys.USERNAME);
+				}
+				else if(t.length == 1) {
+					tUsername = UserValidators.validateUsername(t[0]);
+				}
+
+				t = getParameterValues(InputKeys.OBSERVER_ID);
+				if(t.length > 1) {
+					throw new ValidationException(
+						ErrorCode.OBSERVER_INVALID_ID,
+						"Multiple observer IDs were given: " +
+							InputKeys.OBSERVER_ID);
+				}
+				else if(t.length == 1) {
+					tObserverId =
+						ObserverValidators.validateObserverId(t[0]);
+				}
+				if(tObserverId == null) {
+					throw new ValidationException(
+						ErrorCode.OBSERVER_INVALID_ID,
+						"The observer's ID is missing.");
+				}
+
+				t = getParameterValues(InputKeys.OBSERVER_VERSION);
+				if(t.length > 1) {
+					throw new ValidationException(
+						ErrorCode.OBSERVER_INVALID_VERSION,
+						"Multiple observer versions were given: " +
+							InputKeys.OBSERVER_VERSION);
+				}
+				else if(t.length == 1) {
+					tObserverVersion =
+						ObserverValidators.validateObserverVersion(t[0]);
+				}
+
+				t = getParameterValues(InputKeys.STREAM_ID);
+				if(t.length > 1) {
+					throw new ValidationException(
+						ErrorCode.OBSERVER_INVALID_STREAM_ID,
+						"Multiple stream IDs were given: " +
+							InputKeys.STREAM_ID);
+				}
+				else if(t.length == 1) {
+					tStreamId = ObserverValidators.validateStreamId(t[0]);
+				}
+				if(tStreamId == null) {
+					throw new ValidationException(
+						ErrorCode.OBSERVER_INVALID_STREAM_ID,
+						"The stream ID is missing: " + InputKeys.STREAM_ID);
+				}
+
+				t = getParameterValues(InputKeys.STREAM_VERSION);
+				if(t.length > 1) {
+					throw new ValidationException(
+						ErrorCode.OBSERVER_INVALID_STREAM_VERSION,
+						"Multiple stream versions were given: " +
+							InputKeys.STREAM_VERSION);
+				}
+				else if(t.length == 1) {
+					tStreamVersion =
+						ObserverValidators.validateStreamVersion(t[0]);
+				}
+				if(tStreamVersion == null) {
+					throw new ValidationException(
+						ErrorCode.OBSERVER_INVALID_STREAM_VERSION,
+						"The stream version is missing: " +
+							InputKeys.STREAM_VERSION);
+				}
+
+				t = getParameterValues(InputKeys.START_DATE);
+				if(t.length > 1) {
+					throw new ValidationException(
+						ErrorCode.SERVER_INVALID_DATE,
+						"Multiple start dates were given: " +
+							InputKeys.START_DATE);
+				}
+				else if(t.length == 1) {
+					tStartDate =
+						ObserverValidators.validateDate(t[0]);
+				}
+
+				t = getParameterValues(InputKeys.END_DATE);
+				if(t.length > 1) {
+					throw new ValidationException(
+						ErrorCode.SERVER_INVALID_DATE,
+						"Multiple end dates were given: " +
+							InputKeys.END_DATE);
+				}
+				else if(t.length == 1) {
+					tEndDate =
+						ObserverValidators.validateDate(t[0]);
+				}
+			}
+			catch(ValidationException e) {
+				e.failRequest(this);
+				e.logException(LOGGER);
+			}
+		}
+
+		username = tUsername;
+		observerId = tObserverId;
+		observerVersion = tObserverVersion;
+		streamId = tStreamId;
+		streamVersion = tStreamVersion;
+		startDate = tStartDate;
+		endDate = tEndDate;
+
+		dates = Collections.emptyList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.request.Request#service()
+	 */
+	@Override
+	public void service() {
+		LOGGER.info("Servicing a stream dates read request.");
+
+		if(! authenticate(AllowNewAccount.NEW_ACCOUNT_DISALLOWED)) {
+			return;
+		}
+
+		try {
+			if((username != null) && (! username.equals(getUser().getUsername()))) {
+				try {
+					LOGGER.info("Checking if the user is an admin.");
+					UserServices.instance().verifyUserIsAdmin(
+						getUser().getUsername());
+				}
+				catch(ServiceException notAdmin) {
+					LOGGER.info("The user is not an admin.");
+
+					LOGGER.info(
+						"Checking if reading stream data about another user is even allowed.");
+					boolean isPlausible;
+					try {
+						isPlausible =
+							StringUtils.decodeBoolean(
+								PreferenceCache.instance().lookup(
+									PreferenceCache.KEY_PRIVILEGED_USER_IN_CLASS_CAN_VIEW_MOBILITY_FOR_EVERYONE_IN_CLASS));
+					}
+					catch(CacheMissException e) {
+						throw new ServiceException(e);
+					}
+
+					if(isPlausible) {
+						LOGGER.info(
+							"Checking if the requester is allowed to read stream data about the user.");
+						UserClassServices
+							.instance()
+							.userIsPrivilegedInAnotherUserClass(
+								getUser().getUsername(),
+								username);
+					}
+					else {
+						throw new ServiceException(
+							ErrorCode.OBSERVER_INSUFFICIENT_PERMISSIONS,
+							"This user is not allowed to query stream data about the requested user.");
+					}
+				}
+			}
+
+			LOGGER.info("Retrieving the stream definition.");
+			Observer.Stream stream =
+				ObserverServices.instance().getStream(
+					observerId,
+					streamId,
+					streamVersion);
+
+			if(stream == null) {
+				LOGGER.info(
+					"The stream doesn't exist, so we will return no dates.");
+				return;
+			}
+
+			LOGGER.info("Retrieving the dates.");
+			dates =
+				ObserverServices.instance().getStreamDates(
+					stream,
+					(username == null) ? getUser().getUsername() : username,
+					observerId,
+					observerVersion,
+					startDate,
+					endDate);
+		}
+		catch(ServiceException e) {
+			e.failRequest(this);
+			e.logException(LOGGER);
+		}
+	}
+
+	/**
+	 * Converts the list of dates to a JSONArray and returns it to the caller.
+	 */
+	@Override
+	public void respond(
+			final HttpServletRequest httpRequest,
+			final HttpServletResponse httpResponse) {
+
+		LOGGER.info("Responding to the stream dates read request.");
+
+		JSONArray resultJson = new JSONArray();
+		for(DateTime date : dates) {
+			resultJson.put(DateTimeUtils.getIso8601DateString(date, false));
+		}
+
+		respond(httpRequest, httpResponse, JSON_KEY_DATA, resultJson);
+	}
+}
@@ -1,6 +1,7 @@
 package org.ohmage.request.observer;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
@@ -60,7 +61,10 @@ import org.ohmage.validator.ObserverValidators;
  *       stream as defined by this observer. The "stream_version"'s value is 
  *       the numeric value of the stream as defined by this observer. The 
  *       "data" value must conform to the schema from the definition.</td>
- *     <td>true</td>
+ *     <td>true, unless the request's body is an "application/json" document,
+ *       optionally GZIP'd, in which case the body is the data and the other
+ *       parameters may be given in the query string or as "X-Ohmage-" 
+ *       headers.</td>
  *   </tr>
  * </table>
  * 
@@ -214,25 +218,33 @@ public class StreamUploadRequest extends UserRequest {
 						"The observer's version is missing.");
 				}
 				
-				t = getParameterValues(InputKeys.DATA);
-				if(t.length == 0) {
-					LOGGER
-						.info(
-							"Attempting to get the data as a multipart part.");
-					t = new String[1];
-					t[0] =
-						new String(
-							getMultipartValue(httpRequest, InputKeys.DATA));
+				// If the body is a JSON document, it is the data and is parsed
+				// directly from the request as it is stored.
+				InputStream jsonBody = getJsonBody(httpRequest);
+				if(jsonBody != null) {
+					tData = ObserverValidators.validateData(jsonBody);
 				}
+				else {
+					t = getParameterValues(InputKeys.DATA);
+					if(t.length == 0) {
+						LOGGER
+							.info(
+								"Attempting to get the data as a multipart part.");
+						t = new String[1];
+						t[0] =
+							new String(
+								getMultipartValue(httpRequest, InputKeys.DATA));
+					}
 
-				if(t.length > 1) {
-					throw new ValidationException(
-						ErrorCode.OBSERVER_INVALID_STREAM_DATA,
-						"Multiple data streams were uploaded: " + 
-							InputKeys.DATA);
-				}
-				else if(t.length == 1) {
-					tData = ObserverValidators.validateData(t[0]);
+					if(t.length > 1) {
+						throw new ValidationException(
+							ErrorCode.OBSERVER_INVALID_STREAM_DATA,
+							"Multiple data streams were uploaded: " + 
+								InputKeys.DATA);
+					}
+					else if(t.length == 1) {
+						tData = ObserverValidators.validateData(t[0]);
+					}
 				}
 				if(tData == null) {
 					throw new ValidationException(
@@ -1,7 +1,7 @@
 package org.ohmage.request.omh;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
@@ -10,10 +10,10 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
+import org.codehaus.jackson.JsonEncoding;
 import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.JsonGenerator.Feature;
-import org.codehaus.jackson.JsonProcessingException;
 import org.codehaus.jackson.map.MappingJsonFactory;
 import org.json.JSONObject;
 import org.ohmage.annotator.Annotator.ErrorCode;
@@ -22,6 +22,7 @@ import org.ohmage.exception.InvalidRequestException;
 import org.ohmage.exception.ServiceException;
 import org.ohmage.exception.ValidationException;
 import org.ohmage.request.InputKeys;
+import org.ohmage.request.ResponseSnapshot;
 import org.ohmage.request.UserRequest;
 import org.ohmage.request.observer.StreamReadRequest;
 import org.ohmage.service.ObserverServices;
@@ -254,43 +255,41 @@ public class OmhCatalogRequest extends UserRequest {
 		// Refresh the token cookie.
 		refreshTokenCookie(httpResponse);
 		
-		// Expire the response, but this may be a bad idea.
-		expireResponse(httpResponse);
-		
-		// Set the content type to JSON.
-		httpResponse.setContentType("application/json");
-		
-		// Connect a stream to the response.
-		OutputStream outputStream;
+		// Render the catalog. It is different for every user and changes
+		// whenever they upload data, so it is not cached, but its entity tag
+		// still saves sending a catalog the client already has.
+		ResponseSnapshot snapshot;
 		try {
-			outputStream = getOutputStream(httpRequest, httpResponse);
+			snapshot = new ResponseSnapshot(render());
 		}
 		catch(IOException e) {
-			LOGGER.warn("Could not connect to the output stream.", e);
+			LOGGER.error("The catalog could not be rendered.", e);
+			httpResponse.setStatus(
+				HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
 			return;
 		}
-
-		// Create the generator that will stream to the requester.
-		JsonGenerator generator;
+		
 		try {
-			generator = JSON_FACTORY.createJsonGenerator(outputStream);
+			snapshot.write(httpRequest, httpResponse, false);
 		}
-		catch(IOException generatorException) {
-			LOGGER.error(
-				"Could not create the JSON generator.",
-				generatorException);
-			
-			try {
-				outputStream.close();
-			}
-			catch(IOException streamCloseException) {
-				LOGGER.warn(
-					"Could not close the output stream.",
-					streamCloseException);
-			}
-			
-			return;
+		catch(IOException e) {
+			LOGGER.info(
+				"The response could no longer be written to the response",
+				e);
 		}
+	}
+	
+	/**
+	 * Renders the catalog entries that were gathered.
+	 * 
+	 * @return The UTF-8 encoded JSON array of catalog entries.
+	 * 
+	 * @throws IOException The JSON could not be generated.
+	 */
+	private byte[] render() throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		JsonGenerator generator = 
+			JSON_FACTORY.createJsonGenerator(outputStream, JsonEncoding.UTF8);
 		
 		try {
 			generator.writeStartArray();
@@ -348,28 +347,11 @@ public class OmhCatalogRequest extends UserRequest {
 			
 			generator.writeEndArray();
 		}
-		catch(JsonProcessingException e) {
-			LOGGER.error("The JSON could not be processed.", e);
-			httpResponse.setStatus(
-				HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-			return;
-		}
-		catch(IOException e) {
-			LOGGER.info(
-				"The response could no longer be written to the response",
-				e);
-			httpResponse.setStatus(
-				HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-			return;
-		}
 		finally {
 			// Flush and close the writer.
-			try {
-				generator.close();
-			}
-			catch(IOException e) {
-				LOGGER.info("Could not close the generator.", e);
-			}
+			generator.close();
 		}
+		
+		return outputStream.toByteArray();
 	}
-}
\ No newline at end of file
+}
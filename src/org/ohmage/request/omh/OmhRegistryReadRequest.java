@@ -1,7 +1,7 @@
 package org.ohmage.request.omh;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -14,12 +14,13 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
+import org.codehaus.jackson.JsonEncoding;
 import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.JsonGenerator.Feature;
-import org.codehaus.jackson.JsonProcessingException;
 import org.codehaus.jackson.map.MappingJsonFactory;
 import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.cache.OmhRegistryCache;
 import org.ohmage.domain.CampaignPayloadId;
 import org.ohmage.domain.Observer.Stream;
 import org.ohmage.domain.ObserverPayloadId;
@@ -34,6 +35,7 @@ import org.ohmage.exception.ServiceException;
 import org.ohmage.exception.ValidationException;
 import org.ohmage.request.InputKeys;
 import org.ohmage.request.Request;
+import org.ohmage.request.ResponseSnapshot;
 import org.ohmage.request.observer.StreamReadRequest;
 import org.ohmage.service.CampaignServices;
 import org.ohmage.service.ObserverServices;
@@ -55,11 +57,19 @@ public class OmhRegistryReadRequest extends Request {
 	
 	private final long numToSkip;
 	private final long numToReturn;
+	
+	/**
+	 * The parameters that identify this request's response in the
+	 * {@link OmhRegistryCache}.
+	 */
+	private final String cacheKey;
 
 	private final Map<String, Collection<Stream>> streams = 
 		new HashMap<String, Collection<Stream>>();
 	private final Collection<Campaign> campaigns = new ArrayList<Campaign>();
 	
+	private ResponseSnapshot snapshot = null;
+	
 	/**
 	 * Creates an OMH registry read request.
 	 * 
@@ -79,6 +89,7 @@ public class OmhRegistryReadRequest extends Request {
 		super(httpRequest, null);
 
 		PayloadId tPayloadId = null;
+		String tPayloadIdString = null;
 		Long tPayloadVersion = null;
 		
 		long tNumToSkip = 0;
@@ -99,6 +110,7 @@ public class OmhRegistryReadRequest extends Request {
 				}
 				else if(t.length == 1) {
 					tPayloadId = OmhValidators.validatePayloadId(t[0]);
+					tPayloadIdString = t[0];
 				}
 				
 				t = getParameterValues(InputKeys.OMH_PAYLOAD_VERSION);
@@ -150,6 +162,12 @@ public class OmhRegistryReadRequest extends Request {
 		
 		numToSkip = tNumToSkip;
 		numToReturn = tNumToReturn;
+		
+		cacheKey =
+			tPayloadIdString + ":" + 
+			payloadVersion + ":" + 
+			numToSkip + ":" + 
+			numToReturn;
 	}
 
 	/*
@@ -160,6 +178,19 @@ public class OmhRegistryReadRequest extends Request {
 	public void service() {
 		LOGGER.info("Servicing an OMH registry read request.");
 		
+		// Use the rendered response if these entries have been rendered
+		// since the last time an observer or campaign changed.
+		OmhRegistryCache cache = OmhRegistryCache.instance();
+		long generation = 0;
+		if(cache != null) {
+			snapshot = cache.lookup(cacheKey);
+			if(snapshot != null) {
+				LOGGER.info("Using the cached registry entries.");
+				return;
+			}
+			generation = cache.getGeneration();
+		}
+		
 		try {
 			// If the user isn't specifically asking for campaigns, then either
 			// they are asking for a specific observer or they want everything 
@@ -228,11 +259,23 @@ public class OmhRegistryReadRequest extends Request {
 						));
 				LOGGER.info("Found " + campaigns.size() + " campaigns.");
 			}
+			
+			LOGGER.info("Rendering the registry entries.");
+			snapshot = new ResponseSnapshot(render());
+			if(cache != null) {
+				cache.put(cacheKey, snapshot, generation);
+			}
 		}
 		catch(ServiceException e) {
 			e.failRequest(this);
 			e.logException(LOGGER);
 		}
+		catch(IOException e) {
+			LOGGER.error("The registry entries could not be rendered.", e);
+			setFailed(
+				ErrorCode.SYSTEM_GENERAL_ERROR,
+				"The registry entries could not be rendered.");
+		}
 	}
 
 	/*
@@ -265,43 +308,27 @@ public class OmhRegistryReadRequest extends Request {
 			return;
 		}
 
-		// Expire the response, but this may be a bad idea.
-		expireResponse(httpResponse);
-		
-		// Set the content type to JSON.
-		httpResponse.setContentType("application/json");
-		
-		// Connect a stream to the response.
-		OutputStream outputStream;
 		try {
-			outputStream = getOutputStream(httpRequest, httpResponse);
+			snapshot.write(httpRequest, httpResponse, true);
 		}
 		catch(IOException e) {
-			LOGGER.warn("Could not connect to the output stream.", e);
-			return;
-		}
-
-		// Create the generator that will stream to the requester.
-		JsonGenerator generator;
-		try {
-			generator = JSON_FACTORY.createJsonGenerator(outputStream);
-		}
-		catch(IOException generatorException) {
-			LOGGER.error(
-				"Could not create the JSON generator.",
-				generatorException);
-			
-			try {
-				outputStream.close();
-			}
-			catch(IOException streamCloseException) {
-				LOGGER.warn(
-					"Could not close the output stream.",
-					streamCloseException);
-			}
-			
-			return;
+			LOGGER.info(
+				"The response could no longer be written to the response",
+				e);
 		}
+	}
+	
+	/**
+	 * Renders the registry entries that were gathered.
+	 * 
+	 * @return The UTF-8 encoded JSON array of registry entries.
+	 * 
+	 * @throws IOException The JSON could not be generated.
+	 */
+	private byte[] render() throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		JsonGenerator generator = 
+			JSON_FACTORY.createJsonGenerator(outputStream, JsonEncoding.UTF8);
 		
 		try {
 			// Start the JSON output.
@@ -476,7 +503,7 @@ public class OmhRegistryReadRequest extends Request {
 						// Set the payload definition.
 						generator.writeFieldName("payload_definition"); 
 						survey.toConcordia(generator, null);
-	
+
 						// End the campaign's object.
 						generator.writeEndObject();
 					}
@@ -538,13 +565,13 @@ public class OmhRegistryReadRequest extends Request {
 							generator.writeStringField(
 								"payload_version", 
 								"1");
-	
+
 							// If it's a repeatable set, then it will be the 
 							// same as a prompt except that the data will be
 							// an array of the same definition as a prompt.
 							generator.writeFieldName("payload_definition"); 
 							survey.toConcordia(generator, surveyItem.getId());
-	
+
 							// End the campaign's object.
 							generator.writeEndObject();
 						}
@@ -555,28 +582,11 @@ public class OmhRegistryReadRequest extends Request {
 			// End the JSON output.
 			generator.writeEndArray();
 		}
-		catch(JsonProcessingException e) {
-			LOGGER.error("The JSON could not be processed.", e);
-			httpResponse.setStatus(
-				HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-			return;
-		}
-		catch(IOException e) {
-			LOGGER.info(
-				"The response could no longer be written to the response",
-				e);
-			httpResponse.setStatus(
-				HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-			return;
-		}
 		finally {
 			// Flush and close the writer.
-			try {
-				generator.close();
-			}
-			catch(IOException e) {
-				LOGGER.info("Could not close the generator.", e);
-			}
+			generator.close();
 		}
+		
+		return outputStream.toByteArray();
 	}
-}
\ No newline at end of file
+}
@@ -50,8 +50,10 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.cache.PreferenceCache;
+import org.ohmage.domain.Annotation;
 import org.ohmage.domain.Location;
 import org.ohmage.domain.Location.LocationColumnKey;
+import org.ohmage.domain.PromptResponseAnnotation;
 import org.ohmage.domain.campaign.Prompt;
 import org.ohmage.domain.campaign.Prompt.LabelValuePair;
 import org.ohmage.domain.campaign.PromptResponse;
@@ -74,10 +76,12 @@ import org.ohmage.domain.campaign.response.SingleChoicePromptResponse;
 import org.ohmage.exception.CacheMissException;
 import org.ohmage.exception.DomainException;
 import org.ohmage.exception.InvalidRequestException;
+import org.ohmage.exception.ServiceException;
 import org.ohmage.exception.ValidationException;
 import org.ohmage.request.InputKeys;
 import org.ohmage.request.observer.StreamReadRequest.ColumnNode;
 import org.ohmage.request.omh.OmhReadResponder;
+import org.ohmage.service.UserAnnotationServices;
 import org.ohmage.util.DateTimeUtils;
 import org.ohmage.validator.SurveyResponseValidators;
 
@@ -184,6 +188,13 @@ import org.ohmage.validator.SurveyResponseValidators;
  *     <td>false</td>
  *   </tr>
  *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#INCLUDE_ANNOTATIONS}</td>
+ *     <td>For {@value #_OUTPUT_FORMAT_JSON_ROWS} output, whether to return
+ *     the survey response and prompt response annotations with each result.
+ *     Only admins and supervisors in the campaign may read annotations.</td>
+ *     <td>false</td>
+ *   </tr>
+ *   <tr>
  *     <td>{@value org.ohmage.request.InputKeys#PRIVACY_STATE}</td>
  *     <td>Filters the results by their associated privacy state.</td>
  *     <td>false</td>
@@ -260,6 +271,26 @@ public final class SurveyResponseReadRequest
 	 * @see org.ohmage.request.InputKeys#COLLAPSE
 	 */
 	public static final String JSON_KEY_COUNT = "count";
+	/**
+	 * The JSON key associated with every record's survey response annotations
+	 * if the input parameter 
+	 * {@link org.ohmage.request.InputKeys#INCLUDE_ANNOTATIONS include_annotations}
+	 * is true.
+	 * 
+	 * @see org.ohmage.request.InputKeys#INCLUDE_ANNOTATIONS
+	 */
+	public static final String JSON_KEY_SURVEY_ANNOTATIONS = 
+		"survey_annotations";
+	/**
+	 * The JSON key associated with every record's prompt response annotations
+	 * if the input parameter 
+	 * {@link org.ohmage.request.InputKeys#INCLUDE_ANNOTATIONS include_annotations}
+	 * is true.
+	 * 
+	 * @see org.ohmage.request.InputKeys#INCLUDE_ANNOTATIONS
+	 */
+	public static final String JSON_KEY_PROMPT_ANNOTATIONS = 
+		"prompt_annotations";
 	
 	final Collection<SurveyResponse.ColumnKey> columns;
 	private final SurveyResponse.OutputFormat outputFormat;
@@ -269,6 +300,10 @@ public final class SurveyResponseReadRequest
 	private final Boolean prettyPrint;
 	private final Boolean returnId;
 	private final Boolean suppressMetadata;
+	private final Boolean includeAnnotations;
+	
+	private Map<UUID, List<Annotation>> surveyAnnotations;
+	private Map<UUID, List<PromptResponseAnnotation>> promptAnnotations;
 	
 	final long surveyResponsesToSkip;
 	final long surveyResponsesToProcess;
@@ -378,6 +413,7 @@ public final class SurveyResponseReadRequest
 		this.prettyPrint = prettyPrint;
 		this.returnId = returnId;
 		this.suppressMetadata = suppressMetadata;
+		this.includeAnnotations = null;
 		
 		if(numResponsesToSkip == null) {
 			this.surveyResponsesToSkip = 0;
@@ -434,6 +470,7 @@ public final class SurveyResponseReadRequest
 		Boolean tPrettyPrint = null;
 		Boolean tReturnId = null;
 		Boolean tSuppressMetadata = null;
+		Boolean tIncludeAnnotations = null;
 		
 		long tSurveyResponsesToSkip = 0;
 		long tSurveyResponsesToProcess = -1;
@@ -581,6 +618,29 @@ public final class SurveyResponseReadRequest
 									t[0]);
 				}
 				
+				// Include annotations
+				t = getParameterValues(InputKeys.INCLUDE_ANNOTATIONS);
+				if(t.length > 1) {
+					throw new ValidationException(
+							ErrorCode.SURVEY_INVALID_INCLUDE_ANNOTATIONS_VALUE, 
+							"Multiple include annotations values were given: " + 
+								InputKeys.INCLUDE_ANNOTATIONS);
+				}
+				else if(t.length == 1) {
+					tIncludeAnnotations = 
+							SurveyResponseValidators.validateIncludeAnnotations(
+									t[0]);
+				}
+				if((tIncludeAnnotations != null) && 
+					tIncludeAnnotations && 
+					(! OutputFormat.JSON_ROWS.equals(tOutputFormat))) {
+					
+					throw new ValidationException(
+							ErrorCode.SURVEY_INVALID_INCLUDE_ANNOTATIONS_VALUE, 
+							"Annotations may only be included with the JSON rows output format: " + 
+								InputKeys.INCLUDE_ANNOTATIONS);
+				}
+				
 				// Number of survey responses to skip.
 				t = getParameterValues(InputKeys.NUM_TO_SKIP);
 				if(t.length > 1) {
@@ -625,6 +685,7 @@ public final class SurveyResponseReadRequest
 		prettyPrint = tPrettyPrint;
 		returnId = tReturnId;
 		suppressMetadata = tSuppressMetadata;
+		includeAnnotations = tIncludeAnnotations;
 		
 		surveyResponsesToSkip = tSurveyResponsesToSkip;
 		surveyResponsesToProcess = tSurveyResponsesToProcess;
@@ -644,6 +705,34 @@ public final class SurveyResponseReadRequest
 				collapse, 
 				surveyResponsesToSkip, 
 				surveyResponsesToProcess);
+		
+		if(isFailed() || (includeAnnotations == null) || (! includeAnnotations)) {
+			return;
+		}
+		
+		try {
+			LOGGER.info("Verifying that the user can read the annotations.");
+			UserAnnotationServices.instance().userCanReadAnnotationsInCampaign(
+					getUser().getUsername(), 
+					getCampaignId());
+			
+			Collection<UUID> surveyResponseIds = new ArrayList<UUID>();
+			for(SurveyResponse surveyResponse : getSurveyResponses()) {
+				surveyResponseIds.add(surveyResponse.getSurveyResponseId());
+			}
+			
+			LOGGER.info("Reading the annotations for the survey responses.");
+			surveyAnnotations = 
+					UserAnnotationServices.instance()
+						.readSurveyResponseAnnotations(surveyResponseIds);
+			promptAnnotations = 
+					UserAnnotationServices.instance()
+						.readPromptResponseAnnotations(surveyResponseIds);
+		}
+		catch(ServiceException e) {
+			e.failRequest(this);
+			e.logException(LOGGER);
+		}
 	}
 
 	/*
@@ -838,6 +927,34 @@ public final class SurveyResponseReadRequest
 								currResult.put("location_timezone", location.getTimeZone().getID());
 							}
 						}
+						if((includeAnnotations != null) && includeAnnotations) {
+							UUID surveyResponseId = 
+									surveyResponse.getSurveyResponseId();
+							
+							JSONArray surveyAnnotationsJson = new JSONArray();
+							List<Annotation> currSurveyAnnotations = 
+									surveyAnnotations.get(surveyResponseId);
+							if(currSurveyAnnotations != null) {
+								for(Annotation annotation : currSurveyAnnotations) {
+									surveyAnnotationsJson.put(annotation.toJson());
+								}
+							}
+							currResult.put(
+									JSON_KEY_SURVEY_ANNOTATIONS, 
+									surveyAnnotationsJson);
+							
+							JSONArray promptAnnotationsJson = new JSONArray();
+							List<PromptResponseAnnotation> currPromptAnnotations = 
+									promptAnnotations.get(surveyResponseId);
+							if(currPromptAnnotations != null) {
+								for(Annotation annotation : currPromptAnnotations) {
+									promptAnnotationsJson.put(annotation.toJson());
+								}
+							}
+							currResult.put(
+									JSON_KEY_PROMPT_ANNOTATIONS, 
+									promptAnnotationsJson);
+						}
 						
 						results.put(currResult);
 					}
@@ -0,0 +1,281 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.request.survey;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.exception.InvalidRequestException;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.exception.ValidationException;
+import org.ohmage.request.InputKeys;
+import org.ohmage.request.UserRequest;
+import org.ohmage.service.SurveyResponseServices;
+import org.ohmage.service.UserCampaignServices;
+import org.ohmage.validator.CampaignValidators;
+import org.ohmage.validator.MediaValidators;
+import org.ohmage.validator.SurveyResponseValidators;
+
+/**
+ * <p>Checks which of a set of survey responses and media files the user has
+ * already uploaded. Clients call this before a survey upload and then leave
+ * out whatever the server already has, so that an upload that is retried
+ * does not send every media file again.</p>
+ * <table border="1">
+ *   <tr>
+ *     <td>Parameter Name</td>
+ *     <td>Description</td>
+ *     <td>Required</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#CLIENT}</td>
+ *     <td>A string describing the client that is making this request.</td>
+ *     <td>true</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#CAMPAIGN_URN}</td>
+ *     <td>The unique identifier for the campaign to which the survey
+ *       responses would be uploaded.</td>
+ *     <td>true</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#SURVEY_RESPONSE_ID_LIST}</td>
+ *     <td>A {@value org.ohmage.request.InputKeys#LIST_ITEM_SEPARATOR}
+ *       separated list of survey response IDs to check.</td>
+ *     <td>false</td>
+ *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#MEDIA_ID_LIST}</td>
+ *     <td>A {@value org.ohmage.request.InputKeys#LIST_ITEM_SEPARATOR}
+ *       separated list of image, video, audio, and document IDs to
+ *       check.</td>
+ *     <td>false</td>
+ *   </tr>
+ * </table>
+ */
+public class SurveyUploadCheckRequest extends UserRequest {
+	private static final Logger LOGGER =
+		Logger.getLogger(SurveyUploadCheckRequest.class);
+
+	private static final String JSON_KEY_SURVEY_RESPONSE_IDS =
+		"survey_response_ids";
+	private static final String JSON_KEY_MEDIA_IDS = "media_ids";
+
+	/**
+	 * The maximum number of IDs that may be checked in each list.
+	 */
+	private static final int MAX_NUMBER_OF_IDS = 2000;
+
+	private final String campaignId;
+	private final Set<UUID> surveyResponseIds;
+	private final Set<UUID> mediaIds;
+
+	private Collection<UUID> existingSurveyResponseIds = null;
+	private Collection<UUID> existingMediaIds = null;
+
+	/**
+	 * Creates a survey upload check request.
+	 *
+	 * @param httpRequest The HTTP request.
+	 *
+	 * @throws InvalidRequestException Thrown if the parameters cannot be
+	 * 								   parsed.
+	 *
+	 * @throws IOException There was an error reading from the request.
+	 */
+	public SurveyUploadCheckRequest(
+			final HttpServletRequest httpRequest)
+			throws IOException, InvalidRequestException {
+
+		super(httpRequest, null, TokenLocation.EITHER, null);
+
+		LOGGER.info("Creating a survey upload check request.");
+
+		String tCampaignId = null;
+		Set<UUID> tSurveyResponseIds = Collections.emptySet();
+		Set<UUID> tMediaIds = Collections.emptySet();
+
+		if(! isFailed()) {
+			try {
+				String[] t = getParameterValues(InputKeys.CAMPAIGN_URN);
+				if(t.length > 1) {
+					throw
+						new ValidationException(
+							ErrorCode.CAMPAIGN_INVALID_ID,
+							"Multiple campaign IDs were found.");
+				}
+				else if(t.length == 1) {
+					tCampaignId = CampaignValidators.validateCampaignId(t[0]);
+				}
+				if(tCampaignId == null) {
+					throw
+						new ValidationException(
+							ErrorCode.CAMPAIGN_INVALID_ID,
+							"A campaign identifier is required: " +
+								InputKeys.CAMPAIGN_URN);
+				}
+
+				t = getParameterValues(InputKeys.SURVEY_RESPONSE_ID_LIST);
+				if(t.length > 1) {
+					throw
+						new ValidationException(
+							ErrorCode.SURVEY_INVALID_SURVEY_ID,
+							"Multiple survey response ID lists were found.");
+				}
+				else if(t.length == 1) {
+					Set<UUID> ids =
+						SurveyResponseValidators
+							.validateSurveyResponseIds(t[0]);
+
+					if(ids != null) {
+						if(ids.size() > MAX_NUMBER_OF_IDS) {
+							throw
+								new ValidationException(
+									ErrorCode.SURVEY_INVALID_SURVEY_ID,
+									"More than " +
+										MAX_NUMBER_OF_IDS +
+										" survey response IDs were given.");
+						}
+						tSurveyResponseIds = ids;
+					}
+				}
+
+				t = getParameterValues(InputKeys.MEDIA_ID_LIST);
+				if(t.length > 1) {
+					throw
+						new ValidationException(
+							ErrorCode.MEDIA_INVALID_ID,
+							"Multiple media ID lists were found.");
+				}
+				else if(t.length == 1) {
+					Set<UUID> ids = MediaValidators.validateIds(t[0]);
+
+					if(ids != null) {
+						if(ids.size() > MAX_NUMBER_OF_IDS) {
+							throw
+								new ValidationException(
+									ErrorCode.MEDIA_INVALID_ID,
+									"More than " +
+										MAX_NUMBER_OF_IDS +
+										" media IDs were given.");
+						}
+						tMediaIds = ids;
+					}
+				}
+			}
+			catch(ValidationException e) {
+				e.failRequest(this);
+				e.logException(LOGGER);
+			}
+		}
+
+		campaignId = tCampaignId;
+		surveyResponseIds = tSurveyResponseIds;
+		mediaIds = tMediaIds;
+	}
+
+	/**
+	 * Services this request.
+	 */
+	@Override
+	public void service() {
+		LOGGER.info("Servicing the survey upload check request.");
+
+		if(! authenticate(AllowNewAccount.NEW_ACCOUNT_DISALLOWED)) {
+			return;
+		}
+
+		try {
+			String username = getUser().getUsername();
+
+			LOGGER.info("Verifying that the user may upload to the campaign.");
+			UserCampaignServices
+				.instance()
+				.verifyUserCanUploadSurveyResponses(username, campaignId);
+
+			LOGGER.info("Looking up the survey responses that already exist.");
+			existingSurveyResponseIds =
+				SurveyResponseServices
+					.instance()
+					.getExistingSurveyResponseIds(
+						username,
+						campaignId,
+						surveyResponseIds);
+
+			LOGGER.info("Looking up the media files that already exist.");
+			existingMediaIds =
+				SurveyResponseServices
+					.instance()
+					.getExistingMediaIds(username, mediaIds);
+		}
+		catch(ServiceException e) {
+			e.failRequest(this);
+			e.logException(LOGGER);
+		}
+	}
+
+	/**
+	 * Responds to the request with the IDs that already exist or a fail
+	 * message.
+	 */
+	@Override
+	public void respond(
+			final HttpServletRequest httpRequest,
+			final HttpServletResponse httpResponse) {
+
+		LOGGER.info("Responding to the survey upload check request.");
+
+		JSONObject result = null;
+		if((! isFailed()) &&
+			(existingSurveyResponseIds != null) &&
+			(existingMediaIds != null)) {
+
+			result = new JSONObject();
+			try {
+				JSONArray surveyResponseIdsArray = new JSONArray();
+				for(UUID id : existingSurveyResponseIds) {
+					surveyResponseIdsArray.put(id.toString());
+				}
+				result.put(
+					JSON_KEY_SURVEY_RESPONSE_IDS,
+					surveyResponseIdsArray);
+
+				JSONArray mediaIdsArray = new JSONArray();
+				for(UUID id : existingMediaIds) {
+					mediaIdsArray.put(id.toString());
+				}
+				result.put(JSON_KEY_MEDIA_IDS, mediaIdsArray);
+			}
+			catch(JSONException e) {
+				LOGGER.error("There was an error building the response.", e);
+				setFailed();
+			}
+		}
+
+		super.respond(httpRequest, httpResponse, (JSONObject) null, result);
+	}
+}
@@ -16,6 +16,7 @@
 package org.ohmage.request.survey;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -93,7 +94,10 @@ import org.ohmage.validator.SurveyResponseValidators;
  *   <tr>
  *     <td>{@value org.ohmage.request.InputKeys#SURVEYS}</td>
  *     <td>The survey data payload for the survey(s) being uploaded.</td>
- *     <td>true</td>
+ *     <td>true, unless the request's body is an "application/json" document,
+ *       optionally GZIP'd, in which case the body is the payload and the
+ *       other parameters may be given in the query string or as 
+ *       "X-Ohmage-" headers.</td>
  *   </tr>
  *   <tr>
  *     <td>{@value org.ohmage.request.InputKeys#IMAGES}</td>
@@ -259,25 +263,33 @@ public class SurveyUploadRequest extends UserRequest {
 				} 
 
 				
-				byte[] surveyDataBytes =
-					getParameter(httpRequest, InputKeys.SURVEYS);
-				if(surveyDataBytes == null) {
-					throw new ValidationException(
-						ErrorCode.SURVEY_INVALID_RESPONSES, 
-						"No value found for 'surveys' parameter or multiple surveys parameters were found.");
+				// If the body is a JSON document, it is the survey responses
+				// and is parsed directly from the request.
+				InputStream jsonBody = getJsonBody(httpRequest);
+				if(jsonBody != null) {
+					tJsonData = CampaignValidators.validateUploadedJson(jsonBody);
 				}
 				else {
-					LOGGER.debug(new String(surveyDataBytes));
-					try {
-						tJsonData =
-							CampaignValidators
-								.validateUploadedJson(
-									new String(surveyDataBytes, "UTF-8"));
-					}
-					catch(IllegalArgumentException e) {
+					byte[] surveyDataBytes =
+						getParameter(httpRequest, InputKeys.SURVEYS);
+					if(surveyDataBytes == null) {
 						throw new ValidationException(
 							ErrorCode.SURVEY_INVALID_RESPONSES, 
-							"The survey responses could not be URL decoded.", e);
+							"No value found for 'surveys' parameter or multiple surveys parameters were found.");
+					}
+					else {
+						LOGGER.debug(new String(surveyDataBytes));
+						try {
+							tJsonData =
+								CampaignValidators
+									.validateUploadedJson(
+										new String(surveyDataBytes, "UTF-8"));
+						}
+						catch(IllegalArgumentException e) {
+							throw new ValidationException(
+								ErrorCode.SURVEY_INVALID_RESPONSES, 
+								"The survey responses could not be URL decoded.", e);
+						}
 					}
 				}
 				
@@ -509,6 +521,29 @@ public class SurveyUploadRequest extends UserRequest {
 				surveyResponseIds.add(surveyResponse.getSurveyResponseId());
 			}
 
+			// A client that checked which responses already exist may resend
+			// them without their media, so they are dropped before their
+			// media is required. Their media was stored with them.
+			if(! allowSurveyUpdate) {
+				LOGGER.info("Removing the survey responses that were already uploaded.");
+				Set<UUID> existingIds =
+					SurveyResponseServices.instance().getExistingSurveyResponseIds(
+						((owner == null) ? getUser().getUsername() : owner),
+						campaignUrn,
+						surveyResponseIds);
+
+				if(! existingIds.isEmpty()) {
+					List<SurveyResponse> newSurveyResponses =
+						new ArrayList<SurveyResponse>(surveyResponses.size());
+					for(SurveyResponse surveyResponse : surveyResponses) {
+						if(! existingIds.contains(surveyResponse.getSurveyResponseId())) {
+							newSurveyResponses.add(surveyResponse);
+						}
+					}
+					surveyResponses = newSurveyResponses;
+				}
+			}
+
 			// compliance of media file to the campaign definition is done in the verifyMediaFile... methods		
 			LOGGER.info("Validating that all photo prompt responses have their corresponding images attached.");
 			SurveyResponseServices.instance().verifyImagesFilesForPhotoPromptResponses(surveyResponses, imageContentsMap);
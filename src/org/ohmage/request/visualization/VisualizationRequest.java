@@ -20,8 +20,6 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
-import java.util.HashMap;
-import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -36,9 +34,7 @@ import org.ohmage.exception.ValidationException;
 import org.ohmage.request.InputKeys;
 import org.ohmage.request.UserRequest;
 import org.ohmage.service.CampaignServices;
-import org.ohmage.service.VisualizationServices;
 import org.ohmage.util.CookieUtils;
-import org.ohmage.util.DateTimeUtils;
 import org.ohmage.validator.CampaignValidators;
 import org.ohmage.validator.SurveyResponseValidators;
 import org.ohmage.validator.VisualizationValidators;
@@ -268,28 +264,32 @@ public abstract class VisualizationRequest extends UserRequest {
 	}
 	
 	/**
-	 * Returns a map of the parameters to be passed to the visualization
-	 * server.
-	 *  
-	 * @return A map of key-value pairs to be passed to the visualization 
-	 * 		   server.
+	 * Returns the date on or after which the visualized survey responses 
+	 * were taken.
+	 * 
+	 * @return The start date or null if there is none.
 	 */
-	protected final Map<String, String> getVisualizationParameters() {
-		Map<String, String> result = new HashMap<String, String>();
-		
-		if(startDate != null) {
-			result.put(VisualizationServices.PARAMETER_KEY_START_DATE, DateTimeUtils.getIso8601DateString(startDate, false));
-		}
-		
-		if(endDate != null) {
-			result.put(VisualizationServices.PARAMETER_KEY_END_DATE, DateTimeUtils.getIso8601DateString(endDate, false));
-		}
-		
-		if(privacyState != null) {
-			result.put(VisualizationServices.PARAMETER_KEY_PRIVACY_STATE, privacyState.toString());
-		}
-		
-		return result;
+	protected final DateTime getStartDate() {
+		return startDate;
+	}
+	
+	/**
+	 * Returns the date on or before which the visualized survey responses 
+	 * were taken.
+	 * 
+	 * @return The end date or null if there is none.
+	 */
+	protected final DateTime getEndDate() {
+		return endDate;
+	}
+	
+	/**
+	 * Returns the privacy state of the visualized survey responses.
+	 * 
+	 * @return The privacy state or null if there is none.
+	 */
+	protected final SurveyResponse.PrivacyState getPrivacyState() {
+		return privacyState;
 	}
 	
 	/**
@@ -16,7 +16,6 @@
 package org.ohmage.request.visualization;
 
 import java.io.IOException;
-import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -54,8 +53,6 @@ import org.ohmage.validator.CampaignValidators;
 public class VizPromptDistributionRequest extends VisualizationRequest {
 	private static final Logger LOGGER = Logger.getLogger(VizPromptDistributionRequest.class);
 	
-	private static final String REQUEST_PATH = "distributionplot/png";
-	
 	private final String promptId;
 	
 	/**
@@ -111,12 +108,10 @@ public class VizPromptDistributionRequest extends VisualizationRequest {
 			LOGGER.info("Verifying that the prompt ID exists in the campaign's XML");
 			CampaignServices.instance().ensurePromptExistsInCampaign(getCampaignId(), promptId);
 			
-			Map<String, String> parameters = getVisualizationParameters();
-			parameters.put(VisualizationServices.PARAMETER_KEY_PROMPT_ID, promptId);
-			
-			LOGGER.info("Making the request to the visualization server.");
-			setImage(VisualizationServices.sendVisualizationRequest(REQUEST_PATH, getUser().getToken(), 
-					getCampaignId(), getWidth(), getHeight(), parameters));
+			LOGGER.info("Drawing the visualization.");
+			setImage(VisualizationServices.renderPromptDistribution(
+					getCampaignId(), getUser().getUsername(), getWidth(), getHeight(),
+					getStartDate(), getEndDate(), getPrivacyState(), promptId));
 		}
 		catch(ServiceException e) {
 			e.failRequest(this);
@@ -16,7 +16,6 @@
 package org.ohmage.request.visualization;
 
 import java.io.IOException;
-import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -55,8 +54,6 @@ import org.ohmage.validator.VisualizationValidators;
 public class VizPromptTimeseriesRequest extends VisualizationRequest {
 private static final Logger LOGGER = Logger.getLogger(VizPromptTimeseriesRequest.class);
 	
-	private static final String REQUEST_PATH = "timeplot/png";
-	
 	private final String promptId;
 	private final Integer aggregate;
 	
@@ -129,18 +126,10 @@ private static final Logger LOGGER = Logger.getLogger(VizPromptTimeseriesRequest
 			LOGGER.info("Verifying that the prompt ID exists in the campaign's XML");
 			CampaignServices.instance().ensurePromptExistsInCampaign(getCampaignId(), promptId);
 			
-			Map<String, String> parameters = getVisualizationParameters();
-			parameters.put(VisualizationServices.PARAMETER_KEY_PROMPT_ID, promptId);
-			
-			if(aggregate != null) {
-				parameters.put(
-						VisualizationServices.PARAMETER_KEY_AGGREGATE, 
-						aggregate.toString());
-			}
-			
-			LOGGER.info("Making the request to the visualization server.");
-			setImage(VisualizationServices.sendVisualizationRequest(REQUEST_PATH, getUser().getToken(), 
-					getCampaignId(), getWidth(), getHeight(), parameters));
+			LOGGER.info("Drawing the visualization.");
+			setImage(VisualizationServices.renderPromptTimeseries(
+					getCampaignId(), getUser().getUsername(), getWidth(), getHeight(),
+					getStartDate(), getEndDate(), getPrivacyState(), promptId, aggregate));
 		}
 		catch(ServiceException e) {
 			e.failRequest(this);
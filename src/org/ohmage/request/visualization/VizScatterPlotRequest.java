@@ -16,7 +16,6 @@
 package org.ohmage.request.visualization;
 
 import java.io.IOException;
-import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -59,8 +58,6 @@ import org.ohmage.validator.CampaignValidators;
 public class VizScatterPlotRequest extends VisualizationRequest {
 	private static final Logger LOGGER = Logger.getLogger(VizScatterPlotRequest.class);
 	
-	private static final String REQUEST_PATH = "scatterplot/png";
-	
 	private final String promptId;
 	private final String prompt2Id;
 	
@@ -128,13 +125,10 @@ public class VizScatterPlotRequest extends VisualizationRequest {
 			LOGGER.info("Verifying that the second prompt ID exists in the campaign's XML");
 			CampaignServices.instance().ensurePromptExistsInCampaign(getCampaignId(), prompt2Id);
 			
-			Map<String, String> parameters = getVisualizationParameters();
-			parameters.put(VisualizationServices.PARAMETER_KEY_PROMPT_ID, promptId);
-			parameters.put(VisualizationServices.PARAMETER_KEY_PROMPT2_ID, prompt2Id);
-			
-			LOGGER.info("Making the request to the visualization server.");
-			setImage(VisualizationServices.sendVisualizationRequest(REQUEST_PATH, getUser().getToken(), 
-					getCampaignId(), getWidth(), getHeight(), parameters));
+			LOGGER.info("Drawing the visualization.");
+			setImage(VisualizationServices.renderScatterPlot(
+					getCampaignId(), getUser().getUsername(), getWidth(), getHeight(),
+					getStartDate(), getEndDate(), getPrivacyState(), promptId, prompt2Id));
 		}
 		catch(ServiceException e) {
 			e.failRequest(this);
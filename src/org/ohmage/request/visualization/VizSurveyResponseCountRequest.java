@@ -16,7 +16,6 @@
 package org.ohmage.request.visualization;
 
 import java.io.IOException;
-import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -42,8 +41,6 @@ import org.ohmage.validator.VisualizationValidators;
 public class VizSurveyResponseCountRequest extends VisualizationRequest {
 	private static final Logger LOGGER = Logger.getLogger(VizSurveyResponseCountRequest.class);
 	
-	private static final String REQUEST_PATH = "responseplot/png";
-	
 	private final Integer aggregate;
 	
 	/**
@@ -108,16 +105,10 @@ public class VizSurveyResponseCountRequest extends VisualizationRequest {
 			LOGGER.info("Verifying the user is able to read survey responses about other users.");
 			UserCampaignServices.instance().requesterCanViewUsersSurveyResponses(getCampaignId(), getUser().getUsername());
 
-			Map<String, String> parameters = getVisualizationParameters();
-			if(aggregate != null) {
-				parameters.put(
-						VisualizationServices.PARAMETER_KEY_AGGREGATE, 
-						aggregate.toString());
-			}
-			
-			LOGGER.info("Making the request to the visualization server.");
-			setImage(VisualizationServices.sendVisualizationRequest(REQUEST_PATH, getUser().getToken(), 
-					getCampaignId(), getWidth(), getHeight(), parameters));
+			LOGGER.info("Drawing the visualization.");
+			setImage(VisualizationServices.renderSurveyResponseCount(
+					getCampaignId(), getUser().getUsername(), getWidth(), getHeight(),
+					getStartDate(), getEndDate(), getPrivacyState(), aggregate));
 		}
 		catch(ServiceException e) {
 			e.failRequest(this);
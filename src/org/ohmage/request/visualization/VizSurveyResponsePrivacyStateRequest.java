@@ -16,7 +16,6 @@
 package org.ohmage.request.visualization;
 
 import java.io.IOException;
-import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -42,8 +41,6 @@ import org.ohmage.validator.VisualizationValidators;
 public class VizSurveyResponsePrivacyStateRequest extends VisualizationRequest {
 	private static final Logger LOGGER = Logger.getLogger(VizSurveyResponsePrivacyStateRequest.class);
 	
-	private static final String REQUEST_PATH = "sharedplot/png";
-	
 	private final Integer aggregate;
 	
 	/**
@@ -107,18 +104,10 @@ public class VizSurveyResponsePrivacyStateRequest extends VisualizationRequest {
 			LOGGER.info("Verifying the user is able to read survey responses about other users.");
 			UserCampaignServices.instance().requesterCanViewUsersSurveyResponses(getCampaignId(), getUser().getUsername());
 			
-			Map<String, String> parameters = getVisualizationParameters();
-			parameters.remove(VisualizationServices.PARAMETER_KEY_PRIVACY_STATE);
-			
-			if(aggregate != null) {
-				parameters.put(
-						VisualizationServices.PARAMETER_KEY_AGGREGATE, 
-						aggregate.toString());
-			}
-			
-			LOGGER.info("Making the request to the visualization server.");
-			setImage(VisualizationServices.sendVisualizationRequest(REQUEST_PATH, getUser().getToken(), 
-					getCampaignId(), getWidth(), getHeight(), parameters));
+			LOGGER.info("Drawing the visualization.");
+			setImage(VisualizationServices.renderPrivacyState(
+					getCampaignId(), getUser().getUsername(), getWidth(), getHeight(),
+					getStartDate(), getEndDate()));
 		}
 		catch(ServiceException e) {
 			e.failRequest(this);
@@ -16,7 +16,6 @@
 package org.ohmage.request.visualization;
 
 import java.io.IOException;
-import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -38,8 +37,6 @@ import org.ohmage.service.VisualizationServices;
 public class VizSurveyResponsePrivacyStateTimeseriesRequest extends VisualizationRequest {
 	private static final Logger LOGGER = Logger.getLogger(VizSurveyResponsePrivacyStateTimeseriesRequest.class);
 	
-	private static final String REQUEST_PATH = "sharedtimeplot/png";
-	
 	/**
 	 * Creates a survey response privacy state timeseries request.
 	 * 
@@ -78,12 +75,10 @@ public class VizSurveyResponsePrivacyStateTimeseriesRequest extends Visualizatio
 			LOGGER.info("Verifying the user is able to read survey responses about other users.");
 			UserCampaignServices.instance().requesterCanViewUsersSurveyResponses(getCampaignId(), getUser().getUsername());
 			
-			Map<String, String> parameters = getVisualizationParameters();
-			parameters.remove(VisualizationServices.PARAMETER_KEY_PRIVACY_STATE);
-			
-			LOGGER.info("Making the request to the visualization server.");
-			setImage(VisualizationServices.sendVisualizationRequest(REQUEST_PATH, getUser().getToken(), 
-					getCampaignId(), getWidth(), getHeight(), parameters));
+			LOGGER.info("Drawing the visualization.");
+			setImage(VisualizationServices.renderPrivacyStateTimeseries(
+					getCampaignId(), getUser().getUsername(), getWidth(), getHeight(),
+					getStartDate(), getEndDate()));
 		}
 		catch(ServiceException e) {
 			e.failRequest(this);
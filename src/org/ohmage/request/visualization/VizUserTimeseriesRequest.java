@@ -16,7 +16,6 @@
 package org.ohmage.request.visualization;
 
 import java.io.IOException;
-import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -36,8 +35,6 @@ import org.ohmage.validator.UserValidators;
 public class VizUserTimeseriesRequest extends VisualizationRequest {
 	private static final Logger LOGGER = Logger.getLogger(VizUserTimeseriesRequest.class);
 	
-	private static final String REQUEST_PATH = "userplot/png";
-	
 	private final String promptId;
 	private final String username;
 	
@@ -108,13 +105,10 @@ public class VizUserTimeseriesRequest extends VisualizationRequest {
 			LOGGER.info("Verifying that the requester has permissions to view another user's data.");
 			UserCampaignServices.instance().requesterCanViewUsersSurveyResponses(getCampaignId(), getUser().getUsername(), username);
 			
-			Map<String, String> parameters = getVisualizationParameters();
-			parameters.put(VisualizationServices.PARAMETER_KEY_PROMPT_ID, promptId);
-			parameters.put(VisualizationServices.PARAMETER_KEY_USERNAME, username);
-			
-			LOGGER.info("Making the request to the visualization server.");
-			setImage(VisualizationServices.sendVisualizationRequest(REQUEST_PATH, getUser().getToken(), 
-					getCampaignId(), getWidth(), getHeight(), parameters));
+			LOGGER.info("Drawing the visualization.");
+			setImage(VisualizationServices.renderUserTimeseries(
+					getCampaignId(), getUser().getUsername(), getWidth(), getHeight(),
+					getStartDate(), getEndDate(), getPrivacyState(), promptId, username));
 		}
 		catch(ServiceException e) {
 			e.failRequest(this);
@@ -367,8 +367,8 @@ public final class AccessRequestServices {
 						e);
 			}
 			
-			// send message
-			MailUtils.sendMailMessage(smtpSession, message);
+			// queue the message to be sent
+			MailServices.instance().queueMessage(message);
 			
 		} catch (ServiceException e) {
 			LOGGER.warn("Unable to send notification to " + recipient, e);		
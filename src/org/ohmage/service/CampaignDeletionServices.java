@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.log4j.Logger;
+import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.domain.CampaignDeletion;
+import org.ohmage.exception.DataAccessException;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.query.ICampaignDeletionQueries;
+
+/**
+ * This class is responsible for the background work of deleting campaigns:
+ * removing their survey responses a batch at a time and then deleting their
+ * media files. The work is done by the
+ * {@link org.ohmage.cache.CampaignDeletionProcessor}.
+ */
+public final class CampaignDeletionServices {
+	private static final Logger LOGGER =
+		Logger.getLogger(CampaignDeletionServices.class);
+
+	/**
+	 * The number of survey responses that are removed in each transaction.
+	 */
+	private static final int SURVEY_RESPONSE_BATCH_SIZE = 500;
+
+	/**
+	 * The number of media files that are deleted in each batch.
+	 */
+	private static final int MEDIA_BATCH_SIZE = 100;
+
+	private static CampaignDeletionServices instance;
+	private ICampaignDeletionQueries campaignDeletionQueries;
+
+	/**
+	 * Signals the processor that a campaign has been deleted.
+	 */
+	private final Object deletionSignal = new Object();
+	private boolean deleted = false;
+
+	/**
+	 * Default constructor. Privately instantiated via dependency injection
+	 * (reflection).
+	 *
+	 * @throws IllegalStateException if an instance of this class already
+	 * exists
+	 *
+	 * @throws IllegalArgumentException if iCampaignDeletionQueries is null
+	 */
+	private CampaignDeletionServices(
+			ICampaignDeletionQueries iCampaignDeletionQueries) {
+
+		if(instance != null) {
+			throw new IllegalStateException("An instance of this class already exists.");
+		}
+
+		if(iCampaignDeletionQueries == null) {
+			throw new IllegalArgumentException("An instance of ICampaignDeletionQueries is required.");
+		}
+
+		campaignDeletionQueries = iCampaignDeletionQueries;
+		instance = this;
+	}
+
+	/**
+	 * @return  Returns the singleton instance of this class.
+	 */
+	public static CampaignDeletionServices instance() {
+		return instance;
+	}
+
+	/**
+	 * Returns the deletions of a campaign that the user may see. Admins may
+	 * see every deletion and other users only the ones they requested.
+	 *
+	 * @param campaignId The campaign's unique identifier.
+	 *
+	 * @param username The requesting user's username.
+	 *
+	 * @param isAdmin Whether or not the user is an admin.
+	 *
+	 * @return The deletions, the most recent first.
+	 *
+	 * @throws ServiceException The campaign has never been deleted, at least
+	 * 							not by this user, or there was an error.
+	 */
+	public List<CampaignDeletion> getDeletions(
+			final String campaignId,
+			final String username,
+			final boolean isAdmin)
+			throws ServiceException {
+
+		List<CampaignDeletion> deletions;
+		try {
+			deletions = campaignDeletionQueries.getDeletions(campaignId);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+
+		List<CampaignDeletion> result =
+			new ArrayList<CampaignDeletion>(deletions.size());
+		for(CampaignDeletion deletion : deletions) {
+			if(isAdmin || username.equals(deletion.getRequester())) {
+				result.add(deletion);
+			}
+		}
+
+		if(result.isEmpty()) {
+			throw new ServiceException(
+				ErrorCode.CAMPAIGN_INVALID_ID,
+				"The campaign has not been deleted by the user: " +
+					campaignId);
+		}
+		return result;
+	}
+
+	/**
+	 * Tells the processor that a campaign has been deleted.
+	 */
+	public void signalDeletion() {
+		synchronized(deletionSignal) {
+			deleted = true;
+			deletionSignal.notifyAll();
+		}
+	}
+
+	/**
+	 * Waits until a campaign has been deleted or the time has passed.
+	 *
+	 * @param millis The longest time to wait.
+	 *
+	 * @throws InterruptedException The thread was interrupted while waiting.
+	 */
+	public void awaitDeletion(final long millis) throws InterruptedException {
+		synchronized(deletionSignal) {
+			if(! deleted) {
+				deletionSignal.wait(millis);
+			}
+			deleted = false;
+		}
+	}
+
+	/**
+	 * Removes the survey responses of every deleted campaign, a batch at a
+	 * time, then deletes their media files and marks the deletions that
+	 * have finished as complete.
+	 *
+	 * @param running Whether or not to continue. This is checked between
+	 * 				  batches so that the work can be stopped part way
+	 * 				  through; it will be resumed the next time.
+	 *
+	 * @throws ServiceException There was an error.
+	 */
+	public void processDeletions(final Running running)
+			throws ServiceException {
+
+		try {
+			for(UUID deletionId : campaignDeletionQueries.getDeletionsInProgress()) {
+				LOGGER.info("Deleting the survey responses of the deleted campaign: " + deletionId);
+
+				int deleted;
+				do {
+					if(! running.isRunning()) {
+						return;
+					}
+
+					deleted =
+						campaignDeletionQueries.deleteSurveyResponses(
+							deletionId,
+							SURVEY_RESPONSE_BATCH_SIZE);
+				} while(deleted > 0);
+			}
+
+			int collected;
+			do {
+				if(! running.isRunning()) {
+					return;
+				}
+
+				collected =
+					campaignDeletionQueries.collectMediaGarbage(
+						MEDIA_BATCH_SIZE);
+			} while(collected > 0);
+
+			campaignDeletionQueries.completeDeletions();
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+
+	/**
+	 * Tells {@link CampaignDeletionServices#processDeletions(Running)}
+	 * whether or not to continue.
+	 */
+	public static interface Running {
+		/**
+		 * Returns whether or not to continue.
+		 *
+		 * @return Whether or not to continue.
+		 */
+		boolean isRunning();
+	}
+}
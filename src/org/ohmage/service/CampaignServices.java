@@ -17,7 +17,6 @@ package org.ohmage.service;
 
 import java.io.IOException;
 import java.io.StringReader;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
@@ -25,6 +24,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
 import nu.xom.Builder;
 import nu.xom.Document;
@@ -42,9 +42,7 @@ import org.ohmage.domain.campaign.SurveyResponse;
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.exception.DomainException;
 import org.ohmage.exception.ServiceException;
-import org.ohmage.query.ICampaignImageQueries;
 import org.ohmage.query.ICampaignQueries;
-import org.ohmage.query.IImageQueries;
 import org.ohmage.query.IUserCampaignQueries;
 import org.ohmage.query.impl.QueryResultsList;
 import org.ohmage.request.campaign.CampaignSearchRequest;
@@ -60,8 +58,6 @@ public class CampaignServices {
 
 	private static CampaignServices instance;
 	private ICampaignQueries campaignQueries;
-	private ICampaignImageQueries campaignImageQueries;
-	private IImageQueries imageQueries;
 	
 	/**
 	 * Default constructor. Privately instantiated via dependency injection
@@ -72,9 +68,7 @@ public class CampaignServices {
 	 * 
 	 * @throws IllegalArgumentException if iCampaignQueries is null
 	 */
-	private CampaignServices(ICampaignQueries iCampaignQueries,
-			ICampaignImageQueries iCampaignImageQueries,
-			IImageQueries iImageQueries) {
+	private CampaignServices(ICampaignQueries iCampaignQueries) {
 		
 		if(instance != null) {
 			throw new IllegalStateException("An instance of this class already exists.");
@@ -82,16 +76,8 @@ public class CampaignServices {
 		if(iCampaignQueries == null) {
 			throw new IllegalArgumentException("An instance of ICampaignQueries is required.");
 		}
-		if(iCampaignImageQueries == null) {
-			throw new IllegalArgumentException("An instance of ICampaignImageQueries is a required argument.");
-		}
-		if(iImageQueries == null) {
-			throw new IllegalArgumentException("An instance of IImageQueries is a required argument.");
-		}
 		
 		campaignQueries = iCampaignQueries;
-		campaignImageQueries = iCampaignImageQueries;
-		imageQueries = iImageQueries;
 		
 		instance = this;
 	}
@@ -383,6 +369,27 @@ public class CampaignServices {
 		}
 	}
 	
+	/**
+	 * Retrieves the version of a campaign's survey responses, which advances
+	 * whenever any of them is uploaded, changed, or deleted.
+	 * 
+	 * @param campaignId The unique identifier for the campaign.
+	 * 
+	 * @return The campaign's response version.
+	 * 
+	 * @throws ServiceException Thrown if there is an error.
+	 */
+	public long getCampaignResponseVersion(final String campaignId) 
+			throws ServiceException {
+		
+		try {
+			return campaignQueries.getResponseVersion(campaignId);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
 	/**
 	 * Finds the configuration for the campaign identified by the campaign id.
 	 * 
@@ -634,37 +641,33 @@ public class CampaignServices {
 	}
 		
 	/**
-	 * Deletes a campaign and everything associated with it.
+	 * Deletes a campaign. The campaign disappears immediately and everything
+	 * associated with it, including its media files, is removed in the 
+	 * background by the {@link CampaignDeletionServices}.
 	 * 
 	 * @param campaignId The unique identifier for the campaign.
 	 * 
+	 * @param requester The username of the user deleting the campaign.
+	 * 
+	 * @return The unique identifier of the deletion.
+	 * 
 	 * @throws ServiceException Thrown if there is an error.
 	 */
-	public void deleteCampaign(final String campaignId) 
+	public UUID deleteCampaign(
+			final String campaignId,
+			final String requester)
 			throws ServiceException {
-		// First, retrieve the path information for all of the images 
-		// associated with this campaign.
-		Collection<URL> imageUrls;
-		try {
-			imageUrls =
-				campaignImageQueries.getImageUrlsFromCampaign(campaignId);
-		}
-		catch(DataAccessException e) {
-			throw new ServiceException(e);
-		}
 		
+		UUID deletionId;
 		try {
-			campaignQueries.deleteCampaign(campaignId);
+			deletionId = campaignQueries.deleteCampaign(campaignId, requester);
 		}
 		catch(DataAccessException e) {
 			throw new ServiceException(e);
 		}
 		
-		// If the transaction succeeded, delete all of the images from the 
-		// disk.
-		for(URL imageUrl : imageUrls) {
-			imageQueries.deleteImageDiskOnly(imageUrl);
-		}
+		CampaignDeletionServices.instance().signalDeletion();
+		return deletionId;
 	}
 
 	// ---------------- deprecated methods -----------------------
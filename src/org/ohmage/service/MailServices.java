@@ -0,0 +1,310 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.log4j.Logger;
+import org.ohmage.domain.OutboxMessage;
+import org.ohmage.exception.DataAccessException;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.query.IMailOutboxQueries;
+import org.ohmage.util.MailUtils;
+
+import com.sun.mail.smtp.SMTPTransport;
+
+/**
+ * This class is responsible for sending mail. Requests only queue their
+ * messages, which are then sent in the background by the
+ * {@link org.ohmage.cache.MailDispatcher}, so a slow or unreachable mail
+ * server never holds up a request.
+ */
+public final class MailServices {
+	private static final Logger LOGGER = Logger.getLogger(MailServices.class);
+
+	/**
+	 * The maximum number of messages that are claimed and sent over one
+	 * connection.
+	 */
+	public static final int BATCH_SIZE = 50;
+
+	/**
+	 * The number of seconds for which claimed messages are left alone by
+	 * other dispatchers.
+	 */
+	private static final int LEASE_SECONDS = 60 * 10;
+
+	/**
+	 * The number of seconds to wait before the first retry. The wait is
+	 * doubled after each failure.
+	 */
+	private static final int FIRST_RETRY_SECONDS = 60;
+
+	/**
+	 * The longest that a message will wait between retries.
+	 */
+	private static final int MAX_RETRY_SECONDS = 60 * 60 * 6;
+
+	/**
+	 * The number of attempts after which a message is no longer tried.
+	 */
+	private static final int MAX_ATTEMPTS = 10;
+
+	private static MailServices instance;
+	private IMailOutboxQueries mailOutboxQueries;
+
+	/**
+	 * Signals the dispatcher that messages have been queued.
+	 */
+	private final Object queueSignal = new Object();
+	private boolean queued = false;
+
+	/**
+	 * Default constructor. Privately instantiated via dependency injection
+	 * (reflection).
+	 *
+	 * @throws IllegalStateException if an instance of this class already
+	 * exists
+	 *
+	 * @throws IllegalArgumentException if iMailOutboxQueries is null
+	 */
+	private MailServices(IMailOutboxQueries iMailOutboxQueries) {
+		if(instance != null) {
+			throw new IllegalStateException("An instance of this class already exists.");
+		}
+
+		if(iMailOutboxQueries == null) {
+			throw new IllegalArgumentException("An instance of IMailOutboxQueries is required.");
+		}
+
+		mailOutboxQueries = iMailOutboxQueries;
+		instance = this;
+	}
+
+	/**
+	 * @return  Returns the singleton instance of this class.
+	 */
+	public static MailServices instance() {
+		return instance;
+	}
+
+	/**
+	 * Queues a message to be sent in the background. The message must
+	 * already have its sender, recipients, subject and content.
+	 *
+	 * @param message The message.
+	 *
+	 * @throws ServiceException The message could not be queued.
+	 */
+	public void queueMessage(final Message message) throws ServiceException {
+		String recipient;
+		ByteArrayOutputStream contents = new ByteArrayOutputStream();
+		try {
+			message.saveChanges();
+			recipient = InternetAddress.toString(message.getAllRecipients());
+			message.writeTo(contents);
+		}
+		catch(MessagingException e) {
+			throw new ServiceException(
+				"Could not save the changes to the message.",
+				e);
+		}
+		catch(IOException e) {
+			throw new ServiceException(
+				"Could not write the message.",
+				e);
+		}
+
+		try {
+			mailOutboxQueries.queueMessage(recipient, contents.toByteArray());
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+
+		synchronized(queueSignal) {
+			queued = true;
+			queueSignal.notifyAll();
+		}
+	}
+
+	/**
+	 * Waits until a message has been queued or the time has passed.
+	 *
+	 * @param millis The longest time to wait.
+	 *
+	 * @throws InterruptedException The thread was interrupted while waiting.
+	 */
+	public void awaitQueuedMessages(final long millis)
+			throws InterruptedException {
+
+		synchronized(queueSignal) {
+			if(! queued) {
+				queueSignal.wait(millis);
+			}
+			queued = false;
+		}
+	}
+
+	/**
+	 * Claims up to {@link #BATCH_SIZE} of the queued messages that are due
+	 * and sends them over one connection to the mail server. Messages that
+	 * could not be sent are retried later.
+	 *
+	 * @return The number of messages that were claimed.
+	 *
+	 * @throws ServiceException The messages could not be claimed.
+	 */
+	public int sendQueuedMessages() throws ServiceException {
+		List<OutboxMessage> messages;
+		try {
+			messages =
+				mailOutboxQueries.claimDueMessages(BATCH_SIZE, LEASE_SECONDS);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+
+		if(messages.isEmpty()) {
+			return 0;
+		}
+
+		Session smtpSession = MailUtils.getMailSession();
+		SMTPTransport transport = null;
+		try {
+			for(OutboxMessage message : messages) {
+				try {
+					if((transport == null) || (! transport.isConnected())) {
+						close(transport);
+						transport = MailUtils.connect(smtpSession);
+					}
+
+					MailUtils.sendMailMessage(
+						transport,
+						new MimeMessage(
+							smtpSession,
+							new ByteArrayInputStream(message.getMessage())));
+				}
+				catch(MessagingException e) {
+					recordFailure(message, e);
+					continue;
+				}
+				catch(ServiceException e) {
+					recordFailure(message, e);
+					continue;
+				}
+
+				try {
+					mailOutboxQueries.deleteMessage(message.getId());
+				}
+				catch(DataAccessException e) {
+					LOGGER.error(
+						"The message was sent but could not be removed from the outbox, so it may be sent again: " +
+							message.getId(),
+						e);
+				}
+			}
+		}
+		finally {
+			close(transport);
+		}
+
+		return messages.size();
+	}
+
+	/**
+	 * Records that a message could not be sent, either to be retried later
+	 * or, if it has been tried too many times, never again.
+	 *
+	 * @param message The message.
+	 *
+	 * @param cause The reason it could not be sent.
+	 */
+	private void recordFailure(
+			final OutboxMessage message,
+			final Exception cause) {
+
+		int attempts = message.getAttempts() + 1;
+		boolean failed = attempts >= MAX_ATTEMPTS;
+		if(failed) {
+			LOGGER.error(
+				"Giving up on sending the message to " +
+					message.getRecipient() +
+					" after " + attempts + " attempts: " +
+					message.getId(),
+				cause);
+		}
+		else {
+			LOGGER.warn(
+				"Could not send the message to " +
+					message.getRecipient() +
+					", it will be retried: " +
+					message.getId(),
+				cause);
+		}
+
+		long retrySeconds =
+			Math.min(
+				((long) FIRST_RETRY_SECONDS) << Math.min(attempts - 1, 30),
+				MAX_RETRY_SECONDS);
+
+		Throwable root = cause;
+		while(root.getCause() != null) {
+			root = root.getCause();
+		}
+
+		try {
+			mailOutboxQueries.recordFailure(
+				message.getId(),
+				root.toString(),
+				(int) retrySeconds,
+				failed);
+		}
+		catch(DataAccessException e) {
+			LOGGER.error(
+				"Could not record the failure, so the message will be retried once its lease expires: " +
+					message.getId(),
+				e);
+		}
+	}
+
+	/**
+	 * Closes a connection to the mail server, ignoring any errors.
+	 *
+	 * @param transport The connection or null.
+	 */
+	private static void close(final SMTPTransport transport) {
+		if(transport == null) {
+			return;
+		}
+
+		try {
+			transport.close();
+		}
+		catch(MessagingException e) {
+			LOGGER.info("Could not close the connection to the mail server.", e);
+		}
+	}
+}
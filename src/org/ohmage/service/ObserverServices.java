@@ -878,6 +878,50 @@ public class ObserverServices {
 		}
 	}
 
+	/**
+	 * Retrieves the days on which a user has data for a stream.
+	 * 
+	 * @param stream The stream whose days are desired. Required.
+	 * 
+	 * @param username The username of the user whose data is desired. 
+	 * 				   Required.
+	 * 
+	 * @param observerId The observer's unique identifier. Required.
+	 * 
+	 * @param observerVersion The observer's version. Optional.
+	 * 
+	 * @param startDate The earliest day to return. Optional.
+	 * 
+	 * @param endDate The latest day to return. Optional.
+	 * 
+	 * @return The days in chronological order.
+	 * 
+	 * @throws ServiceException There was an error.
+	 */
+	public List<DateTime> getStreamDates(
+			final Stream stream,
+			final String username,
+			final String observerId,
+			final Long observerVersion,
+			final DateTime startDate,
+			final DateTime endDate)
+			throws ServiceException {
+		
+		try {
+			return 
+				observerQueries.readDates(
+					stream,
+					username,
+					observerId,
+					observerVersion,
+					startDate,
+					endDate);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+
 	/**
 	 * Retrieves the invalid data for a stream.
 	 * 
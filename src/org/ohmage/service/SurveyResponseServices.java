@@ -39,6 +39,7 @@ import org.ohmage.domain.campaign.Response;
 import org.ohmage.domain.campaign.SurveyResponse;
 import org.ohmage.domain.campaign.SurveyResponse.ColumnKey;
 import org.ohmage.domain.campaign.SurveyResponse.SortParameter;
+import org.ohmage.domain.campaign.SurveyResponseCount;
 import org.ohmage.domain.campaign.prompt.MediaPrompt;
 import org.ohmage.domain.campaign.response.AudioPromptResponse;
 import org.ohmage.domain.campaign.response.FilePromptResponse;
@@ -173,6 +174,82 @@ public final class SurveyResponseServices {
 	}
 	
 	
+	/**
+	 * Returns which of the given survey responses the user has already
+	 * uploaded to the campaign, so that they need not be uploaded again.
+	 * 
+	 * @param username The user's username.
+	 * 
+	 * @param campaignId The campaign's unique identifier.
+	 * 
+	 * @param surveyResponseIds The survey responses' unique identifiers.
+	 * 
+	 * @return The subset of the identifiers that already exist.
+	 * 
+	 * @throws ServiceException There was an error.
+	 */
+	public Set<UUID> getExistingSurveyResponseIds(
+			final String username,
+			final String campaignId,
+			final Collection<UUID> surveyResponseIds)
+			throws ServiceException {
+		
+		try {
+			return surveyUploadQuery.getExistingSurveyResponseIds(
+				username, 
+				campaignId, 
+				surveyResponseIds);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
+	/**
+	 * Returns which of the given media files the user has already uploaded,
+	 * so that they need not be uploaded again.
+	 * 
+	 * @param username The user's username.
+	 * 
+	 * @param mediaIds The media files' unique identifiers.
+	 * 
+	 * @return The subset of the identifiers that already exist.
+	 * 
+	 * @throws ServiceException There was an error.
+	 */
+	public Set<UUID> getExistingMediaIds(
+			final String username,
+			final Collection<UUID> mediaIds)
+			throws ServiceException {
+		
+		try {
+			return surveyUploadQuery.getExistingMediaIds(username, mediaIds);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
+	/**
+	 * Finishes or undoes the survey uploads that were interrupted after their
+	 * media were written to the staging area.
+	 * 
+	 * @param minimumAge The number of milliseconds since an upload last 
+	 * 					 staged a file before it is considered interrupted.
+	 * 
+	 * @throws ServiceException There was an error.
+	 */
+	public void recoverStagedMedia(final long minimumAge) 
+			throws ServiceException {
+		
+		try {
+			surveyUploadQuery.recoverStagedMedia(minimumAge);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
 	/**
 	 * Retrieves all of the survey response privacy states.
 	 * 
@@ -460,6 +537,49 @@ public final class SurveyResponseServices {
 		}
 	}
 	
+	/**
+	 * Counts the survey responses in a campaign that the requesting user is
+	 * allowed to see, grouped by some set of their attributes. This is done
+	 * entirely by the database and should be preferred to reading the survey
+	 * responses whenever only their counts are needed.
+	 * 
+	 * @param campaign The campaign to which the survey responses belong.
+	 * 
+	 * @param username The username of the requesting user.
+	 * 
+	 * @param startDate Limits the counts to only those survey responses that
+	 * 					occurred on or after this date. Optional.
+	 * 
+	 * @param endDate Limits the counts to only those survey responses that
+	 * 				  occurred on or before this date. Optional.
+	 * 
+	 * @param groupings The attributes by which to group the survey responses.
+	 * 
+	 * @return The count for each group.
+	 * 
+	 * @throws ServiceException Thrown if there is an error.
+	 */
+	public List<SurveyResponseCount> readSurveyResponseCounts(
+			final Campaign campaign,
+			final String username,
+			final DateTime startDate,
+			final DateTime endDate,
+			final Collection<SurveyResponseCount.Grouping> groupings)
+			throws ServiceException {
+		
+		try {
+			return surveyResponseQueries.retrieveSurveyResponseCounts(
+					campaign, 
+					username, 
+					startDate, 
+					endDate, 
+					groupings);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
 	/**
 	 * Updates the privacy state on a survey.
 	 * 
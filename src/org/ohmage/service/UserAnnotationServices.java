@@ -25,6 +25,7 @@ import org.apache.log4j.Logger;
 import org.joda.time.DateTimeZone;
 import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.domain.Annotation;
+import org.ohmage.domain.PromptResponseAnnotation;
 import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.exception.ServiceException;
@@ -232,6 +233,72 @@ public final class UserAnnotationServices {
 		}
 	}
 	
+	/**
+	 * Verifies that a user may read the annotations of every survey response
+	 * in a campaign, e.g. when they are returned alongside the responses
+	 * themselves. Only admins and supervisors in the campaign may read them.
+	 * 
+	 * @param username the user attempting to read the annotations
+	 * @param campaignId the campaign's unique identifier
+	 * @throws ServiceException if the user may not read the annotations or
+	 *                          there was a problem dispatching to the data
+	 *                          layer
+	 */
+	public void userCanReadAnnotationsInCampaign(final String username, final String campaignId)
+		throws ServiceException {
+		
+		if(UserServices.instance().isUserAnAdmin(username)) {
+			return;
+		}
+		
+		LinkedList<String> ll = new LinkedList<String>();
+		ll.add(campaignId);
+		
+		Map<Campaign, List<Campaign.Role>> campaignRoleMap = UserCampaignServices.instance().getCampaignAndUserRolesForCampaigns(username, ll, false);
+		if(campaignRoleMap.isEmpty() || 
+			(! campaignRoleMap.values().iterator().next().contains(Campaign.Role.SUPERVISOR))) {
+			
+			throw new ServiceException(
+					ErrorCode.ANNOTATION_INSUFFICIENT_PERMISSIONS, 
+					"The logged-in user does not have the permissions to read the survey response annotations.");
+		}
+	}
+	
+	/**
+	 * Reads the annotations for many survey responses at once.
+	 * 
+	 * @param surveyResponseIds the survey responses to read annotations from
+	 * @return a map of survey response ids to their annotations
+	 */
+	public Map<UUID, List<Annotation>> readSurveyResponseAnnotations(final Collection<UUID> surveyResponseIds)
+			throws ServiceException {
+		try {
+			return annotationQueries.readSurveyResponseAnnotations(surveyResponseIds);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
+	/**
+	 * Reads the prompt response annotations for many survey responses at 
+	 * once.
+	 * 
+	 * @param surveyResponseIds the survey responses whose prompt responses'
+	 * annotations are desired
+	 * @return a map of survey response ids to their prompt responses' 
+	 * annotations
+	 */
+	public Map<UUID, List<PromptResponseAnnotation>> readPromptResponseAnnotations(final Collection<UUID> surveyResponseIds)
+			throws ServiceException {
+		try {
+			return annotationQueries.readPromptResponseAnnotations(surveyResponseIds);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
 	/**
 	 * Updates annotation text and its associated metadata.
 	 * 
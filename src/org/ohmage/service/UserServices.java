@@ -56,6 +56,7 @@ import org.apache.log4j.Logger;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.cache.ConnectionContext;
 import org.ohmage.cache.PreferenceCache;
 import org.ohmage.cache.UserBin;
 import org.ohmage.domain.Clazz;
@@ -442,8 +443,8 @@ public final class UserServices {
 							e);
 				}
 					
-				// send message
-				MailUtils.sendMailMessage(smtpSession, message);
+				// queue the message to be sent
+				MailServices.instance().queueMessage(message);
 
 			} catch (ServiceException e) {
 				throw new ServiceException("Cannot successfully send the password recovery notification.", e);
@@ -2079,8 +2080,8 @@ public final class UserServices {
 						e);
 			}
 			
-			// send message
-			MailUtils.sendMailMessage(smtpSession, message);
+			// queue the message to be sent
+			MailServices.instance().queueMessage(message);
 
 		} catch (ServiceException e) {
 			throw new ServiceException("Cannot successfully send the password recovery notification.", e);
@@ -2234,7 +2235,7 @@ public final class UserServices {
 			throws ServiceException {
 		// First, retrieve the path information for all of the images 
 		// associated with each user.
-		Collection<URL> imageUrls = new HashSet<URL>();
+		final Collection<URL> imageUrls = new HashSet<URL>();
 		try {
 			for(String username : usernames) {
 				imageUrls.addAll(
@@ -2257,11 +2258,16 @@ public final class UserServices {
 			UserBin.removeUser(username);
 		}
 		
-		// If the transaction succeeded, delete all of the images from the 
-		// disk.
-		for(URL imageUrl : imageUrls) {
-			imageQueries.deleteImageDiskOnly(imageUrl);
-		}
+		// Once the request's changes have been committed, delete all of the
+		// images from the disk.
+		ConnectionContext.afterCommit(new Runnable() {
+			@Override
+			public void run() {
+				for(URL imageUrl : imageUrls) {
+					imageQueries.deleteImageDiskOnly(imageUrl);
+				}
+			}
+		});
 	}
 	
 	/**
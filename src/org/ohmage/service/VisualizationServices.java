@@ -1,12 +1,12 @@
 /*******************************************************************************
  * Copyright 2012 The Regents of the University of California
- * 
+ *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
  * You may obtain a copy of the License at
- * 
+ *
  *   http://www.apache.org/licenses/LICENSE-2.0
- * 
+ *
  * Unless required by applicable law or agreed to in writing, software
  * distributed under the License is distributed on an "AS IS" BASIS,
  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
@@ -15,297 +15,1137 @@
  ******************************************************************************/
 package org.ohmage.service;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLEncoder;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
+import org.apache.log4j.Logger;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
 import org.ohmage.annotator.Annotator.ErrorCode;
-import org.ohmage.cache.PreferenceCache;
-import org.ohmage.exception.CacheMissException;
-import org.ohmage.exception.DomainException;
+import org.ohmage.cache.VisualizationCache;
+import org.ohmage.domain.campaign.Campaign;
+import org.ohmage.domain.campaign.Prompt;
+import org.ohmage.domain.campaign.Prompt.LabelValuePair;
+import org.ohmage.domain.campaign.PromptResponse;
+import org.ohmage.domain.campaign.RepeatableSetResponse;
+import org.ohmage.domain.campaign.Response;
+import org.ohmage.domain.campaign.SurveyResponse;
+import org.ohmage.domain.campaign.SurveyResponse.PrivacyState;
+import org.ohmage.domain.campaign.SurveyResponseCount;
+import org.ohmage.domain.campaign.prompt.ChoicePrompt;
+import org.ohmage.domain.campaign.prompt.CustomChoicePrompt;
 import org.ohmage.exception.ServiceException;
-import org.ohmage.request.RequestBuilder;
-import org.ohmage.util.CookieUtils;
+import org.ohmage.util.ChartRenderer;
 
 /**
- * This class contains the services for visualization requests.
- * 
+ * This class contains the services for visualization requests. The charts
+ * are drawn by this server from the survey responses that the requesting
+ * user is allowed to read, and the images are kept in the
+ * {@link VisualizationCache} until the campaign's survey responses change.
+ *
  * @author John Jenkins
  */
 public class VisualizationServices {
+	private static final Logger LOGGER =
+			Logger.getLogger(VisualizationServices.class);
+
 	/**
-	 * The token parameter key for the visualization server.
+	 * The names of the charts, which distinguish them in the cache.
 	 */
-	private static final String PARAMETER_KEY_TOKEN = "token";
+	private static final String CHART_SURVEY_RESPONSE_COUNT = "responseplot";
+	private static final String CHART_PRIVACY_STATE = "sharedplot";
+	private static final String CHART_PRIVACY_STATE_TIMESERIES =
+			"sharedtimeplot";
+	private static final String CHART_PROMPT_DISTRIBUTION =
+			"distributionplot";
+	private static final String CHART_PROMPT_TIMESERIES = "timeplot";
+	private static final String CHART_USER_TIMESERIES = "userplot";
+	private static final String CHART_SCATTER_PLOT = "scatterplot";
+	private static final String CHART_TWO_D_DENSITY = "biplot";
+
 	/**
-	 * The server parameter key for the visualization server.
+	 * The most categories that are drawn in a distribution. Beyond this, the
+	 * most common ones are kept.
 	 */
-	private static final String PARAMETER_KEY_SERVER = "server";
+	private static final int MAX_CATEGORIES = 30;
+
 	/**
-	 * The campaign ID parameter key for the visualization server.
+	 * The number of bins into which the values of a numeric prompt are
+	 * divided when they have too many distinct values to be drawn
+	 * individually.
 	 */
-	private static final String PARAMETER_KEY_CAMPAIGN_ID = "campaign_urn";
+	private static final int HISTOGRAM_BINS = 10;
+
+	private static final long MILLIS_PER_DAY = 1000L * 60 * 60 * 24;
+
 	/**
-	 * The width parameter key for the visualization server.
+	 * The format of the dates in {@link SurveyResponseCount#getDate()}, which
+	 * are parsed as though they were in UTC.
 	 */
-	private static final String PARAMETER_KEY_WIDTH = "!width";
+	private static final DateTimeFormatter COUNT_DATE_FORMAT =
+			DateTimeFormat.forPattern("yyyy-M-d").withZoneUTC();
+
 	/**
-	 * The height parameter key for the visualization server.
+	 * Draws a chart from a campaign's survey responses.
 	 */
-	private static final String PARAMETER_KEY_HEIGHT = "!height";
-	
+	private static interface Chart {
+		/**
+		 * Reads the survey responses and draws the chart.
+		 *
+		 * @param campaign The campaign.
+		 *
+		 * @return The chart as a PNG image.
+		 *
+		 * @throws ServiceException The survey responses could not be read.
+		 *
+		 * @throws IOException The image could not be encoded.
+		 */
+		byte[] render(Campaign campaign) throws ServiceException, IOException;
+	}
+
 	/**
-	 * The start date which limits the range of visible survey responses to 
-	 * those on or after this date.
+	 * Default constructor. Made private so that it cannot be instantiated.
 	 */
-	public static final String PARAMETER_KEY_START_DATE = "start_date";
+	private VisualizationServices() {}
+
 	/**
-	 * The end date which limits the range of visible survey responses to those
-	 * on or before this date.
+	 * Draws the number of survey responses over time.
+	 *
+	 * @param campaignId The campaign's unique identifier.
+	 *
+	 * @param username The username of the requesting user.
+	 *
+	 * @param width The width of the image.
+	 *
+	 * @param height The height of the image.
+	 *
+	 * @param startDate Limits the survey responses to those on or after this
+	 * 					date. Optional.
+	 *
+	 * @param endDate Limits the survey responses to those on or before this
+	 * 				  date. Optional.
+	 *
+	 * @param privacyState Limits the survey responses to those with this
+	 * 					   privacy state. Optional.
+	 *
+	 * @param aggregate The number of days whose survey responses are counted
+	 * 					together. Optional.
+	 *
+	 * @return The chart as a PNG image.
+	 *
+	 * @throws ServiceException Thrown if there is an error.
 	 */
-	public static final String PARAMETER_KEY_END_DATE = "end_date";
+	public static byte[] renderSurveyResponseCount(
+			final String campaignId, final String username,
+			final int width, final int height,
+			final DateTime startDate, final DateTime endDate,
+			final PrivacyState privacyState, final Integer aggregate)
+			throws ServiceException {
+
+		return render(
+				CHART_SURVEY_RESPONSE_COUNT,
+				campaignId, username, width, height,
+				startDate, endDate, privacyState,
+				Arrays.asList(String.valueOf(aggregate)),
+				new Chart() {
+					@Override
+					public byte[] render(final Campaign campaign)
+							throws ServiceException, IOException {
+
+						SortedMap<Long, Double> counts =
+								new TreeMap<Long, Double>();
+						for(SurveyResponseCount count : readCounts(
+								campaign, username, startDate, endDate, true)) {
+
+							if((privacyState != null) &&
+									(! privacyState.equals(count.getPrivacyState()))) {
+								continue;
+							}
+							add(counts, parseDate(count.getDate()), count.getCount());
+						}
+
+						ChartRenderer.Series series =
+								new ChartRenderer.Series("Survey responses");
+						for(Map.Entry<Long, Double> count :
+								bucket(counts, aggregate, false).entrySet()) {
+
+							series.add(count.getKey(), count.getValue());
+						}
+
+						return ChartRenderer.renderTimeSeries(
+								width, height,
+								"Survey responses", "Responses",
+								Collections.singletonList(series));
+					}
+				});
+	}
+
 	/**
-	 * The privacy state which limits the survey responses to only those whose
-	 * privacy state matches this privacy state.
+	 * Draws the number of survey responses with each privacy state.
+	 *
+	 * @param campaignId The campaign's unique identifier.
+	 *
+	 * @param username The username of the requesting user.
+	 *
+	 * @param width The width of the image.
+	 *
+	 * @param height The height of the image.
+	 *
+	 * @param startDate Limits the survey responses to those on or after this
+	 * 					date. Optional.
+	 *
+	 * @param endDate Limits the survey responses to those on or before this
+	 * 				  date. Optional.
+	 *
+	 * @return The chart as a PNG image.
+	 *
+	 * @throws ServiceException Thrown if there is an error.
 	 */
-	public static final String PARAMETER_KEY_PRIVACY_STATE = "privacy_state";
-	
+	public static byte[] renderPrivacyState(
+			final String campaignId, final String username,
+			final int width, final int height,
+			final DateTime startDate, final DateTime endDate)
+			throws ServiceException {
+
+		return render(
+				CHART_PRIVACY_STATE,
+				campaignId, username, width, height,
+				startDate, endDate, null,
+				Collections.<String>emptyList(),
+				new Chart() {
+					@Override
+					public byte[] render(final Campaign campaign)
+							throws ServiceException, IOException {
+
+						Map<String, Double> counts =
+								new LinkedHashMap<String, Double>();
+						for(PrivacyState privacyState : PrivacyState.values()) {
+							counts.put(privacyState.toString(), 0.0);
+						}
+						for(SurveyResponseCount count : readCounts(
+								campaign, username, startDate, endDate, false)) {
+
+							add(counts, count.getPrivacyState().toString(), count.getCount());
+						}
+
+						return ChartRenderer.renderBarChart(
+								width, height,
+								"Survey responses by privacy state",
+								"Privacy state", "Responses",
+								new ArrayList<String>(counts.keySet()),
+								new ArrayList<Double>(counts.values()));
+					}
+				});
+	}
+
 	/**
-	 * The single prompt ID parameter key for the visualization server.
+	 * Draws the number of survey responses with each privacy state over
+	 * time.
+	 *
+	 * @param campaignId The campaign's unique identifier.
+	 *
+	 * @param username The username of the requesting user.
+	 *
+	 * @param width The width of the image.
+	 *
+	 * @param height The height of the image.
+	 *
+	 * @param startDate Limits the survey responses to those on or after this
+	 * 					date. Optional.
+	 *
+	 * @param endDate Limits the survey responses to those on or before this
+	 * 				  date. Optional.
+	 *
+	 * @return The chart as a PNG image.
+	 *
+	 * @throws ServiceException Thrown if there is an error.
 	 */
-	public static final String PARAMETER_KEY_PROMPT_ID = "prompt_id";
+	public static byte[] renderPrivacyStateTimeseries(
+			final String campaignId, final String username,
+			final int width, final int height,
+			final DateTime startDate, final DateTime endDate)
+			throws ServiceException {
+
+		return render(
+				CHART_PRIVACY_STATE_TIMESERIES,
+				campaignId, username, width, height,
+				startDate, endDate, null,
+				Collections.<String>emptyList(),
+				new Chart() {
+					@Override
+					public byte[] render(final Campaign campaign)
+							throws ServiceException, IOException {
+
+						Map<PrivacyState, ChartRenderer.Series> series =
+								new LinkedHashMap<PrivacyState, ChartRenderer.Series>();
+						for(SurveyResponseCount count : readCounts(
+								campaign, username, startDate, endDate, true)) {
+
+							ChartRenderer.Series current =
+									series.get(count.getPrivacyState());
+							if(current == null) {
+								current = new ChartRenderer.Series(
+										count.getPrivacyState().toString());
+								series.put(count.getPrivacyState(), current);
+							}
+							current.add(parseDate(count.getDate()), count.getCount());
+						}
+
+						return ChartRenderer.renderTimeSeries(
+								width, height,
+								"Survey responses by privacy state",
+								"Responses",
+								series.values());
+					}
+				});
+	}
+
 	/**
-	 * The second prompt ID parameter key for the visualization server.
+	 * Draws how often each response to a prompt was given. Responses to
+	 * numeric prompts with many distinct values are counted in ranges.
+	 *
+	 * @param campaignId The campaign's unique identifier.
+	 *
+	 * @param username The username of the requesting user.
+	 *
+	 * @param width The width of the image.
+	 *
+	 * @param height The height of the image.
+	 *
+	 * @param startDate Limits the survey responses to those on or after this
+	 * 					date. Optional.
+	 *
+	 * @param endDate Limits the survey responses to those on or before this
+	 * 				  date. Optional.
+	 *
+	 * @param privacyState Limits the survey responses to those with this
+	 * 					   privacy state. Optional.
+	 *
+	 * @param promptId The prompt's unique identifier.
+	 *
+	 * @return The chart as a PNG image.
+	 *
+	 * @throws ServiceException Thrown if there is an error.
 	 */
-	public static final String PARAMETER_KEY_PROMPT2_ID = "prompt2_id";
+	public static byte[] renderPromptDistribution(
+			final String campaignId, final String username,
+			final int width, final int height,
+			final DateTime startDate, final DateTime endDate,
+			final PrivacyState privacyState, final String promptId)
+			throws ServiceException {
+
+		return render(
+				CHART_PROMPT_DISTRIBUTION,
+				campaignId, username, width, height,
+				startDate, endDate, privacyState,
+				Arrays.asList(promptId),
+				new Chart() {
+					@Override
+					public byte[] render(final Campaign campaign)
+							throws ServiceException, IOException {
+
+						List<PromptResponse> promptResponses =
+								new LinkedList<PromptResponse>();
+						for(SurveyResponse surveyResponse : readSurveyResponses(
+								campaign, username, null,
+								startDate, endDate, privacyState,
+								Arrays.asList(promptId))) {
+
+							getPromptResponses(
+									surveyResponse.getResponses(),
+									promptId,
+									promptResponses);
+						}
+
+						Map<String, Double> counts;
+						if(isNumeric(promptResponses)) {
+							counts = getNumericDistribution(promptResponses);
+						}
+						else {
+							counts = getCategoricalDistribution(promptResponses);
+						}
+
+						return ChartRenderer.renderBarChart(
+								width, height,
+								promptId, "Response", "Responses",
+								new ArrayList<String>(counts.keySet()),
+								new ArrayList<Double>(counts.values()));
+					}
+				});
+	}
+
 	/**
-	 * The username parameter key for the visualization server.
+	 * Draws the responses to a numeric or single choice prompt over time.
+	 *
+	 * @param campaignId The campaign's unique identifier.
+	 *
+	 * @param username The username of the requesting user.
+	 *
+	 * @param width The width of the image.
+	 *
+	 * @param height The height of the image.
+	 *
+	 * @param startDate Limits the survey responses to those on or after this
+	 * 					date. Optional.
+	 *
+	 * @param endDate Limits the survey responses to those on or before this
+	 * 				  date. Optional.
+	 *
+	 * @param privacyState Limits the survey responses to those with this
+	 * 					   privacy state. Optional.
+	 *
+	 * @param promptId The prompt's unique identifier.
+	 *
+	 * @param aggregate The number of days whose responses are averaged
+	 * 					together. Optional.
+	 *
+	 * @return The chart as a PNG image.
+	 *
+	 * @throws ServiceException Thrown if there is an error.
 	 */
-	public static final String PARAMETER_KEY_USERNAME = "user_id";
-	
+	public static byte[] renderPromptTimeseries(
+			final String campaignId, final String username,
+			final int width, final int height,
+			final DateTime startDate, final DateTime endDate,
+			final PrivacyState privacyState, final String promptId,
+			final Integer aggregate)
+			throws ServiceException {
+
+		return render(
+				CHART_PROMPT_TIMESERIES,
+				campaignId, username, width, height,
+				startDate, endDate, privacyState,
+				Arrays.asList(promptId, String.valueOf(aggregate)),
+				new Chart() {
+					@Override
+					public byte[] render(final Campaign campaign)
+							throws ServiceException, IOException {
+
+						return renderValues(
+								campaign, username, null,
+								width, height,
+								startDate, endDate, privacyState,
+								promptId, aggregate);
+					}
+				});
+	}
+
 	/**
-	 * The parameter to tell the visualization server over how many days to
-	 * aggregate the data.
+	 * Draws one user's responses to a numeric or single choice prompt over
+	 * time.
+	 *
+	 * @param campaignId The campaign's unique identifier.
+	 *
+	 * @param username The username of the requesting user.
+	 *
+	 * @param width The width of the image.
+	 *
+	 * @param height The height of the image.
+	 *
+	 * @param startDate Limits the survey responses to those on or after this
+	 * 					date. Optional.
+	 *
+	 * @param endDate Limits the survey responses to those on or before this
+	 * 				  date. Optional.
+	 *
+	 * @param privacyState Limits the survey responses to those with this
+	 * 					   privacy state. Optional.
+	 *
+	 * @param promptId The prompt's unique identifier.
+	 *
+	 * @param owner The username of the user whose responses are drawn.
+	 *
+	 * @return The chart as a PNG image.
+	 *
+	 * @throws ServiceException Thrown if there is an error.
 	 */
-	public static final String PARAMETER_KEY_AGGREGATE = "aggregate";
-	
-	private static final String ENCODING = "UTF-8";
-	
+	public static byte[] renderUserTimeseries(
+			final String campaignId, final String username,
+			final int width, final int height,
+			final DateTime startDate, final DateTime endDate,
+			final PrivacyState privacyState, final String promptId,
+			final String owner)
+			throws ServiceException {
+
+		return render(
+				CHART_USER_TIMESERIES,
+				campaignId, username, width, height,
+				startDate, endDate, privacyState,
+				Arrays.asList(promptId, owner),
+				new Chart() {
+					@Override
+					public byte[] render(final Campaign campaign)
+							throws ServiceException, IOException {
+
+						return renderValues(
+								campaign, username, owner,
+								width, height,
+								startDate, endDate, privacyState,
+								promptId, null);
+					}
+				});
+	}
+
 	/**
-	 * Default constructor. Made private so that it cannot be instantiated.
+	 * Draws the responses to one numeric or single choice prompt against
+	 * those to another from the same survey responses as points.
+	 *
+	 * @param campaignId The campaign's unique identifier.
+	 *
+	 * @param username The username of the requesting user.
+	 *
+	 * @param width The width of the image.
+	 *
+	 * @param height The height of the image.
+	 *
+	 * @param startDate Limits the survey responses to those on or after this
+	 * 					date. Optional.
+	 *
+	 * @param endDate Limits the survey responses to those on or before this
+	 * 				  date. Optional.
+	 *
+	 * @param privacyState Limits the survey responses to those with this
+	 * 					   privacy state. Optional.
+	 *
+	 * @param promptId The unique identifier of the horizontal axis' prompt.
+	 *
+	 * @param prompt2Id The unique identifier of the vertical axis' prompt.
+	 *
+	 * @return The chart as a PNG image.
+	 *
+	 * @throws ServiceException Thrown if there is an error.
 	 */
-	private VisualizationServices() {}
+	public static byte[] renderScatterPlot(
+			final String campaignId, final String username,
+			final int width, final int height,
+			final DateTime startDate, final DateTime endDate,
+			final PrivacyState privacyState,
+			final String promptId, final String prompt2Id)
+			throws ServiceException {
+
+		return render(
+				CHART_SCATTER_PLOT,
+				campaignId, username, width, height,
+				startDate, endDate, privacyState,
+				Arrays.asList(promptId, prompt2Id),
+				new Chart() {
+					@Override
+					public byte[] render(final Campaign campaign)
+							throws ServiceException, IOException {
+
+						return ChartRenderer.renderScatterPlot(
+								width, height,
+								promptId + " and " + prompt2Id,
+								promptId, prompt2Id,
+								getPairs(
+										campaign, username,
+										startDate, endDate, privacyState,
+										promptId, prompt2Id));
+					}
+				});
+	}
 
 	/**
-	 * Sends a request to the visualization server and returns the image as a
-	 * byte array that was returned by the visualization server.
-	 * 
-	 * @param requestPath The additional path beyond the base URI that is 
-	 * 					  stored in the database. An example would be, if the
-	 * 					  database stored the visualization server's address as
-	 * 					  "https://viz.server.com/R/visualzations" then this
-	 * 					  parameter could be "survey_response_count" which 
-	 * 					  would result in a URL of
-	 * 					  "https://viz.server/com/R/visualizations/survey_response_count?param1=...".
-	 * 
-	 * @param userToken The authentication token for the requesting user that
-	 * 					will be passed on to the visualization server to 
-	 * 					perform subsequent requests on our behalf.
-	 * 
-	 * @param campaignId The unique identifier for the campaign whose 
-	 * 					 information will be used in conjunction with this
-	 * 					 request and any subsequent parameters.
-	 * 
-	 * @param width The desired width of the resulting visualization.
-	 * 
-	 * @param height The desired height of the resulting visualization.
-	 * 
-	 * @param parameters Any additional parameters that should be passed to the
-	 * 					 visualization server. Their key values will be used as
-	 * 					 the key in the HTTP parameter and their actual value
-	 * 					 will be their single-quoted HTTP parameter value.
-	 * 
-	 * @return Returns a byte[] representation of the visualization image.
-	 * 
+	 * Draws how densely the responses to one numeric or single choice prompt
+	 * and those to another from the same survey responses fall together.
+	 *
+	 * @param campaignId The campaign's unique identifier.
+	 *
+	 * @param username The username of the requesting user.
+	 *
+	 * @param width The width of the image.
+	 *
+	 * @param height The height of the image.
+	 *
+	 * @param startDate Limits the survey responses to those on or after this
+	 * 					date. Optional.
+	 *
+	 * @param endDate Limits the survey responses to those on or before this
+	 * 				  date. Optional.
+	 *
+	 * @param privacyState Limits the survey responses to those with this
+	 * 					   privacy state. Optional.
+	 *
+	 * @param promptId The unique identifier of the horizontal axis' prompt.
+	 *
+	 * @param prompt2Id The unique identifier of the vertical axis' prompt.
+	 *
+	 * @return The chart as a PNG image.
+	 *
 	 * @throws ServiceException Thrown if there is an error.
 	 */
-	public static byte[] sendVisualizationRequest(final String requestPath, 
-			final String userToken, final String campaignId, final int width, 
-			final int height, final Map<String, String> parameters) 
+	public static byte[] renderTwoDDensity(
+			final String campaignId, final String username,
+			final int width, final int height,
+			final DateTime startDate, final DateTime endDate,
+			final PrivacyState privacyState,
+			final String promptId, final String prompt2Id)
 			throws ServiceException {
-		
-		// Build the request URL.
-		StringBuilder urlBuilder = new StringBuilder();
-		try {
-			String serverUrl = PreferenceCache.instance().lookup(PreferenceCache.KEY_VISUALIZATION_SERVER);
-			urlBuilder.append(serverUrl);
-			
-			if(! serverUrl.endsWith("/")) {
-				urlBuilder.append("/");
+
+		return render(
+				CHART_TWO_D_DENSITY,
+				campaignId, username, width, height,
+				startDate, endDate, privacyState,
+				Arrays.asList(promptId, prompt2Id),
+				new Chart() {
+					@Override
+					public byte[] render(final Campaign campaign)
+							throws ServiceException, IOException {
+
+						return ChartRenderer.renderDensityPlot(
+								width, height,
+								promptId + " and " + prompt2Id,
+								promptId, prompt2Id,
+								getPairs(
+										campaign, username,
+										startDate, endDate, privacyState,
+										promptId, prompt2Id));
+					}
+				});
+	}
+
+	/**
+	 * Returns a chart from the cache or draws and caches it. The cache key
+	 * is made of everything that decides what the chart shows, including
+	 * the requesting user and the version of the campaign's survey
+	 * responses, which is read before the chart is drawn so that a change
+	 * made while drawing leaves the image under an outdated key.
+	 *
+	 * @param chartName The chart's name.
+	 *
+	 * @param parameters The chart's own parameters.
+	 *
+	 * @param chart Draws the chart if it is not cached.
+	 *
+	 * @return The chart as a PNG image.
+	 *
+	 * @throws ServiceException Thrown if there is an error.
+	 */
+	private static byte[] render(
+			final String chartName,
+			final String campaignId, final String username,
+			final int width, final int height,
+			final DateTime startDate, final DateTime endDate,
+			final PrivacyState privacyState,
+			final Collection<String> parameters,
+			final Chart chart)
+			throws ServiceException {
+
+		long version =
+				CampaignServices.instance().getCampaignResponseVersion(campaignId);
+
+		StringBuilder keyBuilder = new StringBuilder(chartName);
+		keyBuilder
+			.append('|').append(campaignId)
+			.append('|').append(version)
+			.append('|').append(username)
+			.append('|').append(width)
+			.append('|').append(height)
+			.append('|').append(startDate)
+			.append('|').append(endDate)
+			.append('|').append(privacyState);
+		for(String parameter : parameters) {
+			keyBuilder.append('|').append(parameter);
+		}
+		String key = keyBuilder.toString();
+
+		VisualizationCache cache = VisualizationCache.instance();
+		if(cache != null) {
+			byte[] result = cache.lookup(key);
+			if(result != null) {
+				LOGGER.info("Using the cached visualization.");
+				return result;
 			}
 		}
-		catch(CacheMissException e) {
+
+		Campaign campaign = CampaignServices.instance().getCampaign(campaignId);
+		if(campaign == null) {
 			throw new ServiceException(
-					"Cache doesn't know about 'known' key: " + 
-						PreferenceCache.KEY_VISUALIZATION_SERVER,
-					e);
+					ErrorCode.CAMPAIGN_INVALID_ID,
+					"The campaign does not exist.");
 		}
-		urlBuilder.append(requestPath);
-		
-		// Generate the URL String.
-		String urlString = urlBuilder.toString();
-		
-		// Build this server's URL.
-		StringBuilder parameterBuilder = new StringBuilder();
+
+		byte[] result;
 		try {
-			parameterBuilder
-				.append(URLEncoder.encode(PARAMETER_KEY_TOKEN, ENCODING))
-				.append("='")
-				.append(URLEncoder.encode(userToken, ENCODING))
-				.append("'");
-	
-			// Build this server's URL.
-			parameterBuilder.append("&")
-				.append(URLEncoder.encode(PARAMETER_KEY_SERVER, ENCODING))
-				.append("='");
-			
-			// Get this machine's default URL.
-			try {
-				parameterBuilder
-					.append(
-						URLEncoder
-							.encode(
-								CookieUtils.buildServerRootUrl().toString(),
-								ENCODING));
-			}
-			catch(DomainException e) {
-				throw new ServiceException(
-						"Error building the root URL.",
-						e);
-			}
-			parameterBuilder
-				.append(URLEncoder.encode(RequestBuilder.getInstance().getRoot(), ENCODING))
-				.append("'");
-			
-			// Add the required parameters.
-			parameterBuilder.append("&")
-				.append(URLEncoder.encode(PARAMETER_KEY_CAMPAIGN_ID, ENCODING))
-				.append("='")
-				.append(URLEncoder.encode(campaignId, ENCODING))
-				.append("'");
-			
-			parameterBuilder.append("&")
-				.append(URLEncoder.encode(PARAMETER_KEY_WIDTH, ENCODING))
-				.append("=")
-				.append(width);
-			
-			parameterBuilder.append("&")
-				.append(URLEncoder.encode(PARAMETER_KEY_HEIGHT, ENCODING))
-				.append("=")
-				.append(height);
-			
-			// Add all of the non-required, request-specific parameters.
-			for(String key : parameters.keySet()) {
-				parameterBuilder.append('&');
-				
-				if(PARAMETER_KEY_AGGREGATE.equals(key)) {
-					parameterBuilder
-						.append(URLEncoder.encode(key, ENCODING))
-						.append('=')
-						.append(parameters.get(key));
+			LOGGER.info("Drawing the visualization.");
+			result = chart.render(campaign);
+		}
+		catch(IOException e) {
+			throw new ServiceException(
+					ErrorCode.VISUALIZATION_GENERAL_ERROR,
+					"There was an error drawing the visualization.",
+					e);
+		}
+
+		if(cache != null) {
+			cache.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Draws the numeric responses to a prompt over time.
+	 *
+	 * @param owner Limits the survey responses to this user's. Optional.
+	 *
+	 * @param aggregate The number of days whose responses are averaged
+	 * 					together. Optional.
+	 */
+	private static byte[] renderValues(
+			final Campaign campaign, final String username,
+			final String owner,
+			final int width, final int height,
+			final DateTime startDate, final DateTime endDate,
+			final PrivacyState privacyState, final String promptId,
+			final Integer aggregate)
+			throws ServiceException, IOException {
+
+		SortedMap<Long, Double> sums = new TreeMap<Long, Double>();
+		SortedMap<Long, Double> numbers = new TreeMap<Long, Double>();
+		ChartRenderer.Series series = new ChartRenderer.Series(promptId);
+
+		for(SurveyResponse surveyResponse : readSurveyResponses(
+				campaign, username, owner,
+				startDate, endDate, privacyState,
+				Arrays.asList(promptId))) {
+
+			List<PromptResponse> promptResponses =
+					new LinkedList<PromptResponse>();
+			getPromptResponses(
+					surveyResponse.getResponses(),
+					promptId,
+					promptResponses);
+
+			long time = getLocalTime(surveyResponse);
+			for(PromptResponse promptResponse : promptResponses) {
+				Double value = getNumericValue(promptResponse);
+				if(value == null) {
+					continue;
+				}
+
+				if(aggregate == null) {
+					series.add(time, value);
 				}
 				else {
-					parameterBuilder
-						.append(URLEncoder.encode(key, ENCODING))
-						.append("='")
-						.append(URLEncoder.encode(parameters.get(key), ENCODING))
-						.append("'");
+					long day = time - (time % MILLIS_PER_DAY);
+					add(sums, day, value);
+					add(numbers, day, 1);
 				}
 			}
 		}
-		catch(UnsupportedEncodingException e) {
-			throw new ServiceException(
-					"UTF-8 encoding is unknown.",
-					e);
+
+		if(aggregate != null) {
+			SortedMap<Long, Double> bucketSums = bucket(sums, aggregate, true);
+			SortedMap<Long, Double> bucketNumbers =
+					bucket(numbers, aggregate, true);
+			for(Map.Entry<Long, Double> sum : bucketSums.entrySet()) {
+				series.add(
+						sum.getKey(),
+						sum.getValue() / bucketNumbers.get(sum.getKey()));
+			}
 		}
-		
-		try {
-			// Connect to the visualization server.
-			URL url = new URL(urlString);
-			HttpURLConnection urlConnection = 
-					(HttpURLConnection) url.openConnection();
-			
-			urlConnection.setDoOutput(true);
-			urlConnection.setDoInput(true);
-			urlConnection.setInstanceFollowRedirects(true);
-			urlConnection.setRequestMethod("POST");
-			urlConnection.setRequestProperty(
-					"Content-Length", 
-					Integer.toString(parameterBuilder.length()));
-			
-			DataOutputStream output = 
-					new DataOutputStream(urlConnection.getOutputStream());
-			output.writeBytes(parameterBuilder.toString());
-			output.flush();
-			output.close();
-			
-			// If a non-200 response was returned, get the text from the 
-			// response.
-			if(urlConnection.getResponseCode() != 200) {
-				// Get the error text.
-				ByteArrayOutputStream errorByteStream = new ByteArrayOutputStream();
-				InputStream errorStream = urlConnection.getErrorStream();
-				byte[] chunk = new byte[4096];
-				int amountRead;
-				while((amountRead = errorStream.read(chunk)) != -1) {
-					errorByteStream.write(chunk, 0, amountRead);
+
+		return ChartRenderer.renderTimeSeries(
+				width, height,
+				promptId, promptId,
+				Collections.singletonList(series));
+	}
+
+	/**
+	 * Returns the numeric responses to two prompts that were given in the
+	 * same survey response. Where a prompt was answered more than once in a
+	 * repeatable set, its first answer is used.
+	 */
+	private static List<double[]> getPairs(
+			final Campaign campaign, final String username,
+			final DateTime startDate, final DateTime endDate,
+			final PrivacyState privacyState,
+			final String promptId, final String prompt2Id)
+			throws ServiceException {
+
+		List<double[]> result = new ArrayList<double[]>();
+		for(SurveyResponse surveyResponse : readSurveyResponses(
+				campaign, username, null,
+				startDate, endDate, privacyState,
+				Arrays.asList(promptId, prompt2Id))) {
+
+			Double x = getFirstNumericValue(surveyResponse, promptId);
+			Double y = getFirstNumericValue(surveyResponse, prompt2Id);
+			if((x != null) && (y != null)) {
+				result.add(new double[] { x, y });
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Reads the survey responses that contain some prompts and that the
+	 * requesting user is allowed to read.
+	 *
+	 * @param owner Limits the survey responses to this user's. Optional.
+	 */
+	private static List<SurveyResponse> readSurveyResponses(
+			final Campaign campaign, final String username,
+			final String owner,
+			final DateTime startDate, final DateTime endDate,
+			final PrivacyState privacyState,
+			final Collection<String> promptIds)
+			throws ServiceException {
+
+		List<SurveyResponse> result = new ArrayList<SurveyResponse>();
+		SurveyResponseServices.instance().readSurveyResponseInformation(
+				campaign,
+				username,
+				null,
+				(owner == null) ? null : Collections.singletonList(owner),
+				startDate,
+				endDate,
+				privacyState,
+				null,
+				promptIds,
+				null,
+				null,
+				null,
+				null,
+				0,
+				Long.MAX_VALUE,
+				result);
+		return result;
+	}
+
+	/**
+	 * Counts the survey responses that the requesting user is allowed to
+	 * read by privacy state and, optionally, date.
+	 */
+	private static List<SurveyResponseCount> readCounts(
+			final Campaign campaign, final String username,
+			final DateTime startDate, final DateTime endDate,
+			final boolean byDate)
+			throws ServiceException {
+
+		Collection<SurveyResponseCount.Grouping> groupings =
+				new ArrayList<SurveyResponseCount.Grouping>(2);
+		groupings.add(SurveyResponseCount.Grouping.PRIVACY_STATE);
+		if(byDate) {
+			groupings.add(SurveyResponseCount.Grouping.DATE);
+		}
+
+		return SurveyResponseServices.instance().readSurveyResponseCounts(
+				campaign, username, startDate, endDate, groupings);
+	}
+
+	/**
+	 * Adds the responses to a prompt to a list, including each of its
+	 * answers in a repeatable set.
+	 */
+	private static void getPromptResponses(
+			final Map<Integer, Response> responses,
+			final String promptId,
+			final List<PromptResponse> result) {
+
+		for(Response response : responses.values()) {
+			if(response instanceof RepeatableSetResponse) {
+				for(Map<Integer, Response> group :
+						((RepeatableSetResponse) response).getResponseGroups().values()) {
+
+					getPromptResponses(group, promptId, result);
 				}
-				errorStream.close();
-				
-				// Echo the error.
-				throw new ServiceException(
-						ErrorCode.VISUALIZATION_GENERAL_ERROR,
-						"There was an error. Please, try again later.",
-						"The server returned the HTTP error code '" + 
-							urlConnection.getResponseCode() + 
-							"' with the error '" + 
-							errorByteStream.toString() + 
-							"': " + 
-							urlString);
 			}
-			
-			// Build the response.
-			InputStream reader = urlConnection.getInputStream();
-			
-			// Generate the byte array.
-			ByteArrayOutputStream byteArrayStream = new ByteArrayOutputStream();
-			byte[] chunk = new byte[4096];
-			int amountRead = 0;
-			while((amountRead = reader.read(chunk)) != -1) {
-				byteArrayStream.write(chunk, 0, amountRead);
+			else if((response instanceof PromptResponse) &&
+					promptId.equals(response.getId())) {
+
+				result.add((PromptResponse) response);
 			}
-			reader.close();
-			
-			return byteArrayStream.toByteArray();
 		}
-		catch(MalformedURLException e) {
-			throw new ServiceException(
-					ErrorCode.VISUALIZATION_GENERAL_ERROR, 
-					"Built a malformed URL: " + urlString, 
-					e);
+	}
+
+	/**
+	 * Returns the first numeric response to a prompt in a survey response.
+	 */
+	private static Double getFirstNumericValue(
+			final SurveyResponse surveyResponse,
+			final String promptId) {
+
+		List<PromptResponse> promptResponses = new LinkedList<PromptResponse>();
+		getPromptResponses(
+				surveyResponse.getResponses(),
+				promptId,
+				promptResponses);
+
+		for(PromptResponse promptResponse : promptResponses) {
+			Double result = getNumericValue(promptResponse);
+			if(result != null) {
+				return result;
+			}
 		}
-		catch(IOException e) {
-			throw new ServiceException(
-					ErrorCode.VISUALIZATION_GENERAL_ERROR, 
-					"Error while communicating with the visualization server.",
-					e);
+		return null;
+	}
+
+	/**
+	 * Returns a response as a number. A single choice is its choice's value
+	 * or, if that has none, its key.
+	 *
+	 * @return The number or null if the response was not given or is not a
+	 * 		   number.
+	 */
+	private static Double getNumericValue(final PromptResponse promptResponse) {
+		Object response = promptResponse.getResponse();
+		Prompt prompt = promptResponse.getPrompt();
+
+		if(prompt instanceof ChoicePrompt) {
+			if((prompt instanceof CustomChoicePrompt) ||
+					(! (response instanceof Integer))) {
+
+				return null;
+			}
+
+			LabelValuePair choice =
+					((ChoicePrompt) prompt).getChoices().get(response);
+			if((choice != null) && (choice.getValue() != null)) {
+				return choice.getValue().doubleValue();
+			}
+			return ((Integer) response).doubleValue();
+		}
+		else if(response instanceof Number) {
+			return ((Number) response).doubleValue();
+		}
+		return null;
+	}
+
+	/**
+	 * Returns whether the responses are to a numeric, rather than choice or
+	 * text, prompt.
+	 */
+	private static boolean isNumeric(
+			final Collection<PromptResponse> promptResponses) {
+
+		for(PromptResponse promptResponse : promptResponses) {
+			if(promptResponse.getPrompt() instanceof ChoicePrompt) {
+				return false;
+			}
+
+			Object response = promptResponse.getResponse();
+			if(response instanceof Response.NoResponse) {
+				continue;
+			}
+			return (response instanceof Number);
+		}
+		return false;
+	}
+
+	/**
+	 * Counts the responses to a numeric prompt, either by value or, if there
+	 * are too many distinct values, in ranges of equal width.
+	 */
+	private static Map<String, Double> getNumericDistribution(
+			final Collection<PromptResponse> promptResponses) {
+
+		SortedMap<Double, Double> values = new TreeMap<Double, Double>();
+		for(PromptResponse promptResponse : promptResponses) {
+			Double value = getNumericValue(promptResponse);
+			if(value != null) {
+				add(values, value, 1);
+			}
+		}
+
+		Map<String, Double> result = new LinkedHashMap<String, Double>();
+		if(values.size() <= MAX_CATEGORIES) {
+			for(Map.Entry<Double, Double> value : values.entrySet()) {
+				result.put(formatNumber(value.getKey()), value.getValue());
+			}
+			return result;
+		}
+
+		double min = values.firstKey();
+		double binWidth = (values.lastKey() - min) / HISTOGRAM_BINS;
+		double[] bins = new double[HISTOGRAM_BINS];
+		for(Map.Entry<Double, Double> value : values.entrySet()) {
+			int bin =
+					Math.min(
+							HISTOGRAM_BINS - 1,
+							(int) ((value.getKey() - min) / binWidth));
+			bins[bin] += value.getValue();
+		}
+		for(int i = 0; i < HISTOGRAM_BINS; i++) {
+			result.put(
+					formatNumber(min + binWidth * i) + "-" +
+						formatNumber(min + binWidth * (i + 1)),
+					bins[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Counts the responses to a choice or text prompt by label. Every choice
+	 * of a choice prompt is included, in order, even if it was never chosen.
+	 * Only the most common {@value #MAX_CATEGORIES} labels are kept.
+	 */
+	private static Map<String, Double> getCategoricalDistribution(
+			final Collection<PromptResponse> promptResponses) {
+
+		Map<String, Double> counts = new LinkedHashMap<String, Double>();
+		for(PromptResponse promptResponse : promptResponses) {
+			Prompt prompt = promptResponse.getPrompt();
+			if((prompt instanceof ChoicePrompt) &&
+					(! (prompt instanceof CustomChoicePrompt))) {
+
+				for(LabelValuePair choice : new TreeMap<Integer, LabelValuePair>(
+						((ChoicePrompt) prompt).getChoices()).values()) {
+
+					counts.put(choice.getLabel(), 0.0);
+				}
+			}
+			break;
+		}
+
+		for(PromptResponse promptResponse : promptResponses) {
+			Object response = promptResponse.getResponse();
+			if(response instanceof Response.NoResponse) {
+				continue;
+			}
+
+			if(response instanceof Collection) {
+				for(Object choice : (Collection<?>) response) {
+					add(counts, getLabel(promptResponse.getPrompt(), choice), 1);
+				}
+			}
+			else {
+				add(counts, getLabel(promptResponse.getPrompt(), response), 1);
+			}
+		}
+
+		if(counts.size() <= MAX_CATEGORIES) {
+			return counts;
+		}
+
+		List<Map.Entry<String, Double>> entries =
+				new ArrayList<Map.Entry<String, Double>>(counts.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, Double>>() {
+			@Override
+			public int compare(
+					final Map.Entry<String, Double> a,
+					final Map.Entry<String, Double> b) {
+
+				return b.getValue().compareTo(a.getValue());
+			}
+		});
+
+		Map<String, Double> result = new LinkedHashMap<String, Double>();
+		for(Map.Entry<String, Double> entry :
+				entries.subList(0, MAX_CATEGORIES)) {
+
+			result.put(entry.getKey(), entry.getValue());
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the label of a response or one of its choices.
+	 */
+	private static String getLabel(final Prompt prompt, final Object value) {
+		if((prompt instanceof ChoicePrompt) && (value instanceof Integer)) {
+			LabelValuePair choice =
+					((ChoicePrompt) prompt).getChoices().get(value);
+			if(choice != null) {
+				return choice.getLabel();
+			}
+		}
+		else if(value instanceof Number) {
+			return formatNumber(((Number) value).doubleValue());
+		}
+		return value.toString();
+	}
+
+	/**
+	 * Formats a number without a fraction if it is whole.
+	 */
+	private static String formatNumber(final double value) {
+		if((value == Math.rint(value)) && (! Double.isInfinite(value))) {
+			return Long.toString((long) value);
+		}
+		return new BigDecimal(value).round(new MathContext(3)).toPlainString();
+	}
+
+	/**
+	 * Returns when a survey response was taken in the time zone of the phone
+	 * that took it, as though that time were in UTC.
+	 */
+	private static long getLocalTime(final SurveyResponse surveyResponse) {
+		long time = surveyResponse.getTime();
+		return time + surveyResponse.getTimezone().getOffset(time);
+	}
+
+	/**
+	 * Parses a date from {@link SurveyResponseCount#getDate()} to midnight
+	 * of that date in UTC.
+	 */
+	private static long parseDate(final String date) {
+		return COUNT_DATE_FORMAT.parseMillis(date);
+	}
+
+	/**
+	 * Adds to the value of a key in a map.
+	 */
+	private static <K> void add(
+			final Map<K, Double> map,
+			final K key,
+			final double amount) {
+
+		Double current = map.get(key);
+		map.put(key, (current == null) ? amount : current + amount);
+	}
+
+	/**
+	 * Adds together the values of days in runs of some number of days,
+	 * starting with the first day.
+	 *
+	 * @param values The values keyed by the UTC midnight of their day.
+	 *
+	 * @param aggregate The number of days in each run or null to leave the
+	 * 					values as they are.
+	 *
+	 * @param dropEmpty Whether a run without a value is left out rather than
+	 * 					given a value of 0.
+	 *
+	 * @return The values keyed by the first day of each run.
+	 */
+	private static SortedMap<Long, Double> bucket(
+			final SortedMap<Long, Double> values,
+			final Integer aggregate,
+			final boolean dropEmpty) {
+
+		if(values.isEmpty() || (aggregate == null)) {
+			return values;
+		}
+
+		long width = Math.max(1, aggregate) * MILLIS_PER_DAY;
+		long first = values.firstKey();
+
+		SortedMap<Long, Double> result = new TreeMap<Long, Double>();
+		if(! dropEmpty) {
+			for(long day = first; day <= values.lastKey(); day += width) {
+				result.put(day, 0.0);
+			}
+		}
+		for(Map.Entry<Long, Double> value : values.entrySet()) {
+			add(
+					result,
+					first + ((value.getKey() - first) / width) * width,
+					value.getValue());
 		}
+		return result;
 	}
 }
@@ -0,0 +1,1061 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.util;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+/**
+ * <p>
+ * Draws simple charts as PNG images with Java2D. It runs headless, so it
+ * needs no display and no external process.
+ * </p>
+ *
+ * <p>
+ * Times are given in milliseconds and are drawn as though they were in UTC.
+ * Callers that want a time to appear as it was on the phone that recorded it
+ * must shift it by that phone's offset first.
+ * </p>
+ */
+public final class ChartRenderer {
+	static {
+		if(System.getProperty("java.awt.headless") == null) {
+			System.setProperty("java.awt.headless", "true");
+		}
+	}
+
+	/**
+	 * A named series of points for a time series chart.
+	 */
+	public static final class Series {
+		private final String name;
+		private final List<double[]> points = new ArrayList<double[]>();
+
+		/**
+		 * Creates an empty series.
+		 *
+		 * @param name The name of the series, which is shown in the legend.
+		 */
+		public Series(final String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Adds a point to the series.
+		 *
+		 * @param time The point's time in milliseconds.
+		 *
+		 * @param value The point's value.
+		 */
+		public void add(final long time, final double value) {
+			points.add(new double[] { time, value });
+		}
+
+		/**
+		 * Returns whether the series has no points.
+		 *
+		 * @return Whether the series has no points.
+		 */
+		public boolean isEmpty() {
+			return points.isEmpty();
+		}
+	}
+
+	private static final String IMAGE_FORMAT = "png";
+
+	private static final String NO_DATA = "No data";
+
+	private static final Color BACKGROUND = Color.WHITE;
+	private static final Color FOREGROUND = new Color(0x333333);
+	private static final Color GRID = new Color(0xE5E5E5);
+	private static final Color[] PALETTE = {
+		new Color(0x1F77B4),
+		new Color(0xFF7F0E),
+		new Color(0x2CA02C),
+		new Color(0xD62728),
+		new Color(0x9467BD),
+		new Color(0x8C564B),
+		new Color(0xE377C2),
+		new Color(0x7F7F7F)
+	};
+
+	private static final Font TITLE_FONT = new Font(Font.SANS_SERIF, Font.BOLD, 13);
+	private static final Font LABEL_FONT = new Font(Font.SANS_SERIF, Font.PLAIN, 11);
+
+	/**
+	 * The number of pixels between the edge of the image and the chart.
+	 */
+	private static final int PADDING = 8;
+
+	/**
+	 * The length of a tick mark in pixels.
+	 */
+	private static final int TICK_LENGTH = 4;
+
+	/**
+	 * The number of ticks to aim for on a value axis.
+	 */
+	private static final int TARGET_TICKS = 5;
+
+	/**
+	 * The radius of a point in pixels.
+	 */
+	private static final double POINT_RADIUS = 2.5;
+
+	/**
+	 * The width and height of a density cell in pixels.
+	 */
+	private static final int DENSITY_CELL_SIZE = 12;
+
+	private static final long MILLIS_PER_HOUR = 1000L * 60 * 60;
+	private static final long MILLIS_PER_DAY = MILLIS_PER_HOUR * 24;
+
+	private static final DateTimeFormatter DATE_FORMAT =
+		DateTimeFormat.forPattern("yyyy-MM-dd").withZone(DateTimeZone.UTC);
+	private static final DateTimeFormatter DATE_TIME_FORMAT =
+		DateTimeFormat.forPattern("MM-dd HH:mm").withZone(DateTimeZone.UTC);
+
+	/**
+	 * Formats the values on an axis.
+	 */
+	private static interface TickFormat {
+		/**
+		 * Formats a tick's value.
+		 *
+		 * @param value The value.
+		 *
+		 * @param step The distance between ticks.
+		 *
+		 * @return The tick's label.
+		 */
+		String format(double value, double step);
+	}
+
+	private static final TickFormat NUMBER_FORMAT = new TickFormat() {
+		@Override
+		public String format(final double value, final double step) {
+			if(step >= 1 && Math.abs(value) < Long.MAX_VALUE) {
+				return Long.toString(Math.round(value));
+			}
+			int decimals = (int) Math.ceil(-Math.log10(step));
+			return String.format("%." + decimals + "f", value);
+		}
+	};
+
+	private static final TickFormat TIME_FORMAT = new TickFormat() {
+		@Override
+		public String format(final double value, final double step) {
+			if(step >= MILLIS_PER_DAY) {
+				return DATE_FORMAT.print((long) value);
+			}
+			return DATE_TIME_FORMAT.print((long) value);
+		}
+	};
+
+	/**
+	 * The area in which the data are drawn and the ranges that map onto it.
+	 */
+	private static final class Plot {
+		private final Graphics2D graphics;
+		private final Rectangle2D area;
+		private final double xMin;
+		private final double xMax;
+		private final double yMin;
+		private final double yMax;
+
+		private Plot(
+				final Graphics2D graphics,
+				final Rectangle2D area,
+				final double xMin,
+				final double xMax,
+				final double yMin,
+				final double yMax) {
+
+			this.graphics = graphics;
+			this.area = area;
+			this.xMin = xMin;
+			this.xMax = xMax;
+			this.yMin = yMin;
+			this.yMax = yMax;
+		}
+
+		private double x(final double value) {
+			return
+				area.getMinX() +
+					(value - xMin) / (xMax - xMin) * area.getWidth();
+		}
+
+		private double y(final double value) {
+			return
+				area.getMaxY() -
+					(value - yMin) / (yMax - yMin) * area.getHeight();
+		}
+	}
+
+	/**
+	 * Default constructor. Made private so that it cannot be instantiated.
+	 */
+	private ChartRenderer() {}
+
+	/**
+	 * Draws a bar chart with one bar for each category.
+	 *
+	 * @param width The width of the image.
+	 *
+	 * @param height The height of the image.
+	 *
+	 * @param title The chart's title.
+	 *
+	 * @param xLabel The label of the category axis.
+	 *
+	 * @param yLabel The label of the value axis.
+	 *
+	 * @param categories The categories in the order they are drawn.
+	 *
+	 * @param values The value of each category.
+	 *
+	 * @return The chart as a PNG image.
+	 *
+	 * @throws IOException The image could not be encoded.
+	 */
+	public static byte[] renderBarChart(
+			final int width,
+			final int height,
+			final String title,
+			final String xLabel,
+			final String yLabel,
+			final List<String> categories,
+			final List<? extends Number> values)
+			throws IOException {
+
+		BufferedImage image = createImage(width, height);
+		Graphics2D graphics = image.createGraphics();
+		try {
+			if(categories.isEmpty()) {
+				drawNoData(graphics, image, title);
+				return encode(image);
+			}
+
+			double yMax = 0;
+			for(Number value : values) {
+				yMax = Math.max(yMax, value.doubleValue());
+			}
+			double yStep = niceStep(0, yMax);
+			yMax = Math.max(yStep, Math.ceil(yMax / yStep) * yStep);
+
+			Plot plot =
+				layout(
+					graphics,
+					image,
+					title,
+					xLabel,
+					yLabel,
+					0,
+					categories.size(),
+					0,
+					yMax,
+					NUMBER_FORMAT.format(yMax, yStep));
+			drawValueAxis(plot, yStep, NUMBER_FORMAT);
+
+			// Only label as many categories as fit side by side.
+			FontMetrics metrics = graphics.getFontMetrics(LABEL_FONT);
+			int labelWidth = 0;
+			for(String category : categories) {
+				labelWidth = Math.max(labelWidth, metrics.stringWidth(category));
+			}
+			double slot = plot.area.getWidth() / categories.size();
+			int labelEvery =
+				Math.max(1, (int) Math.ceil((labelWidth + PADDING) / slot));
+
+			graphics.setFont(LABEL_FONT);
+			for(int i = 0; i < categories.size(); i++) {
+				double value = values.get(i).doubleValue();
+				double left = plot.x(i) + slot * 0.15;
+				double top = plot.y(value);
+				graphics.setColor(PALETTE[0]);
+				graphics.fill(
+					new Rectangle2D.Double(
+						left,
+						top,
+						slot * 0.7,
+						plot.area.getMaxY() - top));
+
+				if(i % labelEvery == 0) {
+					graphics.setColor(FOREGROUND);
+					drawCentered(
+						graphics,
+						categories.get(i),
+						plot.x(i + 0.5),
+						plot.area.getMaxY() + TICK_LENGTH + metrics.getAscent());
+				}
+			}
+			drawFrame(plot);
+
+			return encode(image);
+		}
+		finally {
+			graphics.dispose();
+		}
+	}
+
+	/**
+	 * Draws a line for each series over time with a point at each value.
+	 *
+	 * @param width The width of the image.
+	 *
+	 * @param height The height of the image.
+	 *
+	 * @param title The chart's title.
+	 *
+	 * @param yLabel The label of the value axis.
+	 *
+	 * @param series The series. A legend is drawn if there is more than one.
+	 *
+	 * @return The chart as a PNG image.
+	 *
+	 * @throws IOException The image could not be encoded.
+	 */
+	public static byte[] renderTimeSeries(
+			final int width,
+			final int height,
+			final String title,
+			final String yLabel,
+			final Collection<Series> series)
+			throws IOException {
+
+		BufferedImage image = createImage(width, height);
+		Graphics2D graphics = image.createGraphics();
+		try {
+			double xMin = Double.POSITIVE_INFINITY;
+			double xMax = Double.NEGATIVE_INFINITY;
+			double yMin = Double.POSITIVE_INFINITY;
+			double yMax = Double.NEGATIVE_INFINITY;
+			for(Series current : series) {
+				for(double[] point : current.points) {
+					xMin = Math.min(xMin, point[0]);
+					xMax = Math.max(xMax, point[0]);
+					yMin = Math.min(yMin, point[1]);
+					yMax = Math.max(yMax, point[1]);
+				}
+			}
+			if(xMin > xMax) {
+				drawNoData(graphics, image, title);
+				return encode(image);
+			}
+
+			// A single time is shown as the day around it.
+			if(xMin == xMax) {
+				xMin -= MILLIS_PER_DAY / 2;
+				xMax += MILLIS_PER_DAY / 2;
+			}
+			double xStep = timeStep(xMin, xMax);
+			double yStep = niceStep(yMin, yMax);
+			yMin = Math.floor(yMin / yStep) * yStep;
+			yMax = Math.max(yMin + yStep, Math.ceil(yMax / yStep) * yStep);
+
+			Plot plot =
+				layout(
+					graphics,
+					image,
+					title,
+					null,
+					yLabel,
+					xMin,
+					xMax,
+					yMin,
+					yMax,
+					widestTick(yMin, yMax, yStep, NUMBER_FORMAT));
+			drawValueAxis(plot, yStep, NUMBER_FORMAT);
+			drawTimeAxis(plot, xStep);
+
+			graphics.setStroke(new BasicStroke(1.5f));
+			int index = 0;
+			for(Series current : series) {
+				List<double[]> points = new ArrayList<double[]>(current.points);
+				Collections.sort(points, new Comparator<double[]>() {
+					@Override
+					public int compare(final double[] a, final double[] b) {
+						return Double.compare(a[0], b[0]);
+					}
+				});
+
+				graphics.setColor(PALETTE[index++ % PALETTE.length]);
+				Path2D line = new Path2D.Double();
+				boolean first = true;
+				for(double[] point : points) {
+					double x = plot.x(point[0]);
+					double y = plot.y(point[1]);
+					if(first) {
+						line.moveTo(x, y);
+						first = false;
+					}
+					else {
+						line.lineTo(x, y);
+					}
+					graphics.fill(point(x, y));
+				}
+				graphics.draw(line);
+			}
+			drawFrame(plot);
+
+			if(series.size() > 1) {
+				drawLegend(plot, series);
+			}
+
+			return encode(image);
+		}
+		finally {
+			graphics.dispose();
+		}
+	}
+
+	/**
+	 * Draws a point for each pair of values.
+	 *
+	 * @param width The width of the image.
+	 *
+	 * @param height The height of the image.
+	 *
+	 * @param title The chart's title.
+	 *
+	 * @param xLabel The label of the horizontal axis.
+	 *
+	 * @param yLabel The label of the vertical axis.
+	 *
+	 * @param points The pairs of values, each an array of the horizontal
+	 * 				 followed by the vertical value.
+	 *
+	 * @return The chart as a PNG image.
+	 *
+	 * @throws IOException The image could not be encoded.
+	 */
+	public static byte[] renderScatterPlot(
+			final int width,
+			final int height,
+			final String title,
+			final String xLabel,
+			final String yLabel,
+			final List<double[]> points)
+			throws IOException {
+
+		BufferedImage image = createImage(width, height);
+		Graphics2D graphics = image.createGraphics();
+		try {
+			Plot plot =
+				layoutPoints(graphics, image, title, xLabel, yLabel, points);
+			if(plot == null) {
+				return encode(image);
+			}
+
+			// Overlapping points show up darker.
+			graphics.setColor(
+				new Color(
+					PALETTE[0].getRed(),
+					PALETTE[0].getGreen(),
+					PALETTE[0].getBlue(),
+					160));
+			for(double[] point : points) {
+				graphics.fill(point(plot.x(point[0]), plot.y(point[1])));
+			}
+			drawFrame(plot);
+
+			return encode(image);
+		}
+		finally {
+			graphics.dispose();
+		}
+	}
+
+	/**
+	 * Draws how densely pairs of values fall into each region of the plane
+	 * by counting them in a grid of cells and shading each cell by its
+	 * count.
+	 *
+	 * @param width The width of the image.
+	 *
+	 * @param height The height of the image.
+	 *
+	 * @param title The chart's title.
+	 *
+	 * @param xLabel The label of the horizontal axis.
+	 *
+	 * @param yLabel The label of the vertical axis.
+	 *
+	 * @param points The pairs of values, each an array of the horizontal
+	 * 				 followed by the vertical value.
+	 *
+	 * @return The chart as a PNG image.
+	 *
+	 * @throws IOException The image could not be encoded.
+	 */
+	public static byte[] renderDensityPlot(
+			final int width,
+			final int height,
+			final String title,
+			final String xLabel,
+			final String yLabel,
+			final List<double[]> points)
+			throws IOException {
+
+		BufferedImage image = createImage(width, height);
+		Graphics2D graphics = image.createGraphics();
+		try {
+			Plot plot =
+				layoutPoints(graphics, image, title, xLabel, yLabel, points);
+			if(plot == null) {
+				return encode(image);
+			}
+
+			int columns =
+				Math.max(1, (int) (plot.area.getWidth() / DENSITY_CELL_SIZE));
+			int rows =
+				Math.max(1, (int) (plot.area.getHeight() / DENSITY_CELL_SIZE));
+			int[][] counts = new int[columns][rows];
+			int maxCount = 0;
+			for(double[] point : points) {
+				int column =
+					Math.min(
+						columns - 1,
+						(int) ((plot.x(point[0]) - plot.area.getMinX()) /
+							plot.area.getWidth() * columns));
+				int row =
+					Math.min(
+						rows - 1,
+						(int) ((plot.area.getMaxY() - plot.y(point[1])) /
+							plot.area.getHeight() * rows));
+				maxCount = Math.max(maxCount, ++counts[column][row]);
+			}
+
+			double cellWidth = plot.area.getWidth() / columns;
+			double cellHeight = plot.area.getHeight() / rows;
+			for(int column = 0; column < columns; column++) {
+				for(int row = 0; row < rows; row++) {
+					if(counts[column][row] == 0) {
+						continue;
+					}
+					graphics.setColor(
+						shade(PALETTE[0], (double) counts[column][row] / maxCount));
+					graphics.fill(
+						new Rectangle2D.Double(
+							plot.area.getMinX() + column * cellWidth,
+							plot.area.getMaxY() - (row + 1) * cellHeight,
+							cellWidth,
+							cellHeight));
+				}
+			}
+			drawFrame(plot);
+
+			return encode(image);
+		}
+		finally {
+			graphics.dispose();
+		}
+	}
+
+	/**
+	 * Creates an image filled with the background color.
+	 */
+	private static BufferedImage createImage(final int width, final int height) {
+		BufferedImage image =
+			new BufferedImage(
+				Math.max(1, width),
+				Math.max(1, height),
+				BufferedImage.TYPE_INT_RGB);
+
+		Graphics2D graphics = image.createGraphics();
+		try {
+			graphics.setColor(BACKGROUND);
+			graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+		}
+		finally {
+			graphics.dispose();
+		}
+
+		return image;
+	}
+
+	/**
+	 * Encodes an image as a PNG.
+	 */
+	private static byte[] encode(final BufferedImage image) throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		if(! ImageIO.write(image, IMAGE_FORMAT, result)) {
+			throw new IOException("No writer is available for PNG images.");
+		}
+		return result.toByteArray();
+	}
+
+	/**
+	 * Draws the title and axis labels and works out the area that is left
+	 * for the data.
+	 *
+	 * @param widestTick The widest label on the value axis, which decides
+	 * 					 how much room it needs.
+	 */
+	private static Plot layout(
+			final Graphics2D graphics,
+			final BufferedImage image,
+			final String title,
+			final String xLabel,
+			final String yLabel,
+			final double xMin,
+			final double xMax,
+			final double yMin,
+			final double yMax,
+			final String widestTick) {
+
+		graphics.setRenderingHint(
+			RenderingHints.KEY_ANTIALIASING,
+			RenderingHints.VALUE_ANTIALIAS_ON);
+		graphics.setRenderingHint(
+			RenderingHints.KEY_TEXT_ANTIALIASING,
+			RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+
+		FontMetrics titleMetrics = graphics.getFontMetrics(TITLE_FONT);
+		FontMetrics labelMetrics = graphics.getFontMetrics(LABEL_FONT);
+		int lineHeight = labelMetrics.getHeight();
+
+		double top = PADDING;
+		if(title != null) {
+			graphics.setFont(TITLE_FONT);
+			graphics.setColor(FOREGROUND);
+			drawCentered(
+				graphics,
+				title,
+				image.getWidth() / 2.0,
+				top + titleMetrics.getAscent());
+			top += titleMetrics.getHeight() + PADDING;
+		}
+
+		double left =
+			PADDING + labelMetrics.stringWidth(widestTick) + TICK_LENGTH * 2;
+		if(yLabel != null) {
+			left += lineHeight;
+		}
+
+		double bottom =
+			image.getHeight() - PADDING - lineHeight - TICK_LENGTH;
+		if(xLabel != null) {
+			bottom -= lineHeight;
+		}
+
+		double right = image.getWidth() - PADDING * 2;
+
+		Rectangle2D area =
+			new Rectangle2D.Double(
+				left,
+				top,
+				Math.max(1, right - left),
+				Math.max(1, bottom - top));
+
+		graphics.setFont(LABEL_FONT);
+		graphics.setColor(FOREGROUND);
+		if(xLabel != null) {
+			drawCentered(
+				graphics,
+				xLabel,
+				area.getCenterX(),
+				image.getHeight() - PADDING - labelMetrics.getDescent());
+		}
+		if(yLabel != null) {
+			AffineTransform transform = graphics.getTransform();
+			graphics.translate(
+				PADDING + labelMetrics.getAscent(),
+				area.getCenterY());
+			graphics.rotate(-Math.PI / 2);
+			drawCentered(graphics, yLabel, 0, 0);
+			graphics.setTransform(transform);
+		}
+
+		return new Plot(graphics, area, xMin, xMax, yMin, yMax);
+	}
+
+	/**
+	 * Lays out a chart of pairs of values with a value axis on each side.
+	 *
+	 * @return The plot or null if there were no points, in which case that
+	 * 		   has been drawn instead.
+	 */
+	private static Plot layoutPoints(
+			final Graphics2D graphics,
+			final BufferedImage image,
+			final String title,
+			final String xLabel,
+			final String yLabel,
+			final List<double[]> points) {
+
+		if(points.isEmpty()) {
+			drawNoData(graphics, image, title);
+			return null;
+		}
+
+		double xMin = Double.POSITIVE_INFINITY;
+		double xMax = Double.NEGATIVE_INFINITY;
+		double yMin = Double.POSITIVE_INFINITY;
+		double yMax = Double.NEGATIVE_INFINITY;
+		for(double[] point : points) {
+			xMin = Math.min(xMin, point[0]);
+			xMax = Math.max(xMax, point[0]);
+			yMin = Math.min(yMin, point[1]);
+			yMax = Math.max(yMax, point[1]);
+		}
+		double xStep = niceStep(xMin, xMax);
+		xMin = Math.floor(xMin / xStep) * xStep;
+		xMax = Math.max(xMin + xStep, Math.ceil(xMax / xStep) * xStep);
+		double yStep = niceStep(yMin, yMax);
+		yMin = Math.floor(yMin / yStep) * yStep;
+		yMax = Math.max(yMin + yStep, Math.ceil(yMax / yStep) * yStep);
+
+		Plot plot =
+			layout(
+				graphics,
+				image,
+				title,
+				xLabel,
+				yLabel,
+				xMin,
+				xMax,
+				yMin,
+				yMax,
+				widestTick(yMin, yMax, yStep, NUMBER_FORMAT));
+		drawValueAxis(plot, yStep, NUMBER_FORMAT);
+		drawHorizontalAxis(plot, xStep, NUMBER_FORMAT);
+
+		return plot;
+	}
+
+	/**
+	 * Draws the ticks, labels, and grid lines of the vertical value axis.
+	 */
+	private static void drawValueAxis(
+			final Plot plot,
+			final double step,
+			final TickFormat format) {
+
+		Graphics2D graphics = plot.graphics;
+		FontMetrics metrics = graphics.getFontMetrics(LABEL_FONT);
+		graphics.setFont(LABEL_FONT);
+
+		for(double value : ticks(plot.yMin, plot.yMax, step)) {
+			double y = plot.y(value);
+			graphics.setColor(GRID);
+			graphics.draw(
+				new Line2D.Double(
+					plot.area.getMinX(),
+					y,
+					plot.area.getMaxX(),
+					y));
+
+			graphics.setColor(FOREGROUND);
+			graphics.draw(
+				new Line2D.Double(
+					plot.area.getMinX() - TICK_LENGTH,
+					y,
+					plot.area.getMinX(),
+					y));
+			String label = format.format(value, step);
+			graphics.drawString(
+				label,
+				(float) (plot.area.getMinX() -
+					TICK_LENGTH * 2 -
+					metrics.stringWidth(label)),
+				(float) (y + metrics.getAscent() / 2.0 - 1));
+		}
+	}
+
+	/**
+	 * Draws the ticks, labels, and grid lines of a horizontal axis.
+	 */
+	private static void drawHorizontalAxis(
+			final Plot plot,
+			final double step,
+			final TickFormat format) {
+
+		Graphics2D graphics = plot.graphics;
+		FontMetrics metrics = graphics.getFontMetrics(LABEL_FONT);
+		graphics.setFont(LABEL_FONT);
+
+		// Only label as many ticks as fit side by side.
+		List<Double> ticks = ticks(plot.xMin, plot.xMax, step);
+		int labelWidth = 0;
+		for(double value : ticks) {
+			labelWidth =
+				Math.max(labelWidth, metrics.stringWidth(format.format(value, step)));
+		}
+		double spacing = plot.area.getWidth() * step / (plot.xMax - plot.xMin);
+		int labelEvery =
+			Math.max(1, (int) Math.ceil((labelWidth + PADDING) / spacing));
+
+		int index = 0;
+		for(double value : ticks) {
+			double x = plot.x(value);
+			graphics.setColor(GRID);
+			graphics.draw(
+				new Line2D.Double(
+					x,
+					plot.area.getMinY(),
+					x,
+					plot.area.getMaxY()));
+
+			graphics.setColor(FOREGROUND);
+			graphics.draw(
+				new Line2D.Double(
+					x,
+					plot.area.getMaxY(),
+					x,
+					plot.area.getMaxY() + TICK_LENGTH));
+			if(index++ % labelEvery == 0) {
+				drawCentered(
+					graphics,
+					format.format(value, step),
+					x,
+					plot.area.getMaxY() + TICK_LENGTH + metrics.getAscent());
+			}
+		}
+	}
+
+	/**
+	 * Draws the horizontal time axis.
+	 */
+	private static void drawTimeAxis(final Plot plot, final double step) {
+		drawHorizontalAxis(plot, step, TIME_FORMAT);
+	}
+
+	/**
+	 * Draws the lines around the plot area.
+	 */
+	private static void drawFrame(final Plot plot) {
+		plot.graphics.setColor(FOREGROUND);
+		plot.graphics.setStroke(new BasicStroke(1));
+		plot.graphics.draw(
+			new Line2D.Double(
+				plot.area.getMinX(),
+				plot.area.getMinY(),
+				plot.area.getMinX(),
+				plot.area.getMaxY()));
+		plot.graphics.draw(
+			new Line2D.Double(
+				plot.area.getMinX(),
+				plot.area.getMaxY(),
+				plot.area.getMaxX(),
+				plot.area.getMaxY()));
+	}
+
+	/**
+	 * Draws the name of each series in its color in the top right corner of
+	 * the plot.
+	 */
+	private static void drawLegend(
+			final Plot plot,
+			final Collection<Series> series) {
+
+		Graphics2D graphics = plot.graphics;
+		FontMetrics metrics = graphics.getFontMetrics(LABEL_FONT);
+		graphics.setFont(LABEL_FONT);
+
+		int index = 0;
+		double y = plot.area.getMinY() + PADDING;
+		for(Series current : series) {
+			double x =
+				plot.area.getMaxX() -
+					PADDING -
+					metrics.stringWidth(current.name);
+
+			graphics.setColor(PALETTE[index++ % PALETTE.length]);
+			graphics.fill(
+				new Rectangle2D.Double(
+					x - metrics.getAscent() - 4,
+					y,
+					metrics.getAscent(),
+					metrics.getAscent()));
+			graphics.setColor(FOREGROUND);
+			graphics.drawString(
+				current.name,
+				(float) x,
+				(float) (y + metrics.getAscent() - 1));
+
+			y += metrics.getHeight();
+		}
+	}
+
+	/**
+	 * Draws the title and a message that there is nothing to show.
+	 */
+	private static void drawNoData(
+			final Graphics2D graphics,
+			final BufferedImage image,
+			final String title) {
+
+		Plot plot = layout(graphics, image, title, null, null, 0, 1, 0, 1, "");
+		graphics.setFont(LABEL_FONT);
+		graphics.setColor(FOREGROUND);
+		drawCentered(
+			graphics,
+			NO_DATA,
+			plot.area.getCenterX(),
+			plot.area.getCenterY());
+	}
+
+	/**
+	 * Draws a string centered horizontally on a point.
+	 */
+	private static void drawCentered(
+			final Graphics2D graphics,
+			final String text,
+			final double x,
+			final double baseline) {
+
+		int textWidth = graphics.getFontMetrics().stringWidth(text);
+		graphics.drawString(text, (float) (x - textWidth / 2.0), (float) baseline);
+	}
+
+	/**
+	 * Returns the shape of a point centered on some coordinates.
+	 */
+	private static Ellipse2D point(final double x, final double y) {
+		return
+			new Ellipse2D.Double(
+				x - POINT_RADIUS,
+				y - POINT_RADIUS,
+				POINT_RADIUS * 2,
+				POINT_RADIUS * 2);
+	}
+
+	/**
+	 * Blends a color with the background.
+	 *
+	 * @param intensity How much of the color to use, from 0 to 1.
+	 */
+	private static Color shade(final Color color, final double intensity) {
+		// Even the lightest cell must stand out from the background.
+		double amount = 0.15 + 0.85 * intensity;
+		return
+			new Color(
+				(int) (BACKGROUND.getRed() +
+					(color.getRed() - BACKGROUND.getRed()) * amount),
+				(int) (BACKGROUND.getGreen() +
+					(color.getGreen() - BACKGROUND.getGreen()) * amount),
+				(int) (BACKGROUND.getBlue() +
+					(color.getBlue() - BACKGROUND.getBlue()) * amount));
+	}
+
+	/**
+	 * Returns a round distance between ticks that divides a range into about
+	 * {@value #TARGET_TICKS} parts.
+	 */
+	private static double niceStep(final double min, final double max) {
+		double range = max - min;
+		if(range <= 0) {
+			range = (max == 0) ? 1 : Math.abs(max);
+		}
+
+		double rough = range / TARGET_TICKS;
+		double magnitude = Math.pow(10, Math.floor(Math.log10(rough)));
+		double residual = rough / magnitude;
+
+		double nice;
+		if(residual > 5) {
+			nice = 10;
+		}
+		else if(residual > 2) {
+			nice = 5;
+		}
+		else if(residual > 1) {
+			nice = 2;
+		}
+		else {
+			nice = 1;
+		}
+		return nice * magnitude;
+	}
+
+	/**
+	 * Returns a distance between ticks on a time axis, which is a whole
+	 * number of hours for short ranges and of days otherwise.
+	 */
+	private static double timeStep(final double min, final double max) {
+		double range = max - min;
+		if(range < MILLIS_PER_DAY * 2) {
+			return
+				Math.max(1, niceStep(0, range / MILLIS_PER_HOUR)) *
+					MILLIS_PER_HOUR;
+		}
+		return
+			Math.max(1, Math.round(niceStep(0, range / MILLIS_PER_DAY))) *
+				MILLIS_PER_DAY;
+	}
+
+	/**
+	 * Returns the multiples of a step within a range.
+	 */
+	private static List<Double> ticks(
+			final double min,
+			final double max,
+			final double step) {
+
+		List<Double> result = new ArrayList<Double>();
+		for(
+			double value = Math.ceil(min / step) * step;
+			value <= max + step * 1e-9;
+			value += step) {
+
+			result.add(value);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the widest label on a value axis.
+	 */
+	private static String widestTick(
+			final double min,
+			final double max,
+			final double step,
+			final TickFormat format) {
+
+		String result = "";
+		for(double value : ticks(min, max, step)) {
+			String label = format.format(value, step);
+			if(label.length() > result.length()) {
+				result = label;
+			}
+		}
+		return result;
+	}
+}
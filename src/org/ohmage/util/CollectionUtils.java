@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * This class contains utility functions for collections.
+ */
+public final class CollectionUtils {
+	/**
+	 * An iterator over one of the lists being merged along with its current
+	 * element.
+	 *
+	 * @param <T> The type of the elements.
+	 */
+	private static final class Cursor<T extends Comparable<? super T>>
+		implements Comparable<Cursor<T>> {
+
+		private final Iterator<T> iterator;
+		private final int index;
+		private T current;
+
+		/**
+		 * Creates a cursor positioned on the first element of a non-empty
+		 * list.
+		 *
+		 * @param list The list.
+		 *
+		 * @param index The position of the list among all of the lists, which
+		 * 				breaks ties so the merge is stable.
+		 */
+		private Cursor(final List<T> list, final int index) {
+			iterator = list.iterator();
+			this.index = index;
+			current = iterator.next();
+		}
+
+		/**
+		 * Moves to the next element.
+		 *
+		 * @return Whether or not there was another element.
+		 */
+		private boolean advance() {
+			if(iterator.hasNext()) {
+				current = iterator.next();
+				return true;
+			}
+			return false;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Comparable#compareTo(java.lang.Object)
+		 */
+		@Override
+		public int compareTo(final Cursor<T> other) {
+			int result = current.compareTo(other.current);
+			if(result == 0) {
+				return (index < other.index) ? -1 : ((index == other.index) ? 0 : 1);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Default constructor. Private so that no one can instantiate it.
+	 */
+	private CollectionUtils() {}
+
+	/**
+	 * Merges lists that are each already sorted into a single, sorted list.
+	 * This takes O(n log k) time for n elements in k lists, instead of the
+	 * O(n log n) of sorting their concatenation. Elements that compare as
+	 * equal keep the order of their lists. Any list that turns out not to be
+	 * sorted is sorted first, so the result is always sorted.
+	 *
+	 * @param lists The lists to merge. None of them are modified.
+	 *
+	 * @return A new list with all of the elements of all of the lists.
+	 */
+	public static <T extends Comparable<? super T>> List<T> mergeSorted(
+			final List<List<T>> lists) {
+
+		int size = 0;
+		PriorityQueue<Cursor<T>> cursors =
+			new PriorityQueue<Cursor<T>>(Math.max(1, lists.size()));
+		for(int i = 0; i < lists.size(); i++) {
+			List<T> list = lists.get(i);
+			if(list.isEmpty()) {
+				continue;
+			}
+
+			if(! isSorted(list)) {
+				list = new ArrayList<T>(list);
+				Collections.sort(list);
+			}
+
+			size += list.size();
+			cursors.add(new Cursor<T>(list, i));
+		}
+
+		List<T> result = new ArrayList<T>(size);
+		while(! cursors.isEmpty()) {
+			Cursor<T> cursor = cursors.poll();
+			result.add(cursor.current);
+			if(cursor.advance()) {
+				cursors.add(cursor);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns whether or not a list is in ascending order.
+	 *
+	 * @param list The list.
+	 *
+	 * @return Whether or not each element is no greater than the next.
+	 */
+	public static <T extends Comparable<? super T>> boolean isSorted(
+			final List<T> list) {
+
+		Iterator<T> iterator = list.iterator();
+		if(! iterator.hasNext()) {
+			return true;
+		}
+
+		T previous = iterator.next();
+		while(iterator.hasNext()) {
+			T next = iterator.next();
+			if(previous.compareTo(next) > 0) {
+				return false;
+			}
+			previous = next;
+		}
+		return true;
+	}
+}
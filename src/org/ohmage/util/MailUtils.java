@@ -192,32 +192,32 @@ public class MailUtils {
 	 * 							the mail server or sending the message.
 	 */
 	public static void sendMailMessage(Session smtpSession, Message message) throws ServiceException {
-
-		// If use Transport.send(), no need to save the message. 
-		// Otherwise, save the message before sending.  
-		try {
-			message.saveChanges();
-		}
-		catch(MessagingException e) {
-			throw new ServiceException(
-					"Could not save the changes to the message.",
-					e);
-		}
+		SMTPTransport transport = connect(smtpSession);
+		sendMailMessage(transport, message);
 		
-
-		// Get the transport from the session.
-		SMTPTransport transport;
 		try {
-			transport = 
-					(SMTPTransport) smtpSession.getTransport(MAIL_PROTOCOL);
+			transport.close();
 		}
-		catch(NoSuchProviderException e) {
+		catch(MessagingException e) {
 			throw new ServiceException(
-					"There is no provider for SMTP. " +
-						"This means the library has changed as it has built-in support for SMTP.",
+					"After sending the message there was an error closing the connection.",
 					e);
 		}
-
+	}
+	
+	/**
+	 * Connects to the mail server, authenticating if the preferences say to.
+	 * The connection may be used to send any number of messages and must be
+	 * closed by the caller.
+	 * 
+	 * @param smtpSession The session.
+	 * 
+	 * @return The connection.
+	 * 
+	 * @throws ServiceException There was a problem connecting to the mail
+	 * 							server.
+	 */
+	public static SMTPTransport connect(Session smtpSession) throws ServiceException {
 		Boolean auth = null;
 		try {
 			auth = StringUtils.decodeBoolean(
@@ -256,11 +256,54 @@ public class MailUtils {
 					e);
 			}
 			
+			return connect(smtpSession, mailUsername, mailPassword);
+		}
+		else {
+			return connect(smtpSession, null, null);
+		}
+	}
+	
+	/**
+	 * Connects to the mail server. The connection may be used to send any 
+	 * number of messages and must be closed by the caller.
+	 * 
+	 * @param smtpSession The session.
+	 * 
+	 * @param username The username with which to authenticate or null to not
+	 * 				   authenticate.
+	 * 
+	 * @param password The password with which to authenticate.
+	 * 
+	 * @return The connection.
+	 * 
+	 * @throws ServiceException There was a problem connecting to the mail
+	 * 							server.
+	 */
+	public static SMTPTransport connect(
+			Session smtpSession,
+			String username,
+			String password)
+			throws ServiceException {
+		
+		// Get the transport from the session.
+		SMTPTransport transport;
+		try {
+			transport = 
+					(SMTPTransport) smtpSession.getTransport(MAIL_PROTOCOL);
+		}
+		catch(NoSuchProviderException e) {
+			throw new ServiceException(
+					"There is no provider for SMTP. " +
+						"This means the library has changed as it has built-in support for SMTP.",
+					e);
+		}
+		
+		if(username != null) {
 			try {
 				transport.connect(
 						smtpSession.getProperty(MAIL_PROPERTY_HOST), 
-						mailUsername, 
-						mailPassword);
+						username, 
+						password);
 			}
 			catch(MessagingException e) {
 				throw new ServiceException(
@@ -279,6 +322,30 @@ public class MailUtils {
 			}
 		}
 		
+		return transport;
+	}
+	
+	/**
+	 * Sends a mail message over an existing connection.
+	 * 
+	 * @param transport The connection to the mail server.
+	 * 
+	 * @param message The message to be sent.
+	 * 
+	 * @throws ServiceException There was a problem sending the message.
+	 */
+	public static void sendMailMessage(SMTPTransport transport, Message message) throws ServiceException {
+
+		// If use Transport.send(), no need to save the message. 
+		// Otherwise, save the message before sending.  
+		try {
+			message.saveChanges();
+		}
+		catch(MessagingException e) {
+			throw new ServiceException(
+					"Could not save the changes to the message.",
+					e);
+		}
 
 		try {
 			transport.sendMessage(message, message.getAllRecipients());
@@ -293,15 +360,6 @@ public class MailUtils {
 					"There was a problem while sending the message.",
 					e);
 		}
-		
-		try {
-			transport.close();
-		}
-		catch(MessagingException e) {
-			throw new ServiceException(
-					"After sending the message there was an error closing the connection.",
-					e);
-		}
 	}
 
 }
@@ -15,6 +15,9 @@
  ******************************************************************************/
 package org.ohmage.validator;
 
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
@@ -27,6 +30,7 @@ import org.joda.time.DateTime;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.domain.campaign.Campaign.OutputFormat;
@@ -569,6 +573,65 @@ public final class CampaignValidators {
 					"The uploaded JSON was not a JSONArray: " + uploadValue, 
 					e);
 		}
+
+		return getSurveyResponses(surveyResponseJson);
+	}
+	
+	/**
+	 * Validates that a stream uploaded by a client, e.g. the JSON body of a
+	 * request, is a valid JSONArray of JSONObjects. The array is parsed 
+	 * directly from the stream as UTF-8 without first being buffered. It does
+	 * no validation of the individual survey responses.
+	 * 
+	 * @param uploadStream The stream uploaded by the client.
+	 * 
+	 * @return A list of the survey responses as JSONObjects or null if the 
+	 * 		   stream was null.
+	 * 
+	 * @throws ValidationException Thrown if the response was not valid JSON.
+	 */
+	public static List<JSONObject> validateUploadedJson(
+			final InputStream uploadStream) throws ValidationException {
+		LOGGER.info("Validating the uploaded JSON stream.");
+		
+		if(uploadStream == null) {
+			return null;
+		}
+		
+		JSONArray surveyResponseJson;
+		try {
+			surveyResponseJson =
+				new JSONArray(
+					new JSONTokener(
+						new InputStreamReader(uploadStream, "UTF-8")));
+		}
+		catch(UnsupportedEncodingException e) {
+			throw new ValidationException(
+					"The UTF-8 encoding is not supported.",
+					e);
+		}
+		catch(JSONException e) {
+			throw new ValidationException(
+					ErrorCode.SERVER_INVALID_JSON,
+					"The uploaded JSON was not a JSONArray.",
+					e);
+		}
+		
+		return getSurveyResponses(surveyResponseJson);
+	}
+	
+	/**
+	 * Converts an uploaded JSONArray into a list of its JSONObjects.
+	 * 
+	 * @param surveyResponseJson The uploaded array.
+	 * 
+	 * @return A list of the survey responses as JSONObjects.
+	 * 
+	 * @throws ValidationException Thrown if an element was not a JSONObject.
+	 */
+	private static List<JSONObject> getSurveyResponses(
+			final JSONArray surveyResponseJson) throws ValidationException {
+		
 		int numResponses = surveyResponseJson.length();
 
 		List<JSONObject> result = new ArrayList<JSONObject>(numResponses);
@@ -1,9 +1,12 @@
 package org.ohmage.validator;
 
+import java.util.HashSet;
+import java.util.Set;
 import java.util.UUID;
 
 import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.exception.ValidationException;
+import org.ohmage.request.InputKeys;
 import org.ohmage.util.StringUtils;
 
 /**
@@ -47,4 +50,37 @@ public final class MediaValidators {
 					"The media ID is not a valid ID: " + mediaId);
 		}
 	}
+	
+	/**
+	 * Validates that a list of media IDs are valid media IDs.
+	 * 
+	 * @param mediaIds The list of media IDs as a string.
+	 * 
+	 * @return Returns null if the list is null or whitespace only; 
+	 * 		   otherwise, the set of media IDs is returned.
+	 * 
+	 * @throws ValidationException Thrown if one or more of the IDs is not a
+	 * 							   valid media ID.
+	 */
+	public static Set<UUID> validateIds(
+			final String mediaIds) 
+			throws ValidationException {
+		
+		if(StringUtils.isEmptyOrWhitespaceOnly(mediaIds)) {
+			return null;
+		}
+		
+		String[] mediaIdsArray = mediaIds.split(InputKeys.LIST_ITEM_SEPARATOR);
+		Set<UUID> result = new HashSet<UUID>(mediaIdsArray.length);
+		
+		for(int i = 0; i < mediaIdsArray.length; i++) {
+			UUID currId = validateId(mediaIdsArray[i].trim());
+			
+			if(currId != null) {
+				result.add(currId);
+			}
+		}
+		
+		return result;
+	}
 }
@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.validator;
+
+import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.exception.ValidationException;
+import org.ohmage.util.StringUtils;
+
+/**
+ * This class contains the functionality for validating metrics values.
+ */
+public class MetricsValidators {
+	/**
+	 * The formats in which the metrics may be read.
+	 */
+	public static enum OutputFormat {
+		JSON,
+		PROMETHEUS;
+		
+		/**
+		 * This output format as a human-readable string.
+		 */
+		@Override
+		public String toString() {
+			return name().toLowerCase();
+		}
+	}
+	
+	/**
+	 * Default constructor. Private so that it cannot be instantiated.
+	 */
+	private MetricsValidators() {}
+	
+	/**
+	 * Validates that an output format is one of the known output formats.
+	 * 
+	 * @param outputFormat The output format to validate.
+	 * 
+	 * @return The output format or null if the value was null or whitespace
+	 * 		   only.
+	 * 
+	 * @throws ValidationException Thrown if the output format is unknown.
+	 */
+	public static OutputFormat validateOutputFormat(
+			final String outputFormat)
+			throws ValidationException {
+		
+		if(StringUtils.isEmptyOrWhitespaceOnly(outputFormat)) {
+			return null;
+		}
+		
+		try {
+			return OutputFormat.valueOf(outputFormat.trim().toUpperCase());
+		}
+		catch(IllegalArgumentException e) {
+			throw new ValidationException(
+					ErrorCode.METRICS_INVALID_OUTPUT_FORMAT, 
+					"The output format is unknown: " + outputFormat, 
+					e);
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package org.ohmage.validator;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -281,6 +282,40 @@ public class ObserverValidators {
 		}
 	}
 	
+	/**
+	 * Validates that the data is being streamed from some source, e.g. the 
+	 * JSON body of a request, and creates a parser for it. The data is parsed
+	 * as it is read from the stream, so it is never buffered in its entirety.
+	 * 
+	 * @param value The stream from which the data will be read.
+	 * 
+	 * @return A parser for the data or null if the stream was null.
+	 * 
+	 * @throws ValidationException The stream could not be read.
+	 */
+	public static final JsonParser validateData(
+			final InputStream value)
+			throws ValidationException {
+		
+		if(value == null) {
+			return null;
+		}
+		
+		try {
+			return (new MappingJsonFactory()).createJsonParser(value);
+		}
+		catch(JsonParseException e) {
+			throw
+				new ValidationException(
+					ErrorCode.OBSERVER_INVALID_STREAM_DATA,
+					"The data is not valid JSON.",
+					e);
+		}
+		catch(IOException e) {
+			throw new ValidationException("The data could not be read.", e);
+		}
+	}
+	
 	/**
 	 * Validates that a date is a valid date with or without time.
 	 * 
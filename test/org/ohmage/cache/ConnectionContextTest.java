@@ -0,0 +1,352 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.cache;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ohmage.exception.DataAccessException;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+/**
+ * Tests the rollback scope of a request's connection: a query's transaction
+ * only undoes its own work, the request's work is committed or rolled back
+ * as a whole, the work waiting for its commit runs only once it succeeds,
+ * and suspended work commits on its own connection.
+ */
+public class ConnectionContextTest extends TestCase {
+	/**
+	 * The connection calls that begin or end work.
+	 */
+	private static final List<String> RECORDED =
+		Arrays.asList(
+			"setSavepoint",
+			"releaseSavepoint",
+			"rollback",
+			"commit",
+			"close");
+
+	/**
+	 * A data source whose connections record the calls that begin or end
+	 * work.
+	 */
+	private static final class FakeDataSource implements InvocationHandler {
+		private final List<List<String>> connections =
+			Collections.synchronizedList(new ArrayList<List<String>>());
+		private volatile boolean failCommits = false;
+
+		@Override
+		public Object invoke(
+				final Object proxy,
+				final Method method,
+				final Object[] args) {
+
+			if("getConnection".equals(method.getName())) {
+				final List<String> calls = new ArrayList<String>();
+				connections.add(calls);
+				return
+					fake(Connection.class, new InvocationHandler() {
+						@Override
+						public Object invoke(
+								final Object proxy,
+								final Method method,
+								final Object[] args)
+								throws SQLException {
+
+							String name = method.getName();
+							if("commit".equals(name) && failCommits) {
+								throw new SQLException("Commit failed.");
+							}
+							if(RECORDED.contains(name)) {
+								if("rollback".equals(name) && (args != null)) {
+									calls.add("rollback(savepoint)");
+								}
+								else {
+									calls.add(name);
+								}
+							}
+
+							if("setSavepoint".equals(name)) {
+								return fake(Savepoint.class, null);
+							}
+							return defaultValue(method, proxy, args);
+						}
+					});
+			}
+			return defaultValue(method, proxy, args);
+		}
+	}
+
+	private static final FakeDataSource FAKE_DATA_SOURCE =
+		new FakeDataSource();
+	private static final DataSource DATA_SOURCE =
+		fake(DataSource.class, FAKE_DATA_SOURCE);
+
+	static {
+		// The data source is set once, as Spring does.
+		try {
+			Constructor<ConnectionContext> constructor =
+				ConnectionContext.class.getDeclaredConstructor(
+					DataSource.class);
+			constructor.setAccessible(true);
+			constructor.newInstance(DATA_SOURCE);
+		}
+		catch(Exception e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final PlatformTransactionManager transactionManager =
+		new DataSourceTransactionManager(DATA_SOURCE);
+
+	@Override
+	protected void setUp() {
+		FAKE_DATA_SOURCE.connections.clear();
+		FAKE_DATA_SOURCE.failCommits = false;
+		ConnectionContext.open(false);
+	}
+
+	@Override
+	protected void tearDown() {
+		ConnectionContext.close();
+	}
+
+	@Test
+	public void testQueryRollbackOnlyUndoesItsOwnWork()
+			throws DataAccessException {
+
+		// Work done earlier in the request, outside of any transaction.
+		DataSourceUtils.getConnection(DATA_SOURCE);
+
+		TransactionStatus status =
+			transactionManager.getTransaction(
+				new DefaultTransactionDefinition());
+		transactionManager.rollback(status);
+
+		ConnectionContext.commit();
+		ConnectionContext.close();
+
+		Assert.assertEquals(1, FAKE_DATA_SOURCE.connections.size());
+		Assert.assertEquals(
+			Arrays.asList(
+				"setSavepoint",
+				"rollback(savepoint)",
+				"commit",
+				"close"),
+			FAKE_DATA_SOURCE.connections.get(0));
+	}
+
+	@Test
+	public void testQueryCommitWaitsForTheRequest()
+			throws DataAccessException {
+
+		TransactionStatus status =
+			transactionManager.getTransaction(
+				new DefaultTransactionDefinition());
+		transactionManager.commit(status);
+
+		Assert.assertEquals(1, FAKE_DATA_SOURCE.connections.size());
+		Assert.assertEquals(
+			Arrays.asList("setSavepoint", "releaseSavepoint"),
+			FAKE_DATA_SOURCE.connections.get(0));
+
+		ConnectionContext.commit();
+		Assert.assertEquals(
+			Arrays.asList("setSavepoint", "releaseSavepoint", "commit"),
+			FAKE_DATA_SOURCE.connections.get(0));
+	}
+
+	@Test
+	public void testFailedRequestIsRolledBack() {
+		TransactionStatus status =
+			transactionManager.getTransaction(
+				new DefaultTransactionDefinition());
+		transactionManager.commit(status);
+
+		// The request fails before it commits.
+		ConnectionContext.close();
+
+		Assert.assertEquals(
+			Arrays.asList(
+				"setSavepoint",
+				"releaseSavepoint",
+				"rollback",
+				"close"),
+			FAKE_DATA_SOURCE.connections.get(0));
+	}
+
+	@Test
+	public void testWorkAfterCommitWaitsForTheCommit()
+			throws DataAccessException {
+
+		final List<Connection> ran = new ArrayList<Connection>();
+		Connection requestConnection =
+			DataSourceUtils.getConnection(DATA_SOURCE);
+
+		TransactionStatus status =
+			transactionManager.getTransaction(
+				new DefaultTransactionDefinition());
+		transactionManager.commit(status);
+		ConnectionContext.afterCommit(new Runnable() {
+			@Override
+			public void run() {
+				ran.add(DataSourceUtils.getConnection(DATA_SOURCE));
+			}
+		});
+		Assert.assertTrue(ran.isEmpty());
+
+		ConnectionContext.commit();
+
+		// The work ran on a connection of its own.
+		Assert.assertEquals(1, ran.size());
+		Assert.assertNotSame(requestConnection, ran.get(0));
+		Assert.assertEquals(2, FAKE_DATA_SOURCE.connections.size());
+	}
+
+	@Test
+	public void testFailedCommitDropsTheWorkAfterIt() {
+		final List<String> ran = new ArrayList<String>();
+
+		TransactionStatus status =
+			transactionManager.getTransaction(
+				new DefaultTransactionDefinition());
+		transactionManager.commit(status);
+		ConnectionContext.afterCommit(new Runnable() {
+			@Override
+			public void run() {
+				ran.add("ran");
+			}
+		});
+
+		FAKE_DATA_SOURCE.failCommits = true;
+		try {
+			ConnectionContext.commit();
+			Assert.fail("The failed commit was not reported.");
+		}
+		catch(DataAccessException e) {
+			// Expected.
+		}
+		ConnectionContext.close();
+
+		Assert.assertTrue(ran.isEmpty());
+		Assert.assertEquals(
+			Arrays.asList(
+				"setSavepoint",
+				"releaseSavepoint",
+				"rollback",
+				"close"),
+			FAKE_DATA_SOURCE.connections.get(0));
+	}
+
+	@Test
+	public void testSuspendedWorkCommitsOnItsOwn() {
+		DataSourceUtils.getConnection(DATA_SOURCE);
+
+		Object suspended = ConnectionContext.suspend();
+		try {
+			TransactionStatus status =
+				transactionManager.getTransaction(
+					new DefaultTransactionDefinition());
+			transactionManager.commit(status);
+		}
+		finally {
+			ConnectionContext.resume(suspended);
+		}
+
+		Assert.assertEquals(2, FAKE_DATA_SOURCE.connections.size());
+		Assert.assertEquals(
+			Collections.emptyList(),
+			FAKE_DATA_SOURCE.connections.get(0));
+		Assert.assertEquals(
+			Arrays.asList("commit", "close"),
+			FAKE_DATA_SOURCE.connections.get(1));
+
+		// The request's connection is bound again.
+		Assert.assertSame(
+			DataSourceUtils.getConnection(DATA_SOURCE),
+			DataSourceUtils.getConnection(DATA_SOURCE));
+		Assert.assertEquals(2, FAKE_DATA_SOURCE.connections.size());
+	}
+
+	/**
+	 * Creates an implementation of an interface from a handler, or one that
+	 * returns null, false, or 0 from every method if the handler is null.
+	 */
+	private static <T> T fake(
+			final Class<T> type,
+			final InvocationHandler handler) {
+
+		return type.cast(
+			Proxy.newProxyInstance(
+				ConnectionContextTest.class.getClassLoader(),
+				new Class<?>[] { type },
+				(handler != null) ? handler : new InvocationHandler() {
+					@Override
+					public Object invoke(
+							final Object proxy,
+							final Method method,
+							final Object[] args) {
+
+						return defaultValue(method, proxy, args);
+					}
+				}));
+	}
+
+	/**
+	 * Returns what an uninteresting method of a fake returns.
+	 */
+	private static Object defaultValue(
+			final Method method,
+			final Object proxy,
+			final Object[] args) {
+
+		String name = method.getName();
+		if("equals".equals(name)) {
+			return proxy == args[0];
+		}
+		else if("hashCode".equals(name)) {
+			return System.identityHashCode(proxy);
+		}
+
+		Class<?> returnType = method.getReturnType();
+		if(returnType.equals(boolean.class)) {
+			return false;
+		}
+		else if(returnType.equals(int.class)) {
+			return 0;
+		}
+		return null;
+	}
+}
@@ -102,6 +102,9 @@ public class Controller {
 			e.printStackTrace();
 			return;
 		}
+		finally {
+			api.close();
+		}
 		
 		long end = (new Date()).getTime();
 		
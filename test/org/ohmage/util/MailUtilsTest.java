@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import javax.mail.Message;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sun.mail.smtp.SMTPTransport;
+
+/**
+ * Tests sending mail against an in-process SMTP listener.
+ */
+public class MailUtilsTest extends TestCase {
+	/**
+	 * A minimal SMTP server that accepts every message and remembers the
+	 * subject of each one.
+	 */
+	private static final class FakeSmtpServer extends Thread {
+		private final ServerSocket serverSocket;
+		private final List<String> subjects =
+			Collections.synchronizedList(new ArrayList<String>());
+		private volatile int connections = 0;
+
+		/**
+		 * Creates the server on a free, local port.
+		 *
+		 * @throws IOException The port could not be opened.
+		 */
+		private FakeSmtpServer() throws IOException {
+			super("Fake SMTP Server");
+			setDaemon(true);
+			serverSocket = new ServerSocket(0, 50, InetAddress.getByName("localhost"));
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Thread#run()
+		 */
+		@Override
+		public void run() {
+			while(! serverSocket.isClosed()) {
+				try {
+					Socket socket = serverSocket.accept();
+					connections++;
+					try {
+						converse(socket);
+					}
+					finally {
+						socket.close();
+					}
+				}
+				catch(IOException e) {
+					// The server was closed.
+				}
+			}
+		}
+
+		/**
+		 * Speaks just enough SMTP to accept messages.
+		 *
+		 * @param socket The client's connection.
+		 *
+		 * @throws IOException The connection failed.
+		 */
+		private void converse(final Socket socket) throws IOException {
+			BufferedReader reader =
+				new BufferedReader(
+					new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+			Writer writer =
+				new OutputStreamWriter(socket.getOutputStream(), "US-ASCII");
+
+			reply(writer, "220 localhost ESMTP");
+			String line;
+			while((line = reader.readLine()) != null) {
+				String command = line.toUpperCase();
+				if(command.startsWith("EHLO") || command.startsWith("HELO")) {
+					reply(writer, "250 localhost");
+				}
+				else if(command.startsWith("DATA")) {
+					reply(writer, "354 End data with <CR><LF>.<CR><LF>");
+					while(! ".".equals(line = reader.readLine())) {
+						if(line.startsWith("Subject: ")) {
+							subjects.add(line.substring("Subject: ".length()));
+						}
+					}
+					reply(writer, "250 OK");
+				}
+				else if(command.startsWith("QUIT")) {
+					reply(writer, "221 Bye");
+					return;
+				}
+				else {
+					reply(writer, "250 OK");
+				}
+			}
+		}
+
+		/**
+		 * Sends a reply to the client.
+		 */
+		private static void reply(
+				final Writer writer,
+				final String reply)
+				throws IOException {
+
+			writer.write(reply + "\r\n");
+			writer.flush();
+		}
+	}
+
+	/**
+	 * Tests that one connection can be used to send multiple messages.
+	 */
+	@Test
+	public void testSendOverOneConnection() throws Exception {
+		FakeSmtpServer server = new FakeSmtpServer();
+		server.start();
+
+		try {
+			Properties properties = new Properties();
+			properties.put("mail.smtp.host", "localhost");
+			properties.put(
+				"mail.smtp.port",
+				Integer.toString(server.serverSocket.getLocalPort()));
+			Session session = Session.getInstance(properties);
+
+			SMTPTransport transport = MailUtils.connect(session, null, null);
+			try {
+				for(int i = 0; i < 3; i++) {
+					Message message = new MimeMessage(session);
+					message.setFrom(new InternetAddress("sender@example.com"));
+					message.setRecipient(
+						Message.RecipientType.TO,
+						new InternetAddress("recipient@example.com"));
+					message.setSubject("Message " + i);
+					message.setContent("Body " + i, "text/html");
+
+					MailUtils.sendMailMessage(transport, message);
+				}
+			}
+			finally {
+				transport.close();
+			}
+
+			Assert.assertEquals(1, server.connections);
+			Assert.assertEquals(3, server.subjects.size());
+			Assert.assertEquals("Message 0", server.subjects.get(0));
+			Assert.assertEquals("Message 2", server.subjects.get(2));
+		}
+		finally {
+			server.serverSocket.close();
+		}
+	}
+}
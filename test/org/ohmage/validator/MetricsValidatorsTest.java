@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohmage.validator;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ohmage.exception.ValidationException;
+import org.ohmage.test.ParameterSets;
+import org.ohmage.validator.MetricsValidators.OutputFormat;
+
+/**
+ * Tests the metrics validators.
+ */
+public class MetricsValidatorsTest extends TestCase {
+	/**
+	 * Tests the output format validator.
+	 */
+	@Test
+	public void testValidateOutputFormat() {
+		try {
+			for(String emptyValue : ParameterSets.getEmptyValues()) {
+				Assert.assertNull(MetricsValidators.validateOutputFormat(emptyValue));
+			}
+			
+			try {
+				MetricsValidators.validateOutputFormat("Invalid value.");
+				fail("The output format was an invalid value.");
+			}
+			catch(ValidationException e) {
+				// Passed.
+			}
+			
+			for(OutputFormat outputFormat : OutputFormat.values()) {
+				Assert.assertEquals(
+						outputFormat, 
+						MetricsValidators.validateOutputFormat(
+								outputFormat.toString()));
+				Assert.assertEquals(
+						outputFormat, 
+						MetricsValidators.validateOutputFormat(
+								" " + outputFormat.name() + " "));
+			}
+		}
+		catch(ValidationException e) {
+			fail("A validation exception was thrown: " + e.getMessage());
+		}
+	}
+}
@@ -513,6 +513,32 @@ public class SurveyResponseValidatorsTest extends TestCase {
 		}
 	}
 
+	/**
+	 * Tests the include annotations value validator.
+	 */
+	@Test
+	public void testValidateIncludeAnnotations() {
+		try {
+			for(String emptyValue : ParameterSets.getEmptyValues()) {
+				Assert.assertNull(SurveyResponseValidators.validateIncludeAnnotations(emptyValue));
+			}
+			
+			try {
+				SurveyResponseValidators.validateIncludeAnnotations("Invalid value.");
+				fail("The include annotations value was invalid.");
+			}
+			catch(ValidationException e) {
+				// Passed.
+			}
+			
+			Assert.assertEquals(true, SurveyResponseValidators.validateIncludeAnnotations("true"));
+			Assert.assertEquals(false, SurveyResponseValidators.validateIncludeAnnotations("false"));
+		}
+		catch(ValidationException e) {
+			fail("A validation exception was thrown: " + e.getMessage());
+		}
+	}
+
 	/**
 	 * Tests the pretty print value validator.
 	 */
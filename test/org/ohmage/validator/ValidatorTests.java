@@ -48,6 +48,7 @@ public class ValidatorTests {
 		//suite.addTestSuite(DateValidatorsTest.class);
 		suite.addTestSuite(DocumentValidatorsTest.class);
 		suite.addTestSuite(ImageValidatorsTest.class);
+		suite.addTestSuite(MetricsValidatorsTest.class);
 		suite.addTestSuite(MobilityValidatorsTest.class);
 		suite.addTestSuite(SurveyResponseValidatorsTest.class);
 		suite.addTestSuite(UserCampaignValidatorsTest.class);